@@ -148,6 +148,52 @@ public class FILETIME
         return ft;
     }
 
+    /**
+     * The difference between the FILETIME epoch (1601-01-01) and the
+     * java epoch (1970-01-01) in 100-nanosecond intervals
+     */
+    public static final long EPOCH_DIFFERENCE = 116444736000000000L;
+
+    /**
+     * Get the raw value of 100-nanosecond intervals since January 1, 1601
+     * @return the number of 100-nanosecond intervals
+     */
+    public long getTicks ()
+    {
+        return toTicks ( this.high, this.low );
+    }
+
+    public static long toTicks ( final int high, final int low )
+    {
+        return ( ( 0xFFFFFFFFL & high ) << 32 ) | ( 0xFFFFFFFFL & low );
+    }
+
+    /**
+     * Read the raw value directly from a FILETIME structure without
+     * creating a FILETIME instance
+     * @param struct the FILETIME structure
+     * @return the number of 100-nanosecond intervals
+     */
+    public static long ticksFromStruct ( final JIStruct struct )
+    {
+        return toTicks ( (Integer)struct.getMember ( 1 ), (Integer)struct.getMember ( 0 ) );
+    }
+
+    public static long ticksToEpochMillis ( final long ticks )
+    {
+        return ( ticks - EPOCH_DIFFERENCE ) / 10000L;
+    }
+
+    public static long ticksToEpochNanos ( final long ticks )
+    {
+        return ( ticks - EPOCH_DIFFERENCE ) * 100L;
+    }
+
+    public static long epochMillisToTicks ( final long millis )
+    {
+        return millis * 10000L + EPOCH_DIFFERENCE;
+    }
+
     public Calendar asCalendar ()
     {
         final Calendar c = Calendar.getInstance ();
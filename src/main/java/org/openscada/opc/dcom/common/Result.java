@@ -61,4 +61,14 @@ public class Result<T>
     {
         return this.errorCode != 0;
     }
+
+    /**
+     * Check if the error code is a failure HRESULT. Other than {@link #isFailed()}
+     * success codes like <code>OPC_S_CLAMP</code> are not reported as errors.
+     * @return <code>true</code> if the error code is negative
+     */
+    public boolean isError ()
+    {
+        return this.errorCode < 0;
+    }
 }
@@ -22,6 +22,7 @@ package org.openscada.opc.dcom.common.impl;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 
 import org.jinterop.dcom.common.JIException;
@@ -30,11 +31,14 @@ import org.jinterop.dcom.core.JIArray;
 import org.jinterop.dcom.core.JICallBuilder;
 import org.jinterop.dcom.core.JIFlags;
 import org.jinterop.dcom.core.JIString;
+import org.openscada.opc.dcom.common.metrics.Metrics;
 
 public class EnumString extends BaseCOMObject
 {
     public static final int DEFAULT_BATCH_SIZE = Integer.getInteger ( "openscada.dcom.enum-batch-size", 10 );
 
+    public static final int DEFAULT_MAX_BATCH_SIZE = Integer.getInteger ( "openscada.dcom.enum-max-batch-size", 1000 );
+
     public EnumString ( final IJIComObject enumStringObject ) throws IllegalArgumentException, UnknownHostException, JIException
     {
         super ( enumStringObject.queryInterface ( org.openscada.opc.dcom.common.Constants.IEnumString_IID ) );
@@ -57,6 +61,7 @@ public class EnumString extends BaseCOMObject
         callObject.addOutParamAsObject ( new JIArray ( new JIString ( JIFlags.FLAG_REPRESENTATION_STRING_LPWSTR ), null, 1, true, true ), JIFlags.FLAG_NULL );
         callObject.addOutParamAsType ( Integer.class, JIFlags.FLAG_NULL );
 
+        final long start = Metrics.start ();
         Object[] result = Helper.callRespectSFALSE ( getCOMObject (), callObject );
 
         //JIPointer[] resultData = (JIPointer[]) ( (JIArray) ( result[0] ) ).getArrayInstance ();
@@ -68,6 +73,17 @@ public class EnumString extends BaseCOMObject
             //list.add ( ( (JIString)resultData[i].getReferent () ).getString () );
             list.add ( resultData[i].getString () );
         }
+
+        if ( start != 0 )
+        {
+            // estimate the payload from the UTF-16 encoded strings
+            long bytes = 0;
+            for ( int i = 0; i < cnt; i++ )
+            {
+                bytes += 2L * ( resultData[i].getString ().length () + 1 );
+            }
+            Metrics.record ( "enum.next", null, start, cnt, bytes );
+        }
         return cnt;
     }
 
@@ -133,4 +149,21 @@ public class EnumString extends BaseCOMObject
         return asCollection ( DEFAULT_BATCH_SIZE );
     }
 
+    /**
+     * Get a lazy iterator over the enumeration, starting at the beginning
+     * @param initialBatchSize the number of strings requested with the first call
+     * @param maxBatchSize the maximum number of strings requested with one call
+     * @return the iterator
+     * @see EnumStringIterator
+     */
+    public Iterator<String> iterator ( final int initialBatchSize, final int maxBatchSize )
+    {
+        return new EnumStringIterator ( this, initialBatchSize, maxBatchSize );
+    }
+
+    public Iterator<String> iterator ()
+    {
+        return iterator ( DEFAULT_BATCH_SIZE, DEFAULT_MAX_BATCH_SIZE );
+    }
+
 }
@@ -0,0 +1,203 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.dcom.common.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.jinterop.dcom.common.JIException;
+
+/**
+ * A lazy iterator over an {@link EnumString}.
+ * <br/>
+ * Strings are fetched on demand. The number of strings requested per
+ * <code>IEnumString::Next</code> call starts at the initial batch size and is
+ * adapted after each call: it is doubled while calls complete faster than
+ * half the target round-trip time and halved when a call takes longer than
+ * the target. The batch size is further limited by the maximum batch size and
+ * by the maximum payload per call, estimated from the average string length
+ * seen so far.
+ * <br/>
+ * Since {@link Iterator} cannot throw checked exceptions a failed call is
+ * reported as {@link RuntimeException} with the {@link JIException} as cause.
+ */
+public class EnumStringIterator implements Iterator<String>
+{
+    /**
+     * The target duration of one call in milliseconds
+     */
+    public static final long DEFAULT_TARGET_TIME = Long.getLong ( "openscada.dcom.enum-target-time", 200 );
+
+    /**
+     * The maximum payload of one call in bytes
+     */
+    public static final int DEFAULT_MAX_PAYLOAD = Integer.getInteger ( "openscada.dcom.enum-max-payload", 512 * 1024 );
+
+    private final EnumString enumString;
+
+    private final int minBatchSize;
+
+    private final int maxBatchSize;
+
+    private int batchSize;
+
+    private long targetTime = DEFAULT_TARGET_TIME;
+
+    private int maxPayload = DEFAULT_MAX_PAYLOAD;
+
+    private final List<String> buffer = new ArrayList<String> ();
+
+    private int position = 0;
+
+    private boolean started = false;
+
+    private boolean complete = false;
+
+    private long calls = 0;
+
+    private long count = 0;
+
+    private long totalLength = 0;
+
+    public EnumStringIterator ( final EnumString enumString, final int initialBatchSize, final int maxBatchSize )
+    {
+        this.enumString = enumString;
+        this.minBatchSize = Math.max ( 1, initialBatchSize );
+        this.maxBatchSize = Math.max ( this.minBatchSize, maxBatchSize );
+        this.batchSize = this.minBatchSize;
+    }
+
+    public void setTargetTime ( final long targetTime )
+    {
+        this.targetTime = targetTime;
+    }
+
+    public void setMaxPayload ( final int maxPayload )
+    {
+        this.maxPayload = maxPayload;
+    }
+
+    /**
+     * Get the number of strings which will be requested with the next call
+     * @return the current batch size
+     */
+    public int getBatchSize ()
+    {
+        return this.batchSize;
+    }
+
+    /**
+     * Get the number of <code>Next</code> calls performed so far
+     * @return the number of calls
+     */
+    public long getCalls ()
+    {
+        return this.calls;
+    }
+
+    public boolean hasNext ()
+    {
+        while ( this.position >= this.buffer.size () )
+        {
+            if ( this.complete )
+            {
+                return false;
+            }
+            fetch ();
+        }
+        return true;
+    }
+
+    public String next ()
+    {
+        if ( !hasNext () )
+        {
+            throw new NoSuchElementException ();
+        }
+        return this.buffer.get ( this.position++ );
+    }
+
+    public void remove ()
+    {
+        throw new UnsupportedOperationException ();
+    }
+
+    private void fetch ()
+    {
+        this.buffer.clear ();
+        this.position = 0;
+
+        final int requested = this.batchSize;
+        final long start = System.currentTimeMillis ();
+        final int received;
+        try
+        {
+            if ( !this.started )
+            {
+                this.enumString.reset ();
+                this.started = true;
+            }
+            received = this.enumString.next ( this.buffer, requested );
+        }
+        catch ( final JIException e )
+        {
+            this.complete = true;
+            throw new RuntimeException ( "Failed to fetch next batch", e );
+        }
+        final long duration = System.currentTimeMillis () - start;
+
+        this.calls++;
+        this.count += received;
+        for ( final String s : this.buffer )
+        {
+            this.totalLength += s.length ();
+        }
+
+        if ( received < requested )
+        {
+            this.complete = true;
+            return;
+        }
+
+        adapt ( duration );
+    }
+
+    private void adapt ( final long duration )
+    {
+        int size = this.batchSize;
+        if ( duration > this.targetTime )
+        {
+            size = size / 2;
+        }
+        else if ( duration < this.targetTime / 2 )
+        {
+            size = size * 2;
+        }
+
+        // limit by payload, two bytes per character plus the pointer and length overhead
+        final long averageSize = 2 * this.totalLength / Math.max ( 1, this.count ) + 16;
+        final long payloadLimit = this.maxPayload / averageSize;
+
+        size = (int)Math.min ( size, payloadLimit );
+        this.batchSize = Math.max ( this.minBatchSize, Math.min ( this.maxBatchSize, size ) );
+    }
+}
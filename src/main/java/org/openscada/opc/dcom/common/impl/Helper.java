@@ -21,9 +21,13 @@ package org.openscada.opc.dcom.common.impl;
 
 import org.jinterop.dcom.common.JIException;
 import org.jinterop.dcom.core.IJIComObject;
+import org.jinterop.dcom.core.JIArray;
 import org.jinterop.dcom.core.JICallBuilder;
 import org.jinterop.dcom.core.JIFlags;
+import org.jinterop.dcom.core.JIPointer;
 import org.jinterop.dcom.core.JIVariant;
+import org.openscada.opc.dcom.common.Result;
+import org.openscada.opc.dcom.common.ResultSet;
 
 public class Helper
 {
@@ -68,4 +72,21 @@ public class Helper
         }
         return value;
     }
+
+    /**
+     * Build a result set from the input handles and the error code array returned by a call
+     * @param handles the handles passed to the call
+     * @param errors the pointer to the error code array returned by the call
+     * @return the result set of handle and error code
+     */
+    public static ResultSet<Integer> toResultSet ( final Integer[] handles, final JIPointer errors )
+    {
+        final Integer[] errorCodes = (Integer[]) ( (JIArray)errors.getReferent () ).getArrayInstance ();
+        final ResultSet<Integer> results = new ResultSet<Integer> ( handles.length );
+        for ( int i = 0; i < handles.length; i++ )
+        {
+            results.add ( new Result<Integer> ( handles[i], errorCodes[i] ) );
+        }
+        return results;
+    }
 }
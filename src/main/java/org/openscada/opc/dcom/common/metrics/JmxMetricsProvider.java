@@ -0,0 +1,136 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.dcom.common.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Metrics provider which keeps {@link OperationStatistics} and registers them
+ * with the platform MBean server as
+ * <code>org.openscada.opc:type=Operation,scope=&lt;scope&gt;,name=&lt;operation&gt;</code>
+ */
+public class JmxMetricsProvider implements MetricsProvider
+{
+    private static Logger logger = LoggerFactory.getLogger ( JmxMetricsProvider.class );
+
+    private static final String DOMAIN = "org.openscada.opc";
+
+    private final ConcurrentMap<String, ConcurrentMap<String, OperationStatistics>> scopes = new ConcurrentHashMap<String, ConcurrentMap<String, OperationStatistics>> ();
+
+    private final MBeanServer mbeanServer;
+
+    public JmxMetricsProvider ()
+    {
+        this ( ManagementFactory.getPlatformMBeanServer () );
+    }
+
+    public JmxMetricsProvider ( final MBeanServer mbeanServer )
+    {
+        this.mbeanServer = mbeanServer;
+    }
+
+    public OperationRecorder getRecorder ( final String operation, final String scope )
+    {
+        ConcurrentMap<String, OperationStatistics> operations = this.scopes.get ( scope );
+        if ( operations == null )
+        {
+            operations = new ConcurrentHashMap<String, OperationStatistics> ();
+            final ConcurrentMap<String, OperationStatistics> existing = this.scopes.putIfAbsent ( scope, operations );
+            if ( existing != null )
+            {
+                operations = existing;
+            }
+        }
+
+        OperationStatistics statistics = operations.get ( operation );
+        if ( statistics == null )
+        {
+            statistics = new OperationStatistics ();
+            final OperationStatistics existing = operations.putIfAbsent ( operation, statistics );
+            if ( existing != null )
+            {
+                return existing;
+            }
+            register ( operation, scope, statistics );
+        }
+        return statistics;
+    }
+
+    /**
+     * Get the statistics of a scope
+     * @param scope the scope
+     * @return the statistics by operation name
+     */
+    public Map<String, OperationStatistics> getStatistics ( final String scope )
+    {
+        return this.scopes.get ( scope );
+    }
+
+    private ObjectName makeName ( final String operation, final String scope ) throws Exception
+    {
+        return new ObjectName ( String.format ( "%s:type=Operation,scope=%s,name=%s", DOMAIN, ObjectName.quote ( scope ), ObjectName.quote ( operation ) ) );
+    }
+
+    private void register ( final String operation, final String scope, final OperationStatistics statistics )
+    {
+        try
+        {
+            this.mbeanServer.registerMBean ( statistics, makeName ( operation, scope ) );
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( String.format ( "Failed to register statistics of '%s' in '%s'", operation, scope ), e );
+        }
+    }
+
+    /**
+     * Remove all statistics of a scope, e.g. when a group was removed
+     * @param scope the scope to remove
+     */
+    public void removeScope ( final String scope )
+    {
+        final Map<String, OperationStatistics> operations = this.scopes.remove ( scope );
+        if ( operations == null )
+        {
+            return;
+        }
+
+        for ( final String operation : operations.keySet () )
+        {
+            try
+            {
+                this.mbeanServer.unregisterMBean ( makeName ( operation, scope ) );
+            }
+            catch ( final Exception e )
+            {
+                logger.debug ( "Failed to unregister statistics", e );
+            }
+        }
+    }
+}
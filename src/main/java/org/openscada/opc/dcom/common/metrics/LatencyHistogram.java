@@ -0,0 +1,149 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.dcom.common.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of latencies with logarithmic buckets.
+ * <br/>
+ * Each power of two is split into {@value #SUB_BUCKETS} linear sub buckets, so
+ * recorded values are accurate to 12.5% over the whole range of <code>long</code>
+ * while the histogram uses a fixed amount of memory.
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 3;
+
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKETS = ( 64 - SUB_BUCKET_BITS ) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray ( BUCKETS );
+
+    private final AtomicLong count = new AtomicLong ();
+
+    private final AtomicLong total = new AtomicLong ();
+
+    private final AtomicLong max = new AtomicLong ();
+
+    static int indexOf ( final long value )
+    {
+        if ( value < SUB_BUCKETS )
+        {
+            return (int)Math.max ( 0, value );
+        }
+        final int magnitude = 63 - Long.numberOfLeadingZeros ( value );
+        final int shift = magnitude - SUB_BUCKET_BITS;
+        return ( shift + 1 ) * SUB_BUCKETS + (int) ( ( value >>> shift ) & ( SUB_BUCKETS - 1 ) );
+    }
+
+    /**
+     * Get the highest value that falls into a bucket
+     * @param index the bucket index
+     * @return the highest value of the bucket
+     */
+    static long highestValueOf ( final int index )
+    {
+        if ( index < SUB_BUCKETS )
+        {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long lowest = (long) ( SUB_BUCKETS + index % SUB_BUCKETS ) << shift;
+        return lowest + ( 1L << shift ) - 1;
+    }
+
+    public void record ( final long value )
+    {
+        this.counts.incrementAndGet ( indexOf ( value ) );
+        this.count.incrementAndGet ();
+        this.total.addAndGet ( value );
+
+        long current;
+        while ( value > ( current = this.max.get () ) )
+        {
+            if ( this.max.compareAndSet ( current, value ) )
+            {
+                break;
+            }
+        }
+    }
+
+    public long getCount ()
+    {
+        return this.count.get ();
+    }
+
+    public long getMax ()
+    {
+        return this.max.get ();
+    }
+
+    public long getMean ()
+    {
+        final long count = this.count.get ();
+        return count == 0 ? 0 : this.total.get () / count;
+    }
+
+    /**
+     * Get the value below which the given percentage of the recorded values fall
+     * @param percentile the percentile, between 0 and 100
+     * @return the upper bound of the bucket containing the percentile, zero if nothing was recorded
+     */
+    public long getPercentile ( final double percentile )
+    {
+        long total = 0;
+        final long[] snapshot = new long[BUCKETS];
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            snapshot[i] = this.counts.get ( i );
+            total += snapshot[i];
+        }
+        if ( total == 0 )
+        {
+            return 0;
+        }
+
+        final long rank = Math.max ( 1, (long)Math.ceil ( total * Math.min ( 100.0, Math.max ( 0.0, percentile ) ) / 100.0 ) );
+        long seen = 0;
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            seen += snapshot[i];
+            if ( seen >= rank )
+            {
+                return Math.min ( highestValueOf ( i ), getMax () );
+            }
+        }
+        return getMax ();
+    }
+
+    public void reset ()
+    {
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            this.counts.set ( i, 0 );
+        }
+        this.count.set ( 0 );
+        this.total.set ( 0 );
+        this.max.set ( 0 );
+    }
+}
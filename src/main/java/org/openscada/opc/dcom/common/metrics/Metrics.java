@@ -0,0 +1,128 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.dcom.common.metrics;
+
+/**
+ * Entry point for instrumented code.
+ * <br/>
+ * Instrumented calls use {@link #start()} and {@link #record(String, String, long, int, long)}.
+ * While no provider is set both calls only read a volatile field.
+ * <br/>
+ * Setting the java property <q>openscada.opc.metrics</q> to <q>jmx</q> installs the
+ * {@link JmxMetricsProvider} on startup.
+ */
+public final class Metrics
+{
+    public static final String DEFAULT_SCOPE = "default";
+
+    private static volatile MetricsProvider provider = null;
+
+    static
+    {
+        if ( "jmx".equalsIgnoreCase ( System.getProperty ( "openscada.opc.metrics" ) ) )
+        {
+            provider = new JmxMetricsProvider ();
+        }
+    }
+
+    private Metrics ()
+    {
+    }
+
+    /**
+     * Set the metrics provider
+     * @param provider the provider or <code>null</code> to disable metrics
+     */
+    public static void setProvider ( final MetricsProvider provider )
+    {
+        Metrics.provider = provider;
+    }
+
+    public static MetricsProvider getProvider ()
+    {
+        return provider;
+    }
+
+    public static boolean isEnabled ()
+    {
+        return provider != null;
+    }
+
+    /**
+     * Start measuring a call
+     * @return the start time or zero if metrics are disabled
+     */
+    public static long start ()
+    {
+        return provider == null ? 0 : System.nanoTime ();
+    }
+
+    /**
+     * Record a call started with {@link #start()}
+     * @param operation the operation
+     * @param scope the scope, <code>null</code> for the default scope
+     * @param start the value returned by {@link #start()}
+     * @param items the number of items of the call
+     * @param bytes the estimated payload size or zero
+     */
+    public static void record ( final String operation, final String scope, final long start, final int items, final long bytes )
+    {
+        final MetricsProvider provider = Metrics.provider;
+        if ( provider == null || start == 0 )
+        {
+            return;
+        }
+
+        final long duration = System.nanoTime () - start;
+        provider.getRecorder ( operation, scope == null ? DEFAULT_SCOPE : scope ).record ( duration, items, bytes );
+    }
+
+    /**
+     * Record a call started with {@link #start()} which failed with an exception
+     * @param operation the operation
+     * @param scope the scope, <code>null</code> for the default scope
+     * @param start the value returned by {@link #start()}
+     * @param items the number of items of the call
+     */
+    public static void recordFailure ( final String operation, final String scope, final long start, final int items )
+    {
+        final MetricsProvider provider = Metrics.provider;
+        if ( provider == null || start == 0 )
+        {
+            return;
+        }
+
+        final long duration = System.nanoTime () - start;
+        provider.getRecorder ( operation, scope == null ? DEFAULT_SCOPE : scope ).recordFailure ( duration, items );
+    }
+
+    /**
+     * Drop all recorded statistics of a scope
+     * @param scope the scope to remove
+     */
+    public static void removeScope ( final String scope )
+    {
+        final MetricsProvider provider = Metrics.provider;
+        if ( provider != null && scope != null )
+        {
+            provider.removeScope ( scope );
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.dcom.common.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histogram and throughput counters of one operation
+ */
+public class OperationStatistics implements OperationRecorder, OperationStatisticsMBean
+{
+    private final LatencyHistogram histogram = new LatencyHistogram ();
+
+    private final AtomicLong items = new AtomicLong ();
+
+    private final AtomicLong bytes = new AtomicLong ();
+
+    private final AtomicLong failures = new AtomicLong ();
+
+    public void record ( final long durationNanos, final int items, final long bytes )
+    {
+        this.histogram.record ( durationNanos );
+        this.items.addAndGet ( items );
+        if ( bytes > 0 )
+        {
+            this.bytes.addAndGet ( bytes );
+        }
+    }
+
+    public void recordFailure ( final long durationNanos, final int items )
+    {
+        this.failures.incrementAndGet ();
+    }
+
+    public LatencyHistogram getHistogram ()
+    {
+        return this.histogram;
+    }
+
+    public long getCalls ()
+    {
+        return this.histogram.getCount ();
+    }
+
+    public long getItems ()
+    {
+        return this.items.get ();
+    }
+
+    public long getBytes ()
+    {
+        return this.bytes.get ();
+    }
+
+    public long getFailures ()
+    {
+        return this.failures.get ();
+    }
+
+    public long getMeanLatency ()
+    {
+        return this.histogram.getMean () / 1000;
+    }
+
+    public long getMaxLatency ()
+    {
+        return this.histogram.getMax () / 1000;
+    }
+
+    public long getLatency50 ()
+    {
+        return this.histogram.getPercentile ( 50.0 ) / 1000;
+    }
+
+    public long getLatency90 ()
+    {
+        return this.histogram.getPercentile ( 90.0 ) / 1000;
+    }
+
+    public long getLatency99 ()
+    {
+        return this.histogram.getPercentile ( 99.0 ) / 1000;
+    }
+
+    public long getLatency999 ()
+    {
+        return this.histogram.getPercentile ( 99.9 ) / 1000;
+    }
+
+    public void reset ()
+    {
+        this.histogram.reset ();
+        this.items.set ( 0 );
+        this.bytes.set ( 0 );
+        this.failures.set ( 0 );
+    }
+
+    @Override
+    public String toString ()
+    {
+        return String.format ( "Calls: %s, Failures: %s, Items: %s, Latency (us): mean %s, p50 %s, p99 %s, max %s", getCalls (), getFailures (), getItems (), getMeanLatency (), getLatency50 (), getLatency99 (), getMaxLatency () );
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.dcom.da;
+
+import java.util.List;
+
+/**
+ * The result of a single <code>IOPCBrowse::Browse</code> call
+ */
+public class BrowseResult
+{
+    private final String continuationPoint;
+
+    private final boolean moreElements;
+
+    private final List<OPCBROWSEELEMENT> elements;
+
+    public BrowseResult ( final String continuationPoint, final boolean moreElements, final List<OPCBROWSEELEMENT> elements )
+    {
+        this.continuationPoint = continuationPoint;
+        this.moreElements = moreElements;
+        this.elements = elements;
+    }
+
+    /**
+     * Get the continuation point for the next call
+     * @return the continuation point or <code>null</code> if the browse is complete
+     */
+    public String getContinuationPoint ()
+    {
+        return this.continuationPoint;
+    }
+
+    /**
+     * Check if the server has more elements matching the filter. The flag
+     * is only set by the server if it does not support continuation points.
+     * @return <code>true</code> if the server has more elements
+     */
+    public boolean isMoreElements ()
+    {
+        return this.moreElements;
+    }
+
+    public List<OPCBROWSEELEMENT> getElements ()
+    {
+        return this.elements;
+    }
+}
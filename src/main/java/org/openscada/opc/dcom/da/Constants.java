@@ -40,4 +40,10 @@ public interface Constants extends org.openscada.opc.dcom.common.Constants
     public static final String IOPCAsyncIO2_IID = "39C13A71-011E-11D0-9675-0020AFD8ADB3";
 
     public static final String IOPCSyncIO_IID = "39C13A52-011E-11D0-9675-0020AFD8ADB3";
+
+    public static final String IOPCGroupStateMgt2_IID = "8E368666-D72E-4F78-87ED-647611C61C9F";
+
+    public static final String IOPCItemDeadbandMgt_IID = "5946DA93-8B39-4EC8-AB3D-AA73DF5BC86F";
+
+    public static final String IOPCItemSamplingMgt_IID = "3E22D313-F08B-41A5-86C8-95E95CB49FFC";
 }
@@ -0,0 +1,35 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.dcom.da;
+
+import org.jinterop.dcom.core.JIVariant;
+
+/**
+ * A data callback that receives the data change arrays as they were
+ * unmarshalled instead of a result set of {@link ValueData}. Timestamps are passed
+ * as raw FILETIME values so that no calendar instance has to be created.
+ * <br/>
+ * If a callback implements this interface {@link #rawDataChange(int, int, int, int, int, Integer[], JIVariant[], Short[], long[], Integer[])}
+ * is called instead of {@link IOPCDataCallback#dataChange(int, int, int, int, org.openscada.opc.dcom.common.KeyedResultSet)}.
+ */
+public interface IOPCRawDataCallback extends IOPCDataCallback
+{
+    public void rawDataChange ( int transactionId, int serverGroupHandle, int masterQuality, int masterErrorCode, int count, Integer[] clientHandles, JIVariant[] values, Short[] qualities, long[] timestamps, Integer[] errors );
+}
@@ -0,0 +1,122 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.dcom.da;
+
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIFlags;
+import org.jinterop.dcom.core.JIPointer;
+import org.jinterop.dcom.core.JIString;
+import org.jinterop.dcom.core.JIStruct;
+
+public class OPCBROWSEELEMENT
+{
+    public static final int OPC_BROWSE_HASCHILDREN = 0x01;
+
+    public static final int OPC_BROWSE_ISITEM = 0x02;
+
+    private String _name = null;
+
+    private String _itemID = null;
+
+    private int _flags = 0;
+
+    private OPCITEMPROPERTIES _itemProperties = null;
+
+    public String getName ()
+    {
+        return this._name;
+    }
+
+    public void setName ( final String name )
+    {
+        this._name = name;
+    }
+
+    public String getItemID ()
+    {
+        return this._itemID;
+    }
+
+    public void setItemID ( final String itemID )
+    {
+        this._itemID = itemID;
+    }
+
+    public int getFlags ()
+    {
+        return this._flags;
+    }
+
+    public void setFlags ( final int flags )
+    {
+        this._flags = flags;
+    }
+
+    public boolean hasChildren ()
+    {
+        return ( this._flags & OPC_BROWSE_HASCHILDREN ) != 0;
+    }
+
+    public boolean isItem ()
+    {
+        return ( this._flags & OPC_BROWSE_ISITEM ) != 0;
+    }
+
+    public OPCITEMPROPERTIES getItemProperties ()
+    {
+        return this._itemProperties;
+    }
+
+    public void setItemProperties ( final OPCITEMPROPERTIES itemProperties )
+    {
+        this._itemProperties = itemProperties;
+    }
+
+    @Override
+    public String toString ()
+    {
+        return String.format ( "[%s - %s - %02x]", this._name, this._itemID, this._flags );
+    }
+
+    public static JIStruct getStruct () throws JIException
+    {
+        JIStruct struct = new JIStruct ();
+
+        struct.addMember ( new JIPointer ( new JIString ( JIFlags.FLAG_REPRESENTATION_STRING_LPWSTR ) ) ); // name
+        struct.addMember ( new JIPointer ( new JIString ( JIFlags.FLAG_REPRESENTATION_STRING_LPWSTR ) ) ); // item id
+        struct.addMember ( Integer.class ); // flags
+        struct.addMember ( Integer.class ); // reserved
+        struct.addMember ( OPCITEMPROPERTIES.getStruct () );
+
+        return struct;
+    }
+
+    public static OPCBROWSEELEMENT fromStruct ( final JIStruct struct )
+    {
+        OPCBROWSEELEMENT element = new OPCBROWSEELEMENT ();
+
+        element.setName ( OPCITEMPROPERTY.getString ( (JIPointer)struct.getMember ( 0 ) ) );
+        element.setItemID ( OPCITEMPROPERTY.getString ( (JIPointer)struct.getMember ( 1 ) ) );
+        element.setFlags ( (Integer)struct.getMember ( 2 ) );
+        element.setItemProperties ( OPCITEMPROPERTIES.fromStruct ( (JIStruct)struct.getMember ( 4 ) ) );
+
+        return element;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.dcom.da;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIArray;
+import org.jinterop.dcom.core.JIPointer;
+import org.jinterop.dcom.core.JIStruct;
+
+public class OPCITEMPROPERTIES
+{
+    private int _errorCode = 0;
+
+    private List<OPCITEMPROPERTY> _properties = Collections.emptyList ();
+
+    public int getErrorCode ()
+    {
+        return this._errorCode;
+    }
+
+    public void setErrorCode ( final int errorCode )
+    {
+        this._errorCode = errorCode;
+    }
+
+    public List<OPCITEMPROPERTY> getProperties ()
+    {
+        return this._properties;
+    }
+
+    public void setProperties ( final List<OPCITEMPROPERTY> properties )
+    {
+        this._properties = properties;
+    }
+
+    public static JIStruct getStruct () throws JIException
+    {
+        JIStruct struct = new JIStruct ();
+
+        struct.addMember ( Integer.class ); // error
+        struct.addMember ( Integer.class ); // number of properties
+        struct.addMember ( new JIPointer ( new JIArray ( OPCITEMPROPERTY.getStruct (), null, 1, true ) ) ); // properties
+        struct.addMember ( Integer.class ); // reserved
+
+        return struct;
+    }
+
+    public static OPCITEMPROPERTIES fromStruct ( final JIStruct struct )
+    {
+        OPCITEMPROPERTIES properties = new OPCITEMPROPERTIES ();
+
+        properties.setErrorCode ( (Integer)struct.getMember ( 0 ) );
+
+        int count = (Integer)struct.getMember ( 1 );
+        JIPointer pointer = (JIPointer)struct.getMember ( 2 );
+        if ( count > 0 && pointer != null && !pointer.isNull () )
+        {
+            JIStruct[] structs = (JIStruct[]) ( (JIArray)pointer.getReferent () ).getArrayInstance ();
+            List<OPCITEMPROPERTY> list = new ArrayList<OPCITEMPROPERTY> ( count );
+            for ( int i = 0; i < count; i++ )
+            {
+                list.add ( OPCITEMPROPERTY.fromStruct ( structs[i] ) );
+            }
+            properties.setProperties ( list );
+        }
+
+        return properties;
+    }
+}
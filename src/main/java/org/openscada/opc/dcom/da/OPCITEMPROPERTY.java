@@ -0,0 +1,141 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.dcom.da;
+
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIFlags;
+import org.jinterop.dcom.core.JIPointer;
+import org.jinterop.dcom.core.JIString;
+import org.jinterop.dcom.core.JIStruct;
+import org.jinterop.dcom.core.JIVariant;
+
+public class OPCITEMPROPERTY
+{
+    private short _dataType = 0;
+
+    private int _propertyID = 0;
+
+    private String _itemID = null;
+
+    private String _description = null;
+
+    private JIVariant _value = null;
+
+    private int _errorCode = 0;
+
+    public short getDataType ()
+    {
+        return this._dataType;
+    }
+
+    public void setDataType ( final short dataType )
+    {
+        this._dataType = dataType;
+    }
+
+    public int getPropertyID ()
+    {
+        return this._propertyID;
+    }
+
+    public void setPropertyID ( final int propertyID )
+    {
+        this._propertyID = propertyID;
+    }
+
+    public String getItemID ()
+    {
+        return this._itemID;
+    }
+
+    public void setItemID ( final String itemID )
+    {
+        this._itemID = itemID;
+    }
+
+    public String getDescription ()
+    {
+        return this._description;
+    }
+
+    public void setDescription ( final String description )
+    {
+        this._description = description;
+    }
+
+    public JIVariant getValue ()
+    {
+        return this._value;
+    }
+
+    public void setValue ( final JIVariant value )
+    {
+        this._value = value;
+    }
+
+    public int getErrorCode ()
+    {
+        return this._errorCode;
+    }
+
+    public void setErrorCode ( final int errorCode )
+    {
+        this._errorCode = errorCode;
+    }
+
+    public static JIStruct getStruct () throws JIException
+    {
+        JIStruct struct = new JIStruct ();
+
+        struct.addMember ( Short.class ); // data type
+        struct.addMember ( Short.class ); // reserved
+        struct.addMember ( Integer.class ); // property id
+        struct.addMember ( new JIPointer ( new JIString ( JIFlags.FLAG_REPRESENTATION_STRING_LPWSTR ) ) ); // item id
+        struct.addMember ( new JIPointer ( new JIString ( JIFlags.FLAG_REPRESENTATION_STRING_LPWSTR ) ) ); // description
+        struct.addMember ( JIVariant.class ); // value
+        struct.addMember ( Integer.class ); // error
+        struct.addMember ( Integer.class ); // reserved
+
+        return struct;
+    }
+
+    public static OPCITEMPROPERTY fromStruct ( final JIStruct struct )
+    {
+        OPCITEMPROPERTY property = new OPCITEMPROPERTY ();
+
+        property.setDataType ( (Short)struct.getMember ( 0 ) );
+        property.setPropertyID ( (Integer)struct.getMember ( 2 ) );
+        property.setItemID ( getString ( (JIPointer)struct.getMember ( 3 ) ) );
+        property.setDescription ( getString ( (JIPointer)struct.getMember ( 4 ) ) );
+        property.setValue ( (JIVariant)struct.getMember ( 5 ) );
+        property.setErrorCode ( (Integer)struct.getMember ( 6 ) );
+
+        return property;
+    }
+
+    static String getString ( final JIPointer pointer )
+    {
+        if ( pointer == null || pointer.isNull () )
+        {
+            return null;
+        }
+        return ( (JIString)pointer.getReferent () ).getString ();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.dcom.da;
+
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIStruct;
+import org.jinterop.dcom.core.JIVariant;
+import org.openscada.opc.dcom.common.FILETIME;
+
+/**
+ * Value, quality and timestamp of an item write using <code>IOPCItemIO::WriteVQE</code>.
+ * <br/>
+ * Quality and timestamp are optional and only sent if they are not <code>null</code>.
+ */
+public class OPCITEMVQT
+{
+    private JIVariant value = null;
+
+    private Short quality = null;
+
+    private FILETIME timestamp = null;
+
+    public OPCITEMVQT ()
+    {
+    }
+
+    public OPCITEMVQT ( final JIVariant value, final Short quality, final FILETIME timestamp )
+    {
+        this.value = value;
+        this.quality = quality;
+        this.timestamp = timestamp;
+    }
+
+    public JIVariant getValue ()
+    {
+        return this.value;
+    }
+
+    public void setValue ( final JIVariant value )
+    {
+        this.value = value;
+    }
+
+    public Short getQuality ()
+    {
+        return this.quality;
+    }
+
+    public void setQuality ( final Short quality )
+    {
+        this.quality = quality;
+    }
+
+    public FILETIME getTimestamp ()
+    {
+        return this.timestamp;
+    }
+
+    public void setTimestamp ( final FILETIME timestamp )
+    {
+        this.timestamp = timestamp;
+    }
+
+    public JIStruct toStruct () throws JIException
+    {
+        final JIStruct struct = new JIStruct ();
+
+        struct.addMember ( this.value );
+        struct.addMember ( Integer.valueOf ( this.quality != null ? 1 : 0 ) ); // quality specified
+        struct.addMember ( Short.valueOf ( this.quality != null ? this.quality : 0 ) );
+        struct.addMember ( Short.valueOf ( (short)0 ) ); // reserved
+        struct.addMember ( Integer.valueOf ( this.timestamp != null ? 1 : 0 ) ); // timestamp specified
+        struct.addMember ( Integer.valueOf ( 0 ) ); // reserved
+        struct.addMember ( this.timestamp != null ? this.timestamp.toStruct () : new FILETIME ().toStruct () );
+
+        return struct;
+    }
+}
@@ -29,11 +29,15 @@ import org.jinterop.dcom.core.JIArray;
 import org.jinterop.dcom.core.JICallBuilder;
 import org.jinterop.dcom.core.JIFlags;
 import org.jinterop.dcom.core.JIPointer;
+import org.jinterop.dcom.core.JIVariant;
 import org.openscada.opc.dcom.common.Result;
 import org.openscada.opc.dcom.common.ResultSet;
+import org.openscada.opc.dcom.common.impl.Helper;
 import org.openscada.opc.dcom.common.impl.BaseCOMObject;
+import org.openscada.opc.dcom.common.metrics.Metrics;
 import org.openscada.opc.dcom.da.Constants;
 import org.openscada.opc.dcom.da.OPCDATASOURCE;
+import org.openscada.opc.dcom.da.WriteRequest;
 
 public class OPCAsyncIO2 extends BaseCOMObject
 {
@@ -68,11 +72,28 @@ public class OPCAsyncIO2 extends BaseCOMObject
         }
     }
 
+
+    private String metricsScope = Metrics.DEFAULT_SCOPE;
+
     public OPCAsyncIO2 ( final IJIComObject opcAsyncIO2 ) throws IllegalArgumentException, UnknownHostException, JIException
     {
         super ( opcAsyncIO2.queryInterface ( Constants.IOPCAsyncIO2_IID ) );
     }
 
+    /**
+     * Set the scope under which the calls of this object are recorded
+     * @param metricsScope the scope
+     */
+    public void setMetricsScope ( final String metricsScope )
+    {
+        this.metricsScope = metricsScope;
+    }
+
+    public String getMetricsScope ()
+    {
+        return this.metricsScope;
+    }
+
     public void setEnable ( final boolean state ) throws JIException
     {
         final JICallBuilder callObject = new JICallBuilder ( true );
@@ -92,7 +113,9 @@ public class OPCAsyncIO2 extends BaseCOMObject
         callObject.addInParamAsInt ( transactionID, JIFlags.FLAG_NULL );
         callObject.addOutParamAsType ( Integer.class, JIFlags.FLAG_NULL );
 
+        final long start = Metrics.start ();
         final Object result[] = getCOMObject ().call ( callObject );
+        Metrics.record ( "asyncio2.refresh", this.metricsScope, start, 0, 0 );
 
         return (Integer)result[0];
     }
@@ -124,7 +147,52 @@ public class OPCAsyncIO2 extends BaseCOMObject
         callObject.addOutParamAsType ( Integer.class, JIFlags.FLAG_NULL );
         callObject.addOutParamAsObject ( new JIPointer ( new JIArray ( Integer.class, null, 1, true ) ), JIFlags.FLAG_NULL );
 
-        final Object[] result = getCOMObject ().call ( callObject );
+        final long start = Metrics.start ();
+        final Object[] result = Helper.callRespectSFALSE ( getCOMObject (), callObject );
+        Metrics.record ( "asyncio2.read", this.metricsScope, start, serverHandles.length, 0 );
+
+        final Integer cancelId = (Integer)result[0];
+        final Integer[] errorCodes = (Integer[]) ( (JIArray) ( (JIPointer)result[1] ).getReferent () ).getArrayInstance ();
+
+        final ResultSet<Integer> resultSet = new ResultSet<Integer> ();
+
+        for ( int i = 0; i < serverHandles.length; i++ )
+        {
+            resultSet.add ( new Result<Integer> ( serverHandles[i], errorCodes[i] ) );
+        }
+
+        return new AsyncResult ( resultSet, cancelId );
+    }
+
+    public AsyncResult write ( final int transactionId, final WriteRequest... requests ) throws JIException
+    {
+        if ( requests == null || requests.length == 0 )
+        {
+            return new AsyncResult ();
+        }
+
+        final Integer[] serverHandles = new Integer[requests.length];
+        final JIVariant[] values = new JIVariant[requests.length];
+        for ( int i = 0; i < requests.length; i++ )
+        {
+            serverHandles[i] = requests[i].getServerHandle ();
+            values[i] = Helper.fixVariant ( requests[i].getValue () );
+        }
+
+        final JICallBuilder callObject = new JICallBuilder ( true );
+        callObject.setOpnum ( 1 );
+
+        callObject.addInParamAsInt ( requests.length, JIFlags.FLAG_NULL );
+        callObject.addInParamAsArray ( new JIArray ( serverHandles, true ), JIFlags.FLAG_NULL );
+        callObject.addInParamAsArray ( new JIArray ( values, true ), JIFlags.FLAG_NULL );
+        callObject.addInParamAsInt ( transactionId, JIFlags.FLAG_NULL );
+
+        callObject.addOutParamAsType ( Integer.class, JIFlags.FLAG_NULL );
+        callObject.addOutParamAsObject ( new JIPointer ( new JIArray ( Integer.class, null, 1, true ) ), JIFlags.FLAG_NULL );
+
+        final long start = Metrics.start ();
+        final Object[] result = Helper.callRespectSFALSE ( getCOMObject (), callObject );
+        Metrics.record ( "asyncio2.write", this.metricsScope, start, requests.length, 0 );
 
         final Integer cancelId = (Integer)result[0];
         final Integer[] errorCodes = (Integer[]) ( (JIArray) ( (JIPointer)result[1] ).getReferent () ).getArrayInstance ();
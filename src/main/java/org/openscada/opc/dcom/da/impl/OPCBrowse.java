@@ -20,16 +20,160 @@
 package org.openscada.opc.dcom.da.impl;
 
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import org.jinterop.dcom.common.JIException;
 import org.jinterop.dcom.core.IJIComObject;
+import org.jinterop.dcom.core.JIArray;
+import org.jinterop.dcom.core.JICallBuilder;
+import org.jinterop.dcom.core.JIFlags;
+import org.jinterop.dcom.core.JIPointer;
+import org.jinterop.dcom.core.JIString;
+import org.jinterop.dcom.core.JIStruct;
+import org.openscada.opc.dcom.common.KeyedResult;
+import org.openscada.opc.dcom.common.KeyedResultSet;
 import org.openscada.opc.dcom.common.impl.BaseCOMObject;
+import org.openscada.opc.dcom.common.impl.Helper;
+import org.openscada.opc.dcom.da.BrowseResult;
 import org.openscada.opc.dcom.da.Constants;
+import org.openscada.opc.dcom.da.OPCBROWSEELEMENT;
+import org.openscada.opc.dcom.da.OPCBROWSEFILTER;
+import org.openscada.opc.dcom.da.OPCITEMPROPERTIES;
 
+/**
+ * The OPC DA 3.0 <code>IOPCBrowse</code> interface
+ */
 public class OPCBrowse extends BaseCOMObject
 {
     public OPCBrowse ( final IJIComObject opcServer ) throws IllegalArgumentException, UnknownHostException, JIException
     {
         super ( opcServer.queryInterface ( Constants.IOPCBrowse_IID ) );
     }
+
+    /**
+     * Get the properties of several items
+     * @param itemIDs the items
+     * @param returnPropertyValues <code>true</code> if the values of the properties should be returned
+     * @param propertyIDs the properties to return, if none are specified all properties are returned
+     * @return the result set of item id and properties, in the order of the item ids
+     * @throws JIException
+     */
+    public KeyedResultSet<String, OPCITEMPROPERTIES> getProperties ( final String[] itemIDs, final boolean returnPropertyValues, final int... propertyIDs ) throws JIException
+    {
+        if ( itemIDs.length == 0 )
+        {
+            return new KeyedResultSet<String, OPCITEMPROPERTIES> ();
+        }
+
+        JICallBuilder callObject = new JICallBuilder ( true );
+        callObject.setOpnum ( 0 );
+
+        JIString ids[] = new JIString[itemIDs.length];
+        for ( int i = 0; i < itemIDs.length; i++ )
+        {
+            ids[i] = new JIString ( itemIDs[i], JIFlags.FLAG_REPRESENTATION_STRING_LPWSTR );
+        }
+
+        callObject.addInParamAsInt ( itemIDs.length, JIFlags.FLAG_NULL );
+        callObject.addInParamAsArray ( new JIArray ( ids, true ), JIFlags.FLAG_NULL );
+        callObject.addInParamAsInt ( returnPropertyValues ? 1 : 0, JIFlags.FLAG_NULL );
+        callObject.addInParamAsInt ( propertyIDs.length, JIFlags.FLAG_NULL );
+        callObject.addInParamAsArray ( new JIArray ( toIntegers ( propertyIDs ), true ), JIFlags.FLAG_NULL );
+
+        callObject.addOutParamAsObject ( new JIPointer ( new JIArray ( OPCITEMPROPERTIES.getStruct (), null, 1, true ) ), JIFlags.FLAG_NULL );
+
+        Object result[] = Helper.callRespectSFALSE ( getCOMObject (), callObject );
+
+        JIStruct[] structs = (JIStruct[]) ( (JIArray) ( (JIPointer)result[0] ).getReferent () ).getArrayInstance ();
+
+        KeyedResultSet<String, OPCITEMPROPERTIES> results = new KeyedResultSet<String, OPCITEMPROPERTIES> ( itemIDs.length );
+        for ( int i = 0; i < itemIDs.length; i++ )
+        {
+            OPCITEMPROPERTIES properties = OPCITEMPROPERTIES.fromStruct ( structs[i] );
+            results.add ( new KeyedResult<String, OPCITEMPROPERTIES> ( itemIDs[i], properties, properties.getErrorCode () ) );
+        }
+        return results;
+    }
+
+    /**
+     * Browse the children of an element
+     * @param itemID the element to browse, an empty string for the root
+     * @param continuationPoint the continuation point of the previous call or <code>null</code> for the first call
+     * @param maxElements the maximum number of elements to return, zero lets the server decide
+     * @param filter the element type filter
+     * @param elementNameFilter the name filter (may contain wildcards), <code>null</code> for no filter
+     * @param vendorFilter the vendor specific filter, <code>null</code> for no filter
+     * @param returnAllProperties <code>true</code> if all properties of the elements should be returned
+     * @param returnPropertyValues <code>true</code> if the values of the returned properties should be returned as well
+     * @param propertyIDs the properties to return if not all properties are requested
+     * @return the browse result
+     * @throws JIException
+     */
+    public BrowseResult browse ( final String itemID, final String continuationPoint, final int maxElements, final OPCBROWSEFILTER filter, final String elementNameFilter, final String vendorFilter, final boolean returnAllProperties, final boolean returnPropertyValues, final int... propertyIDs ) throws JIException
+    {
+        JICallBuilder callObject = new JICallBuilder ( true );
+        callObject.setOpnum ( 1 );
+
+        callObject.addInParamAsString ( itemID == null ? "" : itemID, JIFlags.FLAG_REPRESENTATION_STRING_LPWSTR );
+        callObject.addInParamAsPointer ( new JIPointer ( new JIString ( continuationPoint == null ? "" : continuationPoint, JIFlags.FLAG_REPRESENTATION_STRING_LPWSTR ) ), JIFlags.FLAG_NULL );
+        callObject.addInParamAsInt ( maxElements, JIFlags.FLAG_NULL );
+        callObject.addInParamAsInt ( filter.id (), JIFlags.FLAG_NULL );
+        callObject.addInParamAsString ( elementNameFilter == null ? "" : elementNameFilter, JIFlags.FLAG_REPRESENTATION_STRING_LPWSTR );
+        callObject.addInParamAsString ( vendorFilter == null ? "" : vendorFilter, JIFlags.FLAG_REPRESENTATION_STRING_LPWSTR );
+        callObject.addInParamAsInt ( returnAllProperties ? 1 : 0, JIFlags.FLAG_NULL );
+        callObject.addInParamAsInt ( returnPropertyValues ? 1 : 0, JIFlags.FLAG_NULL );
+        callObject.addInParamAsInt ( propertyIDs.length, JIFlags.FLAG_NULL );
+        callObject.addInParamAsArray ( new JIArray ( toIntegers ( propertyIDs ), true ), JIFlags.FLAG_NULL );
+
+        callObject.addOutParamAsObject ( new JIPointer ( new JIString ( JIFlags.FLAG_REPRESENTATION_STRING_LPWSTR ) ), JIFlags.FLAG_NULL );
+        callObject.addOutParamAsType ( Integer.class, JIFlags.FLAG_NULL );
+        callObject.addOutParamAsType ( Integer.class, JIFlags.FLAG_NULL );
+        callObject.addOutParamAsObject ( new JIPointer ( new JIArray ( OPCBROWSEELEMENT.getStruct (), null, 1, true ) ), JIFlags.FLAG_NULL );
+
+        Object result[] = Helper.callRespectSFALSE ( getCOMObject (), callObject );
+
+        String nextContinuationPoint = null;
+        JIPointer cpPointer = (JIPointer)result[0];
+        if ( cpPointer != null && !cpPointer.isNull () )
+        {
+            nextContinuationPoint = ( (JIString)cpPointer.getReferent () ).getString ();
+            if ( nextContinuationPoint != null && nextContinuationPoint.length () == 0 )
+            {
+                nextContinuationPoint = null;
+            }
+        }
+
+        boolean moreElements = (Integer)result[1] != 0;
+        int count = (Integer)result[2];
+
+        List<OPCBROWSEELEMENT> elements;
+        JIPointer elementsPointer = (JIPointer)result[3];
+        if ( count > 0 && elementsPointer != null && !elementsPointer.isNull () )
+        {
+            JIStruct[] structs = (JIStruct[]) ( (JIArray)elementsPointer.getReferent () ).getArrayInstance ();
+            elements = new ArrayList<OPCBROWSEELEMENT> ( count );
+            for ( int i = 0; i < count; i++ )
+            {
+                elements.add ( OPCBROWSEELEMENT.fromStruct ( structs[i] ) );
+            }
+        }
+        else
+        {
+            elements = Collections.emptyList ();
+        }
+
+        return new BrowseResult ( nextContinuationPoint, moreElements, elements );
+    }
+
+    private static Integer[] toIntegers ( final int[] values )
+    {
+        Integer[] result = new Integer[values.length];
+        for ( int i = 0; i < values.length; i++ )
+        {
+            result[i] = values[i];
+        }
+        return result;
+    }
 }
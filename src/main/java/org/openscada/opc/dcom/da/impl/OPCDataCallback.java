@@ -39,8 +39,10 @@ import org.openscada.opc.dcom.common.KeyedResultSet;
 import org.openscada.opc.dcom.common.Result;
 import org.openscada.opc.dcom.common.ResultSet;
 import org.openscada.opc.dcom.common.impl.EventHandlerImpl;
+import org.openscada.opc.dcom.common.metrics.Metrics;
 import org.openscada.opc.dcom.da.Constants;
 import org.openscada.opc.dcom.da.IOPCDataCallback;
+import org.openscada.opc.dcom.da.IOPCRawDataCallback;
 import org.openscada.opc.dcom.da.ValueData;
 
 public class OPCDataCallback extends EventHandlerImpl
@@ -49,11 +51,27 @@ public class OPCDataCallback extends EventHandlerImpl
 
     private JILocalCoClass coClass = null;
 
+    private String metricsScope = Metrics.DEFAULT_SCOPE;
+
     public OPCDataCallback ()
     {
         super ();
     }
 
+    /**
+     * Set the scope under which the calls of this callback are recorded
+     * @param metricsScope the scope
+     */
+    public void setMetricsScope ( final String metricsScope )
+    {
+        this.metricsScope = metricsScope;
+    }
+
+    public String getMetricsScope ()
+    {
+        return this.metricsScope;
+    }
+
     public Object[] OnDataChange ( final int transactionId, final int serverGroupHandle, final int masterQuality, final int masterErrorCode, final int count, final JIArray clientHandles, final JIArray values, final JIArray qualities, final JIArray timestamps, final JIArray errors )
     {
         final IOPCDataCallback callback = this.callback;
@@ -63,11 +81,36 @@ public class OPCDataCallback extends EventHandlerImpl
         }
 
         // get arrays for more readable code later ;-)
-        final Integer[] errorCodes = (Integer[])errors.getArrayInstance ();
-        final Integer[] itemHandles = (Integer[])clientHandles.getArrayInstance ();
-        final Short[] qualitiesArray = (Short[])qualities.getArrayInstance ();
-        final JIVariant[] valuesArray = (JIVariant[])values.getArrayInstance ();
-        final JIStruct[] timestampArray = (JIStruct[])timestamps.getArrayInstance ();
+        // keep alive callbacks have no items, they are reported with empty arrays
+        final Integer[] errorCodes = count == 0 ? new Integer[0] : (Integer[])errors.getArrayInstance ();
+        final Integer[] itemHandles = count == 0 ? new Integer[0] : (Integer[])clientHandles.getArrayInstance ();
+        final Short[] qualitiesArray = count == 0 ? new Short[0] : (Short[])qualities.getArrayInstance ();
+        final JIVariant[] valuesArray = count == 0 ? new JIVariant[0] : (JIVariant[])values.getArrayInstance ();
+        final JIStruct[] timestampArray = count == 0 ? new JIStruct[0] : (JIStruct[])timestamps.getArrayInstance ();
+
+        if ( callback instanceof IOPCRawDataCallback )
+        {
+            final long[] ticks = new long[count];
+            for ( int i = 0; i < count; i++ )
+            {
+                ticks[i] = FILETIME.ticksFromStruct ( timestampArray[i] );
+            }
+
+            // fire event
+            final long start = Metrics.start ();
+            try
+            {
+                ( (IOPCRawDataCallback)callback ).rawDataChange ( transactionId, serverGroupHandle, masterQuality, masterErrorCode, count, itemHandles, valuesArray, qualitiesArray, ticks, errorCodes );
+            }
+            catch ( final Throwable e )
+            {
+                e.printStackTrace ();
+            }
+            Metrics.record ( "callback.dataChange", this.metricsScope, start, count, 0 );
+
+            // The client must always return S_OK
+            return new Object[] { org.openscada.opc.dcom.common.Constants.S_OK };
+        }
 
         // create result data
         final KeyedResultSet<Integer, ValueData> result = new KeyedResultSet<Integer, ValueData> ();
@@ -81,6 +124,7 @@ public class OPCDataCallback extends EventHandlerImpl
         }
 
         // fire event
+        final long start = Metrics.start ();
         try
         {
             callback.dataChange ( transactionId, serverGroupHandle, masterQuality, masterErrorCode, result );
@@ -89,6 +133,7 @@ public class OPCDataCallback extends EventHandlerImpl
         {
             e.printStackTrace ();
         }
+        Metrics.record ( "callback.dataChange", this.metricsScope, start, count, 0 );
 
         // The client must always return S_OK
         return new Object[] { org.openscada.opc.dcom.common.Constants.S_OK };
@@ -120,6 +165,7 @@ public class OPCDataCallback extends EventHandlerImpl
         }
 
         // fire event
+        final long start = Metrics.start ();
         try
         {
             this.callback.readComplete ( transactionId, serverGroupHandle, masterQuality, masterErrorCode, result );
@@ -128,6 +174,7 @@ public class OPCDataCallback extends EventHandlerImpl
         {
             e.printStackTrace ();
         }
+        Metrics.record ( "callback.readComplete", this.metricsScope, start, count, 0 );
 
         // The client must always return S_OK
         return new Object[] { org.openscada.opc.dcom.common.Constants.S_OK };
@@ -152,6 +199,7 @@ public class OPCDataCallback extends EventHandlerImpl
         }
 
         // fire event
+        final long start = Metrics.start ();
         try
         {
             this.callback.writeComplete ( transactionId, serverGroupHandle, masterErrorCode, result );
@@ -160,6 +208,7 @@ public class OPCDataCallback extends EventHandlerImpl
         {
             e.printStackTrace ();
         }
+        Metrics.record ( "callback.writeComplete", this.metricsScope, start, count, 0 );
 
         // The client must always return S_OK
         return new Object[] { org.openscada.opc.dcom.common.Constants.S_OK };
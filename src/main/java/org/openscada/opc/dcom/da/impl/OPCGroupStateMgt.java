@@ -31,6 +31,7 @@ import org.jinterop.dcom.core.JIString;
 import org.jinterop.dcom.impls.JIObjectFactory;
 import org.openscada.opc.dcom.common.EventHandler;
 import org.openscada.opc.dcom.common.impl.BaseCOMObject;
+import org.openscada.opc.dcom.common.metrics.Metrics;
 import org.openscada.opc.dcom.da.Constants;
 import org.openscada.opc.dcom.da.IOPCDataCallback;
 import org.openscada.opc.dcom.da.OPCGroupState;
@@ -42,11 +43,27 @@ import org.openscada.opc.dcom.da.OPCGroupState;
  */
 public class OPCGroupStateMgt extends BaseCOMObject
 {
+    private String metricsScope = Metrics.DEFAULT_SCOPE;
+
     public OPCGroupStateMgt ( final IJIComObject opcGroup ) throws IllegalArgumentException, UnknownHostException, JIException
     {
         super ( opcGroup.queryInterface ( Constants.IOPCGroupStateMgt_IID ) );
     }
 
+    /**
+     * Set the scope under which the calls of this group and the objects created by it are recorded
+     * @param metricsScope the scope
+     */
+    public void setMetricsScope ( final String metricsScope )
+    {
+        this.metricsScope = metricsScope;
+    }
+
+    public String getMetricsScope ()
+    {
+        return this.metricsScope;
+    }
+
     public OPCGroupState getState () throws JIException
     {
         final JICallBuilder callObject = new JICallBuilder ( true );
@@ -178,6 +195,7 @@ public class OPCGroupStateMgt extends BaseCOMObject
         final OPCDataCallback callbackObject = new OPCDataCallback ();
 
         callbackObject.setCallback ( callback );
+        callbackObject.setMetricsScope ( this.metricsScope );
 
         // sync the callback object so that no calls get through the callback
         // until the callback information is set
@@ -196,7 +214,57 @@ public class OPCGroupStateMgt extends BaseCOMObject
     {
         try
         {
-            return new OPCAsyncIO2 ( getCOMObject () );
+            final OPCAsyncIO2 asyncIO2 = new OPCAsyncIO2 ( getCOMObject () );
+            asyncIO2.setMetricsScope ( this.metricsScope );
+            return asyncIO2;
+        }
+        catch ( final Exception e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Get the DA 3.0 group state management
+     * @return the group state management or <code>null</code> if the server does not support it
+     */
+    public OPCGroupStateMgt2 getStateMgt2 ()
+    {
+        try
+        {
+            return new OPCGroupStateMgt2 ( getCOMObject () );
+        }
+        catch ( final Exception e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Get the DA 3.0 item deadband management
+     * @return the deadband management or <code>null</code> if the server does not support it
+     */
+    public OPCItemDeadbandMgt getItemDeadbandManagement ()
+    {
+        try
+        {
+            return new OPCItemDeadbandMgt ( getCOMObject () );
+        }
+        catch ( final Exception e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Get the DA 3.0 item sampling management
+     * @return the sampling management or <code>null</code> if the server does not support it
+     */
+    public OPCItemSamplingMgt getItemSamplingManagement ()
+    {
+        try
+        {
+            return new OPCItemSamplingMgt ( getCOMObject () );
         }
         catch ( final Exception e )
         {
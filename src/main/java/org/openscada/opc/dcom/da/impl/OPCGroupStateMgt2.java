@@ -0,0 +1,78 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.dcom.da.impl;
+
+import java.net.UnknownHostException;
+
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.IJIComObject;
+import org.jinterop.dcom.core.JICallBuilder;
+import org.jinterop.dcom.core.JIFlags;
+import org.openscada.opc.dcom.common.impl.BaseCOMObject;
+import org.openscada.opc.dcom.common.impl.Helper;
+import org.openscada.opc.dcom.da.Constants;
+
+/**
+ * Implementation of the keep alive methods of <code>IOPCGroupStateMgt2</code>
+ */
+public class OPCGroupStateMgt2 extends BaseCOMObject
+{
+    public OPCGroupStateMgt2 ( final IJIComObject opcGroup ) throws IllegalArgumentException, UnknownHostException, JIException
+    {
+        super ( opcGroup.queryInterface ( Constants.IOPCGroupStateMgt2_IID ) );
+    }
+
+    /**
+     * Set the keep alive time of the group. The server will send a callback at least once
+     * per keep alive time, even if no value changed.
+     * @param keepAliveTime the keep alive time in milliseconds, zero disables keep alive callbacks
+     * @return the keep alive time granted by the server
+     * @throws JIException
+     */
+    public int setKeepAlive ( final int keepAliveTime ) throws JIException
+    {
+        final JICallBuilder callObject = new JICallBuilder ( true );
+        callObject.setOpnum ( 4 );
+
+        callObject.addInParamAsInt ( keepAliveTime, JIFlags.FLAG_NULL );
+        callObject.addOutParamAsType ( Integer.class, JIFlags.FLAG_NULL );
+
+        final Object[] result = Helper.callRespectSFALSE ( getCOMObject (), callObject );
+
+        return (Integer)result[0];
+    }
+
+    /**
+     * Get the keep alive time of the group
+     * @return the keep alive time in milliseconds
+     * @throws JIException
+     */
+    public int getKeepAlive () throws JIException
+    {
+        final JICallBuilder callObject = new JICallBuilder ( true );
+        callObject.setOpnum ( 5 );
+
+        callObject.addOutParamAsType ( Integer.class, JIFlags.FLAG_NULL );
+
+        final Object[] result = getCOMObject ().call ( callObject );
+
+        return (Integer)result[0];
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.dcom.da.impl;
+
+import java.net.UnknownHostException;
+
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.IJIComObject;
+import org.jinterop.dcom.core.JIArray;
+import org.jinterop.dcom.core.JICallBuilder;
+import org.jinterop.dcom.core.JIFlags;
+import org.jinterop.dcom.core.JIPointer;
+import org.openscada.opc.dcom.common.KeyedResult;
+import org.openscada.opc.dcom.common.KeyedResultSet;
+import org.openscada.opc.dcom.common.ResultSet;
+import org.openscada.opc.dcom.common.impl.BaseCOMObject;
+import org.openscada.opc.dcom.common.impl.Helper;
+import org.openscada.opc.dcom.da.Constants;
+
+/**
+ * Implementation of <code>IOPCItemDeadbandMgt</code>
+ */
+public class OPCItemDeadbandMgt extends BaseCOMObject
+{
+    public OPCItemDeadbandMgt ( final IJIComObject opcGroup ) throws IllegalArgumentException, UnknownHostException, JIException
+    {
+        super ( opcGroup.queryInterface ( Constants.IOPCItemDeadbandMgt_IID ) );
+    }
+
+    /**
+     * Set the percent deadband of items, overriding the deadband of the group
+     * @param serverHandles the server handles of the items
+     * @param percentDeadbands the deadbands in percent of the EU range, in the order of the server handles
+     * @return the result for each server handle
+     * @throws JIException
+     */
+    public ResultSet<Integer> setItemDeadband ( final Integer[] serverHandles, final Float[] percentDeadbands ) throws JIException
+    {
+        if ( serverHandles.length != percentDeadbands.length )
+        {
+            throw new JIException ( 0, "Array sizes don't match" );
+        }
+        if ( serverHandles.length == 0 )
+        {
+            return new ResultSet<Integer> ();
+        }
+
+        final JICallBuilder callObject = new JICallBuilder ( true );
+        callObject.setOpnum ( 0 );
+
+        callObject.addInParamAsInt ( serverHandles.length, JIFlags.FLAG_NULL );
+        callObject.addInParamAsArray ( new JIArray ( serverHandles, true ), JIFlags.FLAG_NULL );
+        callObject.addInParamAsArray ( new JIArray ( percentDeadbands, true ), JIFlags.FLAG_NULL );
+        callObject.addOutParamAsObject ( new JIPointer ( new JIArray ( Integer.class, null, 1, true ) ), JIFlags.FLAG_NULL );
+
+        final Object[] result = Helper.callRespectSFALSE ( getCOMObject (), callObject );
+
+        return Helper.toResultSet ( serverHandles, (JIPointer)result[0] );
+    }
+
+    /**
+     * Get the percent deadband of items
+     * @param serverHandles the server handles of the items
+     * @return the deadband for each server handle. Items without a deadband of their
+     * own fail with <code>OPC_E_DEADBANDNOTSET</code>.
+     * @throws JIException
+     */
+    public KeyedResultSet<Integer, Float> getItemDeadband ( final Integer... serverHandles ) throws JIException
+    {
+        if ( serverHandles.length == 0 )
+        {
+            return new KeyedResultSet<Integer, Float> ();
+        }
+
+        final JICallBuilder callObject = new JICallBuilder ( true );
+        callObject.setOpnum ( 1 );
+
+        callObject.addInParamAsInt ( serverHandles.length, JIFlags.FLAG_NULL );
+        callObject.addInParamAsArray ( new JIArray ( serverHandles, true ), JIFlags.FLAG_NULL );
+        callObject.addOutParamAsObject ( new JIPointer ( new JIArray ( Float.class, null, 1, true ) ), JIFlags.FLAG_NULL );
+        callObject.addOutParamAsObject ( new JIPointer ( new JIArray ( Integer.class, null, 1, true ) ), JIFlags.FLAG_NULL );
+
+        final Object[] result = Helper.callRespectSFALSE ( getCOMObject (), callObject );
+
+        final Float[] deadbands = (Float[]) ( (JIArray) ( (JIPointer)result[0] ).getReferent () ).getArrayInstance ();
+        final Integer[] errorCodes = (Integer[]) ( (JIArray) ( (JIPointer)result[1] ).getReferent () ).getArrayInstance ();
+
+        final KeyedResultSet<Integer, Float> results = new KeyedResultSet<Integer, Float> ( serverHandles.length );
+        for ( int i = 0; i < serverHandles.length; i++ )
+        {
+            results.add ( new KeyedResult<Integer, Float> ( serverHandles[i], deadbands[i], errorCodes[i] ) );
+        }
+        return results;
+    }
+
+    /**
+     * Clear the deadband of items so that the deadband of the group applies again
+     * @param serverHandles the server handles of the items
+     * @return the result for each server handle
+     * @throws JIException
+     */
+    public ResultSet<Integer> clearItemDeadband ( final Integer... serverHandles ) throws JIException
+    {
+        if ( serverHandles.length == 0 )
+        {
+            return new ResultSet<Integer> ();
+        }
+
+        final JICallBuilder callObject = new JICallBuilder ( true );
+        callObject.setOpnum ( 2 );
+
+        callObject.addInParamAsInt ( serverHandles.length, JIFlags.FLAG_NULL );
+        callObject.addInParamAsArray ( new JIArray ( serverHandles, true ), JIFlags.FLAG_NULL );
+        callObject.addOutParamAsObject ( new JIPointer ( new JIArray ( Integer.class, null, 1, true ) ), JIFlags.FLAG_NULL );
+
+        final Object[] result = Helper.callRespectSFALSE ( getCOMObject (), callObject );
+
+        return Helper.toResultSet ( serverHandles, (JIPointer)result[0] );
+    }
+}
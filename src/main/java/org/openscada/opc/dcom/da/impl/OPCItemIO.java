@@ -28,11 +28,17 @@ import org.jinterop.dcom.core.JICallBuilder;
 import org.jinterop.dcom.core.JIFlags;
 import org.jinterop.dcom.core.JIPointer;
 import org.jinterop.dcom.core.JIString;
+import org.jinterop.dcom.core.JIStruct;
 import org.jinterop.dcom.core.JIVariant;
 import org.openscada.opc.dcom.common.FILETIME;
+import org.openscada.opc.dcom.common.KeyedResult;
+import org.openscada.opc.dcom.common.KeyedResultSet;
 import org.openscada.opc.dcom.common.impl.BaseCOMObject;
+import org.openscada.opc.dcom.common.impl.Helper;
 import org.openscada.opc.dcom.da.Constants;
 import org.openscada.opc.dcom.da.IORequest;
+import org.openscada.opc.dcom.da.OPCITEMSTATE;
+import org.openscada.opc.dcom.da.OPCITEMVQT;
 
 public class OPCItemIO extends BaseCOMObject
 {
@@ -41,11 +47,17 @@ public class OPCItemIO extends BaseCOMObject
         super ( opcItemIO.queryInterface ( Constants.IOPCItemIO_IID ) );
     }
 
-    public void read ( final IORequest[] requests ) throws JIException
+    /**
+     * Read items by their item id using <code>IOPCItemIO::Read</code>
+     * @param requests the item ids and the maximum cache age for each item
+     * @return the result set of the requests with the item state, in the order of the requests
+     * @throws JIException
+     */
+    public KeyedResultSet<IORequest, OPCITEMSTATE> read ( final IORequest... requests ) throws JIException
     {
         if ( requests.length == 0 )
         {
-            return;
+            return new KeyedResultSet<IORequest, OPCITEMSTATE> ();
         }
 
         JICallBuilder callObject = new JICallBuilder ( true );
@@ -56,7 +68,7 @@ public class OPCItemIO extends BaseCOMObject
         for ( int i = 0; i < requests.length; i++ )
         {
             itemIDs[i] = new JIString ( requests[i].getItemID (), JIFlags.FLAG_REPRESENTATION_STRING_LPWSTR );
-            maxAges[i] = new Integer ( requests[i].getMaxAge () );
+            maxAges[i] = Integer.valueOf ( requests[i].getMaxAge () );
         }
 
         callObject.addInParamAsInt ( requests.length, JIFlags.FLAG_NULL );
@@ -64,10 +76,76 @@ public class OPCItemIO extends BaseCOMObject
         callObject.addInParamAsArray ( new JIArray ( maxAges, true ), JIFlags.FLAG_NULL );
 
         callObject.addOutParamAsObject ( new JIPointer ( new JIArray ( JIVariant.class, null, 1, true ) ), JIFlags.FLAG_NULL );
-        callObject.addOutParamAsObject ( new JIPointer ( new JIArray ( Integer.class, null, 1, true ) ), JIFlags.FLAG_NULL );
+        callObject.addOutParamAsObject ( new JIPointer ( new JIArray ( Short.class, null, 1, true ) ), JIFlags.FLAG_NULL );
         callObject.addOutParamAsObject ( new JIPointer ( new JIArray ( FILETIME.getStruct (), null, 1, true ) ), JIFlags.FLAG_NULL );
         callObject.addOutParamAsObject ( new JIPointer ( new JIArray ( Integer.class, null, 1, true ) ), JIFlags.FLAG_NULL );
 
-        getCOMObject ().call ( callObject );
+        Object[] result = Helper.callRespectSFALSE ( getCOMObject (), callObject );
+
+        JIVariant[] values = (JIVariant[]) ( (JIArray) ( (JIPointer)result[0] ).getReferent () ).getArrayInstance ();
+        Short[] qualities = (Short[]) ( (JIArray) ( (JIPointer)result[1] ).getReferent () ).getArrayInstance ();
+        JIStruct[] timestamps = (JIStruct[]) ( (JIArray) ( (JIPointer)result[2] ).getReferent () ).getArrayInstance ();
+        Integer[] errorCodes = (Integer[]) ( (JIArray) ( (JIPointer)result[3] ).getReferent () ).getArrayInstance ();
+
+        KeyedResultSet<IORequest, OPCITEMSTATE> results = new KeyedResultSet<IORequest, OPCITEMSTATE> ( requests.length );
+        for ( int i = 0; i < requests.length; i++ )
+        {
+            OPCITEMSTATE state = new OPCITEMSTATE ();
+            state.setValue ( values[i] );
+            state.setQuality ( qualities[i] );
+            state.setTimestamp ( FILETIME.fromStruct ( timestamps[i] ) );
+            results.add ( new KeyedResult<IORequest, OPCITEMSTATE> ( requests[i], state, errorCodes[i] ) );
+        }
+        return results;
+    }
+
+    /**
+     * Write value, quality and timestamp of items by their item id
+     * using <code>IOPCItemIO::WriteVQE</code>
+     * @param itemIDs the item ids
+     * @param values the values to write, in the order of the item ids
+     * @return the result set of item id and written value, in the order of the item ids
+     * @throws JIException
+     */
+    public KeyedResultSet<String, OPCITEMVQT> writeVQE ( final String[] itemIDs, final OPCITEMVQT[] values ) throws JIException
+    {
+        if ( itemIDs.length != values.length )
+        {
+            throw new IllegalArgumentException ( "Number of item ids and values must match" );
+        }
+
+        if ( itemIDs.length == 0 )
+        {
+            return new KeyedResultSet<String, OPCITEMVQT> ();
+        }
+
+        JICallBuilder callObject = new JICallBuilder ( true );
+        callObject.setOpnum ( 1 );
+
+        JIString ids[] = new JIString[itemIDs.length];
+        JIStruct structs[] = new JIStruct[itemIDs.length];
+        for ( int i = 0; i < itemIDs.length; i++ )
+        {
+            ids[i] = new JIString ( itemIDs[i], JIFlags.FLAG_REPRESENTATION_STRING_LPWSTR );
+            OPCITEMVQT vqt = new OPCITEMVQT ( Helper.fixVariant ( values[i].getValue () ), values[i].getQuality (), values[i].getTimestamp () );
+            structs[i] = vqt.toStruct ();
+        }
+
+        callObject.addInParamAsInt ( itemIDs.length, JIFlags.FLAG_NULL );
+        callObject.addInParamAsArray ( new JIArray ( ids, true ), JIFlags.FLAG_NULL );
+        callObject.addInParamAsArray ( new JIArray ( structs, true ), JIFlags.FLAG_NULL );
+
+        callObject.addOutParamAsObject ( new JIPointer ( new JIArray ( Integer.class, null, 1, true ) ), JIFlags.FLAG_NULL );
+
+        Object[] result = Helper.callRespectSFALSE ( getCOMObject (), callObject );
+
+        Integer[] errorCodes = (Integer[]) ( (JIArray) ( (JIPointer)result[0] ).getReferent () ).getArrayInstance ();
+
+        KeyedResultSet<String, OPCITEMVQT> results = new KeyedResultSet<String, OPCITEMVQT> ( itemIDs.length );
+        for ( int i = 0; i < itemIDs.length; i++ )
+        {
+            results.add ( new KeyedResult<String, OPCITEMVQT> ( itemIDs[i], values[i], errorCodes[i] ) );
+        }
+        return results;
     }
 }
@@ -0,0 +1,219 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.dcom.da.impl;
+
+import java.net.UnknownHostException;
+
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.IJIComObject;
+import org.jinterop.dcom.core.JIArray;
+import org.jinterop.dcom.core.JICallBuilder;
+import org.jinterop.dcom.core.JIFlags;
+import org.jinterop.dcom.core.JIPointer;
+import org.openscada.opc.dcom.common.KeyedResult;
+import org.openscada.opc.dcom.common.KeyedResultSet;
+import org.openscada.opc.dcom.common.ResultSet;
+import org.openscada.opc.dcom.common.impl.BaseCOMObject;
+import org.openscada.opc.dcom.common.impl.Helper;
+import org.openscada.opc.dcom.da.Constants;
+
+/**
+ * Implementation of <code>IOPCItemSamplingMgt</code>
+ */
+public class OPCItemSamplingMgt extends BaseCOMObject
+{
+    public OPCItemSamplingMgt ( final IJIComObject opcGroup ) throws IllegalArgumentException, UnknownHostException, JIException
+    {
+        super ( opcGroup.queryInterface ( Constants.IOPCItemSamplingMgt_IID ) );
+    }
+
+    /**
+     * Set the sampling rate of items, overriding the update rate of the group
+     * @param serverHandles the server handles of the items
+     * @param samplingRates the requested sampling rates in milliseconds, in the order of the server handles
+     * @return the revised sampling rate for each server handle
+     * @throws JIException
+     */
+    public KeyedResultSet<Integer, Integer> setItemSamplingRate ( final Integer[] serverHandles, final Integer[] samplingRates ) throws JIException
+    {
+        if ( serverHandles.length != samplingRates.length )
+        {
+            throw new JIException ( 0, "Array sizes don't match" );
+        }
+        if ( serverHandles.length == 0 )
+        {
+            return new KeyedResultSet<Integer, Integer> ();
+        }
+
+        final JICallBuilder callObject = new JICallBuilder ( true );
+        callObject.setOpnum ( 0 );
+
+        callObject.addInParamAsInt ( serverHandles.length, JIFlags.FLAG_NULL );
+        callObject.addInParamAsArray ( new JIArray ( serverHandles, true ), JIFlags.FLAG_NULL );
+        callObject.addInParamAsArray ( new JIArray ( samplingRates, true ), JIFlags.FLAG_NULL );
+        callObject.addOutParamAsObject ( new JIPointer ( new JIArray ( Integer.class, null, 1, true ) ), JIFlags.FLAG_NULL );
+        callObject.addOutParamAsObject ( new JIPointer ( new JIArray ( Integer.class, null, 1, true ) ), JIFlags.FLAG_NULL );
+
+        final Object[] result = Helper.callRespectSFALSE ( getCOMObject (), callObject );
+
+        return toKeyedResultSet ( serverHandles, result );
+    }
+
+    /**
+     * Get the sampling rate of items
+     * @param serverHandles the server handles of the items
+     * @return the sampling rate for each server handle. Items without a sampling rate of their
+     * own fail with <code>OPC_E_RATENOTSET</code>.
+     * @throws JIException
+     */
+    public KeyedResultSet<Integer, Integer> getItemSamplingRate ( final Integer... serverHandles ) throws JIException
+    {
+        if ( serverHandles.length == 0 )
+        {
+            return new KeyedResultSet<Integer, Integer> ();
+        }
+
+        final JICallBuilder callObject = new JICallBuilder ( true );
+        callObject.setOpnum ( 1 );
+
+        callObject.addInParamAsInt ( serverHandles.length, JIFlags.FLAG_NULL );
+        callObject.addInParamAsArray ( new JIArray ( serverHandles, true ), JIFlags.FLAG_NULL );
+        callObject.addOutParamAsObject ( new JIPointer ( new JIArray ( Integer.class, null, 1, true ) ), JIFlags.FLAG_NULL );
+        callObject.addOutParamAsObject ( new JIPointer ( new JIArray ( Integer.class, null, 1, true ) ), JIFlags.FLAG_NULL );
+
+        final Object[] result = Helper.callRespectSFALSE ( getCOMObject (), callObject );
+
+        return toKeyedResultSet ( serverHandles, result );
+    }
+
+    /**
+     * Clear the sampling rate of items so that the update rate of the group applies again
+     * @param serverHandles the server handles of the items
+     * @return the result for each server handle
+     * @throws JIException
+     */
+    public ResultSet<Integer> clearItemSamplingRate ( final Integer... serverHandles ) throws JIException
+    {
+        return callHandles ( 2, serverHandles );
+    }
+
+    /**
+     * Enable or disable buffering of item values sampled faster than the update rate of the group
+     * @param serverHandles the server handles of the items
+     * @param enable the buffer flags, in the order of the server handles
+     * @return the result for each server handle
+     * @throws JIException
+     */
+    public ResultSet<Integer> setItemBufferEnable ( final Integer[] serverHandles, final Boolean[] enable ) throws JIException
+    {
+        if ( serverHandles.length != enable.length )
+        {
+            throw new JIException ( 0, "Array sizes don't match" );
+        }
+        if ( serverHandles.length == 0 )
+        {
+            return new ResultSet<Integer> ();
+        }
+
+        final Integer[] flags = new Integer[enable.length];
+        for ( int i = 0; i < enable.length; i++ )
+        {
+            flags[i] = enable[i] ? 1 : 0;
+        }
+
+        final JICallBuilder callObject = new JICallBuilder ( true );
+        callObject.setOpnum ( 3 );
+
+        callObject.addInParamAsInt ( serverHandles.length, JIFlags.FLAG_NULL );
+        callObject.addInParamAsArray ( new JIArray ( serverHandles, true ), JIFlags.FLAG_NULL );
+        callObject.addInParamAsArray ( new JIArray ( flags, true ), JIFlags.FLAG_NULL );
+        callObject.addOutParamAsObject ( new JIPointer ( new JIArray ( Integer.class, null, 1, true ) ), JIFlags.FLAG_NULL );
+
+        final Object[] result = Helper.callRespectSFALSE ( getCOMObject (), callObject );
+
+        return Helper.toResultSet ( serverHandles, (JIPointer)result[0] );
+    }
+
+    /**
+     * Get the buffer flag of items
+     * @param serverHandles the server handles of the items
+     * @return the buffer flag for each server handle
+     * @throws JIException
+     */
+    public KeyedResultSet<Integer, Boolean> getItemBufferEnable ( final Integer... serverHandles ) throws JIException
+    {
+        if ( serverHandles.length == 0 )
+        {
+            return new KeyedResultSet<Integer, Boolean> ();
+        }
+
+        final JICallBuilder callObject = new JICallBuilder ( true );
+        callObject.setOpnum ( 4 );
+
+        callObject.addInParamAsInt ( serverHandles.length, JIFlags.FLAG_NULL );
+        callObject.addInParamAsArray ( new JIArray ( serverHandles, true ), JIFlags.FLAG_NULL );
+        callObject.addOutParamAsObject ( new JIPointer ( new JIArray ( Integer.class, null, 1, true ) ), JIFlags.FLAG_NULL );
+        callObject.addOutParamAsObject ( new JIPointer ( new JIArray ( Integer.class, null, 1, true ) ), JIFlags.FLAG_NULL );
+
+        final Object[] result = Helper.callRespectSFALSE ( getCOMObject (), callObject );
+
+        final Integer[] flags = (Integer[]) ( (JIArray) ( (JIPointer)result[0] ).getReferent () ).getArrayInstance ();
+        final Integer[] errorCodes = (Integer[]) ( (JIArray) ( (JIPointer)result[1] ).getReferent () ).getArrayInstance ();
+
+        final KeyedResultSet<Integer, Boolean> results = new KeyedResultSet<Integer, Boolean> ( serverHandles.length );
+        for ( int i = 0; i < serverHandles.length; i++ )
+        {
+            results.add ( new KeyedResult<Integer, Boolean> ( serverHandles[i], flags[i] != 0, errorCodes[i] ) );
+        }
+        return results;
+    }
+
+    private ResultSet<Integer> callHandles ( final int opnum, final Integer[] serverHandles ) throws JIException
+    {
+        if ( serverHandles.length == 0 )
+        {
+            return new ResultSet<Integer> ();
+        }
+
+        final JICallBuilder callObject = new JICallBuilder ( true );
+        callObject.setOpnum ( opnum );
+
+        callObject.addInParamAsInt ( serverHandles.length, JIFlags.FLAG_NULL );
+        callObject.addInParamAsArray ( new JIArray ( serverHandles, true ), JIFlags.FLAG_NULL );
+        callObject.addOutParamAsObject ( new JIPointer ( new JIArray ( Integer.class, null, 1, true ) ), JIFlags.FLAG_NULL );
+
+        final Object[] result = Helper.callRespectSFALSE ( getCOMObject (), callObject );
+
+        return Helper.toResultSet ( serverHandles, (JIPointer)result[0] );
+    }
+
+    private static KeyedResultSet<Integer, Integer> toKeyedResultSet ( final Integer[] serverHandles, final Object[] result )
+    {
+        final Integer[] rates = (Integer[]) ( (JIArray) ( (JIPointer)result[0] ).getReferent () ).getArrayInstance ();
+        final Integer[] errorCodes = (Integer[]) ( (JIArray) ( (JIPointer)result[1] ).getReferent () ).getArrayInstance ();
+
+        final KeyedResultSet<Integer, Integer> results = new KeyedResultSet<Integer, Integer> ( serverHandles.length );
+        for ( int i = 0; i < serverHandles.length; i++ )
+        {
+            results.add ( new KeyedResult<Integer, Integer> ( serverHandles[i], rates[i], errorCodes[i] ) );
+        }
+        return results;
+    }
+}
@@ -157,6 +157,18 @@ public class OPCServer extends BaseCOMObject
         }
     }
 
+    public OPCBrowse getBrowseService ()
+    {
+        try
+        {
+            return new OPCBrowse ( getCOMObject () );
+        }
+        catch ( Exception e )
+        {
+            return null;
+        }
+    }
+
     /**
      * Get the browser object (<code>IOPCBrowseServerAddressSpace</code>) from the server instance
      * @return the browser object
@@ -21,17 +21,25 @@ package org.openscada.opc.lib.da;
 
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 
+import org.jinterop.dcom.common.JIErrorCodes;
 import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIVariant;
 import org.openscada.opc.lib.common.NotConnectedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import rpc.FaultException;
+
 public abstract class AccessBase implements ServerConnectionStateListener
 {
     private static Logger logger = LoggerFactory.getLogger ( AccessBase.class );
@@ -55,6 +63,15 @@ public abstract class AccessBase implements ServerConnectionStateListener
 
     protected Map<Item, ItemState> itemCache = new HashMap<Item, ItemState> ();
 
+    /**
+     * The last forwarded compact states, also used by change filters other than the timestamp filter
+     */
+    protected Map<Item, CompactItemState> compactItemCache = new HashMap<Item, CompactItemState> ();
+
+    private volatile ChangeFilter changeFilter = ChangeFilters.TIMESTAMP;
+
+    private final Map<String, ChangeFilter> itemChangeFilters = new ConcurrentHashMap<String, ChangeFilter> ();
+
     private int period = 0;
 
     protected Map<String, DataCallback> itemSet = new HashMap<String, DataCallback> ();
@@ -63,6 +80,49 @@ public abstract class AccessBase implements ServerConnectionStateListener
 
     protected Logger dataLogger = null;
 
+    /**
+     * The default number of items that will be added with one call. Can be overridden
+     * by the java property <q>openscada.opc.realize-batch-size</q>.
+     */
+    public static final int DEFAULT_REALIZE_BATCH_SIZE = Integer.getInteger ( "openscada.opc.realize-batch-size", 500 );
+
+    private int realizeBatchSize = DEFAULT_REALIZE_BATCH_SIZE;
+
+    private RealizeChunkListener realizeChunkListener = null;
+
+    private volatile DataCallbackDispatcher dispatcher = null;
+
+    private Executor startExecutor = null;
+
+    private volatile ItemHistory history = null;
+
+    private volatile LastValueTable lastValueTable = null;
+
+    private volatile long lastDataChange = 0;
+
+    /**
+     * Serializes the updates of the callback thread with the initial cache read
+     */
+    private final Object updateLock = new Object ();
+
+    private boolean retainStates = false;
+
+    private boolean initialCacheRead = false;
+
+    /**
+     * The group was started and the initial cache read has not been performed yet
+     */
+    private boolean cacheReadPending = false;
+
+    private short requestedDataType = JIVariant.VT_EMPTY;
+
+    private final Map<String, Short> requestedDataTypes = new HashMap<String, Short> ();
+
+    /**
+     * The last known item states by item id, kept from the last connection
+     */
+    private final Map<String, CompactItemState> lastStates = new HashMap<String, CompactItemState> ();
+
     public AccessBase ( final Server server, final int period ) throws IllegalArgumentException, UnknownHostException, NotConnectedException, JIException, DuplicateGroupException
     {
         super ();
@@ -167,6 +227,18 @@ public abstract class AccessBase implements ServerConnectionStateListener
         }
     }
 
+    /**
+     * Add an item that delivers its updates as {@link CompactItemState}
+     * @param itemId the item to add
+     * @param dataCallback the callback to receive the updates
+     * @throws JIException
+     * @throws AddFailedException
+     */
+    public void addCompactItem ( final String itemId, final CompactDataCallback dataCallback ) throws JIException, AddFailedException
+    {
+        addItem ( itemId, new CompactDataCallbackAdapter ( dataCallback ) );
+    }
+
     public synchronized void removeItem ( final String itemId )
     {
         if ( !this.itemSet.containsKey ( itemId ) )
@@ -175,6 +247,7 @@ public abstract class AccessBase implements ServerConnectionStateListener
         }
 
         this.itemSet.remove ( itemId );
+        removeLastValue ( itemId );
 
         if ( isActive () )
         {
@@ -182,13 +255,114 @@ public abstract class AccessBase implements ServerConnectionStateListener
         }
     }
 
+    private void removeLastValue ( final String itemId )
+    {
+        final LastValueTable lastValueTable = this.lastValueTable;
+        if ( lastValueTable != null )
+        {
+            lastValueTable.remove ( itemId );
+        }
+    }
+
+    /**
+     * Add several items at once. If the access is active the new items are
+     * realized using bulk add calls.
+     * @param items the map of item id to callback
+     */
+    public synchronized void addItems ( final Map<String, DataCallback> items )
+    {
+        final List<String> added = new ArrayList<String> ( items.size () );
+        for ( final Map.Entry<String, DataCallback> entry : items.entrySet () )
+        {
+            if ( !this.itemSet.containsKey ( entry.getKey () ) )
+            {
+                this.itemSet.put ( entry.getKey (), entry.getValue () );
+                added.add ( entry.getKey () );
+            }
+        }
+
+        if ( isActive () )
+        {
+            realizeItems ( added );
+        }
+    }
+
+    /**
+     * Remove several items at once
+     * @param itemIds the items to remove
+     */
+    public synchronized void removeItems ( final Collection<String> itemIds )
+    {
+        final List<String> removed = new ArrayList<String> ( itemIds.size () );
+        for ( final String itemId : itemIds )
+        {
+            if ( this.itemSet.remove ( itemId ) != null )
+            {
+                removed.add ( itemId );
+                removeLastValue ( itemId );
+            }
+        }
+
+        if ( !isActive () || removed.isEmpty () )
+        {
+            return;
+        }
+
+        for ( final String itemId : removed )
+        {
+            final Item item = this.itemMap.remove ( itemId );
+            this.items.remove ( item );
+            this.itemCache.remove ( item );
+            this.compactItemCache.remove ( item );
+        }
+
+        try
+        {
+            this.group.removeItems ( removed.toArray ( new String[removed.size ()] ) );
+        }
+        catch ( final Throwable e )
+        {
+            logger.error ( String.format ( "Failed to unrealize %s items", removed.size () ), e );
+        }
+    }
+
+    /**
+     * Get the ids of all items of this access
+     * @return a copy of the item ids
+     */
+    public synchronized Collection<String> getItemIds ()
+    {
+        return new ArrayList<String> ( this.itemSet.keySet () );
+    }
+
     public void connectionStateChanged ( final boolean connected )
+    {
+        final Executor executor = this.startExecutor;
+        if ( connected && executor != null )
+        {
+            executor.execute ( new Runnable () {
+
+                public void run ()
+                {
+                    changeState ( true );
+                }
+            } );
+        }
+        else
+        {
+            changeState ( connected );
+        }
+    }
+
+    private void changeState ( final boolean connected )
     {
         try
         {
             if ( connected )
             {
                 start ();
+                // outside of the monitor since data callbacks may already be reported
+                readCache ();
             }
             else
             {
@@ -209,13 +383,156 @@ public abstract class AccessBase implements ServerConnectionStateListener
         }
 
         logger.debug ( "Create a new group" );
-        this.group = this.server.addGroup ();
+        this.lastDataChange = System.currentTimeMillis ();
+        this.group = createGroup ();
         this.group.setActive ( true );
         this.active = true;
 
         notifyStateListenersState ( true );
 
         realizeAll ();
+
+        this.cacheReadPending = this.initialCacheRead;
+        this.lastStates.clear ();
+    }
+
+    /**
+     * Read the current values of all realized items from the server cache and
+     * report them once after the group was started. Values which did not change
+     * since the last connection are not reported if the states are retained.
+     */
+    protected void readCache ()
+    {
+        final Group group;
+        final List<Item> realized;
+        final int chunkSize;
+        synchronized ( this )
+        {
+            if ( !this.cacheReadPending || !isActive () )
+            {
+                return;
+            }
+            this.cacheReadPending = false;
+            group = this.group;
+            realized = new ArrayList<Item> ( this.items.keySet () );
+            chunkSize = Math.max ( 1, this.realizeBatchSize );
+        }
+
+        for ( int offset = 0; offset < realized.size (); offset += chunkSize )
+        {
+            final List<Item> chunk = realized.subList ( offset, Math.min ( realized.size (), offset + chunkSize ) );
+            try
+            {
+                final Map<Item, ItemState> states = group.read ( false, chunk.toArray ( new Item[chunk.size ()] ) );
+                for ( final Map.Entry<Item, ItemState> entry : states.entrySet () )
+                {
+                    if ( entry.getKey () != null && entry.getValue ().getErrorCode () >= 0 )
+                    {
+                        updateItemFromCache ( entry.getKey (), entry.getValue () );
+                    }
+                }
+            }
+            catch ( final JIException e )
+            {
+                logger.info ( String.format ( "Failed to read %s items from cache", chunk.size () ), e );
+                return;
+            }
+        }
+    }
+
+    /**
+     * Report a value read from the server cache. The group is already active so a data
+     * change callback may have delivered a newer value in the meantime, which must not
+     * be overwritten by the value read.
+     */
+    private void updateItemFromCache ( final Item item, final ItemState itemState )
+    {
+        synchronized ( this.updateLock )
+        {
+            final long timestamp = itemState.getTimestamp ().getTimeInMillis ();
+
+            final ItemState cachedState = this.itemCache.get ( item );
+            if ( cachedState != null && cachedState.getTimestamp ().getTimeInMillis () > timestamp )
+            {
+                return;
+            }
+            final CompactItemState compactState = this.compactItemCache.get ( item );
+            if ( compactState != null && compactState.getEpochMillis () > timestamp )
+            {
+                return;
+            }
+
+            updateItem ( item, itemState );
+        }
+    }
+
+    /**
+     * Set an executor that restores the subscription after the connection was established.
+     * Using an executor allows several access objects of the same server to restore their
+     * groups in parallel instead of one after another.
+     * @param startExecutor the executor or <code>null</code> to restore in the notifying thread
+     */
+    public void setStartExecutor ( final Executor startExecutor )
+    {
+        this.startExecutor = startExecutor;
+    }
+
+    /**
+     * Keep the last item states when the connection is lost. After the reconnect
+     * only values which changed in the meantime are reported.
+     * @param retainStates <code>true</code> to retain the states
+     */
+    public synchronized void setRetainStates ( final boolean retainStates )
+    {
+        this.retainStates = retainStates;
+    }
+
+    /**
+     * Read all items from the server cache after they were added to the group
+     * instead of waiting for the first data callback.
+     * @param initialCacheRead <code>true</code> to read the cache
+     */
+    public synchronized void setInitialCacheRead ( final boolean initialCacheRead )
+    {
+        this.initialCacheRead = initialCacheRead;
+    }
+
+    /**
+     * Set the data type requested from the server for all items without an own type.
+     * Takes effect when the items are added to the group the next time.
+     * @param requestedDataType the variant type or <code>VT_EMPTY</code> for the canonical type of each item
+     * @see Group#setRequestedDataType(short)
+     */
+    public synchronized void setRequestedDataType ( final short requestedDataType )
+    {
+        this.requestedDataType = requestedDataType;
+    }
+
+    /**
+     * Set the data type requested from the server for a single item.
+     * Takes effect when the item is added to the group the next time.
+     * @param itemId the item
+     * @param requestedDataType the variant type or <code>null</code> to use the default type
+     */
+    public synchronized void setRequestedDataType ( final String itemId, final Short requestedDataType )
+    {
+        if ( requestedDataType == null )
+        {
+            this.requestedDataTypes.remove ( itemId );
+        }
+        else
+        {
+            this.requestedDataTypes.put ( itemId, requestedDataType );
+        }
+    }
+
+    /**
+     * Create the group used by this access
+     * @return the new group
+     */
+    protected Group createGroup () throws JIException, IllegalArgumentException, UnknownHostException, NotConnectedException, DuplicateGroupException
+    {
+        return this.server.addGroup ();
     }
 
     protected void realizeItem ( final String itemId ) throws JIException, AddFailedException
@@ -238,6 +555,7 @@ public abstract class AccessBase implements ServerConnectionStateListener
         final Item item = this.itemMap.remove ( itemId );
         this.items.remove ( item );
         this.itemCache.remove ( item );
+        this.compactItemCache.remove ( item );
 
         try
         {
@@ -249,38 +567,222 @@ public abstract class AccessBase implements ServerConnectionStateListener
         }
     }
 
-    /*
-     * FIXME: need some perfomance boost: subscribe all in one call
+    /**
+     * Realize all items of the item set using bulk add calls.
+     * @see #realizeItems(List)
      */
     protected void realizeAll ()
     {
+        // items which were known to the last connection go first, they are most likely valid
+        final List<String> itemIds = new ArrayList<String> ( this.itemSet.size () );
+        final List<String> unknown = new ArrayList<String> ();
         for ( final String itemId : this.itemSet.keySet () )
         {
+            if ( this.itemMap.containsKey ( itemId ) )
+            {
+                itemIds.add ( itemId );
+            }
+            else
+            {
+                unknown.add ( itemId );
+            }
+        }
+        itemIds.addAll ( unknown );
+
+        realizeItems ( itemIds );
+    }
+
+    /**
+     * Realize items using bulk add calls.
+     * <br/>
+     * The items are sent to the server in chunks of {@link #getRealizeBatchSize()}.
+     * If the server cannot handle the chunk size (out of memory or RPC fault) the
+     * chunk size is halved for the remaining items.
+     * @param itemIds the items to realize
+     */
+    protected void realizeItems ( final List<String> itemIds )
+    {
+        int chunkSize = Math.max ( 1, this.realizeBatchSize );
+        int offset = 0;
+
+        while ( offset < itemIds.size () )
+        {
+            final int end = Math.min ( offset + chunkSize, itemIds.size () );
+            final List<String> chunk = itemIds.subList ( offset, end );
+
             try
             {
-                realizeItem ( itemId );
+                realizeChunk ( chunk );
             }
-            catch ( final AddFailedException e )
+            catch ( final JIException e )
             {
-                Integer rc = e.getErrors ().get ( itemId );
-                if ( rc == null )
+                if ( chunk.size () > 1 && isChunkTooLarge ( e ) )
                 {
-                    rc = -1;
+                    chunkSize = Math.max ( 1, chunk.size () / 2 );
+                    logger.info ( String.format ( "Server failed to add %s items at once (%08X). Reducing chunk size to %s", chunk.size (), e.getErrorCode (), chunkSize ) );
+                    continue;
                 }
-                logger.warn ( String.format ( "Failed to add item: %s (%08X)", itemId, rc ) );
 
+                logger.warn ( String.format ( "Failed to realize %s items", chunk.size () ), e );
+                for ( final String itemId : chunk )
+                {
+                    realizeFailed ( itemId, e.getErrorCode () );
+                }
             }
             catch ( final Exception e )
             {
-                logger.warn ( "Failed to realize item: " + itemId, e );
+                logger.warn ( String.format ( "Failed to realize %s items", chunk.size () ), e );
+                for ( final String itemId : chunk )
+                {
+                    realizeFailed ( itemId, -1 );
+                }
+            }
+
+            offset = end;
+        }
+    }
+
+    /**
+     * Realize a chunk of items with one call to the server
+     * @param itemIds the items to add
+     * @throws JIException if the whole add operation failed
+     */
+    protected void realizeChunk ( final List<String> itemIds ) throws JIException
+    {
+        logger.debug ( "Realizing {} items", itemIds.size () );
+
+        final long start = System.nanoTime ();
+
+        Map<String, Item> added;
+        Map<String, Integer> errors = Collections.emptyMap ();
+        try
+        {
+            if ( this.requestedDataType == JIVariant.VT_EMPTY && this.requestedDataTypes.isEmpty () )
+            {
+                added = this.group.addItems ( itemIds.toArray ( new String[itemIds.size ()] ) );
+            }
+            else
+            {
+                final Map<String, Short> types = new HashMap<String, Short> ( itemIds.size () * 4 / 3 + 1 );
+                for ( final String itemId : itemIds )
+                {
+                    final Short type = this.requestedDataTypes.get ( itemId );
+                    types.put ( itemId, type == null ? this.requestedDataType : type );
+                }
+                added = this.group.addItems ( types );
             }
         }
+        catch ( final AddFailedException e )
+        {
+            added = e.getItems ();
+            errors = e.getErrors ();
+        }
+        catch ( final JIException e )
+        {
+            fireChunkRealized ( itemIds.size (), itemIds.size (), System.nanoTime () - start, e );
+            throw e;
+        }
+
+        fireChunkRealized ( itemIds.size (), errors.size (), System.nanoTime () - start, null );
+
+        for ( final Map.Entry<String, Item> entry : added.entrySet () )
+        {
+            final DataCallback dataCallback = this.itemSet.get ( entry.getKey () );
+            if ( dataCallback != null )
+            {
+                this.items.put ( entry.getValue (), dataCallback );
+                this.itemMap.put ( entry.getKey (), entry.getValue () );
+
+                final CompactItemState lastState = this.lastStates.remove ( entry.getKey () );
+                if ( lastState != null )
+                {
+                    this.compactItemCache.put ( entry.getValue (), lastState );
+                    if ( ! ( dataCallback instanceof CompactDataCallbackAdapter ) )
+                    {
+                        this.itemCache.put ( entry.getValue (), lastState.toItemState () );
+                    }
+                }
+            }
+        }
+
+        for ( final Map.Entry<String, Integer> entry : errors.entrySet () )
+        {
+            realizeFailed ( entry.getKey (), entry.getValue () == null ? -1 : entry.getValue () );
+        }
+    }
+
+    /**
+     * Check if the error indicates that the server could not handle the number
+     * of items in one call
+     * @param e the error
+     * @return <code>true</code> if a smaller chunk could succeed
+     */
+    protected boolean isChunkTooLarge ( final JIException e )
+    {
+        switch ( e.getErrorCode () )
+        {
+        case JIErrorCodes.E_OUTOFMEMORY:
+        case JIErrorCodes.RPC_E_SERVERFAULT:
+        case JIErrorCodes.RPC_E_UNEXPECTED:
+            return true;
+        default:
+            return e.getCause () instanceof FaultException;
+        }
+    }
+
+    protected void realizeFailed ( final String itemId, final int errorCode )
+    {
+        logger.warn ( String.format ( "Failed to add item: %s (%08X)", itemId, errorCode ) );
+
+        final DataCallback dataCallback = this.itemSet.get ( itemId );
+        if ( dataCallback instanceof AddFailedCallback )
+        {
+            try
+            {
+                ( (AddFailedCallback)dataCallback ).addFailed ( itemId, errorCode );
+            }
+            catch ( final Throwable e )
+            {
+                logger.warn ( "Failed to notify add failure", e );
+            }
+        }
+    }
+
+    protected void fireChunkRealized ( final int size, final int failed, final long duration, final Throwable error )
+    {
+        logger.debug ( String.format ( "Realized chunk of %s items (%s failed) in %s ms", size, failed, duration / 1000000L ) );
+
+        final RealizeChunkListener listener = this.realizeChunkListener;
+        if ( listener != null )
+        {
+            listener.chunkRealized ( size, failed, duration, error );
+        }
+    }
+
+    public int getRealizeBatchSize ()
+    {
+        return this.realizeBatchSize;
+    }
+
+    /**
+     * Set the number of items that will be added to the group with one call
+     * @param realizeBatchSize the number of items per call
+     */
+    public void setRealizeBatchSize ( final int realizeBatchSize )
+    {
+        this.realizeBatchSize = realizeBatchSize;
+    }
+
+    public void setRealizeChunkListener ( final RealizeChunkListener realizeChunkListener )
+    {
+        this.realizeChunkListener = realizeChunkListener;
     }
 
     protected void unrealizeAll ()
     {
         this.items.clear ();
         this.itemCache.clear ();
+        this.compactItemCache.clear ();
         try
         {
             this.group.clear ();
@@ -298,6 +800,24 @@ public abstract class AccessBase implements ServerConnectionStateListener
             return;
         }
 
+        if ( this.retainStates )
+        {
+            for ( final Map.Entry<String, Item> entry : this.itemMap.entrySet () )
+            {
+                // compact callbacks only update the compact cache
+                final CompactItemState compactState = this.compactItemCache.get ( entry.getValue () );
+                final ItemState state = this.itemCache.get ( entry.getValue () );
+                if ( compactState != null && ( state == null || compactState.getEpochMillis () >= state.getTimestamp ().getTimeInMillis () ) )
+                {
+                    this.lastStates.put ( entry.getKey (), compactState.copy () );
+                }
+                else if ( state != null )
+                {
+                    this.lastStates.put ( entry.getKey (), CompactItemState.fromItemState ( state ) );
+                }
+            }
+        }
+
         unrealizeAll ();
 
         this.active = false;
@@ -316,49 +836,266 @@ public abstract class AccessBase implements ServerConnectionStateListener
 
     public synchronized void clear ()
     {
+        for ( final String itemId : this.itemSet.keySet () )
+        {
+            removeLastValue ( itemId );
+        }
         this.itemSet.clear ();
         this.items.clear ();
         this.itemMap.clear ();
         this.itemCache.clear ();
+        this.compactItemCache.clear ();
+        this.lastStates.clear ();
     }
 
     protected void updateItem ( final Item item, final ItemState itemState )
     {
-    	if ( this.dataLogger != null )
+        synchronized ( this.updateLock )
         {
-            this.dataLogger.debug ( "Update item: {}, {}", item.getId (), itemState );
-        }
+            if ( this.dataLogger != null )
+            {
+                this.dataLogger.debug ( "Update item: {}, {}", item.getId (), itemState );
+            }
 
-        final DataCallback dataCallback = this.items.get ( item );
+            final DataCallback dataCallback = this.items.get ( item );
         
-        if ( dataCallback == null )
+            if ( dataCallback == null )
+            {
+                return;
+            }
+
+            final ChangeFilter filter = getChangeFilter ( item );
+            final ItemState cachedState = this.itemCache.get ( item );
+
+            if ( filter == ChangeFilters.TIMESTAMP )
+            {
+                if ( cachedState != null && cachedState.getTimestamp ().getTimeInMillis () == itemState.getTimestamp ().getTimeInMillis () )
+                {
+                    return;
+                }
+            }
+            else
+            {
+                final CompactItemState state = CompactItemState.fromItemState ( itemState );
+                final CompactItemState previous = this.compactItemCache.get ( item );
+                if ( cachedState != null && previous != null && !filter.isChanged ( previous, state ) )
+                {
+                    return;
+                }
+                this.compactItemCache.put ( item, state );
+            }
+
+            this.itemCache.put ( item, itemState );
+            recordHistory ( item, itemState );
+            notifyCallback ( dataCallback, item, itemState );
+        }
+    }
+
+    /**
+     * Update an item from a compact state. Callbacks registered as {@link CompactDataCallback}
+     * receive the state directly, all other callbacks get a converted {@link ItemState}.
+     * The change filter is applied to the compact state, so only forwarded updates get converted.
+     * @param item the item to update
+     * @param itemState the new state, which may be re-used by the caller after the call
+     */
+    protected void updateItem ( final Item item, final CompactItemState itemState )
+    {
+        synchronized ( this.updateLock )
         {
-            return;
+            final DataCallback dataCallback = this.items.get ( item );
+
+            if ( dataCallback == null )
+            {
+                return;
+            }
+
+            if ( this.dataLogger != null )
+            {
+                this.dataLogger.debug ( "Update item: {}, {}", item.getId (), itemState );
+            }
+
+            final CompactItemState cachedState = this.compactItemCache.get ( item );
+
+            if ( cachedState == null )
+            {
+                this.compactItemCache.put ( item, itemState.copy () );
+            }
+            else if ( getChangeFilter ( item ).isChanged ( cachedState, itemState ) )
+            {
+                cachedState.set ( itemState );
+            }
+            else
+            {
+                return;
+            }
+
+            final ItemHistory history = this.history;
+            if ( history != null )
+            {
+                history.append ( item.getId (), itemState );
+            }
+
+            final LastValueTable lastValueTable = this.lastValueTable;
+
+            if ( dataCallback instanceof CompactDataCallbackAdapter && this.dispatcher == null )
+            {
+                if ( lastValueTable != null )
+                {
+                    lastValueTable.put ( item.getId (), itemState );
+                }
+                ( (CompactDataCallbackAdapter)dataCallback ).getCallback ().changed ( item, itemState );
+                return;
+            }
+
+            // the dispatcher and plain data callbacks work on item states
+            final ItemState state = itemState.toItemState ();
+            this.itemCache.put ( item, state );
+            if ( lastValueTable != null )
+            {
+                lastValueTable.put ( item.getId (), state );
+            }
+            notifyCallback ( dataCallback, item, state );
         }
+    }
 
-        final ItemState cachedState = this.itemCache.get ( item );
-        
-        if ( cachedState == null )
+    private void recordHistory ( final Item item, final ItemState itemState )
+    {
+        final ItemHistory history = this.history;
+        if ( history != null )
         {
-            this.itemCache.put ( item, itemState );
-            dataCallback.changed ( item, itemState );
+            history.append ( item.getId (), itemState );
+        }
+
+        final LastValueTable lastValueTable = this.lastValueTable;
+        if ( lastValueTable != null )
+        {
+            lastValueTable.put ( item.getId (), itemState );
+        }
+    }
+
+    /**
+     * Record the reception of a data change callback
+     */
+    protected void dataChangeReceived ()
+    {
+        this.lastDataChange = System.currentTimeMillis ();
+    }
+
+    /**
+     * Get the time of the last data change callback, including the empty callbacks
+     * a group sends when its keep alive time passed without changes. Together with
+     * {@link Group#setKeepAlive(int)} this allows detecting dead subscriptions.
+     * @return the time in milliseconds, the start time of the access if no callback
+     * was received since then, or <code>0</code> if the access was never started
+     */
+    public long getLastDataChange ()
+    {
+        return this.lastDataChange;
+    }
+
+    public ItemHistory getHistory ()
+    {
+        return this.history;
+    }
+
+    /**
+     * Set the history that records every update reported to the data callbacks
+     * @param history the history or <code>null</code> to record nothing
+     */
+    public void setHistory ( final ItemHistory history )
+    {
+        this.history = history;
+    }
+
+    private ChangeFilter getChangeFilter ( final Item item )
+    {
+        if ( !this.itemChangeFilters.isEmpty () )
+        {
+            final ChangeFilter filter = this.itemChangeFilters.get ( item.getId () );
+            if ( filter != null )
+            {
+                return filter;
+            }
+        }
+        return this.changeFilter;
+    }
+
+    public ChangeFilter getChangeFilter ()
+    {
+        return this.changeFilter;
+    }
+
+    /**
+     * Set the filter that decides which updates are forwarded to the data callbacks.
+     * The default is {@link ChangeFilters#TIMESTAMP}.
+     * @param changeFilter the filter for all items without an own filter
+     */
+    public void setChangeFilter ( final ChangeFilter changeFilter )
+    {
+        this.changeFilter = changeFilter == null ? ChangeFilters.TIMESTAMP : changeFilter;
+    }
+
+    /**
+     * Set the change filter of a single item
+     * @param itemId the item
+     * @param changeFilter the filter or <code>null</code> to use the default filter again
+     */
+    public void setChangeFilter ( final String itemId, final ChangeFilter changeFilter )
+    {
+        if ( changeFilter == null )
+        {
+            this.itemChangeFilters.remove ( itemId );
+        }
+        else
+        {
+            this.itemChangeFilters.put ( itemId, changeFilter );
+        }
+    }
+
+    public LastValueTable getLastValueTable ()
+    {
+        return this.lastValueTable;
+    }
+
+    /**
+     * Set the table that keeps the last state of every item. Other than the internal
+     * cache the table may be read from any thread.
+     * @param lastValueTable the table or <code>null</code> to keep no table
+     */
+    public void setLastValueTable ( final LastValueTable lastValueTable )
+    {
+        this.lastValueTable = lastValueTable;
+    }
+
+    protected void notifyCallback ( final DataCallback dataCallback, final Item item, final ItemState itemState )
+    {
+        final DataCallbackDispatcher dispatcher = this.dispatcher;
+        if ( dispatcher != null )
+        {
+            dispatcher.dispatch ( dataCallback, item, itemState );
         }
         else
         {
-//            if ( !cachedState.equals ( itemState ) )
-//            {
-//            	  System.out.println(cachedState.getTimestamp().getTimeInMillis() + " " + itemState.getTimestamp().getTimeInMillis());
-//            	  this.itemCache.put ( item, itemState );
-//                dataCallback.changed ( item, itemState );
-//            }
-	          if ( !(cachedState.getTimestamp().getTimeInMillis() == itemState.getTimestamp().getTimeInMillis()) )
-	          {
-	          	  this.itemCache.put ( item, itemState );
-	              dataCallback.changed ( item, itemState );
-	          }
+            dataCallback.changed ( item, itemState );
         }
     }
 
+    public DataCallbackDispatcher getDispatcher ()
+    {
+        return this.dispatcher;
+    }
+
+    /**
+     * Set the dispatcher that delivers the updates to the data callbacks. If no
+     * dispatcher is set (the default) the callbacks are called on the thread
+     * that received the update.
+     * @param dispatcher the dispatcher to use or <code>null</code> to call directly
+     */
+    public void setDispatcher ( final DataCallbackDispatcher dispatcher )
+    {
+        this.dispatcher = dispatcher;
+    }
+
     protected void handleError ( final Throwable e )
     {
         notifyStateListenersError ( e );
@@ -22,11 +22,12 @@ package org.openscada.opc.lib.da;
 import java.net.UnknownHostException;
 
 import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIVariant;
 import org.openscada.opc.dcom.common.EventHandler;
 import org.openscada.opc.dcom.common.KeyedResult;
 import org.openscada.opc.dcom.common.KeyedResultSet;
 import org.openscada.opc.dcom.common.ResultSet;
-import org.openscada.opc.dcom.da.IOPCDataCallback;
+import org.openscada.opc.dcom.da.IOPCRawDataCallback;
 import org.openscada.opc.dcom.da.OPCDATASOURCE;
 import org.openscada.opc.dcom.da.ValueData;
 import org.openscada.opc.dcom.da.impl.OPCAsyncIO2;
@@ -34,7 +35,7 @@ import org.openscada.opc.lib.common.NotConnectedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class Async20Access extends AccessBase implements IOPCDataCallback
+public class Async20Access extends AccessBase implements IOPCRawDataCallback
 {
     private static Logger logger = LoggerFactory.getLogger ( Async20Access.class );
 
@@ -42,6 +43,8 @@ public class Async20Access extends AccessBase implements IOPCDataCallback
 
     private boolean initialRefresh = false;
 
+    private volatile AsyncTransactionManager transactionManager = null;
+
     public Async20Access ( final Server server, final int period, final boolean initialRefresh ) throws IllegalArgumentException, UnknownHostException, NotConnectedException, JIException, DuplicateGroupException
     {
         super ( server, period );
@@ -64,6 +67,7 @@ public class Async20Access extends AccessBase implements IOPCDataCallback
 
         super.start ();
 
+        this.transactionManager = new AsyncTransactionManager ( this.group );
         this.eventHandler = this.group.attach ( this );
         if ( !this.items.isEmpty () && this.initialRefresh )
         {
@@ -99,17 +103,40 @@ public class Async20Access extends AccessBase implements IOPCDataCallback
             this.eventHandler = null;
         }
 
+        if ( this.transactionManager != null )
+        {
+            this.transactionManager.cancelAll ();
+            this.transactionManager = null;
+        }
+
         super.stop ();
     }
 
+    /**
+     * Get the transaction manager for asynchronous reads and writes on the
+     * group of this access
+     * @return the transaction manager or <code>null</code> if the access is not active
+     */
+    public AsyncTransactionManager getTransactionManager ()
+    {
+        return this.transactionManager;
+    }
+
     public void cancelComplete ( final int transactionId, final int serverGroupHandle )
     {
+        final AsyncTransactionManager transactionManager = this.transactionManager;
+        if ( transactionManager != null )
+        {
+            transactionManager.cancelComplete ( transactionId, serverGroupHandle );
+        }
     }
 
     public void dataChange ( final int transactionId, final int serverGroupHandle, final int masterQuality, final int masterErrorCode, final KeyedResultSet<Integer, ValueData> result )
     {
         logger.debug ( "dataChange - transId {}, items: {}", transactionId, result.size () );
 
+        dataChangeReceived ();
+
         final Group group = this.group;
         if ( group == null )
         {
@@ -124,13 +151,52 @@ public class Async20Access extends AccessBase implements IOPCDataCallback
         }
     }
 
+    public void rawDataChange ( final int transactionId, final int serverGroupHandle, final int masterQuality, final int masterErrorCode, final int count, final Integer[] clientHandles, final JIVariant[] values, final Short[] qualities, final long[] timestamps, final Integer[] errors )
+    {
+        logger.debug ( "dataChange - transId {}, items: {}", transactionId, count );
+
+        // also record empty keep alive callbacks
+        dataChangeReceived ();
+
+        final Group group = this.group;
+        if ( group == null )
+        {
+            return;
+        }
+
+        // one state instance is re-used for all values of this call
+        final CompactItemState state = new CompactItemState ();
+        for ( int i = 0; i < count; i++ )
+        {
+            final Item item = group.findItemByClientHandle ( clientHandles[i] );
+            if ( item == null )
+            {
+                continue;
+            }
+            state.set ( errors[i], qualities[i], timestamps[i], values[i] );
+            updateItem ( item, state );
+        }
+    }
+
     public void readComplete ( final int transactionId, final int serverGroupHandle, final int masterQuality, final int masterErrorCode, final KeyedResultSet<Integer, ValueData> result )
     {
         logger.debug ( "readComplete - transId {}", transactionId );
+
+        final AsyncTransactionManager transactionManager = this.transactionManager;
+        if ( transactionManager != null )
+        {
+            transactionManager.readComplete ( transactionId, serverGroupHandle, masterQuality, masterErrorCode, result );
+        }
     }
 
     public void writeComplete ( final int transactionId, final int serverGroupHandle, final int masterErrorCode, final ResultSet<Integer> result )
     {
         logger.debug ( "writeComplete - transId {}", transactionId );
+
+        final AsyncTransactionManager transactionManager = this.transactionManager;
+        if ( transactionManager != null )
+        {
+            transactionManager.writeComplete ( transactionId, serverGroupHandle, masterErrorCode, result );
+        }
     }
 }
@@ -0,0 +1,449 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jinterop.dcom.common.JIException;
+import org.openscada.opc.dcom.common.KeyedResult;
+import org.openscada.opc.dcom.common.KeyedResultSet;
+import org.openscada.opc.dcom.common.Result;
+import org.openscada.opc.dcom.common.ResultSet;
+import org.openscada.opc.dcom.da.IOPCDataCallback;
+import org.openscada.opc.dcom.da.ValueData;
+import org.openscada.opc.dcom.da.impl.OPCAsyncIO2;
+import org.openscada.opc.dcom.da.impl.OPCAsyncIO2.AsyncResult;
+import org.openscada.opc.lib.common.NotConnectedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Issues asynchronous read and write calls on a group using <code>IOPCAsyncIO2</code>
+ * and completes futures from the <code>OnReadComplete</code> and <code>OnWriteComplete</code>
+ * callbacks of the group.
+ * <br/>
+ * Each call gets its own transaction id, so any number of transactions may be outstanding.
+ * The manager must receive the callbacks of the group, either by attaching it directly
+ * using {@link Group#attach(IOPCDataCallback)} or by having the attached callback forward
+ * the calls (as {@link Async20Access} does).
+ * <br/>
+ * Items rejected by the server when issuing the call are reported with their error code
+ * in the result map.
+ */
+public class AsyncTransactionManager implements IOPCDataCallback
+{
+    private static Logger logger = LoggerFactory.getLogger ( AsyncTransactionManager.class );
+
+    /**
+     * The default timeout of a transaction in milliseconds
+     */
+    public static final long DEFAULT_TIMEOUT = Long.getLong ( "openscada.opc.async-timeout", 10000 );
+
+    private final Group group;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicInteger transactionCounter = new AtomicInteger ();
+
+    private final Map<Integer, Transaction<?>> transactions = new ConcurrentHashMap<Integer, Transaction<?>> ();
+
+    /**
+     * Create a new transaction manager using the scheduler of the server
+     * for timeouts
+     * @param group the group to operate on
+     */
+    public AsyncTransactionManager ( final Group group )
+    {
+        this ( group, group.getServer ().getScheduler () );
+    }
+
+    /**
+     * Create a new transaction manager
+     * @param group the group to operate on
+     * @param scheduler the scheduler used for timeouts, may be <code>null</code> in which case
+     * transactions never time out
+     */
+    public AsyncTransactionManager ( final Group group, final ScheduledExecutorService scheduler )
+    {
+        this.group = group;
+        this.scheduler = scheduler;
+    }
+
+    public Group getGroup ()
+    {
+        return this.group;
+    }
+
+    /**
+     * Get the number of transactions waiting for their completion callback
+     * @return the number of pending transactions
+     */
+    public int getPendingCount ()
+    {
+        return this.transactions.size ();
+    }
+
+    public CompletableFuture<Map<Item, ItemState>> read ( final Item... items )
+    {
+        return read ( DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS, items );
+    }
+
+    /**
+     * Read items asynchronously from the device
+     * @param timeout the time after which the transaction gets cancelled, zero or
+     * negative for no timeout
+     * @param unit the unit of the timeout
+     * @param items the items to read
+     * @return the future of the item states
+     */
+    public CompletableFuture<Map<Item, ItemState>> read ( final long timeout, final TimeUnit unit, final Item... items )
+    {
+        final ReadTransaction transaction = new ReadTransaction ( nextTransactionId () );
+
+        try
+        {
+            final OPCAsyncIO2 asyncIO = getAsyncIO ();
+            final Integer[] handles = this.group.getServerHandles ( items );
+
+            // register before the call, the callback may arrive before the call returns
+            this.transactions.put ( transaction.id, transaction );
+            final AsyncResult result = asyncIO.read ( transaction.id, handles );
+            issued ( transaction, asyncIO, result, items, timeout, unit );
+        }
+        catch ( final Throwable e )
+        {
+            this.transactions.remove ( transaction.id );
+            transaction.fail ( e );
+        }
+
+        return transaction.future;
+    }
+
+    public CompletableFuture<Map<Item, Integer>> write ( final WriteRequest... requests )
+    {
+        return write ( DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS, requests );
+    }
+
+    /**
+     * Write items asynchronously
+     * @param timeout the time after which the transaction gets cancelled, zero or
+     * negative for no timeout
+     * @param unit the unit of the timeout
+     * @param requests the write requests
+     * @return the future of the error code per item
+     */
+    public CompletableFuture<Map<Item, Integer>> write ( final long timeout, final TimeUnit unit, final WriteRequest... requests )
+    {
+        final WriteTransaction transaction = new WriteTransaction ( nextTransactionId () );
+
+        try
+        {
+            final OPCAsyncIO2 asyncIO = getAsyncIO ();
+
+            final Item[] items = new Item[requests.length];
+            for ( int i = 0; i < requests.length; i++ )
+            {
+                items[i] = requests[i].getItem ();
+            }
+            final Integer[] handles = this.group.getServerHandles ( items );
+
+            final org.openscada.opc.dcom.da.WriteRequest[] wr = new org.openscada.opc.dcom.da.WriteRequest[requests.length];
+            for ( int i = 0; i < requests.length; i++ )
+            {
+                wr[i] = new org.openscada.opc.dcom.da.WriteRequest ( handles[i], requests[i].getValue () );
+            }
+
+            // register before the call, the callback may arrive before the call returns
+            this.transactions.put ( transaction.id, transaction );
+            final AsyncResult result = asyncIO.write ( transaction.id, wr );
+            issued ( transaction, asyncIO, result, items, timeout, unit );
+        }
+        catch ( final Throwable e )
+        {
+            this.transactions.remove ( transaction.id );
+            transaction.fail ( e );
+        }
+
+        return transaction.future;
+    }
+
+    /**
+     * Fail all pending transactions. This should be called when the group
+     * is no longer used.
+     */
+    public void cancelAll ()
+    {
+        for ( final Integer id : this.transactions.keySet () )
+        {
+            final Transaction<?> transaction = this.transactions.remove ( id );
+            if ( transaction != null )
+            {
+                transaction.fail ( new CancellationException ( "Transaction manager was cancelled" ) );
+            }
+        }
+    }
+
+    private int nextTransactionId ()
+    {
+        int id;
+        do
+        {
+            // zero is used for refresh calls
+            id = this.transactionCounter.incrementAndGet ();
+        } while ( id == 0 );
+        return id;
+    }
+
+    private OPCAsyncIO2 getAsyncIO () throws NotConnectedException
+    {
+        final OPCAsyncIO2 asyncIO = this.group.getAsyncIO20 ();
+        if ( asyncIO == null )
+        {
+            throw new NotConnectedException ();
+        }
+        return asyncIO;
+    }
+
+    private void issued ( final Transaction<?> transaction, final OPCAsyncIO2 asyncIO, final AsyncResult result, final Item[] items, final long timeout, final TimeUnit unit )
+    {
+        int accepted = 0;
+        final ResultSet<Integer> errors = result.getResult ();
+        for ( int i = 0; i < errors.size (); i++ )
+        {
+            final Result<Integer> entry = errors.get ( i );
+            if ( entry.isError () )
+            {
+                transaction.rejected ( items[i], entry.getErrorCode () );
+            }
+            else
+            {
+                accepted++;
+            }
+        }
+
+        if ( accepted == 0 )
+        {
+            // the server won't call us back
+            this.transactions.remove ( transaction.id );
+        }
+        else if ( timeout > 0 && this.scheduler != null )
+        {
+            transaction.timeoutJob = this.scheduler.schedule ( new Runnable () {
+
+                public void run ()
+                {
+                    timeout ( transaction, asyncIO );
+                }
+            }, timeout, unit );
+        }
+
+        transaction.issued ( result.getCancelId (), accepted > 0 );
+    }
+
+    private void timeout ( final Transaction<?> transaction, final OPCAsyncIO2 asyncIO )
+    {
+        if ( this.transactions.remove ( transaction.id ) == null )
+        {
+            return;
+        }
+
+        logger.info ( "Transaction {} timed out", transaction.id );
+
+        final Integer cancelId = transaction.cancelId;
+        if ( cancelId != null )
+        {
+            try
+            {
+                asyncIO.cancel ( cancelId );
+            }
+            catch ( final JIException e )
+            {
+                logger.info ( "Failed to cancel transaction", e );
+            }
+        }
+
+        transaction.fail ( new TimeoutException ( String.format ( "Transaction %s timed out", transaction.id ) ) );
+    }
+
+    public void readComplete ( final int transactionId, final int serverGroupHandle, final int masterQuality, final int masterErrorCode, final KeyedResultSet<Integer, ValueData> result )
+    {
+        final Transaction<?> transaction = this.transactions.remove ( transactionId );
+        if ( ! ( transaction instanceof ReadTransaction ) )
+        {
+            logger.debug ( "readComplete for unknown transaction {}", transactionId );
+            return;
+        }
+
+        final Map<Item, ItemState> states = new HashMap<Item, ItemState> ( result.size () );
+        for ( final KeyedResult<Integer, ValueData> entry : result )
+        {
+            final Item item = this.group.findItemByClientHandle ( entry.getKey () );
+            if ( item != null )
+            {
+                final ValueData value = entry.getValue ();
+                states.put ( item, new ItemState ( entry.getErrorCode (), value.getValue (), value.getTimestamp (), value.getQuality () ) );
+            }
+        }
+        ( (ReadTransaction)transaction ).completed ( states );
+    }
+
+    public void writeComplete ( final int transactionId, final int serverGroupHandle, final int masterErrorCode, final ResultSet<Integer> result )
+    {
+        final Transaction<?> transaction = this.transactions.remove ( transactionId );
+        if ( ! ( transaction instanceof WriteTransaction ) )
+        {
+            logger.debug ( "writeComplete for unknown transaction {}", transactionId );
+            return;
+        }
+
+        final Map<Item, Integer> errors = new HashMap<Item, Integer> ( result.size () );
+        for ( final Result<Integer> entry : result )
+        {
+            final Item item = this.group.findItemByClientHandle ( entry.getValue () );
+            if ( item != null )
+            {
+                errors.put ( item, entry.getErrorCode () );
+            }
+        }
+        ( (WriteTransaction)transaction ).completed ( errors );
+    }
+
+    public void cancelComplete ( final int transactionId, final int serverGroupHandle )
+    {
+        final Transaction<?> transaction = this.transactions.remove ( transactionId );
+        if ( transaction != null )
+        {
+            transaction.fail ( new CancellationException ( String.format ( "Transaction %s was cancelled", transactionId ) ) );
+        }
+    }
+
+    public void dataChange ( final int transactionId, final int serverGroupHandle, final int masterQuality, final int masterErrorCode, final KeyedResultSet<Integer, ValueData> result )
+    {
+    }
+
+    /**
+     * A pending transaction. It is completed when both the call returned
+     * and the completion callback was received, whatever comes last.
+     */
+    private static abstract class Transaction<T>
+    {
+        protected final int id;
+
+        protected final CompletableFuture<Map<Item, T>> future = new CompletableFuture<Map<Item, T>> ();
+
+        private final Map<Item, T> result = new HashMap<Item, T> ();
+
+        private boolean issued = false;
+
+        private boolean callback = false;
+
+        protected volatile Integer cancelId;
+
+        protected volatile ScheduledFuture<?> timeoutJob;
+
+        public Transaction ( final int id )
+        {
+            this.id = id;
+        }
+
+        public abstract void rejected ( Item item, int errorCode );
+
+        protected synchronized void put ( final Item item, final T value )
+        {
+            this.result.put ( item, value );
+        }
+
+        public synchronized void issued ( final Integer cancelId, final boolean expectCallback )
+        {
+            this.cancelId = cancelId;
+            this.issued = true;
+            this.callback |= !expectCallback;
+            checkComplete ();
+        }
+
+        public synchronized void completed ( final Map<Item, T> values )
+        {
+            this.result.putAll ( values );
+            this.callback = true;
+            checkComplete ();
+        }
+
+        private void checkComplete ()
+        {
+            if ( this.issued && this.callback )
+            {
+                cancelTimeout ();
+                this.future.complete ( this.result );
+            }
+        }
+
+        public void fail ( final Throwable e )
+        {
+            cancelTimeout ();
+            this.future.completeExceptionally ( e );
+        }
+
+        private void cancelTimeout ()
+        {
+            final ScheduledFuture<?> job = this.timeoutJob;
+            if ( job != null )
+            {
+                job.cancel ( false );
+            }
+        }
+    }
+
+    private static class ReadTransaction extends Transaction<ItemState>
+    {
+        public ReadTransaction ( final int id )
+        {
+            super ( id );
+        }
+
+        @Override
+        public void rejected ( final Item item, final int errorCode )
+        {
+            put ( item, new ItemState ( errorCode, null, null, null ) );
+        }
+    }
+
+    private static class WriteTransaction extends Transaction<Integer>
+    {
+        public WriteTransaction ( final int id )
+        {
+            super ( id );
+        }
+
+        @Override
+        public void rejected ( final Item item, final int errorCode )
+        {
+            put ( item, errorCode );
+        }
+    }
+}
@@ -19,20 +19,51 @@
 
 package org.openscada.opc.lib.da;
 
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Semaphore;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Keeps a server connected.
+ * <br/>
+ * After a failed attempt the delay grows exponentially from the initial delay up
+ * to the maximum delay. A random jitter is applied to every delay so that many clients
+ * losing the connection at the same time do not reconnect at the same time.
+ * <br/>
+ * The number of concurrent connection attempts to the same host is limited for all
+ * controllers of the VM. The limit can be set by the java property
+ * <q>openscada.opc.reconnect-per-host</q>.
+ */
 public class AutoReconnectController implements ServerConnectionStateListener
 {
     private static Logger _log = LoggerFactory.getLogger ( AutoReconnectController.class );
 
     private static final int DEFAULT_DELAY = 5 * 1000;
 
+    private static final int DEFAULT_MAX_DELAY = 5 * 60 * 1000;
+
+    private static final double DEFAULT_JITTER = 0.25;
+
+    public static final int DEFAULT_CONCURRENT_CONNECTS_PER_HOST = Integer.getInteger ( "openscada.opc.reconnect-per-host", 4 );
+
+    private static final ConcurrentMap<String, Semaphore> _hostPermits = new ConcurrentHashMap<String, Semaphore> ();
+
+    private static final Random _random = new Random ();
+
     private int _delay;
 
+    private int _maxDelay = DEFAULT_MAX_DELAY;
+
+    private double _jitter = DEFAULT_JITTER;
+
+    private volatile int _failedAttempts = 0;
+
     private final Server _server;
 
     private final Set<AutoReconnectListener> _listeners = new CopyOnWriteArraySet<AutoReconnectListener> ();
@@ -97,6 +128,77 @@ public class AutoReconnectController implements ServerConnectionStateListener
         this._delay = delay;
     }
 
+    public int getMaxDelay ()
+    {
+        return this._maxDelay;
+    }
+
+    /**
+     * Set the upper limit of the reconnect delay. Setting it to the
+     * reconnect delay disables the exponential backoff.
+     * @param maxDelay the maximum delay in milliseconds
+     */
+    public void setMaxDelay ( final int maxDelay )
+    {
+        this._maxDelay = maxDelay;
+    }
+
+    public double getJitter ()
+    {
+        return this._jitter;
+    }
+
+    /**
+     * Set the random jitter applied to the delay
+     * @param jitter the jitter as fraction of the delay, between 0 and 1
+     */
+    public void setJitter ( final double jitter )
+    {
+        if ( jitter < 0.0 || jitter > 1.0 )
+        {
+            throw new IllegalArgumentException ( "jitter must be between 0 and 1" );
+        }
+        this._jitter = jitter;
+    }
+
+    /**
+     * Calculate the delay before the next connection attempt
+     * @return the delay in milliseconds
+     */
+    protected long nextDelay ()
+    {
+        final int failedAttempts = this._failedAttempts;
+        long delay = this._delay;
+        for ( int i = 0; i < failedAttempts && delay < this._maxDelay; i++ )
+        {
+            delay *= 2;
+        }
+        delay = Math.min ( delay, Math.max ( this._delay, this._maxDelay ) );
+
+        final double factor;
+        synchronized ( _random )
+        {
+            factor = 1.0 - this._jitter + _random.nextDouble () * 2.0 * this._jitter;
+        }
+        return (long) ( delay * factor );
+    }
+
+    private static Semaphore getHostPermits ( final String host )
+    {
+        final String key = host == null ? "" : host.toLowerCase ();
+        Semaphore semaphore = _hostPermits.get ( key );
+        if ( semaphore == null )
+        {
+            semaphore = new Semaphore ( Math.max ( 1, DEFAULT_CONCURRENT_CONNECTS_PER_HOST ), true );
+            final Semaphore existing = _hostPermits.putIfAbsent ( key, semaphore );
+            if ( existing != null )
+            {
+                semaphore = existing;
+            }
+        }
+        return semaphore;
+    }
+
     public synchronized void connect ()
     {
         if ( isRequested () )
@@ -148,6 +250,7 @@ public class AutoReconnectController implements ServerConnectionStateListener
             }
             else
             {
+                this._failedAttempts = 0;
                 notifyStateChange ( AutoReconnectState.CONNECTED );
             }
         }
@@ -194,8 +297,9 @@ public class AutoReconnectController implements ServerConnectionStateListener
             if ( wait )
             {
                 notifyStateChange ( AutoReconnectState.WAITING );
-                _log.debug ( String.format ( "Delaying (%s)...", this._delay ) );
-                Thread.sleep ( this._delay );
+                final long delay = nextDelay ();
+                _log.debug ( String.format ( "Delaying (%s)...", delay ) );
+                Thread.sleep ( delay );
             }
         }
         catch ( InterruptedException e )
@@ -208,8 +312,24 @@ public class AutoReconnectController implements ServerConnectionStateListener
             return true;
         }
 
+        final Semaphore permits = getHostPermits ( this._server.getConnectionInformation ().getHost () );
         try
         {
+            permits.acquire ();
+        }
+        catch ( InterruptedException e )
+        {
+            return false;
+        }
+
+        try
+        {
+            if ( !isRequested () )
+            {
+                _log.debug ( "Request canceled while waiting for the host" );
+                return true;
+            }
+
             _log.debug ( "Connecting to server" );
             notifyStateChange ( AutoReconnectState.CONNECTING );
             synchronized ( this )
@@ -222,9 +342,17 @@ public class AutoReconnectController implements ServerConnectionStateListener
         catch ( Throwable e )
         {
             _log.info ( "Re-connect failed", e );
+            synchronized ( this )
+            {
+                this._failedAttempts++;
+            }
             notifyStateChange ( AutoReconnectState.DISCONNECTED );
             return false;
         }
+        finally
+        {
+            permits.release ();
+        }
     }
 
 }
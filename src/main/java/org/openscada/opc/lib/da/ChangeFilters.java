@@ -0,0 +1,190 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da;
+
+import java.util.Map;
+
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIVariant;
+import org.openscada.opc.dcom.da.OPCITEMPROPERTY;
+
+/**
+ * The standard change filters.
+ * <br/>
+ * Besides the timestamp filter all filters forward changes of the error code and the
+ * quality. Numeric values are compared on the primitive values of the {@link CompactItemState},
+ * strings by content. Values which can't be compared (e.g. arrays) are treated as changed
+ * if the timestamp changed.
+ */
+public final class ChangeFilters
+{
+    /**
+     * The property id of the high EU limit
+     */
+    public static final int PROPERTY_HIGH_EU = 102;
+
+    /**
+     * The property id of the low EU limit
+     */
+    public static final int PROPERTY_LOW_EU = 103;
+
+    /**
+     * Forward an update if the timestamp changed. This is the default.
+     */
+    public static final ChangeFilter TIMESTAMP = new ChangeFilter () {
+        public boolean isChanged ( final CompactItemState previous, final CompactItemState current )
+        {
+            return previous.getFileTime () != current.getFileTime ();
+        }
+    };
+
+    /**
+     * Forward an update if the value, the quality or the error code changed
+     */
+    public static final ChangeFilter VALUE_OR_QUALITY = new ChangeFilter () {
+        public boolean isChanged ( final CompactItemState previous, final CompactItemState current )
+        {
+            return statusChanged ( previous, current ) || valueChanged ( previous, current );
+        }
+    };
+
+    private ChangeFilters ()
+    {
+    }
+
+    /**
+     * Create a filter that forwards numeric values only if they differ by more than a deadband
+     * from the last forwarded value
+     * @param deadband the absolute deadband
+     * @return the filter
+     */
+    public static ChangeFilter absoluteDeadband ( final double deadband )
+    {
+        if ( deadband < 0 )
+        {
+            throw new IllegalArgumentException ( "Deadband must not be negative" );
+        }
+
+        return new ChangeFilter () {
+            public boolean isChanged ( final CompactItemState previous, final CompactItemState current )
+            {
+                if ( statusChanged ( previous, current ) )
+                {
+                    return true;
+                }
+                if ( deadband > 0 && previous.getType () == current.getType () && previous.isNumeric () && current.isNumeric () )
+                {
+                    final double delta = Math.abs ( current.getDouble () - previous.getDouble () );
+                    if ( !Double.isNaN ( delta ) )
+                    {
+                        return delta > deadband;
+                    }
+                }
+                return valueChanged ( previous, current );
+            }
+        };
+    }
+
+    /**
+     * Create a filter that forwards numeric values only if they differ by more than a percentage
+     * of the EU range from the last forwarded value
+     * @param percent the deadband in percent of the range
+     * @param lowEU the low EU limit
+     * @param highEU the high EU limit
+     * @return the filter
+     */
+    public static ChangeFilter percentDeadband ( final double percent, final double lowEU, final double highEU )
+    {
+        if ( percent < 0 || percent > 100 )
+        {
+            throw new IllegalArgumentException ( "Percent deadband must be between 0 and 100" );
+        }
+        return absoluteDeadband ( Math.abs ( highEU - lowEU ) * percent / 100.0 );
+    }
+
+    /**
+     * Create a percent deadband filter from the EU limits of an item
+     * @param percent the deadband in percent of the range
+     * @param properties the item properties by property id, must contain {@link #PROPERTY_LOW_EU} and {@link #PROPERTY_HIGH_EU}
+     * @return the filter or {@link #VALUE_OR_QUALITY} if the item has no valid EU range
+     * @see ItemPropertyService#getProperties(String, int...)
+     */
+    public static ChangeFilter percentDeadband ( final double percent, final Map<Integer, OPCITEMPROPERTY> properties )
+    {
+        final double low = toDouble ( properties.get ( PROPERTY_LOW_EU ) );
+        final double high = toDouble ( properties.get ( PROPERTY_HIGH_EU ) );
+        if ( Double.isNaN ( low ) || Double.isNaN ( high ) || Double.isInfinite ( high - low ) )
+        {
+            return VALUE_OR_QUALITY;
+        }
+        return percentDeadband ( percent, low, high );
+    }
+
+    private static double toDouble ( final OPCITEMPROPERTY property )
+    {
+        if ( property == null || property.getErrorCode () != 0 || property.getValue () == null )
+        {
+            return Double.NaN;
+        }
+
+        final CompactItemState state = new CompactItemState ();
+        state.setValue ( property.getValue () );
+        return state.isNumeric () ? state.getDouble () : Double.NaN;
+    }
+
+    static boolean statusChanged ( final CompactItemState previous, final CompactItemState current )
+    {
+        return previous.getErrorCode () != current.getErrorCode () || previous.getQuality () != current.getQuality ();
+    }
+
+    static boolean valueChanged ( final CompactItemState previous, final CompactItemState current )
+    {
+        if ( previous.getType () != current.getType () )
+        {
+            return true;
+        }
+        if ( previous.isIntegral () && current.isIntegral () )
+        {
+            return previous.getLong () != current.getLong ();
+        }
+        if ( previous.isFloatingPoint () && current.isFloatingPoint () )
+        {
+            return Double.doubleToLongBits ( previous.getDouble () ) != Double.doubleToLongBits ( current.getDouble () );
+        }
+        if ( current.getType () == JIVariant.VT_EMPTY || current.getType () == JIVariant.VT_NULL )
+        {
+            return false;
+        }
+        if ( current.getType () == JIVariant.VT_BSTR && previous.getVariant () != null && current.getVariant () != null )
+        {
+            try
+            {
+                final String previousValue = previous.getVariant ().getObjectAsString2 ();
+                final String currentValue = current.getVariant ().getObjectAsString2 ();
+                return previousValue == null ? currentValue != null : !previousValue.equals ( currentValue );
+            }
+            catch ( final JIException e )
+            {
+                return true;
+            }
+        }
+        return previous.getFileTime () != current.getFileTime ();
+    }
+}
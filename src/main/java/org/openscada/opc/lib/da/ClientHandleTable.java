@@ -0,0 +1,140 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da;
+
+import java.util.BitSet;
+
+/**
+ * Allocates client handles densely and maps them to items.
+ * <br/>
+ * The client handle is the index into an array so that a lookup costs one
+ * array access. Handles of removed items are recycled in the order they were
+ * released so that a handle is re-used as late as possible. Lookups are not
+ * synchronized and may be performed from the callback thread.
+ */
+class ClientHandleTable
+{
+    private static final int INITIAL_CAPACITY = 16;
+
+    private volatile Item[] items = new Item[INITIAL_CAPACITY];
+
+    /**
+     * The next never used handle. Handle 0 is never handed out.
+     */
+    private int next = 1;
+
+    private int[] free = new int[INITIAL_CAPACITY];
+
+    private int freeHead = 0;
+
+    private int freeSize = 0;
+
+    /**
+     * The handles which are currently handed out
+     */
+    private final BitSet allocated = new BitSet ();
+
+    /**
+     * Allocate a new client handle
+     * @return the new client handle
+     */
+    public synchronized int allocate ()
+    {
+        if ( this.freeSize > 0 )
+        {
+            final int handle = this.free[this.freeHead];
+            this.freeHead = ( this.freeHead + 1 ) % this.free.length;
+            this.freeSize--;
+            this.allocated.set ( handle );
+            return handle;
+        }
+
+        final int handle = this.next++;
+        if ( handle >= this.items.length )
+        {
+            final Item[] newItems = new Item[this.items.length << 1];
+            System.arraycopy ( this.items, 0, newItems, 0, this.items.length );
+            this.items = newItems;
+        }
+        this.allocated.set ( handle );
+        return handle;
+    }
+
+    /**
+     * Assign an item to an allocated client handle
+     * @param handle the client handle
+     * @param item the item
+     */
+    public synchronized void set ( final int handle, final Item item )
+    {
+        this.items[handle] = item;
+    }
+
+    public Item get ( final int handle )
+    {
+        final Item[] items = this.items;
+        if ( handle <= 0 || handle >= items.length )
+        {
+            return null;
+        }
+        return items[handle];
+    }
+
+    /**
+     * Remove the item of the handle and recycle the handle. Releasing a handle
+     * which is not allocated has no effect.
+     * @param handle the client handle to release
+     */
+    public synchronized void release ( final int handle )
+    {
+        if ( handle <= 0 || !this.allocated.get ( handle ) )
+        {
+            return;
+        }
+
+        this.allocated.clear ( handle );
+        this.items[handle] = null;
+
+        if ( this.freeSize == this.free.length )
+        {
+            final int[] newFree = new int[this.free.length << 1];
+            for ( int i = 0; i < this.freeSize; i++ )
+            {
+                newFree[i] = this.free[ ( this.freeHead + i ) % this.free.length];
+            }
+            this.free = newFree;
+            this.freeHead = 0;
+        }
+        this.free[ ( this.freeHead + this.freeSize ) % this.free.length] = handle;
+        this.freeSize++;
+    }
+
+    /**
+     * Remove all items and start allocating handles from the beginning
+     */
+    public synchronized void clear ()
+    {
+        this.items = new Item[INITIAL_CAPACITY];
+        this.next = 1;
+        this.allocated.clear ();
+        this.freeHead = 0;
+        this.freeSize = 0;
+    }
+}
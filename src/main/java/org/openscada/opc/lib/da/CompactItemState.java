@@ -0,0 +1,364 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da;
+
+import java.util.Calendar;
+
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.IJIUnsigned;
+import org.jinterop.dcom.core.JIVariant;
+import org.openscada.opc.dcom.common.FILETIME;
+
+/**
+ * A compact, mutable alternative to {@link ItemState}.
+ * <br/>
+ * The timestamp is kept as raw FILETIME value and numeric values are kept
+ * as primitive <code>long</code> or <code>double</code> so that no calendar and
+ * no boxed values have to be created for each update. Instances are meant to be
+ * re-used, an instance passed to a {@link CompactDataCallback} is only valid during
+ * the call. Use {@link #copy()} if the state has to be kept.
+ */
+public class CompactItemState
+{
+    private int errorCode = 0;
+
+    private short quality = 0;
+
+    private long fileTime = 0;
+
+    private int type = JIVariant.VT_EMPTY;
+
+    private boolean integral = false;
+
+    private boolean floatingPoint = false;
+
+    private long longValue = 0;
+
+    private double doubleValue = 0;
+
+    private JIVariant variant = null;
+
+    public CompactItemState ()
+    {
+        super ();
+    }
+
+    public CompactItemState ( final CompactItemState other )
+    {
+        super ();
+        set ( other );
+    }
+
+    /**
+     * Fill the state
+     * @param errorCode the error code
+     * @param quality the OPC quality
+     * @param fileTime the timestamp as raw FILETIME value
+     * @param value the value, may be <code>null</code>
+     */
+    public void set ( final int errorCode, final short quality, final long fileTime, final JIVariant value )
+    {
+        this.errorCode = errorCode;
+        this.quality = quality;
+        this.fileTime = fileTime;
+        setValue ( value );
+    }
+
+    /**
+     * Copy all values from another state
+     * @param other the state to copy from
+     */
+    public void set ( final CompactItemState other )
+    {
+        this.errorCode = other.errorCode;
+        this.quality = other.quality;
+        this.fileTime = other.fileTime;
+        this.type = other.type;
+        this.integral = other.integral;
+        this.floatingPoint = other.floatingPoint;
+        this.longValue = other.longValue;
+        this.doubleValue = other.doubleValue;
+        this.variant = other.variant;
+    }
+
+    /**
+     * Set the value. Numeric values are extracted to the primitive fields.
+     * @param value the value, may be <code>null</code>
+     */
+    public void setValue ( final JIVariant value )
+    {
+        this.variant = value;
+        this.integral = false;
+        this.floatingPoint = false;
+        this.longValue = 0;
+        this.doubleValue = 0;
+        this.type = JIVariant.VT_EMPTY;
+
+        if ( value == null )
+        {
+            return;
+        }
+
+        try
+        {
+            this.type = value.getType ();
+
+            if ( setScalar ( value ) )
+            {
+                return;
+            }
+
+            if ( value.isArray () )
+            {
+                return;
+            }
+
+            final Object o = value.getObject ();
+            if ( o instanceof Double || o instanceof Float )
+            {
+                setDouble ( ( (Number)o ).doubleValue () );
+            }
+            else if ( o instanceof Number )
+            {
+                setLong ( ( (Number)o ).longValue () );
+            }
+            else if ( o instanceof IJIUnsigned )
+            {
+                setLong ( ( (IJIUnsigned)o ).getValue ().longValue () );
+            }
+            else if ( o instanceof Boolean )
+            {
+                setLong ( ( (Boolean)o ).booleanValue () ? 1 : 0 );
+            }
+        }
+        catch ( final JIException e )
+        {
+            this.type = JIVariant.VT_EMPTY;
+        }
+    }
+
+    /**
+     * Extract the value of the scalar types usually requested from the server
+     * without looking at the contained object
+     * @param value the value
+     * @return <code>true</code> if the value was handled
+     */
+    private boolean setScalar ( final JIVariant value ) throws JIException
+    {
+        try
+        {
+            switch ( this.type )
+            {
+            case JIVariant.VT_R8:
+                setDouble ( value.getObjectAsDouble () );
+                return true;
+            case JIVariant.VT_R4:
+                setDouble ( value.getObjectAsFloat () );
+                return true;
+            case JIVariant.VT_I4:
+            case JIVariant.VT_INT:
+                setLong ( value.getObjectAsInt () );
+                return true;
+            case JIVariant.VT_I2:
+                setLong ( value.getObjectAsShort () );
+                return true;
+            case JIVariant.VT_I8:
+                setLong ( value.getObjectAsLong () );
+                return true;
+            case JIVariant.VT_BOOL:
+                setLong ( value.getObjectAsBoolean () ? 1 : 0 );
+                return true;
+            case JIVariant.VT_BSTR:
+            case JIVariant.VT_EMPTY:
+            case JIVariant.VT_NULL:
+                return true;
+            default:
+                return false;
+            }
+        }
+        catch ( final IllegalStateException e )
+        {
+            // the contained object does not match the type, use the generic path
+            return false;
+        }
+    }
+
+    private void setLong ( final long value )
+    {
+        this.integral = true;
+        this.longValue = value;
+        this.doubleValue = value;
+    }
+
+    private void setDouble ( final double value )
+    {
+        this.floatingPoint = true;
+        this.doubleValue = value;
+        this.longValue = (long)value;
+    }
+
+    public int getErrorCode ()
+    {
+        return this.errorCode;
+    }
+
+    public void setErrorCode ( final int errorCode )
+    {
+        this.errorCode = errorCode;
+    }
+
+    public short getQuality ()
+    {
+        return this.quality;
+    }
+
+    public void setQuality ( final short quality )
+    {
+        this.quality = quality;
+    }
+
+    /**
+     * Get the timestamp as raw FILETIME value
+     * @return the number of 100-nanosecond intervals since January 1, 1601 (UTC)
+     */
+    public long getFileTime ()
+    {
+        return this.fileTime;
+    }
+
+    public void setFileTime ( final long fileTime )
+    {
+        this.fileTime = fileTime;
+    }
+
+    public long getEpochMillis ()
+    {
+        return FILETIME.ticksToEpochMillis ( this.fileTime );
+    }
+
+    public long getEpochNanos ()
+    {
+        return FILETIME.ticksToEpochNanos ( this.fileTime );
+    }
+
+    /**
+     * Get the variant type of the value
+     * @return the variant type (one of the <code>VT_</code> constants of {@link JIVariant})
+     */
+    public int getType ()
+    {
+        return this.type;
+    }
+
+    /**
+     * Check if the value is an integral number (including booleans)
+     * @return <code>true</code> if {@link #getLong()} holds the value
+     */
+    public boolean isIntegral ()
+    {
+        return this.integral;
+    }
+
+    /**
+     * Check if the value is a floating point number
+     * @return <code>true</code> if {@link #getDouble()} holds the value
+     */
+    public boolean isFloatingPoint ()
+    {
+        return this.floatingPoint;
+    }
+
+    public boolean isNumeric ()
+    {
+        return this.integral || this.floatingPoint;
+    }
+
+    public long getLong ()
+    {
+        return this.longValue;
+    }
+
+    public double getDouble ()
+    {
+        return this.doubleValue;
+    }
+
+    /**
+     * Get the variant the value was extracted from
+     * @return the variant or <code>null</code> if there was none
+     */
+    public JIVariant getVariant ()
+    {
+        return this.variant;
+    }
+
+    /**
+     * Create a copy of this state that can be kept
+     * @return the copy
+     */
+    public CompactItemState copy ()
+    {
+        return new CompactItemState ( this );
+    }
+
+    /**
+     * Convert to a {@link ItemState}
+     * @return a new item state
+     */
+    public ItemState toItemState ()
+    {
+        final Calendar timestamp = Calendar.getInstance ();
+        timestamp.setTimeInMillis ( getEpochMillis () );
+        return new ItemState ( this.errorCode, this.variant, timestamp, this.quality );
+    }
+
+    /**
+     * Fill a compact state from an item state
+     * @param itemState the item state
+     * @return the new compact state
+     */
+    public static CompactItemState fromItemState ( final ItemState itemState )
+    {
+        final CompactItemState state = new CompactItemState ();
+        final Calendar timestamp = itemState.getTimestamp ();
+        final Short quality = itemState.getQuality ();
+        state.set ( itemState.getErrorCode (), quality == null ? 0 : quality, timestamp == null ? 0 : FILETIME.epochMillisToTicks ( timestamp.getTimeInMillis () ), itemState.getValue () );
+        return state;
+    }
+
+    @Override
+    public String toString ()
+    {
+        final Object value;
+        if ( this.floatingPoint )
+        {
+            value = this.doubleValue;
+        }
+        else if ( this.integral )
+        {
+            value = this.longValue;
+        }
+        else
+        {
+            value = this.variant;
+        }
+        return String.format ( "Value: %s, Timestamp: %s, Quality: %s, ErrorCode: %08x", value, this.fileTime, this.quality, this.errorCode );
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openscada.opc.dcom.common.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands updates over to an executor instead of calling the {@link DataCallback}
+ * on the thread that received the update from the server.
+ * <br/>
+ * The number of queued updates is bounded. What happens if the consumers fall behind
+ * is controlled by the {@link OverflowPolicy}. Updates are delivered in the order they
+ * were received, only one task of the executor is used at a time.
+ * @see AccessBase#setDispatcher(DataCallbackDispatcher)
+ */
+public class DataCallbackDispatcher
+{
+    private static Logger logger = LoggerFactory.getLogger ( DataCallbackDispatcher.class );
+
+    /**
+     * The maximum number of updates delivered by one executor task before
+     * the task gets re-scheduled
+     */
+    private static final int MAX_DRAIN = 1000;
+
+    private static class Entry
+    {
+        private final DataCallback callback;
+
+        private final Item item;
+
+        private ItemState state;
+
+        private final long queued = Metrics.start ();
+
+        public Entry ( final DataCallback callback, final Item item, final ItemState state )
+        {
+            this.callback = callback;
+            this.item = item;
+            this.state = state;
+        }
+    }
+
+    private final Executor executor;
+
+    private final int capacity;
+
+    private final OverflowPolicy policy;
+
+    private final Deque<Entry> queue = new ArrayDeque<Entry> ();
+
+    private final Map<Item, Entry> pending = new HashMap<Item, Entry> ();
+
+    private boolean running = false;
+
+    private volatile String metricsScope = Metrics.DEFAULT_SCOPE;
+
+    private final AtomicLong queuedCount = new AtomicLong ();
+
+    private final AtomicLong droppedCount = new AtomicLong ();
+
+    private final AtomicLong conflatedCount = new AtomicLong ();
+
+    private final Runnable drainTask = new Runnable () {
+
+        public void run ()
+        {
+            drain ();
+        }
+    };
+
+    /**
+     * Create a new dispatcher
+     * @param executor the executor that calls the data callbacks
+     * @param capacity the maximum number of queued updates
+     * @param policy the policy used when the queue is full
+     */
+    public DataCallbackDispatcher ( final Executor executor, final int capacity, final OverflowPolicy policy )
+    {
+        super ();
+        if ( capacity <= 0 )
+        {
+            throw new IllegalArgumentException ( "Capacity must be greater than zero" );
+        }
+        this.executor = executor;
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Queue an update for delivery
+     * @param callback the callback to call
+     * @param item the item that changed
+     * @param itemState the new state
+     */
+    public void dispatch ( final DataCallback callback, final Item item, final ItemState itemState )
+    {
+        synchronized ( this )
+        {
+            if ( this.policy == OverflowPolicy.CONFLATE )
+            {
+                final Entry entry = this.pending.get ( item );
+                if ( entry != null )
+                {
+                    entry.state = itemState;
+                    this.conflatedCount.incrementAndGet ();
+                    return;
+                }
+            }
+
+            while ( this.queue.size () >= this.capacity )
+            {
+                if ( this.policy == OverflowPolicy.BLOCK )
+                {
+                    try
+                    {
+                        wait ();
+                    }
+                    catch ( final InterruptedException e )
+                    {
+                        Thread.currentThread ().interrupt ();
+                        this.droppedCount.incrementAndGet ();
+                        return;
+                    }
+                }
+                else
+                {
+                    final Entry dropped = this.queue.poll ();
+                    this.pending.remove ( dropped.item );
+                    this.droppedCount.incrementAndGet ();
+                }
+            }
+
+            final Entry entry = new Entry ( callback, item, itemState );
+            this.queue.add ( entry );
+            if ( this.policy == OverflowPolicy.CONFLATE )
+            {
+                this.pending.put ( item, entry );
+            }
+            this.queuedCount.incrementAndGet ();
+
+            if ( this.running )
+            {
+                return;
+            }
+            this.running = true;
+        }
+
+        schedule ();
+    }
+
+    private void schedule ()
+    {
+        try
+        {
+            this.executor.execute ( this.drainTask );
+        }
+        catch ( final RejectedExecutionException e )
+        {
+            logger.warn ( "Executor rejected dispatch task", e );
+            synchronized ( this )
+            {
+                this.running = false;
+            }
+        }
+    }
+
+    protected void drain ()
+    {
+        for ( int i = 0; i < MAX_DRAIN; i++ )
+        {
+            final Entry entry;
+            synchronized ( this )
+            {
+                entry = this.queue.poll ();
+                if ( entry == null )
+                {
+                    this.running = false;
+                    return;
+                }
+                if ( this.pending.get ( entry.item ) == entry )
+                {
+                    this.pending.remove ( entry.item );
+                }
+                notifyAll ();
+            }
+
+            Metrics.record ( "callback.dispatchDelay", this.metricsScope, entry.queued, 1, 0 );
+
+            try
+            {
+                entry.callback.changed ( entry.item, entry.state );
+            }
+            catch ( final Throwable e )
+            {
+                logger.warn ( String.format ( "Data callback failed for item '%s'", entry.item.getId () ), e );
+            }
+        }
+
+        // give other tasks of the executor a chance
+        schedule ();
+    }
+
+    /**
+     * Discard all queued updates
+     */
+    public synchronized void clear ()
+    {
+        this.droppedCount.addAndGet ( this.queue.size () );
+        this.queue.clear ();
+        this.pending.clear ();
+        notifyAll ();
+    }
+
+    /**
+     * Set the scope under which the dispatch delay is recorded
+     * @param metricsScope the scope
+     */
+    public void setMetricsScope ( final String metricsScope )
+    {
+        this.metricsScope = metricsScope;
+    }
+
+    public synchronized int getQueueSize ()
+    {
+        return this.queue.size ();
+    }
+
+    public int getCapacity ()
+    {
+        return this.capacity;
+    }
+
+    public OverflowPolicy getPolicy ()
+    {
+        return this.policy;
+    }
+
+    /**
+     * Get the number of updates that were put into the queue
+     * @return the number of queued updates
+     */
+    public long getQueuedCount ()
+    {
+        return this.queuedCount.get ();
+    }
+
+    /**
+     * Get the number of updates that were dropped because the queue was full
+     * @return the number of dropped updates
+     */
+    public long getDroppedCount ()
+    {
+        return this.droppedCount.get ();
+    }
+
+    /**
+     * Get the number of updates that replaced a queued update of the same item
+     * @return the number of conflated updates
+     */
+    public long getConflatedCount ()
+    {
+        return this.conflatedCount.get ();
+    }
+}
@@ -19,10 +19,21 @@
 
 package org.openscada.opc.lib.da;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
+import org.jinterop.dcom.common.JIErrorCodes;
 import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.common.JISystem;
 import org.openscada.opc.dcom.common.impl.OPCCommon;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,6 +41,15 @@ import org.slf4j.LoggerFactory;
 /**
  * An error message resolver that will lookup the error code using the
  * server interface and will cache the result locally.
+ * <br/>
+ * The standard OPC and DCOM error codes are known without asking the server.
+ * The cache is bounded and keyed by error code and locale. Codes the server does not
+ * know are cached as well, while codes which could not be resolved because of a
+ * communication problem are retried after a delay.
+ * If an executor is provided
+ * unknown codes are resolved in the background and <code>null</code> is returned
+ * until the message is available, so that callers on the data path never wait
+ * for the server.
  * @author Jens Reimann
  *
  */
@@ -37,17 +57,138 @@ public class ErrorMessageResolver
 {
     private static Logger _log = LoggerFactory.getLogger ( ErrorMessageResolver.class );
 
+    public static final int DEFAULT_CACHE_SIZE = Integer.getInteger ( "openscada.opc.error-message-cache-size", 1000 );
+
+    /**
+     * The time in milliseconds after which a failed lookup is tried again. Can be overridden
+     * by the java property <q>openscada.opc.error-message-retry-delay</q>.
+     */
+    public static final long DEFAULT_RETRY_DELAY = Long.getLong ( "openscada.opc.error-message-retry-delay", 60000L );
+
+    /**
+     * The result of <code>GetErrorString</code> for an error code unknown to the server
+     */
+    private static final int E_INVALIDARG = 0x80070057;
+
+    private static final Map<Integer, String> _standardMessages = createStandardMessages ();
+
     private OPCCommon _opcCommon = null;
 
-    private final Map<Integer, String> _messageCache = new HashMap<Integer, String> ();
+    private final Map<Long, String> _messageCache;
+
+    private final Set<Long> _pending = new HashSet<Long> ();
+
+    /**
+     * The time until which a key is not looked up again after a failed lookup
+     */
+    private final Map<Long, Long> _retryTimes = new HashMap<Long, Long> ();
 
     private int _localeId = 0;
 
+    private final Executor _executor;
+
+    private final int _maxRetryEntries;
+
+    private long _retryDelay = DEFAULT_RETRY_DELAY;
+
     public ErrorMessageResolver ( final OPCCommon opcCommon, final int localeId )
+    {
+        this ( opcCommon, localeId, null, DEFAULT_CACHE_SIZE );
+    }
+
+    /**
+     * Create a new resolver
+     * @param opcCommon the server interface
+     * @param localeId the default locale
+     * @param executor the executor resolving unknown codes, <code>null</code> to resolve them in the calling thread
+     * @param cacheSize the maximum number of cached messages
+     */
+    public ErrorMessageResolver ( final OPCCommon opcCommon, final int localeId, final Executor executor, final int cacheSize )
     {
         super ();
         this._opcCommon = opcCommon;
         this._localeId = localeId;
+        this._executor = executor;
+        this._maxRetryEntries = Math.max ( 1, cacheSize );
+        this._messageCache = new LinkedHashMap<Long, String> ( 16, 0.75f, true ) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry ( final Map.Entry<Long, String> eldest )
+            {
+                return size () > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Set the time after which an error code is looked up again if the last lookup failed
+     * for another reason than the server not knowing the code
+     * @param retryDelay the delay in milliseconds
+     */
+    public synchronized void setRetryDelay ( final long retryDelay )
+    {
+        this._retryDelay = retryDelay;
+    }
+
+    private static Map<Integer, String> createStandardMessages ()
+    {
+        final Map<Integer, String> messages = new HashMap<Integer, String> ();
+
+        // DCOM and Win32 codes known to j-interop
+        try
+        {
+            final ResourceBundle bundle = JISystem.getErrorMessages ();
+            for ( final Field field : JIErrorCodes.class.getFields () )
+            {
+                if ( field.getType () == int.class && Modifier.isStatic ( field.getModifiers () ) )
+                {
+                    final int code = field.getInt ( null );
+                    final String key = String.format ( "0x%08X", code );
+                    if ( bundle.containsKey ( key ) )
+                    {
+                        messages.put ( code, bundle.getString ( key ) );
+                    }
+                }
+            }
+        }
+        catch ( final Exception e )
+        {
+            _log.info ( "Failed to load j-interop error messages", e );
+        }
+
+        // OPC DA codes
+        messages.put ( 0xC0040001, "The value of the handle is invalid." );
+        messages.put ( 0xC0040004, "The server cannot convert the data between the specified format and/or requested data type and the canonical data type." );
+        messages.put ( 0xC0040005, "The requested operation cannot be done on a public group." );
+        messages.put ( 0xC0040006, "The item's access rights do not allow the operation." );
+        messages.put ( 0xC0040007, "The item ID is not defined in the server address space or no longer exists in the server address space." );
+        messages.put ( 0xC0040008, "The item ID does not conform to the server's syntax." );
+        messages.put ( 0xC0040009, "The filter string was not valid." );
+        messages.put ( 0xC004000A, "The item's access path is not known to the server." );
+        messages.put ( 0xC004000B, "The value was out of range." );
+        messages.put ( 0xC004000C, "Duplicate name not allowed." );
+        messages.put ( 0x0004000D, "The server does not support the requested data rate but will use the closest available rate." );
+        messages.put ( 0x0004000E, "A value passed to write was accepted but the output was clamped." );
+        messages.put ( 0x0004000F, "The operation cannot be performed because the object is being referenced." );
+        messages.put ( 0xC0040010, "The server's configuration file is an invalid format." );
+        messages.put ( 0xC0040011, "The requested object (e.g. a public group) was not found." );
+        messages.put ( 0xC0040203, "The specified property ID is not valid for the item." );
+        messages.put ( 0xC0040400, "The item deadband has not been set for this item." );
+        messages.put ( 0xC0040401, "The item does not support deadband." );
+        messages.put ( 0xC0040402, "The server does not support buffering of data items that are collected at a faster rate than the group update rate." );
+        messages.put ( 0xC0040403, "The continuation point is not valid." );
+        messages.put ( 0x00040404, "Not every detected change has been returned since the server's buffer reached its limit and had to purge out the oldest data." );
+        messages.put ( 0xC0040405, "There is no sampling rate set for the specified item." );
+        messages.put ( 0xC0040406, "The server does not support writing of quality and/or timestamp." );
+
+        return Collections.unmodifiableMap ( messages );
+    }
+
+    private static Long makeKey ( final int errorCode, final int localeId )
+    {
+        return ( (long)localeId << 32 ) | ( errorCode & 0xFFFFFFFFL );
     }
 
     /**
@@ -55,25 +196,108 @@ public class ErrorMessageResolver
      * @param errorCode The error code to look up
      * @return the error message or <code>null</code> if no message could be looked up
      */
-    public synchronized String getMessage ( final int errorCode )
+    public String getMessage ( final int errorCode )
     {
-        String message = this._messageCache.get ( Integer.valueOf ( errorCode ) );
+        return getMessage ( errorCode, this._localeId );
+    }
 
-        if ( message == null )
+    /**
+     * Get an error message from an error code
+     * @param errorCode The error code to look up
+     * @param localeId The locale of the message
+     * @return the error message or <code>null</code> if no message could be looked up (yet)
+     */
+    public String getMessage ( final int errorCode, final int localeId )
+    {
+        final Long key = makeKey ( errorCode, localeId );
+
+        synchronized ( this )
         {
-            try
+            if ( this._messageCache.containsKey ( key ) )
             {
-                message = this._opcCommon.getErrorString ( errorCode, this._localeId );
-                _log.info ( String.format ( "Resolved %08X to '%s'", errorCode, message ) );
+                return this._messageCache.get ( key );
             }
-            catch ( JIException e )
+            final Long retryTime = this._retryTimes.get ( key );
+            if ( retryTime != null )
+            {
+                if ( System.currentTimeMillis () < retryTime )
+                {
+                    return null;
+                }
+                this._retryTimes.remove ( key );
+            }
+        }
+
+        final String standardMessage = _standardMessages.get ( errorCode );
+        if ( standardMessage != null )
+        {
+            return standardMessage;
+        }
+
+        if ( this._executor == null )
+        {
+            return resolve ( key, errorCode, localeId );
+        }
+
+        synchronized ( this )
+        {
+            if ( !this._pending.add ( key ) )
+            {
+                return null;
+            }
+        }
+
+        try
+        {
+            this._executor.execute ( new Runnable () {
+
+                public void run ()
+                {
+                    resolve ( key, errorCode, localeId );
+                }
+            } );
+        }
+        catch ( final RejectedExecutionException e )
+        {
+            synchronized ( this )
+            {
+                this._pending.remove ( key );
+            }
+        }
+        return null;
+    }
+
+    private String resolve ( final Long key, final int errorCode, final int localeId )
+    {
+        String message = null;
+        boolean definitive = true;
+        try
+        {
+            message = this._opcCommon.getErrorString ( errorCode, localeId );
+            _log.info ( String.format ( "Resolved %08X to '%s'", errorCode, message ) );
+        }
+        catch ( JIException e )
+        {
+            _log.warn ( String.format ( "Failed to resolve error code for %08X", errorCode ), e );
+            // the server will not know an unknown code next time, other failures may be temporary
+            definitive = e.getErrorCode () == E_INVALIDARG;
+        }
+
+        synchronized ( this )
+        {
+            if ( definitive )
             {
-                _log.warn ( String.format ( "Failed to resolve error code for %08X", errorCode ), e );
+                this._messageCache.put ( key, message );
             }
-            if ( message != null )
+            else
             {
-                this._messageCache.put ( errorCode, message );
+                if ( this._retryTimes.size () >= this._maxRetryEntries )
+                {
+                    this._retryTimes.clear ();
+                }
+                this._retryTimes.put ( key, System.currentTimeMillis () + this._retryDelay );
             }
+            this._pending.remove ( key );
         }
         return message;
     }
@@ -21,20 +21,20 @@ package org.openscada.opc.lib.da;
 
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
-import java.util.Set;
 
 import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIVariant;
 import org.openscada.opc.dcom.common.EventHandler;
 import org.openscada.opc.dcom.common.KeyedResult;
 import org.openscada.opc.dcom.common.KeyedResultSet;
 import org.openscada.opc.dcom.common.Result;
 import org.openscada.opc.dcom.common.ResultSet;
+import org.openscada.opc.dcom.common.metrics.Metrics;
 import org.openscada.opc.dcom.da.IOPCDataCallback;
 import org.openscada.opc.dcom.da.OPCDATASOURCE;
 import org.openscada.opc.dcom.da.OPCITEMDEF;
@@ -42,7 +42,10 @@ import org.openscada.opc.dcom.da.OPCITEMRESULT;
 import org.openscada.opc.dcom.da.OPCITEMSTATE;
 import org.openscada.opc.dcom.da.impl.OPCAsyncIO2;
 import org.openscada.opc.dcom.da.impl.OPCGroupStateMgt;
+import org.openscada.opc.dcom.da.impl.OPCGroupStateMgt2;
+import org.openscada.opc.dcom.da.impl.OPCItemDeadbandMgt;
 import org.openscada.opc.dcom.da.impl.OPCItemMgt;
+import org.openscada.opc.dcom.da.impl.OPCItemSamplingMgt;
 import org.openscada.opc.dcom.da.impl.OPCSyncIO;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,8 +54,6 @@ public class Group
 {
     private static Logger _log = LoggerFactory.getLogger ( Group.class );
 
-    private static Random _random = new Random ();
-
     private Server _server = null;
 
     private final int _serverHandle;
@@ -63,11 +64,28 @@ public class Group
 
     private OPCSyncIO _syncIO = null;
 
+    private OPCGroupStateMgt2 _stateMgt2 = null;
+
+    private OPCItemDeadbandMgt _deadbandMgt = null;
+
+    private OPCItemSamplingMgt _samplingMgt = null;
+
+    private boolean _da3Checked = false;
+
+    private String _metricsScope = Metrics.DEFAULT_SCOPE;
+
+    /**
+     * The metrics scope was created for this group and is dropped when the group is removed
+     */
+    private boolean _ownMetricsScope = false;
+
+    private short _requestedDataType = JIVariant.VT_EMPTY;
+
     private final Map<String, Integer> _itemHandleMap = new HashMap<String, Integer> ();
 
-    private final Map<Integer, Item> _itemMap = new HashMap<Integer, Item> ();
+    private final IntObjectMap<Item> _itemMap = new IntObjectMap<Item> ();
 
-    private final Map<Integer, Item> _itemClientMap = new HashMap<Integer, Item> ();
+    private final ClientHandleTable _itemClientMap = new ClientHandleTable ();
 
     Group ( final Server server, final int serverHandle, final OPCGroupStateMgt group ) throws IllegalArgumentException, UnknownHostException, JIException
     {
@@ -77,6 +95,54 @@ public class Group
         this._group = group;
         this._items = group.getItemManagement ();
         this._syncIO = group.getSyncIO ();
+
+        if ( Metrics.isEnabled () )
+        {
+            setMetricsScope ( makeMetricsScope () );
+            this._ownMetricsScope = true;
+        }
+    }
+
+    private String makeMetricsScope ()
+    {
+        final String host = this._server.getConnectionInformation ().getHost ();
+        try
+        {
+            return host + "/" + this._group.getState ().getName ();
+        }
+        catch ( final JIException e )
+        {
+            return host + "/" + this._serverHandle;
+        }
+    }
+
+    /**
+     * Set the scope under which the calls of this group are recorded.
+     * If metrics are enabled when the group is created the scope defaults
+     * to the host name and the group name.
+     * @param metricsScope the scope
+     */
+    public void setMetricsScope ( final String metricsScope )
+    {
+        this._metricsScope = metricsScope;
+        this._ownMetricsScope = false;
+        this._group.setMetricsScope ( metricsScope );
+    }
+
+    /**
+     * Drop the statistics of the group if they were recorded in a scope of its own
+     */
+    void removeMetricsScope ()
+    {
+        if ( this._ownMetricsScope )
+        {
+            Metrics.removeScope ( this._metricsScope );
+        }
+    }
+
+    public String getMetricsScope ()
+    {
+        return this._metricsScope;
     }
 
     public void setActive ( final boolean state ) throws JIException
@@ -133,6 +199,24 @@ public class Group
         return items.get ( item );
     }
 
+    public short getRequestedDataType ()
+    {
+        return this._requestedDataType;
+    }
+
+    /**
+     * Set the data type that is requested for new items of this group.
+     * <br/>
+     * The server converts the values to this type before sending them, which
+     * saves the client from decoding strings, arrays or currency values it does
+     * not need. Items which were already added keep their type.
+     * @param requestedDataType the variant type or <code>VT_EMPTY</code> for the canonical type of each item
+     */
+    public void setRequestedDataType ( final short requestedDataType )
+    {
+        this._requestedDataType = requestedDataType;
+    }
+
     /**
      * Validate item ids and get additional information to them.
      * <br>
@@ -171,6 +255,25 @@ public class Group
      * @throws AddFailedException If one or more item could not be added. Item without error where added.
      */
     public synchronized Map<String, Item> addItems ( final String... items ) throws JIException, AddFailedException
+    {
+        return addItems ( items, null );
+    }
+
+    /**
+     * Add new items to the group, each with its own requested data type
+     * @param items The items (by string id) to add and the variant type requested for them.
+     * A <code>null</code> type uses the type of the group. Items which are already part of the group
+     * keep their type.
+     * @return A result map of id to item object
+     * @throws JIException The add operation completely failed. No item was added.
+     * @throws AddFailedException If one or more item could not be added. Item without error where added.
+     */
+    public synchronized Map<String, Item> addItems ( final Map<String, Short> items ) throws JIException, AddFailedException
+    {
+        return addItems ( items.keySet ().toArray ( new String[items.size ()] ), items );
+    }
+
+    private Map<String, Item> addItems ( final String[] items, final Map<String, Short> requestedDataTypes ) throws JIException, AddFailedException
     {
         // Find which items we already have
         Map<String, Integer> handles = findItems ( items );
@@ -192,7 +295,6 @@ public class Group
         }
 
         // now fetch missing items from OPC server
-        Set<Integer> newClientHandles = new HashSet<Integer> ();
         OPCITEMDEF[] itemDef = new OPCITEMDEF[missingItems.size ()];
         for ( int i = 0; i < missingItems.size (); i++ )
         {
@@ -200,31 +302,44 @@ public class Group
             def.setItemID ( missingItems.get ( i ) );
             def.setActive ( true );
 
-            Integer clientHandle;
-            do
-            {
-                clientHandle = _random.nextInt ();
-            } while ( this._itemClientMap.containsKey ( clientHandle ) || newClientHandles.contains ( clientHandle ) );
-            newClientHandles.add ( clientHandle );
-            def.setClientHandle ( clientHandle );
+            final Short requestedDataType = requestedDataTypes == null ? null : requestedDataTypes.get ( def.getItemID () );
+            def.setRequestedDataType ( requestedDataType == null ? this._requestedDataType : requestedDataType );
+
+            def.setClientHandle ( this._itemClientMap.allocate () );
 
             itemDef[i] = def;
         }
 
         // check the result and add new items
         Map<String, Integer> failedItems = new HashMap<String, Integer> ();
-        KeyedResultSet<OPCITEMDEF, OPCITEMRESULT> result = this._items.add ( itemDef );
+        KeyedResultSet<OPCITEMDEF, OPCITEMRESULT> result;
+        final long start = Metrics.start ();
+        try
+        {
+            result = this._items.add ( itemDef );
+            Metrics.record ( "group.addItems", this._metricsScope, start, itemDef.length, 0 );
+        }
+        catch ( JIException e )
+        {
+            Metrics.recordFailure ( "group.addItems", this._metricsScope, start, itemDef.length );
+            for ( OPCITEMDEF def : itemDef )
+            {
+                this._itemClientMap.release ( def.getClientHandle () );
+            }
+            throw e;
+        }
         int i = 0;
         for ( KeyedResult<OPCITEMDEF, OPCITEMRESULT> entry : result )
         {
             if ( entry.getErrorCode () == 0 )
             {
-                Item item = new Item ( this, entry.getValue ().getServerHandle (), itemDef[i].getClientHandle (), entry.getKey ().getItemID () );
+                Item item = new Item ( this, entry.getValue ().getServerHandle (), itemDef[i].getClientHandle (), entry.getKey ().getItemID (), itemDef[i].getRequestedDataType (), entry.getValue ().getCanonicalDataType () );
                 addItem ( item );
                 foundItems.add ( item.getServerHandle () );
             }
             else
             {
+                this._itemClientMap.release ( itemDef[i].getClientHandle () );
                 failedItems.put ( entry.getKey ().getItemID (), entry.getErrorCode () );
             }
             i++;
@@ -246,14 +361,14 @@ public class Group
 
         this._itemHandleMap.put ( item.getId (), item.getServerHandle () );
         this._itemMap.put ( item.getServerHandle (), item );
-        this._itemClientMap.put ( item.getClientHandle (), item );
+        this._itemClientMap.set ( item.getClientHandle (), item );
     }
 
     private synchronized void removeItem ( final Item item )
     {
         this._itemHandleMap.remove ( item.getId () );
         this._itemMap.remove ( item.getServerHandle () );
-        this._itemClientMap.remove ( item.getClientHandle () );
+        this._itemClientMap.release ( item.getClientHandle () );
     }
 
     protected Item getItemByOPCItemId ( final String opcItemId )
@@ -349,7 +464,18 @@ public class Group
             wr[i] = new org.openscada.opc.dcom.da.WriteRequest ( handles[i], requests[i].getValue () );
         }
 
-        ResultSet<org.openscada.opc.dcom.da.WriteRequest> resultSet = this._syncIO.write ( wr );
+        final long start = Metrics.start ();
+        ResultSet<org.openscada.opc.dcom.da.WriteRequest> resultSet;
+        try
+        {
+            resultSet = this._syncIO.write ( wr );
+        }
+        catch ( final JIException e )
+        {
+            Metrics.recordFailure ( "group.write", this._metricsScope, start, wr.length );
+            throw e;
+        }
+        Metrics.record ( "group.write", this._metricsScope, start, wr.length, 0 );
 
         Map<Item, Integer> result = new HashMap<Item, Integer> ();
         for ( int i = 0; i < requests.length; i++ )
@@ -365,7 +491,7 @@ public class Group
     {
         Integer[] handles = getServerHandles ( items );
 
-        KeyedResultSet<Integer, OPCITEMSTATE> states = this._syncIO.read ( device ? OPCDATASOURCE.OPC_DS_DEVICE : OPCDATASOURCE.OPC_DS_CACHE, handles );
+        KeyedResultSet<Integer, OPCITEMSTATE> states = syncRead ( device, handles );
 
         Map<Item, ItemState> data = new HashMap<Item, ItemState> ();
         for ( KeyedResult<Integer, OPCITEMSTATE> entry : states )
@@ -377,6 +503,48 @@ public class Group
         return data;
     }
 
+    /**
+     * Read the items and return the raw item states, without converting
+     * them to {@link ItemState}
+     * @param device <code>true</code> to read from the device, <code>false</code> to read from the cache
+     * @param items the items to read
+     * @return the result set of item to raw state, in the order of the items
+     * @throws JIException
+     */
+    public synchronized KeyedResultSet<Item, OPCITEMSTATE> readStates ( final boolean device, final Item... items ) throws JIException
+    {
+        Integer[] handles = getServerHandles ( items );
+
+        KeyedResultSet<Integer, OPCITEMSTATE> states = syncRead ( device, handles );
+
+        KeyedResultSet<Item, OPCITEMSTATE> data = new KeyedResultSet<Item, OPCITEMSTATE> ( states.size () );
+        int i = 0;
+        for ( KeyedResult<Integer, OPCITEMSTATE> entry : states )
+        {
+            data.add ( new KeyedResult<Item, OPCITEMSTATE> ( items[i], entry.getValue (), entry.getErrorCode () ) );
+            i++;
+        }
+        return data;
+    }
+
+    private KeyedResultSet<Integer, OPCITEMSTATE> syncRead ( final boolean device, final Integer[] handles ) throws JIException
+    {
+        final String operation = device ? "group.readDevice" : "group.read";
+        final long start = Metrics.start ();
+        final KeyedResultSet<Integer, OPCITEMSTATE> states;
+        try
+        {
+            states = this._syncIO.read ( device ? OPCDATASOURCE.OPC_DS_DEVICE : OPCDATASOURCE.OPC_DS_CACHE, handles );
+        }
+        catch ( final JIException e )
+        {
+            Metrics.recordFailure ( operation, this._metricsScope, start, handles.length );
+            throw e;
+        }
+        Metrics.record ( operation, this._metricsScope, start, handles.length, 0 );
+        return states;
+    }
+
     public Server getServer ()
     {
         return this._server;
@@ -384,10 +552,22 @@ public class Group
 
     public synchronized void clear () throws JIException
     {
-        Integer[] handles = this._itemMap.keySet ().toArray ( new Integer[0] );
+        int[] keys = this._itemMap.keys ();
+        Integer[] handles = new Integer[keys.length];
+        for ( int i = 0; i < keys.length; i++ )
+        {
+            handles[i] = keys[i];
+        }
+        final long start = Metrics.start ();
         try
         {
             this._items.remove ( handles );
+            Metrics.record ( "group.clear", this._metricsScope, start, handles.length, 0 );
+        }
+        catch ( final JIException e )
+        {
+            Metrics.recordFailure ( "group.clear", this._metricsScope, start, handles.length );
+            throw e;
         }
         finally
         {
@@ -418,6 +598,284 @@ public class Group
         return this._serverHandle;
     }
 
+    /**
+     * Remove several items with one call to the server
+     * @param opcItemIds the items to remove
+     * @throws JIException
+     */
+    public synchronized void removeItems ( final String... opcItemIds ) throws JIException
+    {
+        List<Item> items = new ArrayList<Item> ( opcItemIds.length );
+        for ( String opcItemId : opcItemIds )
+        {
+            Item item = getItemByOPCItemId ( opcItemId );
+            if ( item != null )
+            {
+                items.add ( item );
+            }
+            else
+            {
+                _log.warn ( String.format ( "Unable to find item '%s'", opcItemId ) );
+            }
+        }
+
+        if ( items.isEmpty () )
+        {
+            return;
+        }
+
+        Integer[] handles = new Integer[items.size ()];
+        for ( int i = 0; i < handles.length; i++ )
+        {
+            handles[i] = items.get ( i ).getServerHandle ();
+        }
+
+        final long start = Metrics.start ();
+        try
+        {
+            this._items.remove ( handles );
+            Metrics.record ( "group.removeItems", this._metricsScope, start, handles.length, 0 );
+        }
+        catch ( final JIException e )
+        {
+            Metrics.recordFailure ( "group.removeItems", this._metricsScope, start, handles.length );
+            throw e;
+        }
+        finally
+        {
+            for ( Item item : items )
+            {
+                removeItem ( item );
+            }
+        }
+    }
+
+    /**
+     * Change the update rate of the group
+     * @param updateRate the requested update rate in milliseconds
+     * @return the update rate granted by the server
+     * @throws JIException
+     */
+    public int setUpdateRate ( final int updateRate ) throws JIException
+    {
+        return this._group.setState ( updateRate, null, null, null, null, null );
+    }
+
+    public int getUpdateRate () throws JIException
+    {
+        return this._group.getState ().getUpdateRate ();
+    }
+
+    /**
+     * Change the percent deadband of the group. Analog items only report value changes
+     * exceeding this percentage of their EU range.
+     * @param percentDeadband the deadband in percent, between 0 and 100
+     * @throws JIException
+     */
+    public void setPercentDeadband ( final float percentDeadband ) throws JIException
+    {
+        this._group.setState ( null, null, null, percentDeadband, null, null );
+    }
+
+    public float getPercentDeadband () throws JIException
+    {
+        return this._group.getState ().getPercentDeadband ();
+    }
+
+    /**
+     * Change the time bias of the group
+     * @param timeBias the time bias in minutes
+     * @throws JIException
+     */
+    public void setTimeBias ( final int timeBias ) throws JIException
+    {
+        this._group.setState ( null, null, timeBias, null, null, null );
+    }
+
+    private synchronized void checkDA3 ()
+    {
+        if ( !this._da3Checked )
+        {
+            this._stateMgt2 = this._group.getStateMgt2 ();
+            this._deadbandMgt = this._group.getItemDeadbandManagement ();
+            this._samplingMgt = this._group.getItemSamplingManagement ();
+            this._da3Checked = true;
+        }
+    }
+
+    public boolean isKeepAliveSupported ()
+    {
+        checkDA3 ();
+        return this._stateMgt2 != null;
+    }
+
+    public boolean isItemDeadbandSupported ()
+    {
+        checkDA3 ();
+        return this._deadbandMgt != null;
+    }
+
+    public boolean isItemSamplingSupported ()
+    {
+        checkDA3 ();
+        return this._samplingMgt != null;
+    }
+
+    /**
+     * Set the keep alive time of the group. The server sends a callback at least once within
+     * the keep alive time, so a missing callback indicates a dead subscription.
+     * <br/>
+     * Requires OPC DA 3.0
+     * @param keepAliveTime the keep alive time in milliseconds, zero disables the keep alive
+     * @return the keep alive time granted by the server
+     * @throws JIException
+     * @throws UnsupportedOperationException if the server does not support <code>IOPCGroupStateMgt2</code>
+     * @see AccessBase#getLastDataChange()
+     */
+    public int setKeepAlive ( final int keepAliveTime ) throws JIException
+    {
+        checkDA3 ();
+        if ( this._stateMgt2 == null )
+        {
+            throw new UnsupportedOperationException ( "Server does not support IOPCGroupStateMgt2" );
+        }
+        return this._stateMgt2.setKeepAlive ( keepAliveTime );
+    }
+
+    public int getKeepAlive () throws JIException
+    {
+        checkDA3 ();
+        if ( this._stateMgt2 == null )
+        {
+            throw new UnsupportedOperationException ( "Server does not support IOPCGroupStateMgt2" );
+        }
+        return this._stateMgt2.getKeepAlive ();
+    }
+
+    private OPCItemDeadbandMgt getDeadbandMgt ()
+    {
+        checkDA3 ();
+        if ( this._deadbandMgt == null )
+        {
+            throw new UnsupportedOperationException ( "Server does not support IOPCItemDeadbandMgt" );
+        }
+        return this._deadbandMgt;
+    }
+
+    private OPCItemSamplingMgt getSamplingMgt ()
+    {
+        checkDA3 ();
+        if ( this._samplingMgt == null )
+        {
+            throw new UnsupportedOperationException ( "Server does not support IOPCItemSamplingMgt" );
+        }
+        return this._samplingMgt;
+    }
+
+    /**
+     * Set the percent deadband of single items, overriding the deadband of the group.
+     * <br/>
+     * Requires OPC DA 3.0
+     * @param deadbands the deadband in percent for each item
+     * @return the error code for each item
+     * @throws JIException
+     */
+    public synchronized Map<Item, Integer> setItemDeadband ( final Map<Item, Float> deadbands ) throws JIException
+    {
+        final Item[] items = deadbands.keySet ().toArray ( new Item[deadbands.size ()] );
+        final Float[] values = new Float[items.length];
+        for ( int i = 0; i < items.length; i++ )
+        {
+            values[i] = deadbands.get ( items[i] );
+        }
+
+        return toErrorMap ( items, getDeadbandMgt ().setItemDeadband ( getServerHandles ( items ), values ) );
+    }
+
+    /**
+     * Get the percent deadband of single items
+     * @param items the items
+     * @return the deadband for each item, items using the deadband of the group fail
+     * @throws JIException
+     */
+    public synchronized KeyedResultSet<Item, Float> getItemDeadband ( final Item... items ) throws JIException
+    {
+        final KeyedResultSet<Integer, Float> result = getDeadbandMgt ().getItemDeadband ( getServerHandles ( items ) );
+        final KeyedResultSet<Item, Float> data = new KeyedResultSet<Item, Float> ( result.size () );
+        int i = 0;
+        for ( KeyedResult<Integer, Float> entry : result )
+        {
+            data.add ( new KeyedResult<Item, Float> ( items[i], entry.getValue (), entry.getErrorCode () ) );
+            i++;
+        }
+        return data;
+    }
+
+    public synchronized Map<Item, Integer> clearItemDeadband ( final Item... items ) throws JIException
+    {
+        return toErrorMap ( items, getDeadbandMgt ().clearItemDeadband ( getServerHandles ( items ) ) );
+    }
+
+    /**
+     * Set the sampling rate of single items, overriding the update rate of the group.
+     * <br/>
+     * Requires OPC DA 3.0
+     * @param samplingRates the requested sampling rate in milliseconds for each item
+     * @return the revised sampling rate for each item
+     * @throws JIException
+     */
+    public synchronized KeyedResultSet<Item, Integer> setItemSamplingRate ( final Map<Item, Integer> samplingRates ) throws JIException
+    {
+        final Item[] items = samplingRates.keySet ().toArray ( new Item[samplingRates.size ()] );
+        final Integer[] values = new Integer[items.length];
+        for ( int i = 0; i < items.length; i++ )
+        {
+            values[i] = samplingRates.get ( items[i] );
+        }
+
+        final KeyedResultSet<Integer, Integer> result = getSamplingMgt ().setItemSamplingRate ( getServerHandles ( items ), values );
+        final KeyedResultSet<Item, Integer> data = new KeyedResultSet<Item, Integer> ( result.size () );
+        int i = 0;
+        for ( KeyedResult<Integer, Integer> entry : result )
+        {
+            data.add ( new KeyedResult<Item, Integer> ( items[i], entry.getValue (), entry.getErrorCode () ) );
+            i++;
+        }
+        return data;
+    }
+
+    public synchronized Map<Item, Integer> clearItemSamplingRate ( final Item... items ) throws JIException
+    {
+        return toErrorMap ( items, getSamplingMgt ().clearItemSamplingRate ( getServerHandles ( items ) ) );
+    }
+
+    /**
+     * Enable or disable buffering of values which are sampled faster than the group update rate.
+     * Buffered values are delivered together with the next callback.
+     * <br/>
+     * Requires OPC DA 3.0
+     * @param enable <code>true</code> to enable buffering
+     * @param items the items
+     * @return the error code for each item
+     * @throws JIException
+     */
+    public synchronized Map<Item, Integer> setItemBufferEnable ( final boolean enable, final Item... items ) throws JIException
+    {
+        final Boolean[] flags = new Boolean[items.length];
+        Arrays.fill ( flags, enable );
+        return toErrorMap ( items, getSamplingMgt ().setItemBufferEnable ( getServerHandles ( items ), flags ) );
+    }
+
+    private static Map<Item, Integer> toErrorMap ( final Item[] items, final ResultSet<Integer> resultSet )
+    {
+        final Map<Item, Integer> result = new HashMap<Item, Integer> ( items.length );
+        for ( int i = 0; i < items.length; i++ )
+        {
+            result.put ( items[i], resultSet.get ( i ).getErrorCode () );
+        }
+        return result;
+    }
+
     public synchronized void removeItem ( final String opcItemId ) throws IllegalArgumentException, UnknownHostException, JIException
     {
         _log.debug ( String.format ( "Removing item '%s'", opcItemId ) );
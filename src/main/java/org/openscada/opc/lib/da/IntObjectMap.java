@@ -0,0 +1,230 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da;
+
+import java.util.Arrays;
+
+/**
+ * A map of primitive <code>int</code> keys to objects using open addressing.
+ * <br/>
+ * Keys are not boxed and the map does not create entry objects. <code>null</code>
+ * values are not allowed. The map is not synchronized.
+ * @param <V> the value type
+ */
+class IntObjectMap<V>
+{
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] keys;
+
+    private Object[] values;
+
+    private int size = 0;
+
+    private int mask;
+
+    public IntObjectMap ()
+    {
+        this ( DEFAULT_CAPACITY );
+    }
+
+    public IntObjectMap ( final int expectedSize )
+    {
+        allocate ( tableSize ( expectedSize ) );
+    }
+
+    private static int tableSize ( final int expectedSize )
+    {
+        int capacity = DEFAULT_CAPACITY;
+        while ( capacity < expectedSize * 2 )
+        {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void allocate ( final int capacity )
+    {
+        this.keys = new int[capacity];
+        this.values = new Object[capacity];
+        this.mask = capacity - 1;
+    }
+
+    private int index ( final int key )
+    {
+        final int h = key * 0x9E3779B9;
+        return ( h ^ h >>> 16 ) & this.mask;
+    }
+
+    @SuppressWarnings ( "unchecked" )
+    public V get ( final int key )
+    {
+        int i = index ( key );
+        Object value;
+        while ( ( value = this.values[i] ) != null )
+        {
+            if ( this.keys[i] == key )
+            {
+                return (V)value;
+            }
+            i = i + 1 & this.mask;
+        }
+        return null;
+    }
+
+    public boolean containsKey ( final int key )
+    {
+        return get ( key ) != null;
+    }
+
+    @SuppressWarnings ( "unchecked" )
+    public V put ( final int key, final V value )
+    {
+        if ( value == null )
+        {
+            throw new NullPointerException ( "Null values are not supported" );
+        }
+
+        int i = index ( key );
+        Object current;
+        while ( ( current = this.values[i] ) != null )
+        {
+            if ( this.keys[i] == key )
+            {
+                this.values[i] = value;
+                return (V)current;
+            }
+            i = i + 1 & this.mask;
+        }
+
+        this.keys[i] = key;
+        this.values[i] = value;
+        this.size++;
+
+        if ( this.size * 2 > this.values.length )
+        {
+            rehash ( this.values.length << 1 );
+        }
+        return null;
+    }
+
+    @SuppressWarnings ( "unchecked" )
+    public V remove ( final int key )
+    {
+        int i = index ( key );
+        Object current;
+        while ( ( current = this.values[i] ) != null )
+        {
+            if ( this.keys[i] == key )
+            {
+                shiftBack ( i );
+                this.size--;
+                return (V)current;
+            }
+            i = i + 1 & this.mask;
+        }
+        return null;
+    }
+
+    /**
+     * Close the gap left by a removed entry so that probing still finds
+     * all following entries
+     * @param gap the index of the removed entry
+     */
+    private void shiftBack ( int gap )
+    {
+        int i = gap;
+        while ( true )
+        {
+            i = i + 1 & this.mask;
+            final Object value = this.values[i];
+            if ( value == null )
+            {
+                break;
+            }
+            final int home = index ( this.keys[i] );
+            // move the entry if its home slot is not between the gap and its current position
+            if ( ( i - home & this.mask ) >= ( i - gap & this.mask ) )
+            {
+                this.keys[gap] = this.keys[i];
+                this.values[gap] = value;
+                gap = i;
+            }
+        }
+        this.values[gap] = null;
+    }
+
+    private void rehash ( final int capacity )
+    {
+        final int[] oldKeys = this.keys;
+        final Object[] oldValues = this.values;
+
+        allocate ( capacity );
+
+        for ( int i = 0; i < oldValues.length; i++ )
+        {
+            final Object value = oldValues[i];
+            if ( value != null )
+            {
+                int j = index ( oldKeys[i] );
+                while ( this.values[j] != null )
+                {
+                    j = j + 1 & this.mask;
+                }
+                this.keys[j] = oldKeys[i];
+                this.values[j] = value;
+            }
+        }
+    }
+
+    public int size ()
+    {
+        return this.size;
+    }
+
+    public boolean isEmpty ()
+    {
+        return this.size == 0;
+    }
+
+    /**
+     * Get all keys of the map
+     * @return a new array with all keys
+     */
+    public int[] keys ()
+    {
+        final int[] result = new int[this.size];
+        int j = 0;
+        for ( int i = 0; i < this.values.length; i++ )
+        {
+            if ( this.values[i] != null )
+            {
+                result[j++] = this.keys[i];
+            }
+        }
+        return result;
+    }
+
+    public void clear ()
+    {
+        Arrays.fill ( this.values, null );
+        this.size = 0;
+    }
+}
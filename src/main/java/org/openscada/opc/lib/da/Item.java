@@ -36,6 +36,10 @@ public class Item
 
     private String _id = null;
 
+    private short _requestedDataType = JIVariant.VT_EMPTY;
+
+    private short _canonicalDataType = JIVariant.VT_EMPTY;
+
     Item ( final Group group, final int serverHandle, final int clientHandle, final String id )
     {
         super ();
@@ -46,6 +50,13 @@ public class Item
         this._id = id;
     }
 
+    Item ( final Group group, final int serverHandle, final int clientHandle, final String id, final short requestedDataType, final short canonicalDataType )
+    {
+        this ( group, serverHandle, clientHandle, id );
+        this._requestedDataType = requestedDataType;
+        this._canonicalDataType = canonicalDataType;
+    }
+
     public Group getGroup ()
     {
         return this._group;
@@ -66,6 +77,33 @@ public class Item
         return this._id;
     }
 
+    /**
+     * Get the data type the item was added with
+     * @return the requested variant type or <code>VT_EMPTY</code> if the server delivers the canonical type
+     */
+    public short getRequestedDataType ()
+    {
+        return this._requestedDataType;
+    }
+
+    /**
+     * Get the native data type of the item as reported by the server
+     * @return the canonical variant type
+     */
+    public short getCanonicalDataType ()
+    {
+        return this._canonicalDataType;
+    }
+
+    /**
+     * Get the data type the server delivers values with
+     * @return the requested data type if one was requested, the canonical type otherwise
+     */
+    public short getDataType ()
+    {
+        return this._requestedDataType != JIVariant.VT_EMPTY ? this._requestedDataType : this._canonicalDataType;
+    }
+
     public void setActive ( final boolean state ) throws JIException
     {
         this._group.setActive ( state, this );
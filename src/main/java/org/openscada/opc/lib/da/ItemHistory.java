@@ -0,0 +1,388 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.openscada.opc.dcom.common.FILETIME;
+
+/**
+ * Keeps the most recent samples of each item in a fixed size ring buffer
+ * outside of the java heap.
+ * <br/>
+ * Each sample takes {@value #RECORD_SIZE} bytes: the raw FILETIME timestamp,
+ * the value as <code>long</code> or <code>double</code> and the OPC quality. The
+ * highest bit of the timestamp marks integral values. Non numeric values are stored
+ * as <code>NaN</code> so that the quality is still recorded.
+ * <br/>
+ * Samples must be appended in timestamp order, older samples are rejected.
+ * Appending to one item is synchronized, reading uses a {@link Cursor} and
+ * does not block writers. Records that get overwritten while a cursor reads them
+ * are skipped by the cursor.
+ * @see AccessBase#setHistory(ItemHistory)
+ */
+public class ItemHistory
+{
+    public static final int RECORD_SIZE = 18;
+
+    private static final long INTEGRAL_FLAG = 0x8000000000000000L;
+
+    private static final int VALUE_OFFSET = 8;
+
+    private static final int QUALITY_OFFSET = 16;
+
+    private final int capacity;
+
+    private final ConcurrentMap<String, Ring> rings = new ConcurrentHashMap<String, Ring> ();
+
+    private static class Ring
+    {
+        private final ByteBuffer buffer;
+
+        private final int capacity;
+
+        /**
+         * The number of records started to be written
+         */
+        private volatile long reserved = 0;
+
+        /**
+         * The number of records completely written
+         */
+        private volatile long published = 0;
+
+        private long lastFileTime = Long.MIN_VALUE;
+
+        public Ring ( final int capacity )
+        {
+            this.capacity = capacity;
+            this.buffer = ByteBuffer.allocateDirect ( capacity * RECORD_SIZE );
+        }
+
+        public synchronized boolean append ( final long fileTime, final long value, final boolean integral, final short quality )
+        {
+            if ( fileTime < this.lastFileTime || fileTime < 0 )
+            {
+                return false;
+            }
+            this.lastFileTime = fileTime;
+
+            final long sequence = this.published;
+            this.reserved = sequence + 1;
+            // the record must not be changed before readers can see that it is being overwritten
+            VarHandle.releaseFence ();
+
+            final int offset = offset ( sequence );
+            this.buffer.putLong ( offset, integral ? fileTime | INTEGRAL_FLAG : fileTime );
+            this.buffer.putLong ( offset + VALUE_OFFSET, value );
+            this.buffer.putShort ( offset + QUALITY_OFFSET, quality );
+
+            this.published = sequence + 1;
+            return true;
+        }
+
+        public int offset ( final long sequence )
+        {
+            return (int) ( sequence % this.capacity ) * RECORD_SIZE;
+        }
+
+        /**
+         * Get the first sequence which is still valid
+         * @return the first valid sequence
+         */
+        public long first ()
+        {
+            return Math.max ( 0, this.reserved - this.capacity );
+        }
+
+        public long fileTime ( final long sequence )
+        {
+            return this.buffer.getLong ( offset ( sequence ) ) & ~INTEGRAL_FLAG;
+        }
+
+        /**
+         * Find the first sequence with a timestamp not before the given time
+         * @param fileTime the time
+         * @return the sequence
+         */
+        public long find ( final long fileTime )
+        {
+            long low = first ();
+            long high = this.published;
+            while ( low < high )
+            {
+                final long mid = ( low + high ) >>> 1;
+                if ( fileTime ( mid ) < fileTime )
+                {
+                    low = mid + 1;
+                }
+                else
+                {
+                    high = mid;
+                }
+            }
+            return Math.max ( low, first () );
+        }
+    }
+
+    /**
+     * A cursor over the samples of one item. The cursor is positioned before
+     * the first sample, {@link #next()} moves to the next sample.
+     * <br/>
+     * A cursor must only be used by one thread.
+     */
+    public static class Cursor
+    {
+        private final Ring ring;
+
+        private long sequence;
+
+        private final long end;
+
+        private final long endFileTime;
+
+        private long fileTime;
+
+        private long value;
+
+        private boolean integral;
+
+        private short quality;
+
+        Cursor ( final Ring ring, final long start, final long endFileTime )
+        {
+            this.ring = ring;
+            this.sequence = start;
+            this.end = ring == null ? 0 : ring.published;
+            this.endFileTime = endFileTime;
+        }
+
+        /**
+         * Move to the next sample
+         * @return <code>true</code> if there is a sample, <code>false</code> if the end of the range is reached
+         */
+        public boolean next ()
+        {
+            while ( this.ring != null && this.sequence < this.end )
+            {
+                final int offset = this.ring.offset ( this.sequence );
+                final long time = this.ring.buffer.getLong ( offset );
+                final long value = this.ring.buffer.getLong ( offset + VALUE_OFFSET );
+                final short quality = this.ring.buffer.getShort ( offset + QUALITY_OFFSET );
+
+                // the record must be read completely before checking if it was overwritten
+                VarHandle.acquireFence ();
+                final long first = this.ring.first ();
+                if ( this.sequence < first )
+                {
+                    // overwritten while reading
+                    this.sequence = first;
+                    continue;
+                }
+                this.sequence++;
+
+                this.fileTime = time & ~INTEGRAL_FLAG;
+                if ( this.fileTime > this.endFileTime )
+                {
+                    this.sequence = this.end;
+                    return false;
+                }
+                this.integral = ( time & INTEGRAL_FLAG ) != 0;
+                this.value = value;
+                this.quality = quality;
+                return true;
+            }
+            return false;
+        }
+
+        public long getFileTime ()
+        {
+            return this.fileTime;
+        }
+
+        public long getEpochMillis ()
+        {
+            return FILETIME.ticksToEpochMillis ( this.fileTime );
+        }
+
+        public boolean isIntegral ()
+        {
+            return this.integral;
+        }
+
+        public long getLong ()
+        {
+            return this.integral ? this.value : (long)Double.longBitsToDouble ( this.value );
+        }
+
+        public double getDouble ()
+        {
+            return this.integral ? this.value : Double.longBitsToDouble ( this.value );
+        }
+
+        public short getQuality ()
+        {
+            return this.quality;
+        }
+    }
+
+    /**
+     * Create a new history
+     * @param capacity the number of samples kept per item
+     */
+    public ItemHistory ( final int capacity )
+    {
+        if ( capacity <= 0 || (long)capacity * RECORD_SIZE > Integer.MAX_VALUE )
+        {
+            throw new IllegalArgumentException ( "Invalid capacity: " + capacity );
+        }
+        this.capacity = capacity;
+    }
+
+    public int getCapacity ()
+    {
+        return this.capacity;
+    }
+
+    private Ring getRing ( final String itemId )
+    {
+        Ring ring = this.rings.get ( itemId );
+        if ( ring == null )
+        {
+            ring = new Ring ( this.capacity );
+            final Ring existing = this.rings.putIfAbsent ( itemId, ring );
+            if ( existing != null )
+            {
+                ring = existing;
+            }
+        }
+        return ring;
+    }
+
+    /**
+     * Append a sample
+     * @param itemId the item
+     * @param state the state, which is not kept
+     * @return <code>true</code> if the sample was recorded, <code>false</code> if it is older than the last sample
+     */
+    public boolean append ( final String itemId, final CompactItemState state )
+    {
+        if ( state.isIntegral () )
+        {
+            return getRing ( itemId ).append ( state.getFileTime (), state.getLong (), true, state.getQuality () );
+        }
+        final double value = state.isFloatingPoint () ? state.getDouble () : Double.NaN;
+        return getRing ( itemId ).append ( state.getFileTime (), Double.doubleToRawLongBits ( value ), false, state.getQuality () );
+    }
+
+    public boolean append ( final String itemId, final ItemState state )
+    {
+        return append ( itemId, CompactItemState.fromItemState ( state ) );
+    }
+
+    public boolean append ( final String itemId, final long epochMillis, final double value, final short quality )
+    {
+        return getRing ( itemId ).append ( FILETIME.epochMillisToTicks ( epochMillis ), Double.doubleToRawLongBits ( value ), false, quality );
+    }
+
+    public boolean append ( final String itemId, final long epochMillis, final long value, final short quality )
+    {
+        return getRing ( itemId ).append ( FILETIME.epochMillisToTicks ( epochMillis ), value, true, quality );
+    }
+
+    /**
+     * Get the samples of an item within a time range
+     * @param itemId the item
+     * @param fromMillis the start of the range (inclusive) in milliseconds since the epoch
+     * @param toMillis the end of the range (inclusive) in milliseconds since the epoch
+     * @return a cursor over the samples, never <code>null</code>
+     */
+    public Cursor query ( final String itemId, final long fromMillis, final long toMillis )
+    {
+        final Ring ring = this.rings.get ( itemId );
+        if ( ring == null )
+        {
+            return new Cursor ( null, 0, 0 );
+        }
+        return new Cursor ( ring, ring.find ( FILETIME.epochMillisToTicks ( fromMillis ) ), FILETIME.epochMillisToTicks ( toMillis ) );
+    }
+
+    /**
+     * Get all samples of an item that are still kept
+     * @param itemId the item
+     * @return a cursor over the samples, never <code>null</code>
+     */
+    public Cursor query ( final String itemId )
+    {
+        final Ring ring = this.rings.get ( itemId );
+        if ( ring == null )
+        {
+            return new Cursor ( null, 0, 0 );
+        }
+        return new Cursor ( ring, ring.first (), Long.MAX_VALUE );
+    }
+
+    /**
+     * Get the number of samples kept for an item
+     * @param itemId the item
+     * @return the number of samples
+     */
+    public int size ( final String itemId )
+    {
+        final Ring ring = this.rings.get ( itemId );
+        if ( ring == null )
+        {
+            return 0;
+        }
+        return (int)Math.min ( ring.published, this.capacity );
+    }
+
+    public Set<String> getItemIds ()
+    {
+        return this.rings.keySet ();
+    }
+
+    /**
+     * Drop the samples of an item and release its buffer
+     * @param itemId the item
+     */
+    public void remove ( final String itemId )
+    {
+        this.rings.remove ( itemId );
+    }
+
+    public void clear ()
+    {
+        this.rings.clear ();
+    }
+
+    /**
+     * Get the off-heap memory allocated by the history
+     * @return the number of bytes
+     */
+    public long getMemoryUsage ()
+    {
+        return (long)this.rings.size () * this.capacity * RECORD_SIZE;
+    }
+}
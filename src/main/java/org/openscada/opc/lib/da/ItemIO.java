@@ -0,0 +1,172 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jinterop.dcom.common.JIException;
+import org.openscada.opc.dcom.common.FILETIME;
+import org.openscada.opc.dcom.common.KeyedResult;
+import org.openscada.opc.dcom.common.KeyedResultSet;
+import org.openscada.opc.dcom.da.IORequest;
+import org.openscada.opc.dcom.da.OPCITEMSTATE;
+import org.openscada.opc.dcom.da.OPCITEMVQT;
+import org.openscada.opc.dcom.da.impl.OPCItemIO;
+
+/**
+ * Group-less access to items using the OPC DA 3.0 <code>IOPCItemIO</code> interface.
+ * <br/>
+ * Large requests are split into several calls of at most {@link #getBatchSize()} items.
+ */
+public class ItemIO
+{
+    /**
+     * The default number of items per call
+     */
+    public static final int DEFAULT_BATCH_SIZE = Integer.getInteger ( "openscada.opc.itemio-batch-size", 1000 );
+
+    private final OPCItemIO itemIO;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    public ItemIO ( final OPCItemIO itemIO )
+    {
+        this.itemIO = itemIO;
+    }
+
+    public int getBatchSize ()
+    {
+        return this.batchSize;
+    }
+
+    public void setBatchSize ( final int batchSize )
+    {
+        if ( batchSize <= 0 )
+        {
+            throw new IllegalArgumentException ( "batchSize must be greater than zero" );
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Read items using the same maximum age for all items
+     * @param maxAge the maximum age of the cached value in milliseconds. Zero forces
+     * a device read, <code>0xFFFFFFFF</code> accepts any cached value.
+     * @param itemIds the items to read
+     * @return the item states by item id
+     * @throws JIException
+     */
+    public Map<String, ItemState> read ( final int maxAge, final String... itemIds ) throws JIException
+    {
+        final IORequest[] requests = new IORequest[itemIds.length];
+        for ( int i = 0; i < itemIds.length; i++ )
+        {
+            requests[i] = new IORequest ( itemIds[i], maxAge );
+        }
+        return read ( requests );
+    }
+
+    /**
+     * Read items with individual maximum ages
+     * @param requests the read requests
+     * @return the item states by item id
+     * @throws JIException
+     */
+    public Map<String, ItemState> read ( final IORequest... requests ) throws JIException
+    {
+        final Map<String, ItemState> result = new HashMap<String, ItemState> ( requests.length );
+
+        for ( int offset = 0; offset < requests.length; offset += this.batchSize )
+        {
+            final int len = Math.min ( this.batchSize, requests.length - offset );
+            final IORequest[] chunk = new IORequest[len];
+            System.arraycopy ( requests, offset, chunk, 0, len );
+
+            final KeyedResultSet<IORequest, OPCITEMSTATE> states = this.itemIO.read ( chunk );
+            for ( final KeyedResult<IORequest, OPCITEMSTATE> entry : states )
+            {
+                final OPCITEMSTATE state = entry.getValue ();
+                if ( entry.isError () )
+                {
+                    result.put ( entry.getKey ().getItemID (), new ItemState ( entry.getErrorCode (), null, null, null ) );
+                }
+                else
+                {
+                    result.put ( entry.getKey ().getItemID (), new ItemState ( entry.getErrorCode (), state.getValue (), state.getTimestamp ().asCalendar (), state.getQuality () ) );
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Write value, quality and timestamp of items. Quality and timestamp are only
+     * written if they are set in the item state, the error code of the item state is ignored.
+     * @param values the values by item id
+     * @return the error codes by item id
+     * @throws JIException
+     */
+    public Map<String, Integer> writeVQE ( final Map<String, ItemState> values ) throws JIException
+    {
+        final Map<String, Integer> result = new HashMap<String, Integer> ( values.size () );
+
+        final List<String> itemIds = new ArrayList<String> ( this.batchSize );
+        final List<OPCITEMVQT> vqts = new ArrayList<OPCITEMVQT> ( this.batchSize );
+
+        for ( final Map.Entry<String, ItemState> entry : values.entrySet () )
+        {
+            final ItemState state = entry.getValue ();
+            final FILETIME timestamp = state.getTimestamp () != null ? new FILETIME ( state.getTimestamp ().getTime () ) : null;
+
+            itemIds.add ( entry.getKey () );
+            vqts.add ( new OPCITEMVQT ( state.getValue (), state.getQuality (), timestamp ) );
+
+            if ( itemIds.size () >= this.batchSize )
+            {
+                writeChunk ( itemIds, vqts, result );
+            }
+        }
+
+        writeChunk ( itemIds, vqts, result );
+
+        return result;
+    }
+
+    private void writeChunk ( final List<String> itemIds, final List<OPCITEMVQT> vqts, final Map<String, Integer> result ) throws JIException
+    {
+        if ( itemIds.isEmpty () )
+        {
+            return;
+        }
+
+        final KeyedResultSet<String, OPCITEMVQT> results = this.itemIO.writeVQE ( itemIds.toArray ( new String[itemIds.size ()] ), vqts.toArray ( new OPCITEMVQT[vqts.size ()] ) );
+        for ( final KeyedResult<String, OPCITEMVQT> entry : results )
+        {
+            result.put ( entry.getKey (), entry.getErrorCode () );
+        }
+
+        itemIds.clear ();
+        vqts.clear ();
+    }
+}
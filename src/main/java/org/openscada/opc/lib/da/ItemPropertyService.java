@@ -0,0 +1,505 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIVariant;
+import org.openscada.opc.dcom.common.KeyedResult;
+import org.openscada.opc.dcom.common.KeyedResultSet;
+import org.openscada.opc.dcom.da.OPCITEMPROPERTIES;
+import org.openscada.opc.dcom.da.OPCITEMPROPERTY;
+import org.openscada.opc.dcom.da.PropertyDescription;
+import org.openscada.opc.dcom.da.impl.OPCBrowse;
+import org.openscada.opc.dcom.da.impl.OPCItemProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads item properties in bulk and caches them.
+ * <br/>
+ * If an <code>IOPCBrowse</code> interface is available the properties of many
+ * items are fetched with one <code>GetProperties</code> call. Otherwise the
+ * items are distributed over the provided <code>IOPCItemProperties</code>
+ * instances, each one handling one item at a time in its own task. Using
+ * instances from different server connections allows parallel calls.
+ * <br/>
+ * Results are kept in a cache with a maximum size and a time to live. An optional
+ * {@link ItemPropertyStore} is consulted before asking the server. It is only
+ * updated when all properties of an item were loaded from the server.
+ */
+public class ItemPropertyService
+{
+    private static Logger logger = LoggerFactory.getLogger ( ItemPropertyService.class );
+
+    public static final int DEFAULT_CACHE_SIZE = Integer.getInteger ( "openscada.opc.property-cache-size", 50000 );
+
+    public static final long DEFAULT_TIME_TO_LIVE = Long.getLong ( "openscada.opc.property-cache-ttl", 60L * 60L * 1000L );
+
+    public static final int DEFAULT_BATCH_SIZE = Integer.getInteger ( "openscada.opc.property-batch-size", 500 );
+
+    private final List<OPCItemProperties> itemProperties;
+
+    private final OPCBrowse browse;
+
+    private final Executor executor;
+
+    private final Map<String, CacheEntry> cache;
+
+    private final int cacheSize;
+
+    private long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private ItemPropertyStore store = null;
+
+    private final AtomicLong hits = new AtomicLong ();
+
+    private final AtomicLong misses = new AtomicLong ();
+
+    private final AtomicLong remoteCalls = new AtomicLong ();
+
+    /**
+     * Create a new service
+     * @param itemProperties the item properties services, one per server connection. May be empty
+     * if <code>browse</code> is provided.
+     * @param browse the DA 3.0 browse service, may be <code>null</code>
+     * @param executor the executor running parallel requests, may be <code>null</code> in which
+     * case all requests are performed in the calling thread
+     * @param cacheSize the maximum number of items in the cache
+     */
+    public ItemPropertyService ( final Collection<OPCItemProperties> itemProperties, final OPCBrowse browse, final Executor executor, final int cacheSize )
+    {
+        if ( itemProperties.isEmpty () && browse == null )
+        {
+            throw new IllegalArgumentException ( "Either item properties or browse services are required" );
+        }
+
+        this.itemProperties = new ArrayList<OPCItemProperties> ( itemProperties );
+        this.browse = browse;
+        this.executor = executor;
+        this.cacheSize = cacheSize;
+        this.cache = new LinkedHashMap<String, CacheEntry> ( 16, 0.75f, true ) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry ( final Map.Entry<String, CacheEntry> eldest )
+            {
+                return size () > ItemPropertyService.this.cacheSize;
+            }
+        };
+    }
+
+    public ItemPropertyService ( final Collection<OPCItemProperties> itemProperties, final OPCBrowse browse, final Executor executor )
+    {
+        this ( itemProperties, browse, executor, DEFAULT_CACHE_SIZE );
+    }
+
+    /**
+     * Set the time after which cached properties are loaded again
+     * @param timeToLive the time to live in milliseconds
+     */
+    public void setTimeToLive ( final long timeToLive )
+    {
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Set the number of items per <code>GetProperties</code> call
+     * @param batchSize the number of items
+     */
+    public void setBatchSize ( final int batchSize )
+    {
+        if ( batchSize <= 0 )
+        {
+            throw new IllegalArgumentException ( "batchSize must be greater than zero" );
+        }
+        this.batchSize = batchSize;
+    }
+
+    public void setStore ( final ItemPropertyStore store )
+    {
+        this.store = store;
+    }
+
+    public long getHitCount ()
+    {
+        return this.hits.get ();
+    }
+
+    public long getMissCount ()
+    {
+        return this.misses.get ();
+    }
+
+    /**
+     * Get the number of calls to the server
+     * @return the number of remote calls
+     */
+    public long getRemoteCalls ()
+    {
+        return this.remoteCalls.get ();
+    }
+
+    public synchronized void invalidate ( final String itemId )
+    {
+        this.cache.remove ( itemId );
+    }
+
+    public synchronized void invalidateAll ()
+    {
+        this.cache.clear ();
+    }
+
+    /**
+     * Get the properties of one item
+     * @see #getProperties(Collection, int...)
+     */
+    public Map<Integer, OPCITEMPROPERTY> getProperties ( final String itemId, final int... propertyIds ) throws JIException, InterruptedException
+    {
+        final Map<String, Map<Integer, OPCITEMPROPERTY>> result = getProperties ( Collections.singleton ( itemId ), propertyIds );
+        return result.get ( itemId );
+    }
+
+    /**
+     * Get the properties of several items, including their values
+     * @param itemIds the items
+     * @param propertyIds the properties to get, if none are specified all available properties are returned
+     * @return the properties by property id for each item. Properties which could not be read
+     * carry their error code.
+     * @throws JIException if loading the properties failed
+     * @throws InterruptedException
+     */
+    public Map<String, Map<Integer, OPCITEMPROPERTY>> getProperties ( final Collection<String> itemIds, final int... propertyIds ) throws JIException, InterruptedException
+    {
+        final Map<String, Map<Integer, OPCITEMPROPERTY>> result = new HashMap<String, Map<Integer, OPCITEMPROPERTY>> ( itemIds.size () );
+        final List<String> missing = new LinkedList<String> ();
+
+        final long now = System.currentTimeMillis ();
+        synchronized ( this )
+        {
+            for ( final String itemId : itemIds )
+            {
+                final CacheEntry entry = this.cache.get ( itemId );
+                if ( entry != null && now - entry.timestamp < this.timeToLive && entry.covers ( propertyIds ) )
+                {
+                    result.put ( itemId, entry.select ( propertyIds ) );
+                    this.hits.incrementAndGet ();
+                }
+                else
+                {
+                    missing.add ( itemId );
+                    this.misses.incrementAndGet ();
+                }
+            }
+        }
+
+        if ( missing.isEmpty () )
+        {
+            return result;
+        }
+
+        loadFromStore ( missing, propertyIds, result );
+
+        if ( !missing.isEmpty () )
+        {
+            final Map<String, Collection<OPCITEMPROPERTY>> loaded = this.browse != null ? loadBrowse ( missing, propertyIds ) : loadItemProperties ( missing, propertyIds );
+            for ( final Map.Entry<String, Collection<OPCITEMPROPERTY>> entry : loaded.entrySet () )
+            {
+                result.put ( entry.getKey (), put ( entry.getKey (), entry.getValue (), propertyIds.length == 0, propertyIds ) );
+                if ( this.store != null && propertyIds.length == 0 )
+                {
+                    this.store.store ( entry.getKey (), entry.getValue () );
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private void loadFromStore ( final List<String> missing, final int[] propertyIds, final Map<String, Map<Integer, OPCITEMPROPERTY>> result )
+    {
+        if ( this.store == null )
+        {
+            return;
+        }
+
+        for ( final Iterator<String> i = missing.iterator (); i.hasNext (); )
+        {
+            final String itemId = i.next ();
+            final Collection<OPCITEMPROPERTY> properties = this.store.load ( itemId );
+            if ( properties == null )
+            {
+                continue;
+            }
+
+            // the store only holds complete sets of properties
+            result.put ( itemId, put ( itemId, properties, true, propertyIds ) );
+            i.remove ();
+        }
+    }
+
+    /**
+     * Add properties to the cache and select the requested ones while holding the lock,
+     * since other threads may merge properties into the same entry
+     * @return the requested properties
+     */
+    private synchronized Map<Integer, OPCITEMPROPERTY> put ( final String itemId, final Collection<OPCITEMPROPERTY> properties, final boolean all, final int[] propertyIds )
+    {
+        CacheEntry entry = this.cache.get ( itemId );
+        if ( entry == null || all )
+        {
+            entry = new CacheEntry ( properties, all );
+            this.cache.put ( itemId, entry );
+        }
+        else
+        {
+            entry.merge ( properties );
+        }
+        return entry.select ( propertyIds );
+    }
+
+    private Map<String, Collection<OPCITEMPROPERTY>> loadBrowse ( final List<String> itemIds, final int[] propertyIds ) throws JIException
+    {
+        final Map<String, Collection<OPCITEMPROPERTY>> result = new HashMap<String, Collection<OPCITEMPROPERTY>> ( itemIds.size () );
+
+        for ( int offset = 0; offset < itemIds.size (); offset += this.batchSize )
+        {
+            final List<String> chunk = itemIds.subList ( offset, Math.min ( itemIds.size (), offset + this.batchSize ) );
+
+            this.remoteCalls.incrementAndGet ();
+            final KeyedResultSet<String, OPCITEMPROPERTIES> properties = this.browse.getProperties ( chunk.toArray ( new String[chunk.size ()] ), true, propertyIds );
+            for ( final KeyedResult<String, OPCITEMPROPERTIES> entry : properties )
+            {
+                // S_FALSE only reports errors of single properties, which are kept with the property
+                if ( entry.isError () )
+                {
+                    logger.debug ( "Failed to get properties of '{}': {}", entry.getKey (), entry.getErrorCode () );
+                    continue;
+                }
+                result.put ( entry.getKey (), entry.getValue ().getProperties () );
+            }
+        }
+
+        return result;
+    }
+
+    private Map<String, Collection<OPCITEMPROPERTY>> loadItemProperties ( final List<String> itemIds, final int[] propertyIds ) throws JIException, InterruptedException
+    {
+        final Map<String, Collection<OPCITEMPROPERTY>> result = new ConcurrentHashMap<String, Collection<OPCITEMPROPERTY>> ( itemIds.size () );
+        final Queue<String> queue = new ConcurrentLinkedQueue<String> ( itemIds );
+        final JIException[] error = new JIException[1];
+
+        final int workers = this.executor == null ? 1 : Math.min ( this.itemProperties.size (), itemIds.size () );
+        final CountDownLatch latch = new CountDownLatch ( workers );
+
+        for ( int i = 0; i < workers; i++ )
+        {
+            final OPCItemProperties service = this.itemProperties.get ( i );
+            final Runnable worker = new Runnable () {
+
+                public void run ()
+                {
+                    try
+                    {
+                        String itemId;
+                        while ( ( itemId = queue.poll () ) != null )
+                        {
+                            final Collection<OPCITEMPROPERTY> properties = load ( service, itemId, propertyIds );
+                            if ( properties != null )
+                            {
+                                result.put ( itemId, properties );
+                            }
+                        }
+                    }
+                    catch ( final JIException e )
+                    {
+                        synchronized ( error )
+                        {
+                            error[0] = e;
+                        }
+                        queue.clear ();
+                    }
+                    finally
+                    {
+                        latch.countDown ();
+                    }
+                }
+            };
+
+            if ( this.executor == null )
+            {
+                worker.run ();
+            }
+            else
+            {
+                this.executor.execute ( worker );
+            }
+        }
+
+        latch.await ();
+
+        synchronized ( error )
+        {
+            if ( error[0] != null )
+            {
+                throw error[0];
+            }
+        }
+
+        return result;
+    }
+
+    private Collection<OPCITEMPROPERTY> load ( final OPCItemProperties service, final String itemId, final int[] propertyIds ) throws JIException
+    {
+        final Map<Integer, OPCITEMPROPERTY> properties = new LinkedHashMap<Integer, OPCITEMPROPERTY> ();
+
+        this.remoteCalls.incrementAndGet ();
+        for ( final PropertyDescription description : service.queryAvailableProperties ( itemId ) )
+        {
+            if ( propertyIds.length > 0 && !contains ( propertyIds, description.getId () ) )
+            {
+                continue;
+            }
+
+            final OPCITEMPROPERTY property = new OPCITEMPROPERTY ();
+            property.setItemID ( itemId );
+            property.setPropertyID ( description.getId () );
+            property.setDescription ( description.getDescription () );
+            property.setDataType ( description.getVarType () );
+            properties.put ( description.getId (), property );
+        }
+
+        if ( properties.isEmpty () )
+        {
+            return properties.values ();
+        }
+
+        final int[] ids = new int[properties.size ()];
+        int i = 0;
+        for ( final Integer id : properties.keySet () )
+        {
+            ids[i++] = id;
+        }
+
+        this.remoteCalls.incrementAndGet ();
+        final KeyedResultSet<Integer, JIVariant> values = service.getItemProperties ( itemId, ids );
+        for ( final KeyedResult<Integer, JIVariant> entry : values )
+        {
+            final OPCITEMPROPERTY property = properties.get ( entry.getKey () );
+            property.setValue ( entry.getValue () );
+            property.setErrorCode ( entry.getErrorCode () );
+        }
+
+        return properties.values ();
+    }
+
+    private static boolean contains ( final int[] values, final int value )
+    {
+        for ( final int v : values )
+        {
+            if ( v == value )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class CacheEntry
+    {
+        private final Map<Integer, OPCITEMPROPERTY> properties = new HashMap<Integer, OPCITEMPROPERTY> ();
+
+        private final boolean all;
+
+        private final long timestamp = System.currentTimeMillis ();
+
+        public CacheEntry ( final Collection<OPCITEMPROPERTY> properties, final boolean all )
+        {
+            this.all = all;
+            merge ( properties );
+        }
+
+        public void merge ( final Collection<OPCITEMPROPERTY> properties )
+        {
+            for ( final OPCITEMPROPERTY property : properties )
+            {
+                this.properties.put ( property.getPropertyID (), property );
+            }
+        }
+
+        public boolean covers ( final int[] propertyIds )
+        {
+            if ( this.all )
+            {
+                // properties which are missing are not available for the item
+                return true;
+            }
+            if ( propertyIds.length == 0 )
+            {
+                return false;
+            }
+            for ( final int id : propertyIds )
+            {
+                if ( !this.properties.containsKey ( id ) )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public Map<Integer, OPCITEMPROPERTY> select ( final int[] propertyIds )
+        {
+            if ( propertyIds.length == 0 )
+            {
+                return new HashMap<Integer, OPCITEMPROPERTY> ( this.properties );
+            }
+
+            final Map<Integer, OPCITEMPROPERTY> result = new HashMap<Integer, OPCITEMPROPERTY> ( propertyIds.length );
+            for ( final int id : propertyIds )
+            {
+                final OPCITEMPROPERTY property = this.properties.get ( id );
+                if ( property != null )
+                {
+                    result.put ( id, property );
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da;
+
+import java.util.Collection;
+
+import org.openscada.opc.dcom.da.OPCITEMPROPERTY;
+
+/**
+ * A persistent second level store for the {@link ItemPropertyService}.
+ * <br/>
+ * Implementations must be thread safe.
+ */
+public interface ItemPropertyStore
+{
+    /**
+     * Load the stored properties of an item
+     * @param itemId the item
+     * @return all properties of the item or <code>null</code> if nothing is stored for the item
+     */
+    public Collection<OPCITEMPROPERTY> load ( String itemId );
+
+    /**
+     * Store all properties of an item, replacing previously stored properties
+     * @param itemId the item
+     * @param properties the properties
+     */
+    public void store ( String itemId, Collection<OPCITEMPROPERTY> properties );
+}
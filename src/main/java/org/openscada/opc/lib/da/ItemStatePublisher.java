@@ -0,0 +1,304 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes item updates to reactive subscribers.
+ * <br/>
+ * Register the publisher as data callback of the items, e.g. with
+ * {@link #addItems(AccessBase, Collection)}. Each subscriber receives maps of
+ * item to latest state. Updates arriving while a subscriber has no outstanding demand
+ * are collected and conflated per item, so each subscriber buffers at most one state
+ * per item. One element delivers everything collected since the previous element.
+ * <br/>
+ * The thread delivering the updates from the server only puts the update into the
+ * buffers of the subscribers. Subscribers are called by the executor, one task per
+ * subscriber at a time.
+ */
+public class ItemStatePublisher implements Flow.Publisher<Map<Item, ItemState>>, DataCallback
+{
+    private static Logger logger = LoggerFactory.getLogger ( ItemStatePublisher.class );
+
+    private final Executor executor;
+
+    private final List<ItemSubscription> subscriptions = new CopyOnWriteArrayList<ItemSubscription> ();
+
+    private final AtomicLong conflatedCount = new AtomicLong ();
+
+    private volatile boolean completed = false;
+
+    private class ItemSubscription implements Flow.Subscription, Runnable
+    {
+        private final Flow.Subscriber<? super Map<Item, ItemState>> subscriber;
+
+        private LinkedHashMap<Item, ItemState> pending = new LinkedHashMap<Item, ItemState> ();
+
+        private long demand = 0;
+
+        private boolean cancelled = false;
+
+        private boolean running = false;
+
+        private boolean done = false;
+
+        private Throwable error = null;
+
+        public ItemSubscription ( final Flow.Subscriber<? super Map<Item, ItemState>> subscriber )
+        {
+            this.subscriber = subscriber;
+        }
+
+        public void request ( final long n )
+        {
+            synchronized ( this )
+            {
+                if ( this.cancelled )
+                {
+                    return;
+                }
+                if ( n <= 0 )
+                {
+                    this.error = new IllegalArgumentException ( "Requested demand must be positive: " + n );
+                }
+                else
+                {
+                    this.demand = this.demand + n < 0 ? Long.MAX_VALUE : this.demand + n;
+                }
+            }
+            schedule ();
+        }
+
+        public void cancel ()
+        {
+            synchronized ( this )
+            {
+                this.cancelled = true;
+                this.pending.clear ();
+            }
+            ItemStatePublisher.this.subscriptions.remove ( this );
+        }
+
+        public void offer ( final Item item, final ItemState itemState )
+        {
+            synchronized ( this )
+            {
+                if ( this.cancelled )
+                {
+                    return;
+                }
+                if ( this.pending.put ( item, itemState ) != null )
+                {
+                    ItemStatePublisher.this.conflatedCount.incrementAndGet ();
+                }
+                if ( this.demand == 0 )
+                {
+                    return;
+                }
+            }
+            schedule ();
+        }
+
+        public void schedule ()
+        {
+            synchronized ( this )
+            {
+                if ( this.running || this.done )
+                {
+                    return;
+                }
+                this.running = true;
+            }
+
+            try
+            {
+                ItemStatePublisher.this.executor.execute ( this );
+            }
+            catch ( final RejectedExecutionException e )
+            {
+                logger.warn ( "Executor rejected delivery task", e );
+                synchronized ( this )
+                {
+                    this.running = false;
+                }
+            }
+        }
+
+        public void run ()
+        {
+            while ( true )
+            {
+                final Map<Item, ItemState> batch;
+                boolean complete = false;
+                Throwable error = null;
+
+                synchronized ( this )
+                {
+                    if ( this.cancelled || this.done )
+                    {
+                        this.running = false;
+                        return;
+                    }
+
+                    if ( this.error != null )
+                    {
+                        error = this.error;
+                        this.done = true;
+                        batch = null;
+                    }
+                    else if ( this.demand > 0 && !this.pending.isEmpty () )
+                    {
+                        batch = this.pending;
+                        this.pending = new LinkedHashMap<Item, ItemState> ();
+                        this.demand--;
+                    }
+                    else if ( this.pending.isEmpty () && ItemStatePublisher.this.completed )
+                    {
+                        complete = true;
+                        this.done = true;
+                        batch = null;
+                    }
+                    else
+                    {
+                        this.running = false;
+                        return;
+                    }
+                }
+
+                if ( error != null )
+                {
+                    ItemStatePublisher.this.subscriptions.remove ( this );
+                    this.subscriber.onError ( error );
+                    return;
+                }
+                if ( complete )
+                {
+                    ItemStatePublisher.this.subscriptions.remove ( this );
+                    this.subscriber.onComplete ();
+                    return;
+                }
+
+                try
+                {
+                    this.subscriber.onNext ( Collections.unmodifiableMap ( batch ) );
+                }
+                catch ( final Throwable e )
+                {
+                    logger.warn ( "Subscriber failed, cancelling subscription", e );
+                    cancel ();
+                    synchronized ( this )
+                    {
+                        this.running = false;
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Create a new publisher
+     * @param executor the executor calling the subscribers
+     */
+    public ItemStatePublisher ( final Executor executor )
+    {
+        this.executor = executor;
+    }
+
+    public void subscribe ( final Flow.Subscriber<? super Map<Item, ItemState>> subscriber )
+    {
+        if ( subscriber == null )
+        {
+            throw new NullPointerException ( "subscriber must not be null" );
+        }
+
+        final ItemSubscription subscription = new ItemSubscription ( subscriber );
+        subscriber.onSubscribe ( subscription );
+        this.subscriptions.add ( subscription );
+
+        if ( this.completed )
+        {
+            subscription.schedule ();
+        }
+    }
+
+    public void changed ( final Item item, final ItemState itemState )
+    {
+        for ( final ItemSubscription subscription : this.subscriptions )
+        {
+            subscription.offer ( item, itemState );
+        }
+    }
+
+    /**
+     * Register the publisher as data callback of items
+     * @param access the access to add the items to
+     * @param itemIds the items
+     */
+    public void addItems ( final AccessBase access, final Collection<String> itemIds )
+    {
+        final Map<String, DataCallback> items = new LinkedHashMap<String, DataCallback> ( itemIds.size () );
+        for ( final String itemId : itemIds )
+        {
+            items.put ( itemId, this );
+        }
+        access.addItems ( items );
+    }
+
+    /**
+     * Complete all subscriptions after the buffered updates were delivered.
+     * Later subscribers are completed immediately.
+     */
+    public void complete ()
+    {
+        this.completed = true;
+        for ( final ItemSubscription subscription : this.subscriptions )
+        {
+            subscription.schedule ();
+        }
+    }
+
+    public int getSubscriberCount ()
+    {
+        return this.subscriptions.size ();
+    }
+
+    /**
+     * Get the number of updates which replaced an undelivered update of the same item
+     * @return the number of conflated updates
+     */
+    public long getConflatedCount ()
+    {
+        return this.conflatedCount.get ();
+    }
+}
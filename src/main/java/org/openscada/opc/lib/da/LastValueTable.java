@@ -0,0 +1,497 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A table of the last known state of each item.
+ * <br/>
+ * The table is split into segments. Each segment is immutable and replaced on
+ * every write, so readers never lock and a {@link Snapshot} only needs to collect the
+ * current segment references. Writers are serialized and surround each change with a
+ * sequence counter, a snapshot is retried if a write happened while it collected the
+ * segments.
+ * <br/>
+ * Every write increments the version of the table, each entry carries the version it
+ * was written with. {@link #changedSince(long)} returns the entries written after a
+ * version and skips unchanged segments. Removed items are not reported as change.
+ * <br/>
+ * States written as {@link CompactItemState} are kept as a copy and only converted
+ * when they are read.
+ * @see AccessBase#setLastValueTable(LastValueTable)
+ */
+public class LastValueTable
+{
+    public static final int DEFAULT_SEGMENTS = Integer.getInteger ( "openscada.opc.last-value-segments", 1024 );
+
+    /**
+     * The state of one item
+     */
+    public static final class Entry
+    {
+        private final String itemId;
+
+        private final CompactItemState compactState;
+
+        private volatile ItemState state;
+
+        private final long version;
+
+        Entry ( final String itemId, final ItemState state, final CompactItemState compactState, final long version )
+        {
+            this.itemId = itemId;
+            this.state = state;
+            this.compactState = compactState;
+            this.version = version;
+        }
+
+        public String getItemId ()
+        {
+            return this.itemId;
+        }
+
+        /**
+         * Get the state. States written as {@link CompactItemState} are converted on the first call.
+         * @return the state
+         */
+        public ItemState getState ()
+        {
+            ItemState state = this.state;
+            if ( state == null )
+            {
+                state = this.compactState.toItemState ();
+                this.state = state;
+            }
+            return state;
+        }
+
+        public long getVersion ()
+        {
+            return this.version;
+        }
+    }
+
+    private static final class Segment
+    {
+        private static final Segment EMPTY = new Segment ( new Entry[0], 0 );
+
+        /**
+         * The entries, sorted by hash code and item id
+         */
+        private final Entry[] entries;
+
+        private final long maxVersion;
+
+        Segment ( final Entry[] entries, final long maxVersion )
+        {
+            this.entries = entries;
+            this.maxVersion = maxVersion;
+        }
+
+        private static int compare ( final String itemId, final int hash, final Entry entry )
+        {
+            final int entryHash = entry.itemId.hashCode ();
+            if ( hash != entryHash )
+            {
+                return hash < entryHash ? -1 : 1;
+            }
+            return itemId.compareTo ( entry.itemId );
+        }
+
+        /**
+         * Find an item
+         * @return the index of the item or <code>-(insertion point) - 1</code>
+         */
+        int indexOf ( final String itemId, final int hash )
+        {
+            int low = 0;
+            int high = this.entries.length - 1;
+            while ( low <= high )
+            {
+                final int mid = ( low + high ) >>> 1;
+                final int c = compare ( itemId, hash, this.entries[mid] );
+                if ( c > 0 )
+                {
+                    low = mid + 1;
+                }
+                else if ( c < 0 )
+                {
+                    high = mid - 1;
+                }
+                else
+                {
+                    return mid;
+                }
+            }
+            return - ( low + 1 );
+        }
+
+        Segment put ( final Entry entry )
+        {
+            final int index = indexOf ( entry.itemId, entry.itemId.hashCode () );
+            final Entry[] entries;
+            if ( index >= 0 )
+            {
+                entries = this.entries.clone ();
+                entries[index] = entry;
+            }
+            else
+            {
+                final int insert = - ( index + 1 );
+                entries = new Entry[this.entries.length + 1];
+                System.arraycopy ( this.entries, 0, entries, 0, insert );
+                entries[insert] = entry;
+                System.arraycopy ( this.entries, insert, entries, insert + 1, this.entries.length - insert );
+            }
+            return new Segment ( entries, Math.max ( this.maxVersion, entry.version ) );
+        }
+
+        Segment remove ( final String itemId )
+        {
+            final int index = indexOf ( itemId, itemId.hashCode () );
+            if ( index < 0 )
+            {
+                return this;
+            }
+            final Entry[] entries = new Entry[this.entries.length - 1];
+            System.arraycopy ( this.entries, 0, entries, 0, index );
+            System.arraycopy ( this.entries, index + 1, entries, index, entries.length - index );
+            return new Segment ( entries, this.maxVersion );
+        }
+    }
+
+    /**
+     * A consistent, immutable view of the table
+     */
+    public static final class Snapshot
+    {
+        private final Segment[] segments;
+
+        private final long version;
+
+        Snapshot ( final Segment[] segments, final long version )
+        {
+            this.segments = segments;
+            this.version = version;
+        }
+
+        /**
+         * Get the version of the table at the time of the snapshot
+         * @return the version
+         */
+        public long getVersion ()
+        {
+            return this.version;
+        }
+
+        public ItemState get ( final String itemId )
+        {
+            final int hash = itemId.hashCode ();
+            final Segment segment = this.segments[segmentIndex ( hash, this.segments.length )];
+            final int index = segment.indexOf ( itemId, hash );
+            return index < 0 ? null : segment.entries[index].getState ();
+        }
+
+        public int size ()
+        {
+            int size = 0;
+            for ( final Segment segment : this.segments )
+            {
+                size += segment.entries.length;
+            }
+            return size;
+        }
+
+        /**
+         * Get all entries
+         * @return the entries, in no particular order
+         */
+        public List<Entry> getEntries ()
+        {
+            return changedSince ( -1 );
+        }
+
+        /**
+         * Get the entries written after a version
+         * @param version the version, e.g. of a previous snapshot
+         * @return the changed entries, in no particular order
+         */
+        public List<Entry> changedSince ( final long version )
+        {
+            final List<Entry> result = new ArrayList<Entry> ();
+            for ( final Segment segment : this.segments )
+            {
+                if ( segment.maxVersion <= version )
+                {
+                    continue;
+                }
+                for ( final Entry entry : segment.entries )
+                {
+                    if ( entry.version > version )
+                    {
+                        result.add ( entry );
+                    }
+                }
+            }
+            return result;
+        }
+
+        public Map<String, ItemState> toMap ()
+        {
+            final Map<String, ItemState> result = new HashMap<String, ItemState> ( size () * 4 / 3 + 1 );
+            for ( final Segment segment : this.segments )
+            {
+                for ( final Entry entry : segment.entries )
+                {
+                    result.put ( entry.itemId, entry.getState () );
+                }
+            }
+            return Collections.unmodifiableMap ( result );
+        }
+    }
+
+    private final AtomicReferenceArray<Segment> segments;
+
+    private final Object writeLock = new Object ();
+
+    /**
+     * Odd while a write is in progress
+     */
+    private volatile long sequence = 0;
+
+    private volatile long version = 0;
+
+    public LastValueTable ()
+    {
+        this ( DEFAULT_SEGMENTS );
+    }
+
+    /**
+     * Create a new table
+     * @param segments the number of segments, rounded up to a power of two
+     */
+    public LastValueTable ( final int segments )
+    {
+        int size = 1;
+        while ( size < segments )
+        {
+            size <<= 1;
+        }
+
+        this.segments = new AtomicReferenceArray<Segment> ( size );
+        for ( int i = 0; i < size; i++ )
+        {
+            this.segments.set ( i, Segment.EMPTY );
+        }
+    }
+
+    private static int segmentIndex ( final int hash, final int count )
+    {
+        return ( hash ^ hash >>> 16 ) & ( count - 1 );
+    }
+
+    private void putEntry ( final String itemId, final ItemState state, final CompactItemState compactState, final long version )
+    {
+        final int index = segmentIndex ( itemId.hashCode (), this.segments.length () );
+        this.segments.set ( index, this.segments.get ( index ).put ( new Entry ( itemId, state, compactState, version ) ) );
+    }
+
+    private long putEntry ( final String itemId, final ItemState state, final CompactItemState compactState )
+    {
+        synchronized ( this.writeLock )
+        {
+            final long version = this.version + 1;
+            this.sequence++;
+            try
+            {
+                putEntry ( itemId, state, compactState, version );
+                this.version = version;
+            }
+            finally
+            {
+                this.sequence++;
+            }
+            return version;
+        }
+    }
+
+    /**
+     * Set the state of an item
+     * @param itemId the item
+     * @param state the new state
+     * @return the new version of the table
+     */
+    public long put ( final String itemId, final ItemState state )
+    {
+        return putEntry ( itemId, state, null );
+    }
+
+    /**
+     * Set the state of an item from a compact state. The state is only converted
+     * to an {@link ItemState} when it is read.
+     * @param itemId the item
+     * @param state the new state, which is copied
+     * @return the new version of the table
+     */
+    public long put ( final String itemId, final CompactItemState state )
+    {
+        return putEntry ( itemId, null, state.copy () );
+    }
+
+    /**
+     * Set the states of several items with one version
+     * @param states the new states by item id
+     * @return the new version of the table
+     */
+    public long putAll ( final Map<String, ItemState> states )
+    {
+        synchronized ( this.writeLock )
+        {
+            final long version = this.version + 1;
+            this.sequence++;
+            try
+            {
+                for ( final Map.Entry<String, ItemState> entry : states.entrySet () )
+                {
+                    putEntry ( entry.getKey (), entry.getValue (), null, version );
+                }
+                this.version = version;
+            }
+            finally
+            {
+                this.sequence++;
+            }
+            return version;
+        }
+    }
+
+    public void remove ( final String itemId )
+    {
+        synchronized ( this.writeLock )
+        {
+            this.sequence++;
+            try
+            {
+                final int index = segmentIndex ( itemId.hashCode (), this.segments.length () );
+                this.segments.set ( index, this.segments.get ( index ).remove ( itemId ) );
+            }
+            finally
+            {
+                this.sequence++;
+            }
+        }
+    }
+
+    /**
+     * Get the current state of an item
+     * @param itemId the item
+     * @return the state or <code>null</code> if the item is unknown
+     */
+    public ItemState get ( final String itemId )
+    {
+        final int hash = itemId.hashCode ();
+        final Segment segment = this.segments.get ( segmentIndex ( hash, this.segments.length () ) );
+        final int index = segment.indexOf ( itemId, hash );
+        return index < 0 ? null : segment.entries[index].getState ();
+    }
+
+    public long getVersion ()
+    {
+        return this.version;
+    }
+
+    /**
+     * Take a consistent snapshot of the table
+     * @return the snapshot
+     */
+    public Snapshot snapshot ()
+    {
+        final Segment[] copy = new Segment[this.segments.length ()];
+        int attempts = 0;
+        while ( true )
+        {
+            final long before = this.sequence;
+            if ( ( before & 1 ) == 0 )
+            {
+                final long version = this.version;
+                for ( int i = 0; i < copy.length; i++ )
+                {
+                    copy[i] = this.segments.get ( i );
+                }
+                if ( before == this.sequence )
+                {
+                    return new Snapshot ( copy, version );
+                }
+            }
+
+            if ( ++attempts > 100 )
+            {
+                // writers keep us busy, wait for a gap
+                synchronized ( this.writeLock )
+                {
+                    for ( int i = 0; i < copy.length; i++ )
+                    {
+                        copy[i] = this.segments.get ( i );
+                    }
+                    return new Snapshot ( copy, this.version );
+                }
+            }
+            Thread.yield ();
+        }
+    }
+
+    /**
+     * Get the entries written after a version
+     * <br/>
+     * Pollers which need to know the version the changes are complete up to should use
+     * {@link #snapshot()} and {@link Snapshot#changedSince(long)} instead.
+     * @param version the version, e.g. returned by {@link Snapshot#getVersion()} of a previous call
+     * @return the changed entries, in no particular order
+     */
+    public List<Entry> changedSince ( final long version )
+    {
+        return snapshot ().changedSince ( version );
+    }
+
+    public void clear ()
+    {
+        synchronized ( this.writeLock )
+        {
+            this.sequence++;
+            try
+            {
+                for ( int i = 0; i < this.segments.length (); i++ )
+                {
+                    this.segments.set ( i, Segment.EMPTY );
+                }
+            }
+            finally
+            {
+                this.sequence++;
+            }
+        }
+    }
+}
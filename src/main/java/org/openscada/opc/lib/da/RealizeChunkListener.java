@@ -0,0 +1,38 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da;
+
+/**
+ * Receives the outcome of each chunk sent to the server while an access
+ * base realizes its items in bulk.
+ * <br/>
+ * Can be used to tune the chunk size per server vendor.
+ */
+public interface RealizeChunkListener
+{
+    /**
+     * Called after a chunk was sent to the server
+     * @param size the number of items in the chunk
+     * @param failed the number of items the server rejected
+     * @param duration the duration of the add call in nanoseconds
+     * @param error the error if the whole call failed, <code>null</code> otherwise
+     */
+    public abstract void chunkRealized ( int size, int failed, long duration, Throwable error );
+}
@@ -34,13 +34,16 @@ import org.jinterop.dcom.core.JIProgId;
 import org.jinterop.dcom.core.JISession;
 import org.openscada.opc.dcom.da.OPCNAMESPACETYPE;
 import org.openscada.opc.dcom.da.OPCSERVERSTATUS;
+import org.openscada.opc.dcom.da.impl.OPCBrowse;
 import org.openscada.opc.dcom.da.impl.OPCBrowseServerAddressSpace;
 import org.openscada.opc.dcom.da.impl.OPCGroupStateMgt;
+import org.openscada.opc.dcom.da.impl.OPCItemIO;
 import org.openscada.opc.dcom.da.impl.OPCServer;
 import org.openscada.opc.lib.common.AlreadyConnectedException;
 import org.openscada.opc.lib.common.ConnectionInformation;
 import org.openscada.opc.lib.common.NotConnectedException;
 import org.openscada.opc.lib.da.browser.FlatBrowser;
+import org.openscada.opc.lib.da.browser.StreamingBrowser;
 import org.openscada.opc.lib.da.browser.TreeBrowser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -67,7 +70,7 @@ public class Server
 
     private int defaultLocaleID = 0;
 
-    private ErrorMessageResolver errorMessageResolver;
+    private volatile ErrorMessageResolver errorMessageResolver;
 
     private final Map<Integer, Group> groups = new HashMap<Integer, Group> ();
 
@@ -93,6 +96,11 @@ public class Server
         return this.scheduler;
     }
 
+    public ConnectionInformation getConnectionInformation ()
+    {
+        return this.connectionInformation;
+    }
+
     protected synchronized boolean isConnected ()
     {
         return this.session != null;
@@ -130,7 +138,7 @@ public class Server
             }
 
             this.server = new OPCServer ( this.comServer.createInstance () );
-            this.errorMessageResolver = new ErrorMessageResolver ( this.server.getCommon (), this.defaultLocaleID );
+            this.errorMessageResolver = new ErrorMessageResolver ( this.server.getCommon (), this.defaultLocaleID, this.scheduler, ErrorMessageResolver.DEFAULT_CACHE_SIZE );
         }
         catch ( final UnknownHostException e )
         {
@@ -193,6 +201,10 @@ public class Server
         this.comServer = null;
         this.server = null;
 
+        for ( final Group group : this.groups.values () )
+        {
+            group.removeMetricsScope ();
+        }
         this.groups.clear ();
     }
 
@@ -412,15 +424,52 @@ public class Server
         return new TreeBrowser ( browser );
     }
 
-    public synchronized String getErrorMessage ( final int errorCode )
+    /**
+     * Get the OPC DA 3.0 browser
+     * @return The streaming browser or <code>null</code> if the functionality is not supported
+     */
+    public StreamingBrowser getStreamingBrowser ()
+    {
+        final OPCBrowse browse = this.server.getBrowseService ();
+        if ( browse == null )
+        {
+            return null;
+        }
+
+        return new StreamingBrowser ( browse );
+    }
+
+    /**
+     * Get group-less item access using the OPC DA 3.0 <code>IOPCItemIO</code> interface
+     * @return The item access or <code>null</code> if the functionality is not supported
+     */
+    public ItemIO getItemIO ()
+    {
+        final OPCItemIO itemIO = this.server.getItemIOService ();
+        if ( itemIO == null )
+        {
+            return null;
+        }
+
+        return new ItemIO ( itemIO );
+    }
+
+    /**
+     * Get the message of an error code. Messages not known yet are resolved
+     * in the background, this method does not wait for the server.
+     * @param errorCode the error code
+     * @return the error message
+     */
+    public String getErrorMessage ( final int errorCode )
     {
-        if ( this.errorMessageResolver == null )
+        final ErrorMessageResolver errorMessageResolver = this.errorMessageResolver;
+        if ( errorMessageResolver == null )
         {
             return String.format ( "Unknown error (%08X)", errorCode );
         }
 
         // resolve message
-        final String message = this.errorMessageResolver.getMessage ( errorCode );
+        final String message = errorMessageResolver.getMessage ( errorCode );
 
         // and return if successfull
         if ( message != null )
@@ -477,6 +526,7 @@ public class Server
         {
             this.server.removeGroup ( group.getServerHandle (), force );
             this.groups.remove ( group.getServerHandle () );
+            group.removeMetricsScope ();
         }
     }
 }
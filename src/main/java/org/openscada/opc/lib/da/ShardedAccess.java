@@ -0,0 +1,707 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jinterop.dcom.common.JIException;
+import org.openscada.opc.lib.common.NotConnectedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An access which spreads its items over several OPC groups (shards).
+ * <br/>
+ * Items are grouped into partitions, either by a user supplied key or by the
+ * requested update rate. Each partition consists of one or more shards, and every
+ * shard is an independent {@link Async20Access} with its own group and data callback.
+ * A shard never holds more than {@link #getMaxItemsPerShard()} items. When shards
+ * are added or removed the items of the partition are rebalanced.
+ */
+public class ShardedAccess
+{
+    private static Logger logger = LoggerFactory.getLogger ( ShardedAccess.class );
+
+    /**
+     * The default number of items per group
+     */
+    public static final int DEFAULT_MAX_ITEMS_PER_SHARD = Integer.getInteger ( "openscada.opc.max-items-per-shard", 2000 );
+
+    private static final Object DEFAULT_KEY = new Object ();
+
+    private final Server server;
+
+    private final int period;
+
+    private final boolean initialRefresh;
+
+    private final String logTag;
+
+    private int maxItemsPerShard = DEFAULT_MAX_ITEMS_PER_SHARD;
+
+    private final Map<Object, List<Shard>> partitions = new HashMap<Object, List<Shard>> ();
+
+    private final Map<String, Assignment> assignments = new HashMap<String, Assignment> ();
+
+    private DataCallbackDispatcher dispatcher = null;
+
+    private boolean bound = false;
+
+    private int shardCounter = 0;
+
+    public ShardedAccess ( final Server server, final int period, final boolean initialRefresh )
+    {
+        this ( server, period, initialRefresh, null );
+    }
+
+    public ShardedAccess ( final Server server, final int period, final boolean initialRefresh, final String logTag )
+    {
+        this.server = server;
+        this.period = period;
+        this.initialRefresh = initialRefresh;
+        this.logTag = logTag;
+    }
+
+    public int getMaxItemsPerShard ()
+    {
+        return this.maxItemsPerShard;
+    }
+
+    /**
+     * Set the maximum number of items per group. Existing shards are not split
+     * until the next call to {@link #rebalance(Object)} or {@link #addShard(Object)}.
+     * @param maxItemsPerShard the maximum number of items per group
+     */
+    public synchronized void setMaxItemsPerShard ( final int maxItemsPerShard )
+    {
+        if ( maxItemsPerShard <= 0 )
+        {
+            throw new IllegalArgumentException ( "maxItemsPerShard must be greater than zero" );
+        }
+        this.maxItemsPerShard = maxItemsPerShard;
+    }
+
+    public boolean isBound ()
+    {
+        return this.bound;
+    }
+
+    public synchronized void bind ()
+    {
+        if ( this.bound )
+        {
+            return;
+        }
+
+        for ( final List<Shard> shards : this.partitions.values () )
+        {
+            for ( final Shard shard : shards )
+            {
+                shard.bind ();
+            }
+        }
+        this.bound = true;
+    }
+
+    public synchronized void unbind () throws JIException
+    {
+        if ( !this.bound )
+        {
+            return;
+        }
+
+        this.bound = false;
+        for ( final List<Shard> shards : this.partitions.values () )
+        {
+            for ( final Shard shard : shards )
+            {
+                shard.unbind ();
+            }
+        }
+    }
+
+    /**
+     * Add an item to the default partition
+     */
+    public void addItem ( final String itemId, final DataCallback dataCallback ) throws JIException, AddFailedException
+    {
+        addItem ( itemId, DEFAULT_KEY, dataCallback );
+    }
+
+    /**
+     * Add an item to the partition of the requested update rate. All items of this
+     * partition are placed in groups using this update rate.
+     * @param itemId the item to add
+     * @param updateRate the requested update rate in milliseconds
+     * @param dataCallback the callback
+     */
+    public void addItem ( final String itemId, final int updateRate, final DataCallback dataCallback ) throws JIException, AddFailedException
+    {
+        addItem ( itemId, new RateKey ( updateRate ), dataCallback );
+    }
+
+    /**
+     * Add an item to the partition identified by the provided key
+     * @param itemId the item to add
+     * @param key the partition key
+     * @param dataCallback the callback
+     */
+    public synchronized void addItem ( final String itemId, final Object key, final DataCallback dataCallback ) throws JIException, AddFailedException
+    {
+        if ( this.assignments.containsKey ( itemId ) )
+        {
+            return;
+        }
+
+        final Shard shard = selectShard ( key );
+        this.assignments.put ( itemId, new Assignment ( key, shard, dataCallback ) );
+        shard.addItem ( itemId, dataCallback );
+    }
+
+    public synchronized void removeItem ( final String itemId )
+    {
+        final Assignment assignment = this.assignments.remove ( itemId );
+        if ( assignment == null )
+        {
+            return;
+        }
+        assignment.shard.removeItem ( itemId );
+    }
+
+    /**
+     * Add a new shard to a partition and move items of the existing shards to it
+     * @param key the partition key
+     */
+    public synchronized void addShard ( final Object key ) throws JIException
+    {
+        createShard ( key );
+        rebalance ( key );
+    }
+
+    /**
+     * Remove one shard from a partition. Its items get moved to the remaining shards
+     * of the partition, creating new shards if they would exceed the item limit.
+     * <br/>
+     * Items which are realized by the shard but cannot be added to their new shard
+     * stay where they are. In this case the shard is kept with these items.
+     * @param key the partition key
+     * @return <code>true</code> if a shard was removed
+     */
+    public synchronized boolean removeShard ( final Object key ) throws JIException, AddFailedException
+    {
+        final List<Shard> shards = this.partitions.get ( key );
+        if ( shards == null || shards.isEmpty () )
+        {
+            return false;
+        }
+
+        final Shard shard = shards.remove ( shards.size () - 1 );
+
+        final List<String> remaining = transferItems ( key, shard, planMoves ( key, shard.getItemIds () ) );
+        if ( !remaining.isEmpty () )
+        {
+            shard.removeItems ( without ( shard.getItemIds (), remaining ) );
+            shards.add ( shard );
+            logger.warn ( String.format ( "Keeping shard of partition %s with %d items which could not be moved", key, remaining.size () ) );
+            return false;
+        }
+
+        shard.unbind ();
+        shard.clear ();
+
+        if ( shards.isEmpty () )
+        {
+            this.partitions.remove ( key );
+        }
+        return true;
+    }
+
+    /**
+     * Add items to the shards they are moved to. The items are not removed from their source shard.
+     * <br/>
+     * An item stays assigned to its source shard if adding it failed completely, or if its
+     * new shard was not able to realize it while the source shard still does.
+     * @param key the partition key
+     * @param source the shard the items are currently assigned to
+     * @param moves the items to add by shard
+     * @return the items which stay on the source shard
+     */
+    private List<String> transferItems ( final Object key, final Shard source, final Map<Shard, Map<String, DataCallback>> moves )
+    {
+        final List<String> remaining = new ArrayList<String> ();
+        for ( final Map.Entry<Shard, Map<String, DataCallback>> entry : moves.entrySet () )
+        {
+            final Shard target = entry.getKey ();
+            final Map<String, DataCallback> items = entry.getValue ();
+
+            final Map<String, Integer> failures;
+            try
+            {
+                failures = target.moveItems ( items );
+            }
+            catch ( final RuntimeException e )
+            {
+                logger.warn ( String.format ( "Failed to move %d items of partition %s", items.size (), key ), e );
+                target.removeItems ( items.keySet () );
+                remaining.addAll ( items.keySet () );
+                continue;
+            }
+
+            for ( final String itemId : items.keySet () )
+            {
+                if ( failures.containsKey ( itemId ) && source.isRealized ( itemId ) )
+                {
+                    // the item still works on the old shard, so keep it there
+                    logger.warn ( String.format ( "Failed to move item: %s (%08X)", itemId, failures.get ( itemId ) ) );
+                    target.removeItem ( itemId );
+                    remaining.add ( itemId );
+                }
+                else
+                {
+                    this.assignments.get ( itemId ).shard = target;
+                }
+            }
+        }
+        return remaining;
+    }
+
+    private static List<String> without ( final Collection<String> itemIds, final Collection<String> excluded )
+    {
+        final Set<String> exclude = new HashSet<String> ( excluded );
+        final List<String> result = new ArrayList<String> ( itemIds.size () );
+        for ( final String itemId : itemIds )
+        {
+            if ( !exclude.contains ( itemId ) )
+            {
+                result.add ( itemId );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Distribute items over the least loaded shards of a partition, creating new
+     * shards if all shards are full
+     * @param key the partition key
+     * @param itemIds the items to distribute
+     * @return the items to add by shard
+     */
+    private Map<Shard, Map<String, DataCallback>> planMoves ( final Object key, final Collection<String> itemIds ) throws JIException
+    {
+        final Map<Shard, Map<String, DataCallback>> moves = new LinkedHashMap<Shard, Map<String, DataCallback>> ();
+        final Map<Shard, Integer> sizes = new HashMap<Shard, Integer> ();
+
+        final List<Shard> shards = this.partitions.get ( key );
+        for ( final Shard shard : shards )
+        {
+            sizes.put ( shard, shard.getItemIds ().size () );
+        }
+
+        for ( final String itemId : itemIds )
+        {
+            Shard target = null;
+            int targetSize = Integer.MAX_VALUE;
+            for ( final Shard shard : shards )
+            {
+                final int size = sizes.get ( shard );
+                if ( size < this.maxItemsPerShard && size < targetSize )
+                {
+                    target = shard;
+                    targetSize = size;
+                }
+            }
+
+            if ( target == null )
+            {
+                target = createShard ( key );
+                targetSize = 0;
+            }
+            sizes.put ( target, targetSize + 1 );
+
+            Map<String, DataCallback> items = moves.get ( target );
+            if ( items == null )
+            {
+                items = new HashMap<String, DataCallback> ();
+                moves.put ( target, items );
+            }
+            items.put ( itemId, this.assignments.get ( itemId ).dataCallback );
+        }
+
+        return moves;
+    }
+
+    /**
+     * Evenly distribute the items of a partition over its shards
+     * @param key the partition key
+     */
+    public synchronized void rebalance ( final Object key ) throws JIException
+    {
+        final List<Shard> shards = this.partitions.get ( key );
+        if ( shards == null || shards.size () < 2 )
+        {
+            return;
+        }
+
+        int total = 0;
+        for ( final Shard shard : shards )
+        {
+            total += shard.getItemIds ().size ();
+        }
+
+        // make sure the shards are able to take all items
+        while ( total > shards.size () * this.maxItemsPerShard )
+        {
+            createShard ( key );
+        }
+
+        final int target = ( total + shards.size () - 1 ) / shards.size ();
+
+        // collect the items of overloaded shards
+        final Map<Shard, List<String>> excess = new LinkedHashMap<Shard, List<String>> ();
+        final Map<Shard, Integer> free = new LinkedHashMap<Shard, Integer> ();
+        for ( final Shard shard : shards )
+        {
+            final List<String> itemIds = new ArrayList<String> ( shard.getItemIds () );
+            if ( itemIds.size () > target )
+            {
+                excess.put ( shard, new ArrayList<String> ( itemIds.subList ( target, itemIds.size () ) ) );
+            }
+            else if ( itemIds.size () < target )
+            {
+                free.put ( shard, target - itemIds.size () );
+            }
+        }
+
+        // and move them to the underloaded ones, adding them before removing them
+        for ( final Map.Entry<Shard, List<String>> entry : excess.entrySet () )
+        {
+            final Shard source = entry.getKey ();
+
+            final Map<Shard, Map<String, DataCallback>> moves = new LinkedHashMap<Shard, Map<String, DataCallback>> ();
+            for ( final String itemId : entry.getValue () )
+            {
+                final Iterator<Map.Entry<Shard, Integer>> i = free.entrySet ().iterator ();
+                final Map.Entry<Shard, Integer> slot = i.next ();
+                if ( slot.getValue () <= 1 )
+                {
+                    i.remove ();
+                }
+                else
+                {
+                    slot.setValue ( slot.getValue () - 1 );
+                }
+
+                Map<String, DataCallback> items = moves.get ( slot.getKey () );
+                if ( items == null )
+                {
+                    items = new HashMap<String, DataCallback> ();
+                    moves.put ( slot.getKey (), items );
+                }
+                items.put ( itemId, this.assignments.get ( itemId ).dataCallback );
+            }
+
+            final List<String> remaining = transferItems ( key, source, moves );
+            source.removeItems ( without ( entry.getValue (), remaining ) );
+        }
+
+        logger.debug ( String.format ( "Rebalanced partition %s: %d items in %d shards", key, total, shards.size () ) );
+    }
+
+    /**
+     * Get the number of shards of a partition
+     * @param key the partition key
+     * @return the number of shards
+     */
+    public synchronized int getShardCount ( final Object key )
+    {
+        final List<Shard> shards = this.partitions.get ( key );
+        return shards == null ? 0 : shards.size ();
+    }
+
+    /**
+     * Get the number of items of each shard of a partition
+     * @param key the partition key
+     * @return the number of items by shard
+     */
+    public synchronized int[] getShardSizes ( final Object key )
+    {
+        final List<Shard> shards = this.partitions.get ( key );
+        if ( shards == null )
+        {
+            return new int[0];
+        }
+
+        final int[] sizes = new int[shards.size ()];
+        for ( int i = 0; i < sizes.length; i++ )
+        {
+            sizes[i] = shards.get ( i ).getItemIds ().size ();
+        }
+        return sizes;
+    }
+
+    /**
+     * Get the number of shards of all partitions
+     * @return the number of shards
+     */
+    public synchronized int getShardCount ()
+    {
+        int count = 0;
+        for ( final List<Shard> shards : this.partitions.values () )
+        {
+            count += shards.size ();
+        }
+        return count;
+    }
+
+    /**
+     * Get the key of the default partition
+     * @return the default partition key
+     */
+    public static Object getDefaultKey ()
+    {
+        return DEFAULT_KEY;
+    }
+
+    /**
+     * Get the partition key used for items added with a requested update rate
+     * @param updateRate the update rate
+     * @return the partition key
+     */
+    public static Object getRateKey ( final int updateRate )
+    {
+        return new RateKey ( updateRate );
+    }
+
+    public synchronized DataCallbackDispatcher getDispatcher ()
+    {
+        return this.dispatcher;
+    }
+
+    /**
+     * Set the dispatcher for all shards
+     * @see AccessBase#setDispatcher(DataCallbackDispatcher)
+     */
+    public synchronized void setDispatcher ( final DataCallbackDispatcher dispatcher )
+    {
+        this.dispatcher = dispatcher;
+        for ( final List<Shard> shards : this.partitions.values () )
+        {
+            for ( final Shard shard : shards )
+            {
+                shard.setDispatcher ( dispatcher );
+            }
+        }
+    }
+
+    /**
+     * Select the least loaded shard of the partition, creating a new one if
+     * all shards are full
+     */
+    private Shard selectShard ( final Object key ) throws JIException
+    {
+        Shard selected = null;
+        int selectedSize = Integer.MAX_VALUE;
+
+        final List<Shard> shards = this.partitions.get ( key );
+        if ( shards != null )
+        {
+            for ( final Shard shard : shards )
+            {
+                final int size = shard.getItemIds ().size ();
+                if ( size < this.maxItemsPerShard && size < selectedSize )
+                {
+                    selected = shard;
+                    selectedSize = size;
+                }
+            }
+        }
+
+        if ( selected == null )
+        {
+            selected = createShard ( key );
+        }
+        return selected;
+    }
+
+    private Shard createShard ( final Object key ) throws JIException
+    {
+        List<Shard> shards = this.partitions.get ( key );
+        if ( shards == null )
+        {
+            shards = new ArrayList<Shard> ();
+            this.partitions.put ( key, shards );
+        }
+
+        final int updateRate = key instanceof RateKey ? ( (RateKey)key ).rate : this.period;
+        final String tag = this.logTag == null ? null : this.logTag + "." + this.shardCounter;
+        this.shardCounter++;
+
+        final Shard shard;
+        try
+        {
+            shard = newShard ( updateRate, tag, key instanceof RateKey );
+        }
+        catch ( final Exception e )
+        {
+            throw new RuntimeException ( e );
+        }
+
+        shard.setDispatcher ( this.dispatcher );
+        shards.add ( shard );
+
+        if ( this.bound )
+        {
+            shard.bind ();
+        }
+
+        logger.info ( String.format ( "Created shard %d for partition %s", shards.size (), key ) );
+        return shard;
+    }
+
+    /**
+     * Create the access of a new shard
+     */
+    Shard newShard ( final int updateRate, final String tag, final boolean applyUpdateRate ) throws Exception
+    {
+        return new Shard ( this.server, updateRate, this.initialRefresh, tag, applyUpdateRate );
+    }
+
+    private static class Assignment
+    {
+        private final Object key;
+
+        private Shard shard;
+
+        private final DataCallback dataCallback;
+
+        public Assignment ( final Object key, final Shard shard, final DataCallback dataCallback )
+        {
+            this.key = key;
+            this.shard = shard;
+            this.dataCallback = dataCallback;
+        }
+
+        @Override
+        public String toString ()
+        {
+            return String.format ( "%s -> %s", this.key, this.shard );
+        }
+    }
+
+    private static class RateKey
+    {
+        private final int rate;
+
+        public RateKey ( final int rate )
+        {
+            this.rate = rate;
+        }
+
+        @Override
+        public int hashCode ()
+        {
+            return this.rate;
+        }
+
+        @Override
+        public boolean equals ( final Object obj )
+        {
+            return obj instanceof RateKey && ( (RateKey)obj ).rate == this.rate;
+        }
+
+        @Override
+        public String toString ()
+        {
+            return "rate=" + this.rate;
+        }
+    }
+
+    /**
+     * A single group of the sharded access
+     */
+    static class Shard extends Async20Access
+    {
+        private final boolean applyUpdateRate;
+
+        private Map<String, Integer> moveFailures = null;
+
+        public Shard ( final Server server, final int period, final boolean initialRefresh, final String logTag, final boolean applyUpdateRate ) throws IllegalArgumentException, UnknownHostException, NotConnectedException, JIException, DuplicateGroupException
+        {
+            super ( server, period, initialRefresh, logTag );
+            this.applyUpdateRate = applyUpdateRate;
+        }
+
+        /**
+         * Add items which are moved from another shard
+         * @param items the items to add
+         * @return the items which could not be added to the group, with their error codes
+         */
+        public synchronized Map<String, Integer> moveItems ( final Map<String, DataCallback> items )
+        {
+            this.moveFailures = new HashMap<String, Integer> ();
+            try
+            {
+                addItems ( items );
+                return this.moveFailures;
+            }
+            finally
+            {
+                this.moveFailures = null;
+            }
+        }
+
+        public synchronized boolean isRealized ( final String itemId )
+        {
+            return this.itemMap.containsKey ( itemId );
+        }
+
+        @Override
+        protected void realizeFailed ( final String itemId, final int errorCode )
+        {
+            if ( this.moveFailures != null )
+            {
+                // reported by the sharded access
+                this.moveFailures.put ( itemId, errorCode );
+                return;
+            }
+            super.realizeFailed ( itemId, errorCode );
+        }
+
+        @Override
+        protected Group createGroup () throws JIException, IllegalArgumentException, UnknownHostException, NotConnectedException, DuplicateGroupException
+        {
+            final Group group = super.createGroup ();
+            if ( this.applyUpdateRate )
+            {
+                group.setUpdateRate ( getPeriod () );
+            }
+            return group;
+        }
+    }
+}
@@ -20,9 +20,14 @@
 package org.openscada.opc.lib.da;
 
 import java.net.UnknownHostException;
-import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.jinterop.dcom.common.JIException;
+import org.openscada.opc.dcom.common.KeyedResult;
+import org.openscada.opc.dcom.common.KeyedResultSet;
+import org.openscada.opc.dcom.da.OPCITEMSTATE;
 import org.openscada.opc.lib.common.NotConnectedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +40,23 @@ public class SyncAccess extends AccessBase implements Runnable
 
     private Throwable lastError = null;
 
+    private ScheduledExecutorService scheduler = null;
+
+    private ScheduledFuture<?> job = null;
+
+    /**
+     * The planned start of the next cycle, based on {@link System#nanoTime()}
+     */
+    private long nextCycle = 0;
+
+    private final SyncAccessStatistics statistics = new SyncAccessStatistics ();
+
+    /**
+     * Incremented on every start and stop so that a cycle which was scheduled
+     * before does not schedule further cycles
+     */
+    private int generation = 0;
+
     public SyncAccess ( final Server server, final int period ) throws IllegalArgumentException, UnknownHostException, NotConnectedException, JIException, DuplicateGroupException
     {
         super ( server, period );
@@ -45,32 +67,122 @@ public class SyncAccess extends AccessBase implements Runnable
         super ( server, period, logTag );
     }
 
+    /**
+     * Create a sync access that runs on a shared scheduler instead of its own thread.
+     * <br/>
+     * The cycles are scheduled at a fixed rate. If a cycle takes longer than the period
+     * the overdue cycles are skipped instead of being executed back to back.
+     * @param server the server
+     * @param period the period in milliseconds
+     * @param scheduler the scheduler to use
+     */
+    public SyncAccess ( final Server server, final int period, final ScheduledExecutorService scheduler ) throws IllegalArgumentException, UnknownHostException, NotConnectedException, JIException, DuplicateGroupException
+    {
+        super ( server, period );
+        this.scheduler = scheduler;
+    }
+
+    public SyncAccess ( final Server server, final int period, final String logTag, final ScheduledExecutorService scheduler ) throws IllegalArgumentException, UnknownHostException, NotConnectedException, JIException, DuplicateGroupException
+    {
+        super ( server, period, logTag );
+        this.scheduler = scheduler;
+    }
+
+    public SyncAccessStatistics getStatistics ()
+    {
+        return this.statistics;
+    }
+
     public void run ()
     {
         while ( this.active )
         {
+            final long start = System.nanoTime ();
+            performCycle ();
+            this.statistics.recordCycle ( 0, System.nanoTime () - start );
+
             try
             {
-                runOnce ();
-                if ( this.lastError != null )
-                {
-                    this.lastError = null;
-                    handleError ( null );
-                }
+                Thread.sleep ( getPeriod () );
             }
-            catch ( Throwable e )
+            catch ( InterruptedException e )
             {
-                logger.error ( "Sync read failed", e );
-                handleError ( e );
-                this.server.disconnect ();
             }
+        }
+    }
 
-            try
+    protected void performCycle ()
+    {
+        try
+        {
+            runOnce ();
+            if ( this.lastError != null )
             {
-                Thread.sleep ( getPeriod () );
+                this.lastError = null;
+                handleError ( null );
             }
-            catch ( InterruptedException e )
+        }
+        catch ( Throwable e )
+        {
+            logger.error ( "Sync read failed", e );
+            handleError ( e );
+            this.server.disconnect ();
+        }
+    }
+
+    /**
+     * Schedule the next cycle for the current generation
+     * @param delay the delay in nanoseconds
+     */
+    private void scheduleCycle ( final long delay )
+    {
+        final int generation = this.generation;
+        this.job = this.scheduler.schedule ( new Runnable () {
+
+            public void run ()
+            {
+                runScheduled ( generation );
+            }
+        }, delay, TimeUnit.NANOSECONDS );
+    }
+
+    /**
+     * Perform one scheduled cycle and schedule the next one
+     * @param generation the generation the cycle was scheduled for
+     */
+    protected void runScheduled ( final int generation )
+    {
+        synchronized ( this )
+        {
+            if ( !this.active || generation != this.generation )
+            {
+                return;
+            }
+        }
+
+        final long start = System.nanoTime ();
+        performCycle ();
+        final long now = System.nanoTime ();
+
+        this.statistics.recordCycle ( Math.max ( 0, start - this.nextCycle ), now - start );
+
+        final long period = TimeUnit.MILLISECONDS.toNanos ( Math.max ( 1, getPeriod () ) );
+        long next = this.nextCycle + period;
+        if ( next <= now )
+        {
+            // skip the cycles we missed instead of piling them up
+            final long missed = ( now - next ) / period + 1;
+            next += missed * period;
+            this.statistics.recordSkipped ( missed );
+        }
+
+        synchronized ( this )
+        {
+            // the access might have been restarted while the cycle was running
+            if ( this.active && this.scheduler != null && generation == this.generation )
             {
+                this.nextCycle = next;
+                scheduleCycle ( next - now );
             }
         }
     }
@@ -82,19 +194,23 @@ public class SyncAccess extends AccessBase implements Runnable
             return;
         }
 
-        Map<Item, ItemState> result;
+        KeyedResultSet<Item, OPCITEMSTATE> result;
 
         // lock only this section since we could get into a deadlock otherwise
         // calling updateItem
         synchronized ( this )
         {
             Item[] items = this.items.keySet ().toArray ( new Item[this.items.size ()] );
-            result = this.group.read ( false, items );
+            result = this.group.readStates ( false, items );
         }
 
-        for ( Map.Entry<Item, ItemState> entry : result.entrySet () )
+        // one state instance is re-used for all values
+        final CompactItemState state = new CompactItemState ();
+        for ( KeyedResult<Item, OPCITEMSTATE> entry : result )
         {
-            updateItem ( entry.getKey (), entry.getValue () );
+            final OPCITEMSTATE itemState = entry.getValue ();
+            state.set ( entry.getErrorCode (), itemState.getQuality (), itemState.getTimestamp ().getTicks (), itemState.getValue () );
+            updateItem ( entry.getKey (), state );
         }
 
     }
@@ -104,6 +220,17 @@ public class SyncAccess extends AccessBase implements Runnable
     {
         super.start ();
 
+        if ( this.scheduler != null )
+        {
+            if ( this.job == null )
+            {
+                this.generation++;
+                this.nextCycle = System.nanoTime ();
+                scheduleCycle ( 0 );
+            }
+            return;
+        }
+
         this.runner = new Thread ( this, "UtgardSyncReader" );
         this.runner.setDaemon ( true );
         this.runner.start ();
@@ -114,6 +241,13 @@ public class SyncAccess extends AccessBase implements Runnable
     {
         super.stop ();
 
+        this.generation++;
+        if ( this.job != null )
+        {
+            this.job.cancel ( false );
+            this.job = null;
+        }
+
         this.runner = null;
         this.items.clear ();
     }
@@ -0,0 +1,126 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da;
+
+/**
+ * Cycle statistics of a {@link SyncAccess}.
+ * <br/>
+ * All times are in nanoseconds. The lateness is the time between the planned
+ * start of a cycle and the actual start.
+ */
+public class SyncAccessStatistics
+{
+    private long cycles = 0;
+
+    private long skippedCycles = 0;
+
+    private long lastLateness = 0;
+
+    private long maxLateness = 0;
+
+    private long totalLateness = 0;
+
+    private long lastDuration = 0;
+
+    private long maxDuration = 0;
+
+    private long totalDuration = 0;
+
+    synchronized void recordCycle ( final long lateness, final long duration )
+    {
+        this.cycles++;
+
+        this.lastLateness = lateness;
+        this.maxLateness = Math.max ( this.maxLateness, lateness );
+        this.totalLateness += lateness;
+
+        this.lastDuration = duration;
+        this.maxDuration = Math.max ( this.maxDuration, duration );
+        this.totalDuration += duration;
+    }
+
+    synchronized void recordSkipped ( final long skipped )
+    {
+        this.skippedCycles += skipped;
+    }
+
+    public synchronized void reset ()
+    {
+        this.cycles = 0;
+        this.skippedCycles = 0;
+        this.lastLateness = 0;
+        this.maxLateness = 0;
+        this.totalLateness = 0;
+        this.lastDuration = 0;
+        this.maxDuration = 0;
+        this.totalDuration = 0;
+    }
+
+    public synchronized long getCycles ()
+    {
+        return this.cycles;
+    }
+
+    /**
+     * Get the number of cycles that were skipped because the previous cycle
+     * took longer than the period
+     * @return the number of skipped cycles
+     */
+    public synchronized long getSkippedCycles ()
+    {
+        return this.skippedCycles;
+    }
+
+    public synchronized long getLastLateness ()
+    {
+        return this.lastLateness;
+    }
+
+    public synchronized long getMaxLateness ()
+    {
+        return this.maxLateness;
+    }
+
+    public synchronized long getAverageLateness ()
+    {
+        return this.cycles == 0 ? 0 : this.totalLateness / this.cycles;
+    }
+
+    public synchronized long getLastDuration ()
+    {
+        return this.lastDuration;
+    }
+
+    public synchronized long getMaxDuration ()
+    {
+        return this.maxDuration;
+    }
+
+    public synchronized long getAverageDuration ()
+    {
+        return this.cycles == 0 ? 0 : this.totalDuration / this.cycles;
+    }
+
+    @Override
+    public synchronized String toString ()
+    {
+        return String.format ( "Cycles: %s, Skipped: %s, Lateness: %s/%s ns, Duration: %s/%s ns", this.cycles, this.skippedCycles, getAverageLateness (), this.maxLateness, getAverageDuration (), this.maxDuration );
+    }
+}
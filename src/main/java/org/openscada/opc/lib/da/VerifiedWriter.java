@@ -0,0 +1,461 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIVariant;
+import org.openscada.opc.dcom.common.KeyedResult;
+import org.openscada.opc.dcom.common.KeyedResultSet;
+import org.openscada.opc.dcom.da.OPCITEMSTATE;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes values and verifies them by reading them back from the device.
+ * <br/>
+ * The requests are written in chunks. After each chunk write the items which were
+ * written successfully are read back with one device read. Numeric values are compared
+ * with a tolerance, strings by content. Items that failed are retried with an
+ * increasing delay until the retries are used up.
+ */
+public class VerifiedWriter
+{
+    private static Logger logger = LoggerFactory.getLogger ( VerifiedWriter.class );
+
+    /**
+     * The default number of items per write and read call
+     */
+    public static final int DEFAULT_CHUNK_SIZE = Integer.getInteger ( "openscada.opc.verify-chunk-size", 500 );
+
+    /**
+     * The default number of retries for failed items
+     */
+    public static final int DEFAULT_RETRIES = Integer.getInteger ( "openscada.opc.verify-retries", 3 );
+
+    /**
+     * The default delay before the first retry in milliseconds, doubled for each further retry
+     */
+    public static final long DEFAULT_RETRY_DELAY = Long.getLong ( "openscada.opc.verify-retry-delay", 200 );
+
+    private static final short QUALITY_MASK = 0xC0;
+
+    private static final short QUALITY_GOOD = 0xC0;
+
+    public enum Status
+    {
+        /**
+         * The value was written and read back
+         */
+        VERIFIED,
+        /**
+         * The value was written and read back but could not be compared (e.g. arrays)
+         */
+        UNCHECKED,
+        /**
+         * The write call failed for the item
+         */
+        WRITE_FAILED,
+        /**
+         * The read back failed or returned a quality other than good
+         */
+        READ_FAILED,
+        /**
+         * The value read back differs from the written value
+         */
+        MISMATCH
+    }
+
+    /**
+     * The outcome of one item
+     */
+    public static class ItemResult
+    {
+        private final Status status;
+
+        private final int errorCode;
+
+        private final int attempts;
+
+        private final JIVariant value;
+
+        ItemResult ( final Status status, final int errorCode, final int attempts, final JIVariant value )
+        {
+            this.status = status;
+            this.errorCode = errorCode;
+            this.attempts = attempts;
+            this.value = value;
+        }
+
+        public Status getStatus ()
+        {
+            return this.status;
+        }
+
+        /**
+         * Get the error code of the failed write or read
+         * @return the error code or <code>0</code>
+         */
+        public int getErrorCode ()
+        {
+            return this.errorCode;
+        }
+
+        /**
+         * Get the number of write attempts
+         * @return the number of attempts, starting with one
+         */
+        public int getAttempts ()
+        {
+            return this.attempts;
+        }
+
+        /**
+         * Get the value read back
+         * @return the value or <code>null</code> if nothing could be read
+         */
+        public JIVariant getValue ()
+        {
+            return this.value;
+        }
+
+        public boolean isSuccess ()
+        {
+            return this.status == Status.VERIFIED || this.status == Status.UNCHECKED;
+        }
+
+        @Override
+        public String toString ()
+        {
+            return String.format ( "%s (error: 0x%08X, attempts: %d)", this.status, this.errorCode, this.attempts );
+        }
+    }
+
+    /**
+     * The report of a verified write
+     */
+    public static class Report
+    {
+        private final Map<Item, ItemResult> results;
+
+        private final long duration;
+
+        Report ( final Map<Item, ItemResult> results, final long duration )
+        {
+            this.results = Collections.unmodifiableMap ( results );
+            this.duration = duration;
+        }
+
+        /**
+         * Get the results
+         * @return the results by item, in the order of the requests
+         */
+        public Map<Item, ItemResult> getResults ()
+        {
+            return this.results;
+        }
+
+        /**
+         * Get the results of all items which could not be verified
+         * @return the failed items
+         */
+        public Map<Item, ItemResult> getFailed ()
+        {
+            final Map<Item, ItemResult> failed = new LinkedHashMap<Item, ItemResult> ();
+            for ( final Map.Entry<Item, ItemResult> entry : this.results.entrySet () )
+            {
+                if ( !entry.getValue ().isSuccess () )
+                {
+                    failed.put ( entry.getKey (), entry.getValue () );
+                }
+            }
+            return failed;
+        }
+
+        public boolean isSuccess ()
+        {
+            for ( final ItemResult result : this.results.values () )
+            {
+                if ( !result.isSuccess () )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Get the duration of the whole operation
+         * @return the duration in milliseconds
+         */
+        public long getDuration ()
+        {
+            return this.duration;
+        }
+    }
+
+    private final Group group;
+
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    private int retries = DEFAULT_RETRIES;
+
+    private long retryDelay = DEFAULT_RETRY_DELAY;
+
+    private double absoluteTolerance = 0.0;
+
+    private double relativeTolerance = 1e-6;
+
+    public VerifiedWriter ( final Group group )
+    {
+        this.group = group;
+    }
+
+    public void setChunkSize ( final int chunkSize )
+    {
+        if ( chunkSize <= 0 )
+        {
+            throw new IllegalArgumentException ( "chunkSize must be greater than zero" );
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    public void setRetries ( final int retries )
+    {
+        this.retries = Math.max ( 0, retries );
+    }
+
+    /**
+     * Set the delay before the first retry. Each further retry waits twice as long.
+     * @param retryDelay the delay in milliseconds
+     */
+    public void setRetryDelay ( final long retryDelay )
+    {
+        this.retryDelay = Math.max ( 0, retryDelay );
+    }
+
+    /**
+     * Set the tolerance for comparing floating point values.
+     * <br/>
+     * Two values match if they differ by no more than the absolute tolerance plus
+     * the relative tolerance times the larger magnitude. The default relative tolerance covers
+     * servers storing double values as float. Integral, boolean and string values must match exactly.
+     * @param absoluteTolerance the absolute tolerance
+     * @param relativeTolerance the relative tolerance
+     */
+    public void setTolerance ( final double absoluteTolerance, final double relativeTolerance )
+    {
+        this.absoluteTolerance = absoluteTolerance;
+        this.relativeTolerance = relativeTolerance;
+    }
+
+    /**
+     * Write and verify the values
+     * @param requests the values to write
+     * @return the report
+     * @throws InterruptedException if the thread was interrupted while waiting for a retry
+     */
+    public Report write ( final WriteRequest... requests ) throws InterruptedException
+    {
+        final long start = System.currentTimeMillis ();
+
+        final Map<Item, ItemResult> results = new LinkedHashMap<Item, ItemResult> ();
+        for ( final WriteRequest request : requests )
+        {
+            results.put ( request.getItem (), null );
+        }
+
+        List<WriteRequest> pending = Arrays.asList ( requests );
+        int attempt = 1;
+        while ( true )
+        {
+            final List<WriteRequest> failed = new ArrayList<WriteRequest> ();
+            for ( int offset = 0; offset < pending.size (); offset += this.chunkSize )
+            {
+                final List<WriteRequest> chunk = pending.subList ( offset, Math.min ( pending.size (), offset + this.chunkSize ) );
+                processChunk ( chunk, attempt, results, failed );
+            }
+
+            if ( failed.isEmpty () || attempt > this.retries )
+            {
+                break;
+            }
+
+            final long delay = this.retryDelay << Math.min ( attempt - 1, 16 );
+            logger.info ( "Retrying {} items in {} ms (attempt {})", new Object[] { failed.size (), delay, attempt + 1 } );
+            Thread.sleep ( delay );
+
+            pending = failed;
+            attempt++;
+        }
+
+        return new Report ( results, System.currentTimeMillis () - start );
+    }
+
+    private void processChunk ( final List<WriteRequest> chunk, final int attempt, final Map<Item, ItemResult> results, final List<WriteRequest> failed )
+    {
+        final Map<Item, Integer> writeResult;
+        try
+        {
+            writeResult = this.group.write ( chunk.toArray ( new WriteRequest[chunk.size ()] ) );
+        }
+        catch ( final JIException e )
+        {
+            logger.info ( String.format ( "Failed to write chunk of %s items", chunk.size () ), e );
+            for ( final WriteRequest request : chunk )
+            {
+                results.put ( request.getItem (), new ItemResult ( Status.WRITE_FAILED, e.getErrorCode (), attempt, null ) );
+            }
+            failed.addAll ( chunk );
+            return;
+        }
+
+        final Map<Item, WriteRequest> written = new LinkedHashMap<Item, WriteRequest> ( chunk.size () * 4 / 3 + 1 );
+        for ( final WriteRequest request : chunk )
+        {
+            final Integer errorCode = writeResult.get ( request.getItem () );
+            // success codes like OPC_S_CLAMP are decided by the read back
+            if ( errorCode != null && errorCode >= 0 )
+            {
+                written.put ( request.getItem (), request );
+            }
+            else
+            {
+                results.put ( request.getItem (), new ItemResult ( Status.WRITE_FAILED, errorCode == null ? -1 : errorCode, attempt, null ) );
+                failed.add ( request );
+            }
+        }
+
+        if ( written.isEmpty () )
+        {
+            return;
+        }
+
+        final Item[] items = written.keySet ().toArray ( new Item[written.size ()] );
+
+        final KeyedResultSet<Item, OPCITEMSTATE> readResult;
+        try
+        {
+            readResult = this.group.readStates ( true, items );
+        }
+        catch ( final JIException e )
+        {
+            logger.info ( String.format ( "Failed to read back chunk of %s items", items.length ), e );
+            for ( final WriteRequest request : written.values () )
+            {
+                results.put ( request.getItem (), new ItemResult ( Status.READ_FAILED, e.getErrorCode (), attempt, null ) );
+            }
+            failed.addAll ( written.values () );
+            return;
+        }
+
+        for ( final KeyedResult<Item, OPCITEMSTATE> entry : readResult )
+        {
+            final WriteRequest request = written.remove ( entry.getKey () );
+            if ( request == null )
+            {
+                continue;
+            }
+            final ItemResult result = verify ( request, entry, attempt );
+            results.put ( request.getItem (), result );
+            if ( !result.isSuccess () )
+            {
+                failed.add ( request );
+            }
+        }
+
+        // items missing in the read result could not be verified
+        for ( final WriteRequest request : written.values () )
+        {
+            results.put ( request.getItem (), new ItemResult ( Status.READ_FAILED, -1, attempt, null ) );
+            failed.add ( request );
+        }
+    }
+
+    private ItemResult verify ( final WriteRequest request, final KeyedResult<Item, OPCITEMSTATE> entry, final int attempt )
+    {
+        final OPCITEMSTATE state = entry.getValue ();
+        if ( entry.isError () || state == null )
+        {
+            return new ItemResult ( Status.READ_FAILED, entry.getErrorCode (), attempt, null );
+        }
+        if ( ( state.getQuality () & QUALITY_MASK ) != QUALITY_GOOD )
+        {
+            return new ItemResult ( Status.READ_FAILED, 0, attempt, state.getValue () );
+        }
+
+        final Boolean match = compare ( request.getValue (), state.getValue (), this.absoluteTolerance, this.relativeTolerance );
+        if ( match == null )
+        {
+            return new ItemResult ( Status.UNCHECKED, 0, attempt, state.getValue () );
+        }
+        return new ItemResult ( match ? Status.VERIFIED : Status.MISMATCH, 0, attempt, state.getValue () );
+    }
+
+    /**
+     * Compare a written value with the value read back
+     * @return the result of the comparison or <code>null</code> if the values can't be compared
+     */
+    static Boolean compare ( final JIVariant written, final JIVariant read, final double absoluteTolerance, final double relativeTolerance )
+    {
+        final CompactItemState expected = new CompactItemState ();
+        expected.setValue ( written );
+        final CompactItemState actual = new CompactItemState ();
+        actual.setValue ( read );
+
+        if ( expected.isNumeric () && actual.isNumeric () )
+        {
+            if ( expected.isIntegral () && actual.isIntegral () )
+            {
+                return expected.getLong () == actual.getLong ();
+            }
+            final double a = expected.getDouble ();
+            final double b = actual.getDouble ();
+            if ( Double.isNaN ( a ) || Double.isNaN ( b ) )
+            {
+                return Double.isNaN ( a ) && Double.isNaN ( b );
+            }
+            return Math.abs ( a - b ) <= absoluteTolerance + relativeTolerance * Math.max ( Math.abs ( a ), Math.abs ( b ) );
+        }
+
+        if ( expected.getType () == JIVariant.VT_BSTR && actual.getType () == JIVariant.VT_BSTR )
+        {
+            try
+            {
+                final String a = written.getObjectAsString2 ();
+                final String b = read.getObjectAsString2 ();
+                return a == null ? b == null : a.equals ( b );
+            }
+            catch ( final JIException e )
+            {
+                return null;
+            }
+        }
+
+        // e.g. arrays or a number written to an item which is read as string
+        return null;
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jinterop.dcom.core.JIVariant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects write requests from many callers and sends them to the server
+ * in batches.
+ * <br/>
+ * A batch is flushed when the collection window expires or when it reaches
+ * the maximum batch size. Each batch is a single {@link Group#write(WriteRequest...)}
+ * call. If an item is written more than once within a batch only the latest
+ * value is sent, and all callers of this item receive the result of that write.
+ */
+public class WritePipeline
+{
+    private static Logger logger = LoggerFactory.getLogger ( WritePipeline.class );
+
+    /**
+     * The default collection window in milliseconds
+     */
+    public static final long DEFAULT_WINDOW = Long.getLong ( "openscada.opc.write-window", 5 );
+
+    /**
+     * The default maximum number of items per batch
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = Integer.getInteger ( "openscada.opc.write-batch-size", 500 );
+
+    private final Group group;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final long window;
+
+    private final int maxBatchSize;
+
+    private Map<Item, PendingWrite> pending = new LinkedHashMap<Item, PendingWrite> ();
+
+    /**
+     * The job of the collection window flush
+     */
+    private ScheduledFuture<?> flushJob = null;
+
+    private boolean windowFlushScheduled = false;
+
+    private boolean immediateFlushScheduled = false;
+
+    private boolean closed = false;
+
+    private final Object flushLock = new Object ();
+
+    private final AtomicLong requestCount = new AtomicLong ();
+
+    private final AtomicLong coalescedCount = new AtomicLong ();
+
+    private final AtomicLong batchCount = new AtomicLong ();
+
+    public WritePipeline ( final Group group, final ScheduledExecutorService scheduler )
+    {
+        this ( group, scheduler, DEFAULT_WINDOW, DEFAULT_MAX_BATCH_SIZE );
+    }
+
+    /**
+     * Create a new write pipeline
+     * @param group the group to write to
+     * @param scheduler the scheduler performing the flush calls
+     * @param window the collection window in milliseconds
+     * @param maxBatchSize the maximum number of items per batch
+     */
+    public WritePipeline ( final Group group, final ScheduledExecutorService scheduler, final long window, final int maxBatchSize )
+    {
+        if ( maxBatchSize <= 0 )
+        {
+            throw new IllegalArgumentException ( "maxBatchSize must be greater than zero" );
+        }
+
+        this.group = group;
+        this.scheduler = scheduler;
+        this.window = window;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public CompletableFuture<Integer> write ( final Item item, final JIVariant value )
+    {
+        return write ( new WriteRequest ( item, value ) );
+    }
+
+    /**
+     * Queue a write request
+     * @param request the request
+     * @return the future of the error code of the item write
+     */
+    public CompletableFuture<Integer> write ( final WriteRequest request )
+    {
+        final CompletableFuture<Integer> future = new CompletableFuture<Integer> ();
+        this.requestCount.incrementAndGet ();
+
+        if ( request.getItem ().getGroup () != this.group )
+        {
+            future.completeExceptionally ( new IllegalArgumentException ( String.format ( "Item '%s' does not belong to the group of the write pipeline", request.getItem ().getId () ) ) );
+            return future;
+        }
+
+        long delay = -1;
+        synchronized ( this )
+        {
+            if ( this.closed )
+            {
+                future.completeExceptionally ( new IllegalStateException ( "Write pipeline is closed" ) );
+                return future;
+            }
+
+            PendingWrite write = this.pending.get ( request.getItem () );
+            if ( write == null )
+            {
+                write = new PendingWrite ();
+                this.pending.put ( request.getItem (), write );
+            }
+            else
+            {
+                this.coalescedCount.incrementAndGet ();
+            }
+            write.value = request.getValue ();
+            write.futures.add ( future );
+
+            if ( this.pending.size () >= this.maxBatchSize )
+            {
+                if ( !this.immediateFlushScheduled )
+                {
+                    this.immediateFlushScheduled = true;
+                    delay = 0;
+                }
+            }
+            else if ( !this.windowFlushScheduled && !this.immediateFlushScheduled )
+            {
+                this.windowFlushScheduled = true;
+                delay = this.window;
+            }
+        }
+
+        // schedule outside the lock, a rejected schedule flushes in this thread
+        if ( delay >= 0 )
+        {
+            final ScheduledFuture<?> job = schedule ( delay );
+            if ( job != null && delay > 0 )
+            {
+                synchronized ( this )
+                {
+                    if ( this.windowFlushScheduled && this.flushJob == null )
+                    {
+                        this.flushJob = job;
+                    }
+                }
+            }
+        }
+
+        return future;
+    }
+
+    /**
+     * Write all pending requests now, in the calling thread. If more requests
+     * than the maximum batch size are pending they are written in several batches.
+     */
+    public void flush ()
+    {
+        synchronized ( this.flushLock )
+        {
+            while ( true )
+            {
+                final Map<Item, PendingWrite> batch;
+                synchronized ( this )
+                {
+                    if ( this.flushJob != null )
+                    {
+                        this.flushJob.cancel ( false );
+                        this.flushJob = null;
+                    }
+                    this.windowFlushScheduled = false;
+                    this.immediateFlushScheduled = false;
+
+                    if ( this.pending.isEmpty () )
+                    {
+                        return;
+                    }
+                    batch = takeBatch ();
+                }
+
+                performWrite ( batch );
+            }
+        }
+    }
+
+    /**
+     * Take up to the maximum batch size of pending writes
+     * @return the writes of the next batch
+     */
+    private Map<Item, PendingWrite> takeBatch ()
+    {
+        if ( this.pending.size () <= this.maxBatchSize )
+        {
+            final Map<Item, PendingWrite> batch = this.pending;
+            this.pending = new LinkedHashMap<Item, PendingWrite> ();
+            return batch;
+        }
+
+        final Map<Item, PendingWrite> batch = new LinkedHashMap<Item, PendingWrite> ();
+        final Iterator<Map.Entry<Item, PendingWrite>> i = this.pending.entrySet ().iterator ();
+        while ( batch.size () < this.maxBatchSize )
+        {
+            final Map.Entry<Item, PendingWrite> entry = i.next ();
+            batch.put ( entry.getKey (), entry.getValue () );
+            i.remove ();
+        }
+        return batch;
+    }
+
+    /**
+     * Flush all pending requests and reject all further requests
+     */
+    public void close ()
+    {
+        synchronized ( this )
+        {
+            this.closed = true;
+        }
+        flush ();
+    }
+
+    public long getRequestCount ()
+    {
+        return this.requestCount.get ();
+    }
+
+    /**
+     * Get the number of requests which were replaced by a later request for
+     * the same item
+     * @return the number of coalesced requests
+     */
+    public long getCoalescedCount ()
+    {
+        return this.coalescedCount.get ();
+    }
+
+    public long getBatchCount ()
+    {
+        return this.batchCount.get ();
+    }
+
+    private ScheduledFuture<?> schedule ( final long delay )
+    {
+        try
+        {
+            return this.scheduler.schedule ( new Runnable () {
+
+                public void run ()
+                {
+                    flush ();
+                }
+            }, delay, TimeUnit.MILLISECONDS );
+        }
+        catch ( final RejectedExecutionException e )
+        {
+            logger.warn ( "Failed to schedule flush, flushing in calling thread", e );
+            flush ();
+            return null;
+        }
+    }
+
+    private void performWrite ( final Map<Item, PendingWrite> batch )
+    {
+        final List<WriteRequest> requests = new ArrayList<WriteRequest> ( batch.size () );
+        for ( final Map.Entry<Item, PendingWrite> entry : batch.entrySet () )
+        {
+            requests.add ( new WriteRequest ( entry.getKey (), entry.getValue ().value ) );
+        }
+
+        this.batchCount.incrementAndGet ();
+        logger.debug ( "Writing batch of {} items", requests.size () );
+
+        final Map<Item, Integer> result;
+        try
+        {
+            result = this.group.write ( requests.toArray ( new WriteRequest[requests.size ()] ) );
+        }
+        catch ( final Throwable e )
+        {
+            logger.info ( "Failed to write batch", e );
+            for ( final PendingWrite write : batch.values () )
+            {
+                for ( final CompletableFuture<Integer> future : write.futures )
+                {
+                    future.completeExceptionally ( e );
+                }
+            }
+            return;
+        }
+
+        for ( final Map.Entry<Item, PendingWrite> entry : batch.entrySet () )
+        {
+            final Integer errorCode = result.get ( entry.getKey () );
+            for ( final CompletableFuture<Integer> future : entry.getValue ().futures )
+            {
+                if ( errorCode != null )
+                {
+                    future.complete ( errorCode );
+                }
+                else
+                {
+                    future.completeExceptionally ( new IllegalStateException ( "No result for item " + entry.getKey ().getId () ) );
+                }
+            }
+        }
+    }
+
+    private static class PendingWrite
+    {
+        private JIVariant value;
+
+        private final List<CompletableFuture<Integer>> futures = new ArrayList<CompletableFuture<Integer>> ( 1 );
+    }
+}
@@ -0,0 +1,580 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da.browser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A read-only index of the server address space.
+ * <br/>
+ * The index is a sorted string table of item ids. It is stored in one buffer
+ * which can be written to a file and later mapped into memory again, so lookups
+ * don't need to contact the OPC server. Item ids are sorted by their UTF-8 bytes,
+ * which allows binary searches directly on the mapped file.
+ * <br/>
+ * For each item the browse name of its leaf is recorded, which is used by
+ * {@link AddressSpaceIndexer} for incremental refreshes.
+ * <br/>
+ * Layout:
+ * <code>magic, version, entryCount, branchCount, entryOffsets[entryCount], branchOffsets[branchCount], records</code>.
+ * An entry record is <code>branchIndex (int), dataType (short), accessRights (int), length (short), itemId, length (short), name</code>.
+ * A branch record is <code>childCount (int), length (short), path</code>.
+ */
+public class AddressSpaceIndex
+{
+    /**
+     * The separator of the branch names in a branch path
+     */
+    public static final char BRANCH_SEPARATOR = '\u0001';
+
+    private static final int MAGIC = 0x4F504149;
+
+    private static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 16;
+
+    private static final Charset UTF8 = Charset.forName ( "UTF-8" );
+
+    private final ByteBuffer buffer;
+
+    private final int entryCount;
+
+    private final int branchCount;
+
+    private final int entryOffsets;
+
+    private final int branchOffsets;
+
+    private Map<String, Integer> branchIndex = null;
+
+    /**
+     * The entry indexes by branch index
+     */
+    private int[][] branchEntries = null;
+
+    private AddressSpaceIndex ( final ByteBuffer buffer )
+    {
+        this.buffer = buffer;
+
+        if ( buffer.getInt ( 0 ) != MAGIC || buffer.getInt ( 4 ) != VERSION )
+        {
+            throw new IllegalArgumentException ( "Buffer does not contain an address space index" );
+        }
+
+        this.entryCount = buffer.getInt ( 8 );
+        this.branchCount = buffer.getInt ( 12 );
+        this.entryOffsets = HEADER_SIZE;
+        this.branchOffsets = HEADER_SIZE + 4 * this.entryCount;
+    }
+
+    /**
+     * Map an index file into memory
+     * @param file the index file
+     * @return the index
+     * @throws IOException
+     */
+    public static AddressSpaceIndex open ( final File file ) throws IOException
+    {
+        final RandomAccessFile raf = new RandomAccessFile ( file, "r" );
+        try
+        {
+            final FileChannel channel = raf.getChannel ();
+            return new AddressSpaceIndex ( channel.map ( FileChannel.MapMode.READ_ONLY, 0, channel.size () ) );
+        }
+        finally
+        {
+            // the mapping stays valid after closing the file
+            raf.close ();
+        }
+    }
+
+    /**
+     * Write the index to a file
+     * @param file the target file
+     * @throws IOException
+     */
+    public void write ( final File file ) throws IOException
+    {
+        final File tmp = new File ( file.getPath () + ".tmp" );
+        final FileOutputStream out = new FileOutputStream ( tmp );
+        try
+        {
+            final ByteBuffer data = this.buffer.duplicate ();
+            data.clear ();
+            final FileChannel channel = out.getChannel ();
+            while ( data.hasRemaining () )
+            {
+                channel.write ( data );
+            }
+            channel.force ( true );
+        }
+        finally
+        {
+            out.close ();
+        }
+
+        if ( !tmp.renameTo ( file ) )
+        {
+            file.delete ();
+            if ( !tmp.renameTo ( file ) )
+            {
+                throw new IOException ( String.format ( "Failed to rename '%s' to '%s'", tmp, file ) );
+            }
+        }
+    }
+
+    /**
+     * Create an index
+     * @param entries the items
+     * @param childCounts the number of children by branch path
+     * @return the new index
+     */
+    public static AddressSpaceIndex create ( final Collection<IndexEntry> entries, final Map<String, Integer> childCounts )
+    {
+        final List<String> branches = new ArrayList<String> ( childCounts.keySet () );
+        final Map<String, Integer> branchIds = new HashMap<String, Integer> ( branches.size () );
+        for ( final IndexEntry entry : entries )
+        {
+            if ( !childCounts.containsKey ( entry.getBranch () ) && !branchIds.containsKey ( entry.getBranch () ) )
+            {
+                branches.add ( entry.getBranch () );
+                branchIds.put ( entry.getBranch (), -1 );
+            }
+        }
+        Collections.sort ( branches );
+        for ( int i = 0; i < branches.size (); i++ )
+        {
+            branchIds.put ( branches.get ( i ), i );
+        }
+
+        // sort by the encoded item id
+        final List<Object[]> encoded = new ArrayList<Object[]> ( entries.size () );
+        for ( final IndexEntry entry : entries )
+        {
+            encoded.add ( new Object[] { encode ( entry.getItemId () ), entry, encode ( entry.getName () == null ? entry.getItemId () : entry.getName () ) } );
+        }
+        Collections.sort ( encoded, new Comparator<Object[]> () {
+
+            public int compare ( final Object[] o1, final Object[] o2 )
+            {
+                return compareBytes ( (byte[])o1[0], (byte[])o2[0] );
+            }
+        } );
+
+        int size = HEADER_SIZE + 4 * encoded.size () + 4 * branches.size ();
+        final byte[][] branchData = new byte[branches.size ()][];
+        for ( int i = 0; i < branches.size (); i++ )
+        {
+            branchData[i] = encode ( branches.get ( i ) );
+            size += 6 + branchData[i].length;
+        }
+        for ( final Object[] e : encoded )
+        {
+            size += 14 + ( (byte[])e[0] ).length + ( (byte[])e[2] ).length;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate ( size );
+        buffer.putInt ( MAGIC );
+        buffer.putInt ( VERSION );
+        buffer.putInt ( encoded.size () );
+        buffer.putInt ( branches.size () );
+
+        int pos = HEADER_SIZE + 4 * encoded.size () + 4 * branches.size ();
+        for ( final Object[] e : encoded )
+        {
+            buffer.putInt ( pos );
+            pos += 14 + ( (byte[])e[0] ).length + ( (byte[])e[2] ).length;
+        }
+        for ( final byte[] data : branchData )
+        {
+            buffer.putInt ( pos );
+            pos += 6 + data.length;
+        }
+
+        for ( final Object[] e : encoded )
+        {
+            final IndexEntry entry = (IndexEntry)e[1];
+            final byte[] data = (byte[])e[0];
+            buffer.putInt ( branchIds.get ( entry.getBranch () ) );
+            buffer.putShort ( entry.getDataType () );
+            buffer.putInt ( entry.getAccessRights () );
+            buffer.putShort ( (short)data.length );
+            buffer.put ( data );
+            final byte[] name = (byte[])e[2];
+            buffer.putShort ( (short)name.length );
+            buffer.put ( name );
+        }
+        for ( int i = 0; i < branchData.length; i++ )
+        {
+            final Integer count = childCounts.get ( branches.get ( i ) );
+            buffer.putInt ( count != null ? count : -1 );
+            buffer.putShort ( (short)branchData[i].length );
+            buffer.put ( branchData[i] );
+        }
+
+        buffer.flip ();
+        return new AddressSpaceIndex ( buffer );
+    }
+
+    /**
+     * Build the path of a branch
+     * @param branch the branch
+     * @return the path, an empty string for the root branch
+     */
+    public static String getPath ( final Branch branch )
+    {
+        final StringBuilder sb = new StringBuilder ();
+        for ( final String name : branch.getBranchStack () )
+        {
+            if ( sb.length () > 0 )
+            {
+                sb.append ( BRANCH_SEPARATOR );
+            }
+            sb.append ( name );
+        }
+        return sb.toString ();
+    }
+
+    public int size ()
+    {
+        return this.entryCount;
+    }
+
+    public IndexEntry get ( final int index )
+    {
+        final int pos = this.buffer.getInt ( this.entryOffsets + 4 * index );
+        final int branch = this.buffer.getInt ( pos );
+        final short dataType = this.buffer.getShort ( pos + 4 );
+        final int accessRights = this.buffer.getInt ( pos + 6 );
+        final int nameOffset = pos + 12 + ( this.buffer.getShort ( pos + 10 ) & 0xFFFF );
+        return new IndexEntry ( readString ( pos + 10 ), getBranchPath ( branch ), readString ( nameOffset ), dataType, accessRights );
+    }
+
+    public String getItemId ( final int index )
+    {
+        final int pos = this.buffer.getInt ( this.entryOffsets + 4 * index );
+        return readString ( pos + 10 );
+    }
+
+    /**
+     * Find an item by its item id
+     * @param itemId the item id
+     * @return the entry or <code>null</code> if the item is not in the index
+     */
+    public IndexEntry find ( final String itemId )
+    {
+        final byte[] key = encode ( itemId );
+        final int index = lowerBound ( key );
+        if ( index < this.entryCount && compareEntry ( index, key, false ) == 0 )
+        {
+            return get ( index );
+        }
+        return null;
+    }
+
+    /**
+     * Find all items starting with a prefix
+     * @param prefix the prefix
+     * @return the matching entries, sorted
+     */
+    public List<IndexEntry> findPrefix ( final String prefix )
+    {
+        final byte[] key = encode ( prefix );
+        final List<IndexEntry> result = new LinkedList<IndexEntry> ();
+        for ( int i = lowerBound ( key ); i < this.entryCount && compareEntry ( i, key, true ) == 0; i++ )
+        {
+            result.add ( get ( i ) );
+        }
+        return result;
+    }
+
+    /**
+     * Find all items matching an OPC wildcard pattern. Supported are
+     * <q>*</q> (any characters), <q>?</q> (one character) and <q>#</q> (one digit).
+     * @param pattern the pattern
+     * @return the matching entries, sorted
+     */
+    public List<IndexEntry> findWildcard ( final String pattern )
+    {
+        final StringBuilder regex = new StringBuilder ();
+        final StringBuilder literal = new StringBuilder ();
+        int prefixLength = -1;
+
+        for ( int i = 0; i < pattern.length (); i++ )
+        {
+            final char c = pattern.charAt ( i );
+            if ( c == '*' || c == '?' || c == '#' )
+            {
+                if ( prefixLength < 0 )
+                {
+                    prefixLength = i;
+                }
+                if ( literal.length () > 0 )
+                {
+                    regex.append ( Pattern.quote ( literal.toString () ) );
+                    literal.setLength ( 0 );
+                }
+                regex.append ( c == '*' ? ".*" : c == '?' ? "." : "\\d" );
+            }
+            else
+            {
+                literal.append ( c );
+            }
+        }
+
+        if ( prefixLength < 0 )
+        {
+            final IndexEntry entry = find ( pattern );
+            return entry == null ? Collections.<IndexEntry> emptyList () : Collections.singletonList ( entry );
+        }
+
+        if ( literal.length () > 0 )
+        {
+            regex.append ( Pattern.quote ( literal.toString () ) );
+        }
+
+        return scan ( pattern.substring ( 0, prefixLength ), Pattern.compile ( regex.toString (), Pattern.DOTALL ) );
+    }
+
+    /**
+     * Find all items matching a regular expression
+     * @param pattern the pattern the whole item id must match
+     * @return the matching entries, sorted
+     */
+    public List<IndexEntry> findRegex ( final Pattern pattern )
+    {
+        return scan ( "", pattern );
+    }
+
+    /**
+     * Get the number of children of a branch seen when the branch was browsed
+     * @param path the branch path
+     * @return the number of children or <code>-1</code> if the branch is unknown
+     */
+    public int getChildCount ( final String path )
+    {
+        final Integer index = getBranchIndex ().get ( path );
+        if ( index == null )
+        {
+            return -1;
+        }
+        return this.buffer.getInt ( this.buffer.getInt ( this.branchOffsets + 4 * index ) );
+    }
+
+    /**
+     * Get all items of a branch
+     * @param path the branch path
+     * @return the items of the branch
+     */
+    public List<IndexEntry> getEntries ( final String path )
+    {
+        final Integer index = getBranchIndex ().get ( path );
+        if ( index == null )
+        {
+            return Collections.emptyList ();
+        }
+
+        final int[] entries = getBranchEntries ()[index];
+        final List<IndexEntry> result = new ArrayList<IndexEntry> ( entries.length );
+        for ( final int i : entries )
+        {
+            result.add ( get ( i ) );
+        }
+        return result;
+    }
+
+    /**
+     * Get the paths of all branches in the index
+     * @return the branch paths
+     */
+    public List<String> getBranches ()
+    {
+        final List<String> result = new ArrayList<String> ( this.branchCount );
+        for ( int i = 0; i < this.branchCount; i++ )
+        {
+            result.add ( getBranchPath ( i ) );
+        }
+        return result;
+    }
+
+    private List<IndexEntry> scan ( final String prefix, final Pattern pattern )
+    {
+        final byte[] key = encode ( prefix );
+        final List<IndexEntry> result = new LinkedList<IndexEntry> ();
+        final Matcher matcher = pattern.matcher ( "" );
+        for ( int i = lowerBound ( key ); i < this.entryCount && compareEntry ( i, key, true ) == 0; i++ )
+        {
+            if ( matcher.reset ( getItemId ( i ) ).matches () )
+            {
+                result.add ( get ( i ) );
+            }
+        }
+        return result;
+    }
+
+    private synchronized Map<String, Integer> getBranchIndex ()
+    {
+        if ( this.branchIndex == null )
+        {
+            final Map<String, Integer> index = new HashMap<String, Integer> ( this.branchCount );
+            for ( int i = 0; i < this.branchCount; i++ )
+            {
+                index.put ( getBranchPath ( i ), i );
+            }
+            this.branchIndex = index;
+        }
+        return this.branchIndex;
+    }
+
+    private synchronized int[][] getBranchEntries ()
+    {
+        if ( this.branchEntries == null )
+        {
+            final int[] branches = new int[this.entryCount];
+            final int[] counts = new int[this.branchCount];
+            for ( int i = 0; i < this.entryCount; i++ )
+            {
+                branches[i] = this.buffer.getInt ( this.buffer.getInt ( this.entryOffsets + 4 * i ) );
+                counts[branches[i]]++;
+            }
+
+            final int[][] entries = new int[this.branchCount][];
+            for ( int i = 0; i < this.branchCount; i++ )
+            {
+                entries[i] = new int[counts[i]];
+                counts[i] = 0;
+            }
+            for ( int i = 0; i < this.entryCount; i++ )
+            {
+                entries[branches[i]][counts[branches[i]]++] = i;
+            }
+            this.branchEntries = entries;
+        }
+        return this.branchEntries;
+    }
+
+    private String getBranchPath ( final int index )
+    {
+        if ( index < 0 )
+        {
+            return "";
+        }
+        final int pos = this.buffer.getInt ( this.branchOffsets + 4 * index );
+        return readString ( pos + 4 );
+    }
+
+    private String readString ( final int pos )
+    {
+        final int len = this.buffer.getShort ( pos ) & 0xFFFF;
+        final byte[] data = new byte[len];
+        final ByteBuffer b = this.buffer.duplicate ();
+        b.position ( pos + 2 );
+        b.get ( data );
+        return new String ( data, UTF8 );
+    }
+
+    /**
+     * Find the first entry which is not less than the key
+     */
+    private int lowerBound ( final byte[] key )
+    {
+        int low = 0;
+        int high = this.entryCount;
+        while ( low < high )
+        {
+            final int mid = ( low + high ) >>> 1;
+            if ( compareEntry ( mid, key, false ) < 0 )
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compare the item id of an entry with the key, without decoding the item id
+     * @param prefix if <code>true</code> only the first bytes of the item id are compared
+     */
+    private int compareEntry ( final int index, final byte[] key, final boolean prefix )
+    {
+        final int pos = this.buffer.getInt ( this.entryOffsets + 4 * index ) + 10;
+        final int len = this.buffer.getShort ( pos ) & 0xFFFF;
+        final int n = Math.min ( len, key.length );
+        for ( int i = 0; i < n; i++ )
+        {
+            final int a = this.buffer.get ( pos + 2 + i ) & 0xFF;
+            final int b = key[i] & 0xFF;
+            if ( a != b )
+            {
+                return a - b;
+            }
+        }
+        if ( prefix && len >= key.length )
+        {
+            return 0;
+        }
+        return len - key.length;
+    }
+
+    private static byte[] encode ( final String value )
+    {
+        final byte[] data = value.getBytes ( UTF8 );
+        if ( data.length > 0xFFFF )
+        {
+            throw new IllegalArgumentException ( "String too long for index: " + value.length () );
+        }
+        return data;
+    }
+
+    private static int compareBytes ( final byte[] a, final byte[] b )
+    {
+        final int n = Math.min ( a.length, b.length );
+        for ( int i = 0; i < n; i++ )
+        {
+            final int x = a[i] & 0xFF;
+            final int y = b[i] & 0xFF;
+            if ( x != y )
+            {
+                return x - y;
+            }
+        }
+        return a.length - b.length;
+    }
+}
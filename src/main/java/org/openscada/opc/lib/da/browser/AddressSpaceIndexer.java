@@ -0,0 +1,227 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da.browser;
+
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIVariant;
+import org.openscada.opc.dcom.common.KeyedResult;
+import org.openscada.opc.dcom.common.KeyedResultSet;
+import org.openscada.opc.dcom.da.OPCBROWSETYPE;
+import org.openscada.opc.dcom.da.impl.OPCBrowseServerAddressSpace;
+import org.openscada.opc.dcom.da.impl.OPCItemProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds and refreshes an {@link AddressSpaceIndex} by browsing the server.
+ * <br/>
+ * On a refresh every branch is enumerated again, but the item ids and properties
+ * are only looked up for leaves which are not found by their name in the same
+ * branch of the previous index. The entries of all other leaves are taken over.
+ * <br/>
+ * If an item properties service is provided the canonical data type and the
+ * access rights of each item are read and stored in the index.
+ */
+public class AddressSpaceIndexer extends TreeBrowser
+{
+    private static Logger logger = LoggerFactory.getLogger ( AddressSpaceIndexer.class );
+
+    private static final int PROPERTY_DATA_TYPE = 1;
+
+    private static final int PROPERTY_ACCESS_RIGHTS = 5;
+
+    private final OPCItemProperties properties;
+
+    private int reusedBranches = 0;
+
+    private int browsedBranches = 0;
+
+    /**
+     * Create a new indexer
+     * @param browser the browser to use
+     * @param properties the item properties service, may be <code>null</code> in which
+     * case data types and access rights are not recorded
+     */
+    public AddressSpaceIndexer ( final OPCBrowseServerAddressSpace browser, final OPCItemProperties properties )
+    {
+        super ( browser );
+        this.properties = properties;
+    }
+
+    /**
+     * Build a new index of a hierarchical namespace
+     * @return the new index
+     */
+    public AddressSpaceIndex build () throws IllegalArgumentException, UnknownHostException, JIException
+    {
+        return refresh ( null );
+    }
+
+    /**
+     * Build a new index of a hierarchical namespace, re-using the entries of
+     * unchanged branches of the previous index
+     * @param previous the previous index, may be <code>null</code>
+     * @return the new index
+     */
+    public AddressSpaceIndex refresh ( final AddressSpaceIndex previous ) throws IllegalArgumentException, UnknownHostException, JIException
+    {
+        this.reusedBranches = 0;
+        this.browsedBranches = 0;
+
+        final List<IndexEntry> entries = new LinkedList<IndexEntry> ();
+        final Map<String, Integer> childCounts = new HashMap<String, Integer> ();
+
+        final LinkedList<Branch> stack = new LinkedList<Branch> ();
+        stack.add ( new Branch () );
+
+        while ( !stack.isEmpty () )
+        {
+            final Branch branch = stack.removeFirst ();
+            final String path = AddressSpaceIndex.getPath ( branch );
+
+            moveToBranch ( branch );
+            final Collection<String> leaves = browse ( OPCBROWSETYPE.OPC_LEAF, "", EnumSet.noneOf ( Access.class ), JIVariant.VT_EMPTY );
+            final Collection<String> branches = browse ( OPCBROWSETYPE.OPC_BRANCH, "", EnumSet.noneOf ( Access.class ), JIVariant.VT_EMPTY );
+
+            childCounts.put ( path, leaves.size () + branches.size () );
+
+            final Map<String, IndexEntry> known = new HashMap<String, IndexEntry> ();
+            if ( previous != null )
+            {
+                for ( final IndexEntry entry : previous.getEntries ( path ) )
+                {
+                    known.put ( entry.getName (), entry );
+                }
+            }
+
+            boolean changed = known.size () != leaves.size ();
+            for ( final String leaf : leaves )
+            {
+                final IndexEntry entry = known.get ( leaf );
+                if ( entry != null )
+                {
+                    entries.add ( entry );
+                }
+                else
+                {
+                    entries.add ( createEntry ( this._browser.getItemID ( leaf ), path, leaf ) );
+                    changed = true;
+                }
+            }
+
+            if ( changed )
+            {
+                this.browsedBranches++;
+            }
+            else
+            {
+                this.reusedBranches++;
+            }
+
+            for ( final String name : branches )
+            {
+                stack.addFirst ( new Branch ( branch, name ) );
+            }
+        }
+
+        logger.info ( String.format ( "Indexed %d items, %d branches browsed, %d branches re-used", entries.size (), this.browsedBranches, this.reusedBranches ) );
+
+        return AddressSpaceIndex.create ( entries, childCounts );
+    }
+
+    /**
+     * Build a new index of a flat namespace
+     * @return the new index
+     */
+    public AddressSpaceIndex buildFlat () throws IllegalArgumentException, UnknownHostException, JIException
+    {
+        final List<IndexEntry> entries = new LinkedList<IndexEntry> ();
+        for ( final String itemId : browse ( OPCBROWSETYPE.OPC_FLAT, "", EnumSet.noneOf ( Access.class ), JIVariant.VT_EMPTY ) )
+        {
+            entries.add ( createEntry ( itemId, "", itemId ) );
+        }
+
+        final Map<String, Integer> childCounts = new HashMap<String, Integer> ();
+        childCounts.put ( "", entries.size () );
+        return AddressSpaceIndex.create ( entries, childCounts );
+    }
+
+    /**
+     * Get the number of branches which were taken over from the previous index
+     * by the last refresh
+     * @return the number of re-used branches
+     */
+    public int getReusedBranches ()
+    {
+        return this.reusedBranches;
+    }
+
+    /**
+     * Get the number of branches with leaves which were looked up by the last refresh
+     * @return the number of browsed branches
+     */
+    public int getBrowsedBranches ()
+    {
+        return this.browsedBranches;
+    }
+
+    private IndexEntry createEntry ( final String itemId, final String path, final String name )
+    {
+        short dataType = JIVariant.VT_EMPTY;
+        int accessRights = IndexEntry.ACCESS_UNKNOWN;
+
+        if ( this.properties != null )
+        {
+            try
+            {
+                final KeyedResultSet<Integer, JIVariant> result = this.properties.getItemProperties ( itemId, PROPERTY_DATA_TYPE, PROPERTY_ACCESS_RIGHTS );
+                for ( final KeyedResult<Integer, JIVariant> entry : result )
+                {
+                    if ( entry.isFailed () || entry.getValue () == null )
+                    {
+                        continue;
+                    }
+                    if ( entry.getKey () == PROPERTY_DATA_TYPE )
+                    {
+                        dataType = entry.getValue ().getObjectAsShort ();
+                    }
+                    else if ( entry.getKey () == PROPERTY_ACCESS_RIGHTS )
+                    {
+                        accessRights = entry.getValue ().getObjectAsInt ();
+                    }
+                }
+            }
+            catch ( final JIException e )
+            {
+                logger.info ( String.format ( "Failed to read properties of '%s'", itemId ), e );
+            }
+        }
+
+        return new IndexEntry ( itemId, path, name, dataType, accessRights );
+    }
+}
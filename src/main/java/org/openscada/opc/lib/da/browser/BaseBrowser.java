@@ -20,11 +20,15 @@
 package org.openscada.opc.lib.da.browser;
 
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
 
 import org.jinterop.dcom.common.JIException;
 import org.openscada.opc.dcom.common.impl.EnumString;
+import org.openscada.opc.dcom.common.impl.EnumStringIterator;
 import org.openscada.opc.dcom.da.OPCBROWSETYPE;
 import org.openscada.opc.dcom.da.impl.OPCBrowseServerAddressSpace;
 import org.slf4j.Logger;
@@ -91,6 +95,69 @@ public class BaseBrowser
      * @throws JIException
      */
     protected Collection<String> browse ( final OPCBROWSETYPE type, final String filterCriteria, final EnumSet<Access> accessMask, final int variantType ) throws IllegalArgumentException, UnknownHostException, JIException
+    {
+        _log.debug ( "Browsing with a batch size of " + this._batchSize );
+
+        return collect ( iterate ( type, filterCriteria, accessMask, variantType ) );
+    }
+
+    /**
+     * Read all remaining strings of a lazy iterator
+     * @param iterator the iterator
+     * @return the strings
+     * @throws JIException if fetching a batch failed
+     */
+    protected static Collection<String> collect ( final Iterator<String> iterator ) throws JIException
+    {
+        final List<String> result = new ArrayList<String> ();
+        try
+        {
+            while ( iterator.hasNext () )
+            {
+                result.add ( iterator.next () );
+            }
+        }
+        catch ( final RuntimeException e )
+        {
+            throw unwrap ( e );
+        }
+        return result;
+    }
+
+    /**
+     * Get the {@link JIException} of a failed {@link EnumStringIterator} call
+     * @param e the exception thrown by the iterator
+     * @return the cause of the exception
+     * @throws RuntimeException the exception itself if it was not caused by a {@link JIException}
+     */
+    protected static JIException unwrap ( final RuntimeException e )
+    {
+        if ( e.getCause () instanceof JIException )
+        {
+            return (JIException)e.getCause ();
+        }
+        throw e;
+    }
+
+    /**
+     * Perform the browse operation returning a lazy iterator. The batch size
+     * is used as the initial batch size and adapted while iterating.
+     * @param type
+     * @param filterCriteria
+     * @param accessMask
+     * @param variantType
+     * @return The iterator over the browse result
+     * @throws IllegalArgumentException
+     * @throws UnknownHostException
+     * @throws JIException
+     * @see EnumStringIterator
+     */
+    protected Iterator<String> iterate ( final OPCBROWSETYPE type, final String filterCriteria, final EnumSet<Access> accessMask, final int variantType ) throws IllegalArgumentException, UnknownHostException, JIException
+    {
+        return this._browser.browse ( type, filterCriteria, getAccessMaskValue ( accessMask ), variantType ).iterator ( this._batchSize, Math.max ( this._batchSize, EnumString.DEFAULT_MAX_BATCH_SIZE ) );
+    }
+
+    private static int getAccessMaskValue ( final EnumSet<Access> accessMask )
     {
         int accessMaskValue = 0;
 
@@ -103,9 +170,7 @@ public class BaseBrowser
             accessMaskValue |= Access.WRITE.getCode ();
         }
 
-        _log.debug ( "Browsing with a batch size of " + this._batchSize );
-
-        return this._browser.browse ( type, filterCriteria, accessMaskValue, variantType ).asCollection ( this._batchSize );
+        return accessMaskValue;
     }
 
     /**
@@ -118,7 +183,7 @@ public class BaseBrowser
      */
     public Collection<String> getAccessPaths ( final String itemId ) throws IllegalArgumentException, UnknownHostException, JIException
     {
-        return this._browser.browseAccessPaths ( itemId ).asCollection ( this._batchSize );
+        return collect ( this._browser.browseAccessPaths ( itemId ).iterator ( this._batchSize, Math.max ( this._batchSize, EnumString.DEFAULT_MAX_BATCH_SIZE ) ) );
     }
 
 }
\ No newline at end of file
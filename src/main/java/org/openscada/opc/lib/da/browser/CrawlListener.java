@@ -0,0 +1,50 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da.browser;
+
+/**
+ * Receives the results of a {@link ParallelTreeCrawler}.
+ * <br/>
+ * The methods are called from the crawler worker threads and must be thread safe.
+ */
+public interface CrawlListener
+{
+    /**
+     * A leaf was discovered
+     * @param leaf the leaf
+     */
+    public void leafFound ( Leaf leaf );
+
+    /**
+     * Browsing a branch failed. The crawl continues with the other branches.
+     * @param branch the branch
+     * @param error the error
+     */
+    public void branchFailed ( Branch branch, Throwable error );
+
+    /**
+     * Progress of the crawl, called at most once per progress interval
+     * @param branches the number of branches browsed so far
+     * @param leaves the number of leaves discovered so far
+     * @param pending the number of branches waiting to be browsed
+     * @param leavesPerSecond the average number of leaves discovered per second
+     */
+    public void progress ( long branches, long leaves, int pending, double leavesPerSecond );
+}
@@ -22,6 +22,7 @@ package org.openscada.opc.lib.da.browser;
 import java.net.UnknownHostException;
 import java.util.Collection;
 import java.util.EnumSet;
+import java.util.Iterator;
 
 import org.jinterop.dcom.common.JIException;
 import org.jinterop.dcom.core.JIVariant;
@@ -75,4 +76,24 @@ public class FlatBrowser extends BaseBrowser
         return browse ( "", accessMask, JIVariant.VT_EMPTY );
     }
 
+    /**
+     * Perform a flat browse operation returning a lazy iterator, the items are
+     * fetched from the server while iterating
+     * @param filterCriteria The filter criteria. Use an empty string if you don't need one.
+     * @param accessMask The access mask. An empty set will search for all.
+     * @param variantType The variant type. Must be one of the <code>VT_</code> constants of {@link JIVariant}. Use {@link JIVariant#VT_EMPTY} if you want to browse for all.
+     * @return The iterator over the item ids
+     * @throws IllegalArgumentException
+     * @throws UnknownHostException
+     * @throws JIException
+     */
+    public Iterator<String> iterate ( final String filterCriteria, final EnumSet<Access> accessMask, final int variantType ) throws IllegalArgumentException, UnknownHostException, JIException
+    {
+        return iterate ( OPCBROWSETYPE.OPC_FLAT, filterCriteria, accessMask, variantType );
+    }
+
+    public Iterator<String> iterate () throws IllegalArgumentException, UnknownHostException, JIException
+    {
+        return iterate ( "", EnumSet.noneOf ( Access.class ), JIVariant.VT_EMPTY );
+    }
 }
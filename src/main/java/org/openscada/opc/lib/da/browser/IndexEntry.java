@@ -0,0 +1,110 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da.browser;
+
+/**
+ * An item of the {@link AddressSpaceIndex}
+ */
+public class IndexEntry
+{
+    /**
+     * Value of the access rights if they are unknown
+     */
+    public static final int ACCESS_UNKNOWN = -1;
+
+    private final String itemId;
+
+    private final String branch;
+
+    private final String name;
+
+    private final short dataType;
+
+    private final int accessRights;
+
+    public IndexEntry ( final String itemId, final String branch, final short dataType, final int accessRights )
+    {
+        this ( itemId, branch, itemId, dataType, accessRights );
+    }
+
+    /**
+     * Create a new entry
+     * @param itemId the item id
+     * @param branch the path of the branch containing the item
+     * @param name the browse name of the leaf in its branch
+     * @param dataType the canonical data type
+     * @param accessRights the access rights
+     */
+    public IndexEntry ( final String itemId, final String branch, final String name, final short dataType, final int accessRights )
+    {
+        this.itemId = itemId;
+        this.branch = branch;
+        this.name = name;
+        this.dataType = dataType;
+        this.accessRights = accessRights;
+    }
+
+    public String getItemId ()
+    {
+        return this.itemId;
+    }
+
+    /**
+     * Get the path of the branch containing the item
+     * @return the branch path, an empty string for the root or flat namespaces
+     */
+    public String getBranch ()
+    {
+        return this.branch;
+    }
+
+    /**
+     * Get the browse name of the leaf in its branch
+     * @return the leaf name, the item id for flat namespaces
+     */
+    public String getName ()
+    {
+        return this.name;
+    }
+
+    /**
+     * Get the canonical data type
+     * @return the variant type or <code>VT_EMPTY</code> if it is unknown
+     */
+    public short getDataType ()
+    {
+        return this.dataType;
+    }
+
+    /**
+     * Get the access rights
+     * @return the access rights as bit mask of {@link Access} codes or {@link #ACCESS_UNKNOWN}
+     */
+    public int getAccessRights ()
+    {
+        return this.accessRights;
+    }
+
+    @Override
+    public String toString ()
+    {
+        return String.format ( "[%s - type: %d, access: %d]", this.itemId, this.dataType, this.accessRights );
+    }
+}
@@ -0,0 +1,369 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da.browser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Crawl the hierarchical server namespace using several tree browsers in parallel.
+ * <br/>
+ * Each tree browser is used by exactly one worker. The browse position of
+ * <code>IOPCBrowseServerAddressSpace</code> is kept per server object, so the
+ * browsers must be created from different server connections in order
+ * to get independent cursors.
+ * <br/>
+ * Every worker keeps its own queue of branches. Discovered sub-branches are
+ * pushed to the queue of the worker that found them, idle workers steal
+ * branches from the other end of the other queues.
+ */
+public class ParallelTreeCrawler
+{
+    private static Logger logger = LoggerFactory.getLogger ( ParallelTreeCrawler.class );
+
+    private final List<TreeBrowser> browsers;
+
+    private final CrawlListener listener;
+
+    private long progressInterval = 1000;
+
+    private List<Worker> workers;
+
+    private final AtomicInteger pending = new AtomicInteger ();
+
+    private final AtomicLong branchCount = new AtomicLong ();
+
+    private final AtomicLong leafCount = new AtomicLong ();
+
+    private final AtomicLong failedCount = new AtomicLong ();
+
+    private final AtomicLong lastProgress = new AtomicLong ();
+
+    private volatile long startTime;
+
+    private volatile boolean cancelled = false;
+
+    private final Object idleLock = new Object ();
+
+    /**
+     * Create a new crawler
+     * @param browsers the browsers to use, one worker is started per browser
+     * @param listener the listener receiving leaves and progress, may be <code>null</code>
+     */
+    public ParallelTreeCrawler ( final Collection<TreeBrowser> browsers, final CrawlListener listener )
+    {
+        if ( browsers.isEmpty () )
+        {
+            throw new IllegalArgumentException ( "At least one browser is required" );
+        }
+        this.browsers = new ArrayList<TreeBrowser> ( browsers );
+        this.listener = listener;
+    }
+
+    /**
+     * Set the minimum time between two progress reports
+     * @param progressInterval the interval in milliseconds
+     */
+    public void setProgressInterval ( final long progressInterval )
+    {
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * Crawl the whole namespace
+     * @param executor the executor running the workers, it must be able to run one task per browser concurrently
+     * @return the filled root branch
+     * @throws InterruptedException
+     */
+    public Branch crawl ( final Executor executor ) throws InterruptedException
+    {
+        final Branch root = new Branch ();
+        crawl ( executor, root );
+        return root;
+    }
+
+    /**
+     * Crawl the namespace below a branch. The branch and all its sub-branches
+     * get filled with their leaves and branches.
+     * @param executor the executor running the workers, it must be able to run one task per browser concurrently
+     * @param branch the branch to start with
+     * @throws InterruptedException
+     */
+    public void crawl ( final Executor executor, final Branch branch ) throws InterruptedException
+    {
+        this.cancelled = false;
+        this.pending.set ( 1 );
+        this.branchCount.set ( 0 );
+        this.leafCount.set ( 0 );
+        this.failedCount.set ( 0 );
+        this.startTime = System.currentTimeMillis ();
+        this.lastProgress.set ( this.startTime );
+
+        final CountDownLatch latch = new CountDownLatch ( this.browsers.size () );
+
+        this.workers = new ArrayList<Worker> ( this.browsers.size () );
+        for ( final TreeBrowser browser : this.browsers )
+        {
+            this.workers.add ( new Worker ( browser, latch ) );
+        }
+        this.workers.get ( 0 ).push ( branch );
+
+        for ( final Worker worker : this.workers )
+        {
+            executor.execute ( worker );
+        }
+
+        try
+        {
+            latch.await ();
+        }
+        catch ( final InterruptedException e )
+        {
+            cancel ();
+            throw e;
+        }
+
+        reportProgress ( true );
+        logger.info ( String.format ( "Crawl finished: %d branches, %d leaves, %d failed in %d ms", this.branchCount.get (), this.leafCount.get (), this.failedCount.get (), System.currentTimeMillis () - this.startTime ) );
+    }
+
+    /**
+     * Stop the crawl. Branches which are currently browsed are completed.
+     */
+    public void cancel ()
+    {
+        this.cancelled = true;
+        synchronized ( this.idleLock )
+        {
+            this.idleLock.notifyAll ();
+        }
+    }
+
+    public long getBranchCount ()
+    {
+        return this.branchCount.get ();
+    }
+
+    public long getLeafCount ()
+    {
+        return this.leafCount.get ();
+    }
+
+    public long getFailedCount ()
+    {
+        return this.failedCount.get ();
+    }
+
+    public int getPendingCount ()
+    {
+        return this.pending.get ();
+    }
+
+    /**
+     * Get the average number of leaves discovered per second since the start of the crawl
+     * @return the leaves per second
+     */
+    public double getLeavesPerSecond ()
+    {
+        final long duration = System.currentTimeMillis () - this.startTime;
+        if ( duration <= 0 )
+        {
+            return 0.0;
+        }
+        return this.leafCount.get () * 1000.0 / duration;
+    }
+
+    private void reportProgress ( final boolean force )
+    {
+        if ( this.listener == null )
+        {
+            return;
+        }
+
+        final long now = System.currentTimeMillis ();
+        final long last = this.lastProgress.get ();
+        if ( !force && ( now - last < this.progressInterval || !this.lastProgress.compareAndSet ( last, now ) ) )
+        {
+            return;
+        }
+
+        this.listener.progress ( this.branchCount.get (), this.leafCount.get (), this.pending.get (), getLeavesPerSecond () );
+    }
+
+    /**
+     * Take a branch from the other workers
+     */
+    private Branch steal ( final Worker thief )
+    {
+        for ( final Worker worker : this.workers )
+        {
+            if ( worker == thief )
+            {
+                continue;
+            }
+            final Branch branch = worker.pollLast ();
+            if ( branch != null )
+            {
+                return branch;
+            }
+        }
+        return null;
+    }
+
+    private class Worker implements Runnable
+    {
+        private final TreeBrowser browser;
+
+        private final CountDownLatch latch;
+
+        private final Deque<Branch> queue = new ArrayDeque<Branch> ();
+
+        public Worker ( final TreeBrowser browser, final CountDownLatch latch )
+        {
+            this.browser = browser;
+            this.latch = latch;
+        }
+
+        public synchronized void push ( final Branch branch )
+        {
+            this.queue.addFirst ( branch );
+        }
+
+        public synchronized Branch pollFirst ()
+        {
+            return this.queue.pollFirst ();
+        }
+
+        public synchronized Branch pollLast ()
+        {
+            return this.queue.pollLast ();
+        }
+
+        public void run ()
+        {
+            try
+            {
+                Branch branch;
+                while ( ( branch = next () ) != null )
+                {
+                    process ( branch );
+                }
+            }
+            finally
+            {
+                this.latch.countDown ();
+            }
+        }
+
+        private Branch next ()
+        {
+            while ( !ParallelTreeCrawler.this.cancelled && ParallelTreeCrawler.this.pending.get () > 0 )
+            {
+                Branch branch = pollFirst ();
+                if ( branch == null )
+                {
+                    branch = steal ( this );
+                }
+                if ( branch != null )
+                {
+                    return branch;
+                }
+
+                synchronized ( ParallelTreeCrawler.this.idleLock )
+                {
+                    try
+                    {
+                        ParallelTreeCrawler.this.idleLock.wait ( 100 );
+                    }
+                    catch ( final InterruptedException e )
+                    {
+                        Thread.currentThread ().interrupt ();
+                        return null;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private void process ( final Branch branch )
+        {
+            try
+            {
+                this.browser.moveToBranch ( branch );
+                this.browser.browse ( branch, true, true, false );
+
+                ParallelTreeCrawler.this.branchCount.incrementAndGet ();
+                ParallelTreeCrawler.this.leafCount.addAndGet ( branch.getLeaves ().size () );
+
+                if ( ParallelTreeCrawler.this.listener != null )
+                {
+                    for ( final Leaf leaf : branch.getLeaves () )
+                    {
+                        ParallelTreeCrawler.this.listener.leafFound ( leaf );
+                    }
+                }
+
+                final Collection<Branch> subBranches = branch.getBranches ();
+                if ( !subBranches.isEmpty () )
+                {
+                    ParallelTreeCrawler.this.pending.addAndGet ( subBranches.size () );
+                    for ( final Branch subBranch : subBranches )
+                    {
+                        push ( subBranch );
+                    }
+                    synchronized ( ParallelTreeCrawler.this.idleLock )
+                    {
+                        ParallelTreeCrawler.this.idleLock.notifyAll ();
+                    }
+                }
+            }
+            catch ( final Throwable e )
+            {
+                logger.info ( "Failed to browse branch", e );
+                ParallelTreeCrawler.this.failedCount.incrementAndGet ();
+                if ( ParallelTreeCrawler.this.listener != null )
+                {
+                    ParallelTreeCrawler.this.listener.branchFailed ( branch, e );
+                }
+            }
+            finally
+            {
+                if ( ParallelTreeCrawler.this.pending.decrementAndGet () == 0 )
+                {
+                    synchronized ( ParallelTreeCrawler.this.idleLock )
+                    {
+                        ParallelTreeCrawler.this.idleLock.notifyAll ();
+                    }
+                }
+                reportProgress ( false );
+            }
+        }
+    }
+}
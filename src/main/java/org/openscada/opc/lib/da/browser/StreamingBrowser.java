@@ -0,0 +1,253 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da.browser;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+
+import org.jinterop.dcom.common.JIException;
+import org.openscada.opc.dcom.da.BrowseResult;
+import org.openscada.opc.dcom.da.OPCBROWSEELEMENT;
+import org.openscada.opc.dcom.da.OPCBROWSEFILTER;
+import org.openscada.opc.dcom.da.impl.OPCBrowse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A browser using the OPC DA 3.0 <code>IOPCBrowse</code> interface.
+ * <br/>
+ * Elements are fetched lazily in pages of up to {@link #getMaxElements()} elements
+ * using continuation points, while the caller iterates over them. Browsing does
+ * not change any server side browse position, so one instance may serve several
+ * iterators at the same time.
+ * <br/>
+ * Since the iterators cannot throw checked exceptions, failed calls are reported
+ * as {@link RuntimeException} with the {@link JIException} as cause.
+ */
+public class StreamingBrowser
+{
+    private static Logger logger = LoggerFactory.getLogger ( StreamingBrowser.class );
+
+    /**
+     * The default number of elements requested with one call
+     */
+    public static final int DEFAULT_MAX_ELEMENTS = Integer.getInteger ( "openscada.opc.browse-max-elements", 1000 );
+
+    private final OPCBrowse browse;
+
+    private int maxElements = DEFAULT_MAX_ELEMENTS;
+
+    private boolean returnAllProperties = false;
+
+    private boolean returnPropertyValues = false;
+
+    private int[] propertyIDs = new int[0];
+
+    private String vendorFilter = null;
+
+    public StreamingBrowser ( final OPCBrowse browse )
+    {
+        this.browse = browse;
+    }
+
+    public int getMaxElements ()
+    {
+        return this.maxElements;
+    }
+
+    /**
+     * Set the number of elements requested with one call
+     * @param maxElements the number of elements, zero lets the server decide
+     */
+    public void setMaxElements ( final int maxElements )
+    {
+        this.maxElements = maxElements;
+    }
+
+    /**
+     * Request properties with each element
+     * @param returnAllProperties <code>true</code> to return all properties
+     * @param returnPropertyValues <code>true</code> to return the values of the properties
+     * @param propertyIDs the properties to return if not all properties are requested
+     */
+    public void setProperties ( final boolean returnAllProperties, final boolean returnPropertyValues, final int... propertyIDs )
+    {
+        this.returnAllProperties = returnAllProperties;
+        this.returnPropertyValues = returnPropertyValues;
+        this.propertyIDs = propertyIDs.clone ();
+    }
+
+    public void setVendorFilter ( final String vendorFilter )
+    {
+        this.vendorFilter = vendorFilter;
+    }
+
+    /**
+     * Browse the direct children of an element
+     * @param itemID the element, an empty string for the root
+     * @param filter the element type filter
+     * @param elementNameFilter the name filter or <code>null</code>
+     * @return an iterator over the children
+     */
+    public Iterator<OPCBROWSEELEMENT> browse ( final String itemID, final OPCBROWSEFILTER filter, final String elementNameFilter )
+    {
+        return new PageIterator ( itemID, filter, elementNameFilter );
+    }
+
+    /**
+     * Browse all children of an element
+     * @param itemID the element, an empty string for the root
+     * @return an iterator over the children
+     */
+    public Iterator<OPCBROWSEELEMENT> browse ( final String itemID )
+    {
+        return browse ( itemID, OPCBROWSEFILTER.OPC_BROWSE_FILTER_ALL, null );
+    }
+
+    /**
+     * Browse the whole tree below an element, depth first. Branches are
+     * returned before their children.
+     * @param itemID the element to start with, an empty string for the root
+     * @return an iterator over all elements below the start element
+     */
+    public Iterator<OPCBROWSEELEMENT> browseRecursive ( final String itemID )
+    {
+        return new TreeIterator ( itemID );
+    }
+
+    protected BrowseResult fetch ( final String itemID, final String continuationPoint, final OPCBROWSEFILTER filter, final String elementNameFilter )
+    {
+        try
+        {
+            return this.browse.browse ( itemID, continuationPoint, this.maxElements, filter, elementNameFilter, this.vendorFilter, this.returnAllProperties, this.returnPropertyValues, this.propertyIDs );
+        }
+        catch ( final JIException e )
+        {
+            throw new RuntimeException ( String.format ( "Failed to browse '%s'", itemID ), e );
+        }
+    }
+
+    private class PageIterator implements Iterator<OPCBROWSEELEMENT>
+    {
+        private final String itemID;
+
+        private final OPCBROWSEFILTER filter;
+
+        private final String elementNameFilter;
+
+        private Iterator<OPCBROWSEELEMENT> page = null;
+
+        private String continuationPoint = null;
+
+        private boolean complete = false;
+
+        public PageIterator ( final String itemID, final OPCBROWSEFILTER filter, final String elementNameFilter )
+        {
+            this.itemID = itemID;
+            this.filter = filter;
+            this.elementNameFilter = elementNameFilter;
+        }
+
+        public boolean hasNext ()
+        {
+            while ( this.page == null || !this.page.hasNext () )
+            {
+                if ( this.complete )
+                {
+                    return false;
+                }
+                fetchPage ();
+            }
+            return true;
+        }
+
+        private void fetchPage ()
+        {
+            final BrowseResult result = fetch ( this.itemID, this.continuationPoint, this.filter, this.elementNameFilter );
+
+            this.page = result.getElements ().iterator ();
+            this.continuationPoint = result.getContinuationPoint ();
+            this.complete = this.continuationPoint == null;
+
+            if ( this.complete && result.isMoreElements () )
+            {
+                logger.warn ( "Server has more elements below '{}' but did not provide a continuation point", this.itemID );
+            }
+        }
+
+        public OPCBROWSEELEMENT next ()
+        {
+            if ( !hasNext () )
+            {
+                throw new NoSuchElementException ();
+            }
+            return this.page.next ();
+        }
+
+        public void remove ()
+        {
+            throw new UnsupportedOperationException ();
+        }
+    }
+
+    private class TreeIterator implements Iterator<OPCBROWSEELEMENT>
+    {
+        private final LinkedList<Iterator<OPCBROWSEELEMENT>> stack = new LinkedList<Iterator<OPCBROWSEELEMENT>> ();
+
+        public TreeIterator ( final String itemID )
+        {
+            this.stack.addFirst ( browse ( itemID ) );
+        }
+
+        public boolean hasNext ()
+        {
+            while ( !this.stack.isEmpty () )
+            {
+                if ( this.stack.getFirst ().hasNext () )
+                {
+                    return true;
+                }
+                this.stack.removeFirst ();
+            }
+            return false;
+        }
+
+        public OPCBROWSEELEMENT next ()
+        {
+            if ( !hasNext () )
+            {
+                throw new NoSuchElementException ();
+            }
+
+            final OPCBROWSEELEMENT element = this.stack.getFirst ().next ();
+            if ( element.hasChildren () )
+            {
+                this.stack.addFirst ( browse ( element.getItemID () ) );
+            }
+            return element;
+        }
+
+        public void remove ()
+        {
+            throw new UnsupportedOperationException ();
+        }
+    }
+}
@@ -22,6 +22,7 @@ package org.openscada.opc.lib.da.browser;
 import java.net.UnknownHostException;
 import java.util.Collection;
 import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 
 import org.jinterop.dcom.common.JIException;
@@ -198,10 +199,19 @@ public class TreeBrowser extends BaseBrowser
     {
         branch.setLeaves ( new LinkedList<Leaf> () );
 
-        for ( String item : browse ( OPCBROWSETYPE.OPC_LEAF, this._filterCriteria, this._accessMask, this._variantType ) )
+        final Iterator<String> i = iterate ( OPCBROWSETYPE.OPC_LEAF, this._filterCriteria, this._accessMask, this._variantType );
+        try
         {
-            Leaf leaf = new Leaf ( branch, item, this._browser.getItemID ( item ) );
-            branch.getLeaves ().add ( leaf );
+            while ( i.hasNext () )
+            {
+                final String item = i.next ();
+                Leaf leaf = new Leaf ( branch, item, this._browser.getItemID ( item ) );
+                branch.getLeaves ().add ( leaf );
+            }
+        }
+        catch ( final RuntimeException e )
+        {
+            throw unwrap ( e );
         }
     }
 
@@ -209,6 +219,7 @@ public class TreeBrowser extends BaseBrowser
     {
         branch.setBranches ( new LinkedList<Branch> () );
 
+        // the names are read completely before descending into the sub-branches
         for ( String item : browse ( OPCBROWSETYPE.OPC_BRANCH, this._filterCriteria, this._accessMask, this._variantType ) )
         {
             Branch subBranch = new Branch ( branch, item );
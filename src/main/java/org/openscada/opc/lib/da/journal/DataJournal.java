@@ -0,0 +1,483 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da.journal;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIVariant;
+import org.openscada.opc.lib.da.CompactItemState;
+import org.openscada.opc.lib.da.ItemState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only journal of item updates, stored in memory mapped segment files.
+ * <br/>
+ * Records are addressed by a logical offset which keeps growing over all segments.
+ * Each segment starts with a small header followed by records. A record starts with
+ * its length, which is written last, so a length of zero marks the end of the data.
+ * Data records reference the item by an index which is assigned when the item first
+ * appears in a segment. At this point an item record with the index and the full item id
+ * is written, so that every segment can be read on its own.
+ * <br/>
+ * Old segments are deleted according to the retention settings when a new segment is
+ * started. Use {@link JournalCursor} to read the journal.
+ */
+public class DataJournal
+{
+    private static Logger logger = LoggerFactory.getLogger ( DataJournal.class );
+
+    public static final int DEFAULT_SEGMENT_SIZE = Integer.getInteger ( "openscada.opc.journal-segment-size", 64 * 1024 * 1024 );
+
+    static final int MAGIC = 0x4F4A4E4C;
+
+    static final int HEADER_SIZE = 8;
+
+    static final byte KIND_ITEM = 1;
+
+    static final byte KIND_DATA = 2;
+
+    public static final byte TYPE_EMPTY = 0;
+
+    public static final byte TYPE_LONG = 1;
+
+    public static final byte TYPE_DOUBLE = 2;
+
+    public static final byte TYPE_STRING = 3;
+
+    private static final int MAX_STRING_LENGTH = 0xFFFF;
+
+    private static final String SUFFIX = ".seg";
+
+    private final File directory;
+
+    private final int segmentSize;
+
+    private final TreeMap<Long, File> segments = new TreeMap<Long, File> ();
+
+    private MappedByteBuffer current;
+
+    private long currentBase;
+
+    private int position;
+
+    /**
+     * The indexes of the items which already have an item record in the current segment
+     */
+    private final Map<String, Integer> currentItems = new HashMap<String, Integer> ();
+
+    private volatile long endOffset;
+
+    private int maxSegments = 0;
+
+    private long maxAge = 0;
+
+    private boolean closed = false;
+
+    /**
+     * Open or create a journal
+     * @param directory the directory of the segment files
+     * @param segmentSize the size of one segment file in bytes
+     * @throws IOException
+     */
+    public DataJournal ( final File directory, final int segmentSize ) throws IOException
+    {
+        if ( segmentSize < 128 * 1024 )
+        {
+            throw new IllegalArgumentException ( "Segment size must be at least 128k" );
+        }
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        if ( !directory.isDirectory () && !directory.mkdirs () )
+        {
+            throw new IOException ( String.format ( "Failed to create journal directory '%s'", directory ) );
+        }
+
+        recover ();
+    }
+
+    public DataJournal ( final File directory ) throws IOException
+    {
+        this ( directory, DEFAULT_SEGMENT_SIZE );
+    }
+
+    static String segmentName ( final long base )
+    {
+        return String.format ( "journal-%016x%s", base, SUFFIX );
+    }
+
+    private void recover () throws IOException
+    {
+        final File[] files = this.directory.listFiles ( new FileFilter () {
+
+            public boolean accept ( final File file )
+            {
+                return file.isFile () && file.getName ().startsWith ( "journal-" ) && file.getName ().endsWith ( SUFFIX );
+            }
+        } );
+
+        for ( final File file : files )
+        {
+            final String name = file.getName ();
+            try
+            {
+                final long base = Long.parseLong ( name.substring ( 8, name.length () - SUFFIX.length () ), 16 );
+                this.segments.put ( base, file );
+            }
+            catch ( final NumberFormatException e )
+            {
+                logger.warn ( "Ignoring invalid segment file: {}", file );
+            }
+        }
+
+        if ( this.segments.isEmpty () )
+        {
+            startSegment ( 0 );
+            return;
+        }
+
+        final Map.Entry<Long, File> last = this.segments.lastEntry ();
+        if ( last.getValue ().length () != this.segmentSize )
+        {
+            throw new IOException ( String.format ( "Segment '%s' does not match the segment size %s", last.getValue (), this.segmentSize ) );
+        }
+
+        this.currentBase = last.getKey ();
+        this.current = map ( last.getValue (), FileChannel.MapMode.READ_WRITE, this.segmentSize );
+        if ( this.current.getInt ( 0 ) != MAGIC )
+        {
+            throw new IOException ( String.format ( "Segment '%s' is not a journal segment", last.getValue () ) );
+        }
+
+        // find the end of the data
+        int pos = HEADER_SIZE;
+        while ( pos + 4 <= this.segmentSize )
+        {
+            final int length = this.current.getInt ( pos );
+            if ( length <= 0 || pos + 4 + length > this.segmentSize )
+            {
+                break;
+            }
+            if ( this.current.get ( pos + 4 ) == KIND_ITEM )
+            {
+                final byte[] id = new byte[length - 5];
+                for ( int i = 0; i < id.length; i++ )
+                {
+                    id[i] = this.current.get ( pos + 9 + i );
+                }
+                this.currentItems.put ( decode ( id ), this.current.getInt ( pos + 5 ) );
+            }
+            pos += 4 + length;
+        }
+        this.position = pos;
+        this.endOffset = this.currentBase + pos;
+
+        logger.info ( "Recovered journal '{}' at offset {}", this.directory, this.endOffset );
+    }
+
+    static MappedByteBuffer map ( final File file, final FileChannel.MapMode mode, final int size ) throws IOException
+    {
+        final RandomAccessFile raf = new RandomAccessFile ( file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw" );
+        try
+        {
+            if ( mode != FileChannel.MapMode.READ_ONLY && raf.length () < size )
+            {
+                raf.setLength ( size );
+            }
+            return raf.getChannel ().map ( mode, 0, size );
+        }
+        finally
+        {
+            // the mapping stays valid after closing the file
+            raf.close ();
+        }
+    }
+
+    private void startSegment ( final long base ) throws IOException
+    {
+        final File file = new File ( this.directory, segmentName ( base ) );
+        this.current = map ( file, FileChannel.MapMode.READ_WRITE, this.segmentSize );
+        this.current.putInt ( 0, MAGIC );
+        this.current.putInt ( 4, this.segmentSize );
+        this.currentBase = base;
+        this.position = HEADER_SIZE;
+        this.currentItems.clear ();
+        this.segments.put ( base, file );
+        this.endOffset = base + HEADER_SIZE;
+    }
+
+    private void roll () throws IOException
+    {
+        this.current.force ();
+        startSegment ( this.currentBase + this.segmentSize );
+        applyRetention ();
+    }
+
+    private void applyRetention ()
+    {
+        final long now = System.currentTimeMillis ();
+        while ( this.segments.size () > 1 )
+        {
+            final Map.Entry<Long, File> first = this.segments.firstEntry ();
+            final boolean tooMany = this.maxSegments > 0 && this.segments.size () > this.maxSegments;
+            final boolean tooOld = this.maxAge > 0 && now - first.getValue ().lastModified () > this.maxAge;
+            if ( !tooMany && !tooOld )
+            {
+                return;
+            }
+
+            this.segments.remove ( first.getKey () );
+            if ( !first.getValue ().delete () )
+            {
+                logger.warn ( "Failed to delete journal segment: {}", first.getValue () );
+            }
+        }
+    }
+
+    /**
+     * Set the retention of old segments. The segment being written is never deleted.
+     * @param maxSegments the maximum number of segments to keep, zero for no limit
+     * @param maxAge the maximum age of a segment in milliseconds, zero for no limit
+     */
+    public synchronized void setRetention ( final int maxSegments, final long maxAge )
+    {
+        this.maxSegments = maxSegments;
+        this.maxAge = maxAge;
+        applyRetention ();
+    }
+
+    private void reserve ( final int length ) throws IOException
+    {
+        if ( this.closed )
+        {
+            throw new IOException ( "Journal is closed" );
+        }
+        if ( this.position + 4 + length > this.segmentSize )
+        {
+            roll ();
+        }
+    }
+
+    /**
+     * Append an update
+     * @param itemId the item id
+     * @param state the state, which is not kept
+     * @return the offset of the record
+     * @throws IOException if a new segment could not be created
+     */
+    public synchronized long append ( final String itemId, final CompactItemState state ) throws IOException
+    {
+        byte type = TYPE_EMPTY;
+        byte[] data = null;
+        if ( state.isIntegral () )
+        {
+            type = TYPE_LONG;
+        }
+        else if ( state.isFloatingPoint () )
+        {
+            type = TYPE_DOUBLE;
+        }
+        else if ( state.getType () == JIVariant.VT_BSTR && state.getVariant () != null )
+        {
+            try
+            {
+                data = encode ( state.getVariant ().getObjectAsString2 () );
+                type = TYPE_STRING;
+            }
+            catch ( final JIException e )
+            {
+                type = TYPE_EMPTY;
+            }
+        }
+
+        int length = 1 + 4 + 8 + 2 + 2 + 1;
+        if ( type == TYPE_LONG || type == TYPE_DOUBLE )
+        {
+            length += 8;
+        }
+        else if ( type == TYPE_STRING )
+        {
+            length += 2 + data.length;
+        }
+
+        reserve ( length );
+        Integer index = this.currentItems.get ( itemId );
+        if ( index == null )
+        {
+            final byte[] id = encode ( itemId );
+            reserve ( length + 4 + 1 + 4 + id.length );
+            index = writeItem ( itemId, id );
+        }
+
+        final MappedByteBuffer buffer = this.current;
+        final int start = this.position;
+        int pos = start + 4;
+        buffer.put ( pos, KIND_DATA );
+        buffer.putInt ( pos + 1, index );
+        buffer.putLong ( pos + 5, state.getFileTime () );
+        buffer.putShort ( pos + 13, state.getQuality () );
+        buffer.putShort ( pos + 15, (short)state.getType () );
+        buffer.put ( pos + 17, type );
+        pos += 18;
+        switch ( type )
+        {
+        case TYPE_LONG:
+            buffer.putLong ( pos, state.getLong () );
+            break;
+        case TYPE_DOUBLE:
+            buffer.putLong ( pos, Double.doubleToRawLongBits ( state.getDouble () ) );
+            break;
+        case TYPE_STRING:
+            buffer.putShort ( pos, (short)data.length );
+            for ( int i = 0; i < data.length; i++ )
+            {
+                buffer.put ( pos + 2 + i, data[i] );
+            }
+            break;
+        }
+
+        // the length commits the record
+        buffer.putInt ( start, length );
+        this.position = start + 4 + length;
+        this.endOffset = this.currentBase + this.position;
+
+        return this.currentBase + start;
+    }
+
+    public long append ( final String itemId, final ItemState state ) throws IOException
+    {
+        return append ( itemId, CompactItemState.fromItemState ( state ) );
+    }
+
+    private int writeItem ( final String itemId, final byte[] id )
+    {
+        final int index = this.currentItems.size ();
+        final int start = this.position;
+        this.current.put ( start + 4, KIND_ITEM );
+        this.current.putInt ( start + 5, index );
+        for ( int i = 0; i < id.length; i++ )
+        {
+            this.current.put ( start + 9 + i, id[i] );
+        }
+        this.current.putInt ( start, 1 + 4 + id.length );
+        this.position = start + 4 + 1 + 4 + id.length;
+        this.currentItems.put ( itemId, index );
+        return index;
+    }
+
+    private static byte[] encode ( final String value )
+    {
+        try
+        {
+            byte[] data = value.getBytes ( "UTF-8" );
+            if ( data.length > MAX_STRING_LENGTH )
+            {
+                final byte[] truncated = new byte[MAX_STRING_LENGTH];
+                System.arraycopy ( data, 0, truncated, 0, MAX_STRING_LENGTH );
+                data = truncated;
+            }
+            return data;
+        }
+        catch ( final UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException ( e );
+        }
+    }
+
+    static String decode ( final byte[] data )
+    {
+        try
+        {
+            return new String ( data, "UTF-8" );
+        }
+        catch ( final UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException ( e );
+        }
+    }
+
+    /**
+     * Write all data to the disk
+     */
+    public synchronized void force ()
+    {
+        if ( !this.closed )
+        {
+            this.current.force ();
+        }
+    }
+
+    public synchronized void close ()
+    {
+        if ( this.closed )
+        {
+            return;
+        }
+        this.current.force ();
+        this.current = null;
+        this.closed = true;
+    }
+
+    public File getDirectory ()
+    {
+        return this.directory;
+    }
+
+    public int getSegmentSize ()
+    {
+        return this.segmentSize;
+    }
+
+    /**
+     * Get the offset following the last written record
+     * @return the end offset
+     */
+    public long getEndOffset ()
+    {
+        return this.endOffset;
+    }
+
+    /**
+     * Get the offset of the oldest record still available
+     * @return the start offset
+     */
+    public synchronized long getStartOffset ()
+    {
+        return this.segments.firstKey () + HEADER_SIZE;
+    }
+
+    synchronized NavigableMap<Long, File> getSegments ()
+    {
+        return new TreeMap<Long, File> ( this.segments );
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * Reads the data records of a {@link DataJournal} in the order they were written.
+ * <br/>
+ * A named cursor stores its position in a file next to the segments, so that a consumer
+ * can continue after a restart. The position is only stored by {@link #commit()}. If the
+ * records at the position were already deleted by the retention, the cursor continues with
+ * the oldest available record.
+ * <br/>
+ * A cursor must only be used by one thread.
+ */
+public class JournalCursor
+{
+    private final DataJournal journal;
+
+    private MappedByteBuffer store;
+
+    private long position;
+
+    private long recordOffset = -1;
+
+    private MappedByteBuffer segment;
+
+    private long segmentBase;
+
+    private final Map<Integer, String> items = new HashMap<Integer, String> ();
+
+    private long lostBytes = 0;
+
+    private int itemIndex;
+
+    private long fileTime;
+
+    private short quality;
+
+    private short variantType;
+
+    private byte type;
+
+    private long value;
+
+    private String stringValue;
+
+    /**
+     * Create a cursor which is not stored
+     * @param journal the journal
+     * @param offset the offset to start at
+     */
+    public JournalCursor ( final DataJournal journal, final long offset )
+    {
+        this.journal = journal;
+        this.position = offset;
+    }
+
+    /**
+     * Open a named cursor. A new cursor starts at the oldest available record.
+     * @param journal the journal
+     * @param name the name of the cursor
+     * @throws IOException
+     */
+    public JournalCursor ( final DataJournal journal, final String name ) throws IOException
+    {
+        this.journal = journal;
+
+        final File file = new File ( journal.getDirectory (), name + ".cursor" );
+        final boolean exists = file.isFile () && file.length () >= 8;
+        this.store = DataJournal.map ( file, FileChannel.MapMode.READ_WRITE, 8 );
+        this.position = exists ? this.store.getLong ( 0 ) : journal.getStartOffset ();
+    }
+
+    /**
+     * Move to the next data record
+     * @return <code>true</code> if a record is available, <code>false</code> if the end of the journal was reached
+     * @throws IOException
+     */
+    public boolean next () throws IOException
+    {
+        while ( true )
+        {
+            if ( this.position >= this.journal.getEndOffset () )
+            {
+                return false;
+            }
+
+            if ( this.segment == null && !openSegment () )
+            {
+                return false;
+            }
+
+            final int pos = (int) ( this.position - this.segmentBase );
+            final int length = pos + 4 <= this.segment.capacity () ? this.segment.getInt ( pos ) : 0;
+            if ( length <= 0 )
+            {
+                // end of the segment, continue with the next one
+                this.position = this.segmentBase + this.journal.getSegmentSize () + DataJournal.HEADER_SIZE;
+                this.segment = null;
+                continue;
+            }
+
+            this.recordOffset = this.position;
+            this.position += 4 + length;
+
+            final byte kind = this.segment.get ( pos + 4 );
+            if ( kind == DataJournal.KIND_ITEM )
+            {
+                readItem ( pos, length );
+            }
+            else if ( kind == DataJournal.KIND_DATA )
+            {
+                readData ( pos + 5 );
+                return true;
+            }
+        }
+    }
+
+    private boolean openSegment () throws IOException
+    {
+        final NavigableMap<Long, File> segments = this.journal.getSegments ();
+        Map.Entry<Long, File> entry = segments.floorEntry ( this.position );
+        if ( entry == null || this.position >= entry.getKey () + this.journal.getSegmentSize () )
+        {
+            // deleted or beyond the end of the segment
+            entry = segments.ceilingEntry ( this.position );
+            if ( entry == null )
+            {
+                return false;
+            }
+            final long start = entry.getKey () + DataJournal.HEADER_SIZE;
+            this.lostBytes += Math.max ( 0, start - this.position );
+            this.position = start;
+        }
+
+        this.segmentBase = entry.getKey ();
+        this.segment = DataJournal.map ( entry.getValue (), FileChannel.MapMode.READ_ONLY, this.journal.getSegmentSize () );
+        this.items.clear ();
+
+        // collect the item ids written before the position
+        final int end = (int) ( this.position - this.segmentBase );
+        int pos = DataJournal.HEADER_SIZE;
+        while ( pos < end )
+        {
+            final int length = this.segment.getInt ( pos );
+            if ( length <= 0 )
+            {
+                break;
+            }
+            if ( this.segment.get ( pos + 4 ) == DataJournal.KIND_ITEM )
+            {
+                readItem ( pos, length );
+            }
+            pos += 4 + length;
+        }
+        return true;
+    }
+
+    private void readItem ( final int pos, final int length )
+    {
+        final byte[] data = new byte[length - 5];
+        for ( int i = 0; i < data.length; i++ )
+        {
+            data[i] = this.segment.get ( pos + 9 + i );
+        }
+        this.items.put ( this.segment.getInt ( pos + 5 ), DataJournal.decode ( data ) );
+    }
+
+    private void readData ( final int pos )
+    {
+        this.itemIndex = this.segment.getInt ( pos );
+        this.fileTime = this.segment.getLong ( pos + 4 );
+        this.quality = this.segment.getShort ( pos + 12 );
+        this.variantType = this.segment.getShort ( pos + 14 );
+        this.type = this.segment.get ( pos + 16 );
+        this.value = 0;
+        this.stringValue = null;
+
+        switch ( this.type )
+        {
+        case DataJournal.TYPE_LONG:
+        case DataJournal.TYPE_DOUBLE:
+            this.value = this.segment.getLong ( pos + 17 );
+            break;
+        case DataJournal.TYPE_STRING:
+            final byte[] data = new byte[this.segment.getShort ( pos + 17 ) & 0xFFFF];
+            for ( int i = 0; i < data.length; i++ )
+            {
+                data[i] = this.segment.get ( pos + 19 + i );
+            }
+            this.stringValue = DataJournal.decode ( data );
+            break;
+        }
+    }
+
+    /**
+     * Store the position after the current record
+     */
+    public void commit ()
+    {
+        if ( this.store != null )
+        {
+            this.store.putLong ( 0, this.position );
+        }
+    }
+
+    /**
+     * Store the position and write it to the disk
+     */
+    public void commitAndForce ()
+    {
+        if ( this.store != null )
+        {
+            commit ();
+            this.store.force ();
+        }
+    }
+
+    /**
+     * Move the cursor to an offset. The offset must be the start of a record
+     * as returned by {@link #getOffset()} or {@link DataJournal#append(String, org.openscada.opc.lib.da.CompactItemState)}.
+     * @param offset the offset
+     */
+    public void seek ( final long offset )
+    {
+        this.position = offset;
+        this.segment = null;
+        this.recordOffset = -1;
+    }
+
+    /**
+     * Get the offset of the current record
+     * @return the offset or <code>-1</code> if the cursor is not on a record
+     */
+    public long getOffset ()
+    {
+        return this.recordOffset;
+    }
+
+    /**
+     * Get the offset of the record following the current record
+     * @return the offset
+     */
+    public long getPosition ()
+    {
+        return this.position;
+    }
+
+    /**
+     * Get the number of bytes skipped because they were deleted before they were read
+     * @return the number of lost bytes
+     */
+    public long getLostBytes ()
+    {
+        return this.lostBytes;
+    }
+
+    /**
+     * Get the item id of the current record
+     * @return the item id or <code>null</code> if it is unknown
+     */
+    public String getItemId ()
+    {
+        return this.items.get ( this.itemIndex );
+    }
+
+    /**
+     * Get the index of the item of the current record. The index is only unique
+     * within the segment of the record.
+     * @return the item index
+     */
+    public int getItemIndex ()
+    {
+        return this.itemIndex;
+    }
+
+    public long getFileTime ()
+    {
+        return this.fileTime;
+    }
+
+    public short getQuality ()
+    {
+        return this.quality;
+    }
+
+    /**
+     * Get the variant type of the original value
+     * @return the variant type
+     */
+    public short getVariantType ()
+    {
+        return this.variantType;
+    }
+
+    /**
+     * Get the stored type of the value
+     * @return one of the <code>TYPE_</code> constants of {@link DataJournal}
+     */
+    public byte getType ()
+    {
+        return this.type;
+    }
+
+    public long getLong ()
+    {
+        return this.type == DataJournal.TYPE_DOUBLE ? (long)Double.longBitsToDouble ( this.value ) : this.value;
+    }
+
+    public double getDouble ()
+    {
+        return this.type == DataJournal.TYPE_DOUBLE ? Double.longBitsToDouble ( this.value ) : this.value;
+    }
+
+    public String getString ()
+    {
+        return this.stringValue;
+    }
+}
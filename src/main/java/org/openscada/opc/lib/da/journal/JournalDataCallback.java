@@ -0,0 +1,91 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da.journal;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openscada.opc.lib.da.CompactDataCallback;
+import org.openscada.opc.lib.da.CompactItemState;
+import org.openscada.opc.lib.da.DataCallback;
+import org.openscada.opc.lib.da.Item;
+import org.openscada.opc.lib.da.ItemState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A data callback writing all updates to a {@link DataJournal} before passing
+ * them on to an optional delegate
+ */
+public class JournalDataCallback implements DataCallback, CompactDataCallback
+{
+    private static Logger logger = LoggerFactory.getLogger ( JournalDataCallback.class );
+
+    private final DataJournal journal;
+
+    private final CompactDataCallback delegate;
+
+    private final AtomicLong failedCount = new AtomicLong ();
+
+    public JournalDataCallback ( final DataJournal journal, final CompactDataCallback delegate )
+    {
+        this.journal = journal;
+        this.delegate = delegate;
+    }
+
+    public JournalDataCallback ( final DataJournal journal )
+    {
+        this ( journal, null );
+    }
+
+    public void changed ( final Item item, final CompactItemState itemState )
+    {
+        try
+        {
+            this.journal.append ( item.getId (), itemState );
+        }
+        catch ( final IOException e )
+        {
+            if ( this.failedCount.getAndIncrement () == 0 )
+            {
+                logger.warn ( "Failed to write to journal", e );
+            }
+        }
+
+        if ( this.delegate != null )
+        {
+            this.delegate.changed ( item, itemState );
+        }
+    }
+
+    public void changed ( final Item item, final ItemState itemState )
+    {
+        changed ( item, CompactItemState.fromItemState ( itemState ) );
+    }
+
+    /**
+     * Get the number of updates that could not be written
+     * @return the number of failed updates
+     */
+    public long getFailedCount ()
+    {
+        return this.failedCount.get ();
+    }
+}
@@ -83,4 +83,15 @@ public class FiletimeTest1
             ft.asBigDecimalCalendar ();
         }
     }
+
+    @Test
+    public void test4 () throws Exception
+    {
+        for ( int i = 0; i < 10000; i++ )
+        {
+            final FILETIME ft = new FILETIME ( 29949427 + i, 2139800608 + i );
+            Assert.assertEquals ( ft.asCalendar ().getTimeInMillis (), FILETIME.ticksToEpochMillis ( ft.getTicks () ) );
+            Assert.assertEquals ( ft.getTicks (), FILETIME.ticksFromStruct ( ft.toStruct () ) );
+        }
+    }
 }
@@ -0,0 +1,180 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.dcom.common.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import junit.framework.Assert;
+
+import org.jinterop.dcom.common.JIException;
+import org.junit.Test;
+
+public class EnumStringIteratorTest
+{
+    /**
+     * An enumeration of generated strings that records the requested batch sizes
+     */
+    private static class FakeEnumString extends EnumString
+    {
+        private final int size;
+
+        private final int length;
+
+        private int position = 0;
+
+        private final List<Integer> requests = new ArrayList<Integer> ();
+
+        private int resets = 0;
+
+        public FakeEnumString ( final int size, final int length ) throws Exception
+        {
+            super ( FakeComObject.create () );
+            this.size = size;
+            this.length = length;
+        }
+
+        @Override
+        public int next ( final List<String> list, final int num ) throws JIException
+        {
+            this.requests.add ( num );
+            int count = 0;
+            while ( count < num && this.position < this.size )
+            {
+                final StringBuilder sb = new StringBuilder ( Integer.toString ( this.position++ ) );
+                while ( sb.length () < this.length )
+                {
+                    sb.append ( '-' );
+                }
+                list.add ( sb.toString () );
+                count++;
+            }
+            return count;
+        }
+
+        @Override
+        public void reset () throws JIException
+        {
+            this.resets++;
+            this.position = 0;
+        }
+    }
+
+    @Test
+    public void testGrowing () throws Exception
+    {
+        final FakeEnumString enumString = new FakeEnumString ( 1000, 1 );
+        final EnumStringIterator i = new EnumStringIterator ( enumString, 10, 100 );
+        i.setTargetTime ( Long.MAX_VALUE );
+
+        Assert.assertEquals ( 0, i.getCalls () );
+
+        int count = 0;
+        while ( i.hasNext () )
+        {
+            Assert.assertEquals ( Integer.toString ( count ), i.next () );
+            count++;
+        }
+        Assert.assertEquals ( 1000, count );
+        Assert.assertEquals ( 1, enumString.resets );
+
+        // doubled after every full batch, up to the maximum
+        Assert.assertEquals ( 10, (int)enumString.requests.get ( 0 ) );
+        Assert.assertEquals ( 20, (int)enumString.requests.get ( 1 ) );
+        Assert.assertEquals ( 40, (int)enumString.requests.get ( 2 ) );
+        Assert.assertEquals ( 80, (int)enumString.requests.get ( 3 ) );
+        for ( int n = 4; n < enumString.requests.size (); n++ )
+        {
+            Assert.assertEquals ( 100, (int)enumString.requests.get ( n ) );
+        }
+        Assert.assertEquals ( enumString.requests.size (), i.getCalls () );
+
+        try
+        {
+            i.next ();
+            Assert.fail ();
+        }
+        catch ( final NoSuchElementException e )
+        {
+        }
+    }
+
+    @Test
+    public void testShrinking () throws Exception
+    {
+        final FakeEnumString enumString = new FakeEnumString ( 100, 1 );
+        final EnumStringIterator i = new EnumStringIterator ( enumString, 10, 100 );
+
+        // every call takes longer than the target
+        i.setTargetTime ( -1 );
+
+        int count = 0;
+        while ( i.hasNext () )
+        {
+            i.next ();
+            count++;
+        }
+        Assert.assertEquals ( 100, count );
+
+        // never below the initial batch size
+        for ( final Integer request : enumString.requests )
+        {
+            Assert.assertEquals ( 10, (int)request );
+        }
+        Assert.assertEquals ( 11, enumString.requests.size () );
+    }
+
+    @Test
+    public void testPayloadLimit () throws Exception
+    {
+        final FakeEnumString enumString = new FakeEnumString ( 1000, 100 );
+        final EnumStringIterator i = new EnumStringIterator ( enumString, 10, 1000 );
+        i.setTargetTime ( Long.MAX_VALUE );
+
+        // estimated with 216 bytes per string of 100 characters
+        i.setMaxPayload ( 216 * 30 );
+
+        final Iterator<String> strings = i;
+        while ( strings.hasNext () )
+        {
+            strings.next ();
+        }
+
+        Assert.assertEquals ( 10, (int)enumString.requests.get ( 0 ) );
+        Assert.assertEquals ( 20, (int)enumString.requests.get ( 1 ) );
+        for ( int n = 2; n < enumString.requests.size (); n++ )
+        {
+            Assert.assertEquals ( 30, (int)enumString.requests.get ( n ) );
+        }
+    }
+
+    @Test
+    public void testLazy () throws Exception
+    {
+        final FakeEnumString enumString = new FakeEnumString ( 1000, 1 );
+        final Iterator<String> i = enumString.iterator ( 10, 100 );
+
+        Assert.assertTrue ( enumString.requests.isEmpty () );
+        Assert.assertEquals ( "0", i.next () );
+        Assert.assertEquals ( 1, enumString.requests.size () );
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.dcom.common.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.jinterop.dcom.core.IJIComObject;
+
+/**
+ * A COM object for tests which hands out itself for every interface.
+ * <br/>
+ * Fakes of the wrapper classes are created on top of it and override the calls
+ * they need, all other calls fail with an {@link UnsupportedOperationException}.
+ */
+public class FakeComObject
+{
+    private FakeComObject ()
+    {
+    }
+
+    public static IJIComObject create ()
+    {
+        return (IJIComObject)Proxy.newProxyInstance ( IJIComObject.class.getClassLoader (), new Class<?>[] { IJIComObject.class }, new InvocationHandler () {
+
+            public Object invoke ( final Object proxy, final Method method, final Object[] args )
+            {
+                if ( method.getName ().equals ( "queryInterface" ) )
+                {
+                    return proxy;
+                }
+                throw new UnsupportedOperationException ( method.getName () );
+            }
+        } );
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.dcom.common.metrics;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest
+{
+    @Test
+    public void testBuckets ()
+    {
+        long last = -1;
+        for ( int i = 0; i < 64 * LatencyHistogram.SUB_BUCKETS - 3 * LatencyHistogram.SUB_BUCKETS; i++ )
+        {
+            final long highest = LatencyHistogram.highestValueOf ( i );
+            Assert.assertTrue ( highest > last );
+            Assert.assertEquals ( i, LatencyHistogram.indexOf ( highest ) );
+            Assert.assertEquals ( i, LatencyHistogram.indexOf ( last + 1 ) );
+            last = highest;
+        }
+        Assert.assertEquals ( Long.MAX_VALUE, last );
+    }
+
+    @Test
+    public void testBucketBoundaries ()
+    {
+        Assert.assertEquals ( 0, LatencyHistogram.indexOf ( -5 ) );
+        Assert.assertEquals ( 7, LatencyHistogram.indexOf ( 7 ) );
+
+        // the first logarithmic buckets are still exact
+        Assert.assertEquals ( 8, LatencyHistogram.indexOf ( 8 ) );
+        Assert.assertEquals ( 8, LatencyHistogram.highestValueOf ( 8 ) );
+        Assert.assertEquals ( 15, LatencyHistogram.indexOf ( 15 ) );
+
+        // from here on each bucket covers two values
+        Assert.assertEquals ( 16, LatencyHistogram.indexOf ( 16 ) );
+        Assert.assertEquals ( 16, LatencyHistogram.indexOf ( 17 ) );
+        Assert.assertEquals ( 17, LatencyHistogram.highestValueOf ( 16 ) );
+        Assert.assertEquals ( 17, LatencyHistogram.indexOf ( 18 ) );
+
+        Assert.assertEquals ( 36, LatencyHistogram.indexOf ( 96 ) );
+        Assert.assertEquals ( 36, LatencyHistogram.indexOf ( 103 ) );
+        Assert.assertEquals ( 103, LatencyHistogram.highestValueOf ( 36 ) );
+        Assert.assertEquals ( 37, LatencyHistogram.indexOf ( 104 ) );
+
+        Assert.assertEquals ( ( 64 - 3 ) * LatencyHistogram.SUB_BUCKETS - 1, LatencyHistogram.indexOf ( Long.MAX_VALUE ) );
+    }
+
+    @Test
+    public void testPercentileBounds ()
+    {
+        final LatencyHistogram histogram = new LatencyHistogram ();
+        for ( int i = 1; i <= 7; i++ )
+        {
+            histogram.record ( i );
+        }
+        Assert.assertEquals ( 1, histogram.getPercentile ( 0.0 ) );
+        Assert.assertEquals ( 4, histogram.getPercentile ( 50.0 ) );
+        Assert.assertEquals ( 7, histogram.getPercentile ( 150.0 ) );
+
+        histogram.reset ();
+        histogram.record ( 96 );
+        histogram.record ( 200 );
+
+        // the upper bound of the bucket, unless it is beyond the maximum
+        Assert.assertEquals ( 103, histogram.getPercentile ( 50.0 ) );
+        Assert.assertEquals ( 200, histogram.getPercentile ( 100.0 ) );
+
+        histogram.reset ();
+        histogram.record ( 100 );
+        Assert.assertEquals ( 100, histogram.getPercentile ( 50.0 ) );
+    }
+
+    @Test
+    public void testPercentiles ()
+    {
+        final LatencyHistogram histogram = new LatencyHistogram ();
+        for ( int i = 1; i <= 1000; i++ )
+        {
+            histogram.record ( i * 1000L );
+        }
+
+        Assert.assertEquals ( 1000, histogram.getCount () );
+        Assert.assertEquals ( 1000000L, histogram.getMax () );
+        Assert.assertEquals ( 500500L, histogram.getMean () );
+
+        final long p50 = histogram.getPercentile ( 50.0 );
+        Assert.assertTrue ( p50 >= 500000L && p50 <= 500000L * 9 / 8 );
+        final long p99 = histogram.getPercentile ( 99.0 );
+        Assert.assertTrue ( p99 >= 990000L && p99 <= 1000000L );
+        Assert.assertEquals ( 1000000L, histogram.getPercentile ( 100.0 ) );
+
+        histogram.reset ();
+        Assert.assertEquals ( 0, histogram.getCount () );
+        Assert.assertEquals ( 0, histogram.getPercentile ( 99.0 ) );
+    }
+}
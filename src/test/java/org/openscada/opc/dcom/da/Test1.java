@@ -22,6 +22,7 @@ package org.openscada.opc.dcom.da;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
@@ -382,9 +383,10 @@ public class Test1
     {
         System.out.println ( "Enum Groups: " + scope.toString () );
 
-        for ( final String group : server.getGroups ( scope ).asCollection () )
+        final Iterator<String> groups = server.getGroups ( scope ).iterator ();
+        while ( groups.hasNext () )
         {
-            System.out.println ( "Group: " + group );
+            System.out.println ( "Group: " + groups.next () );
         }
     }
 
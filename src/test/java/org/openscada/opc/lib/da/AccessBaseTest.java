@@ -0,0 +1,62 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+package org.openscada.opc.lib.da;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.jinterop.dcom.core.JIVariant;
+import org.junit.Test;
+import org.openscada.opc.lib.common.ConnectionInformation;
+
+public class AccessBaseTest
+{
+    @Test
+    public void testCompactUpdateOfPlainCallback () throws Exception
+    {
+        final AccessBase access = new AccessBase ( new Server ( new ConnectionInformation (), null ), 1000, null ) {};
+        access.setChangeFilter ( ChangeFilters.VALUE_OR_QUALITY );
+
+        final List<ItemState> states = new ArrayList<ItemState> ();
+        final Item item = new Item ( null, 1, 1, "item" );
+        access.items.put ( item, new DataCallback () {
+
+            public void changed ( final Item item, final ItemState itemState )
+            {
+                states.add ( itemState );
+            }
+        } );
+
+        final CompactItemState state = new CompactItemState ();
+        state.set ( 0, (short)192, 116444736000000000L, new JIVariant ( 1 ) );
+        access.updateItem ( item, state );
+        state.set ( 0, (short)192, 116444736010000000L, new JIVariant ( 1 ) );
+        access.updateItem ( item, state );
+        state.set ( 0, (short)192, 116444736020000000L, new JIVariant ( 2 ) );
+        access.updateItem ( item, state );
+
+        // the unchanged value is filtered before it is converted
+        Assert.assertEquals ( 2, states.size () );
+        Assert.assertEquals ( 0L, states.get ( 0 ).getTimestamp ().getTimeInMillis () );
+        Assert.assertEquals ( 2000L, states.get ( 1 ).getTimestamp ().getTimeInMillis () );
+        Assert.assertSame ( states.get ( 1 ), access.itemCache.get ( item ) );
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da;
+
+import junit.framework.Assert;
+
+import org.jinterop.dcom.core.JIVariant;
+import org.junit.Test;
+
+public class ChangeFiltersTest
+{
+    private static CompactItemState state ( final short quality, final long fileTime, final JIVariant value )
+    {
+        final CompactItemState state = new CompactItemState ();
+        state.set ( 0, quality, fileTime, value );
+        return state;
+    }
+
+    @Test
+    public void testValueOrQuality ()
+    {
+        final CompactItemState previous = state ( (short)192, 1, new JIVariant ( 10 ) );
+
+        Assert.assertTrue ( ChangeFilters.TIMESTAMP.isChanged ( previous, state ( (short)192, 2, new JIVariant ( 10 ) ) ) );
+        Assert.assertFalse ( ChangeFilters.VALUE_OR_QUALITY.isChanged ( previous, state ( (short)192, 2, new JIVariant ( 10 ) ) ) );
+        Assert.assertTrue ( ChangeFilters.VALUE_OR_QUALITY.isChanged ( previous, state ( (short)0, 2, new JIVariant ( 10 ) ) ) );
+        Assert.assertTrue ( ChangeFilters.VALUE_OR_QUALITY.isChanged ( previous, state ( (short)192, 2, new JIVariant ( 11 ) ) ) );
+
+        final CompactItemState text = state ( (short)192, 1, new JIVariant ( "a" ) );
+        Assert.assertFalse ( ChangeFilters.VALUE_OR_QUALITY.isChanged ( text, state ( (short)192, 2, new JIVariant ( "a" ) ) ) );
+        Assert.assertTrue ( ChangeFilters.VALUE_OR_QUALITY.isChanged ( text, state ( (short)192, 2, new JIVariant ( "b" ) ) ) );
+    }
+
+    @Test
+    public void testDeadband ()
+    {
+        final CompactItemState previous = state ( (short)192, 1, new JIVariant ( 50.0 ) );
+
+        final ChangeFilter absolute = ChangeFilters.absoluteDeadband ( 0.5 );
+        Assert.assertFalse ( absolute.isChanged ( previous, state ( (short)192, 2, new JIVariant ( 50.4 ) ) ) );
+        Assert.assertTrue ( absolute.isChanged ( previous, state ( (short)192, 2, new JIVariant ( 49.4 ) ) ) );
+        Assert.assertTrue ( absolute.isChanged ( previous, state ( (short)0, 2, new JIVariant ( 50.0 ) ) ) );
+
+        final ChangeFilter percent = ChangeFilters.percentDeadband ( 1, 0, 200 );
+        Assert.assertFalse ( percent.isChanged ( previous, state ( (short)192, 2, new JIVariant ( 51.9 ) ) ) );
+        Assert.assertTrue ( percent.isChanged ( previous, state ( (short)192, 2, new JIVariant ( 52.1 ) ) ) );
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class DataCallbackDispatcherTest
+{
+    /**
+     * An executor that only runs the tasks when asked to
+     */
+    private static class ManualExecutor implements Executor
+    {
+        private final List<Runnable> tasks = new ArrayList<Runnable> ();
+
+        public void execute ( final Runnable command )
+        {
+            this.tasks.add ( command );
+        }
+
+        public void runAll ()
+        {
+            while ( !this.tasks.isEmpty () )
+            {
+                this.tasks.remove ( 0 ).run ();
+            }
+        }
+    }
+
+    private static class RecordingCallback implements DataCallback
+    {
+        private final List<ItemState> states = new ArrayList<ItemState> ();
+
+        public void changed ( final Item item, final ItemState itemState )
+        {
+            this.states.add ( itemState );
+        }
+    }
+
+    private static ItemState state ( final int errorCode )
+    {
+        return new ItemState ( errorCode, null, null, null );
+    }
+
+    @Test
+    public void testConflate ()
+    {
+        final ManualExecutor executor = new ManualExecutor ();
+        final DataCallbackDispatcher dispatcher = new DataCallbackDispatcher ( executor, 10, OverflowPolicy.CONFLATE );
+        final RecordingCallback callback = new RecordingCallback ();
+        final Item item = new Item ( null, 1, 1, "item" );
+
+        dispatcher.dispatch ( callback, item, state ( 1 ) );
+        dispatcher.dispatch ( callback, item, state ( 2 ) );
+        dispatcher.dispatch ( callback, item, state ( 3 ) );
+
+        Assert.assertEquals ( 1, dispatcher.getQueueSize () );
+        executor.runAll ();
+
+        Assert.assertEquals ( 1, callback.states.size () );
+        Assert.assertEquals ( 3, callback.states.get ( 0 ).getErrorCode () );
+        Assert.assertEquals ( 2, dispatcher.getConflatedCount () );
+        Assert.assertEquals ( 1, dispatcher.getQueuedCount () );
+    }
+
+    @Test
+    public void testDropOldest ()
+    {
+        final ManualExecutor executor = new ManualExecutor ();
+        final DataCallbackDispatcher dispatcher = new DataCallbackDispatcher ( executor, 2, OverflowPolicy.DROP_OLDEST );
+        final RecordingCallback callback = new RecordingCallback ();
+        final Item item = new Item ( null, 1, 1, "item" );
+
+        dispatcher.dispatch ( callback, item, state ( 1 ) );
+        dispatcher.dispatch ( callback, item, state ( 2 ) );
+        dispatcher.dispatch ( callback, item, state ( 3 ) );
+        executor.runAll ();
+
+        Assert.assertEquals ( 2, callback.states.size () );
+        Assert.assertEquals ( 2, callback.states.get ( 0 ).getErrorCode () );
+        Assert.assertEquals ( 3, callback.states.get ( 1 ).getErrorCode () );
+        Assert.assertEquals ( 1, dispatcher.getDroppedCount () );
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+package org.openscada.opc.lib.da;
+
+import junit.framework.Assert;
+
+import org.jinterop.dcom.common.JIException;
+import org.junit.Test;
+import org.openscada.opc.dcom.common.impl.FakeComObject;
+import org.openscada.opc.dcom.common.impl.OPCCommon;
+
+public class ErrorMessageResolverTest
+{
+    private static final int UNKNOWN_CODE = 0xE0000001;
+
+    /**
+     * A server which fails with the configured error code or resolves to a fixed message
+     */
+    private static class FakeCommon extends OPCCommon
+    {
+        private int calls = 0;
+
+        private int failure = 0;
+
+        public FakeCommon () throws Exception
+        {
+            super ( FakeComObject.create () );
+        }
+
+        @Override
+        public String getErrorString ( final int errorCode, final int localeID ) throws JIException
+        {
+            this.calls++;
+            if ( this.failure != 0 )
+            {
+                throw new JIException ( this.failure );
+            }
+            return "Message " + errorCode;
+        }
+    }
+
+    @Test
+    public void testUnknownCodeIsCached () throws Exception
+    {
+        final FakeCommon common = new FakeCommon ();
+        common.failure = 0x80070057;
+        final ErrorMessageResolver resolver = new ErrorMessageResolver ( common, 0 );
+        resolver.setRetryDelay ( 0 );
+
+        Assert.assertNull ( resolver.getMessage ( UNKNOWN_CODE ) );
+        Assert.assertNull ( resolver.getMessage ( UNKNOWN_CODE ) );
+        Assert.assertEquals ( 1, common.calls );
+    }
+
+    @Test
+    public void testTransientFailureIsNotCached () throws Exception
+    {
+        final FakeCommon common = new FakeCommon ();
+        common.failure = 0x800706BA;
+        final ErrorMessageResolver resolver = new ErrorMessageResolver ( common, 0 );
+
+        Assert.assertNull ( resolver.getMessage ( UNKNOWN_CODE ) );
+        // not asked again before the retry delay passed
+        Assert.assertNull ( resolver.getMessage ( UNKNOWN_CODE ) );
+        Assert.assertEquals ( 1, common.calls );
+    }
+
+    @Test
+    public void testTransientFailureIsRetried () throws Exception
+    {
+        final FakeCommon common = new FakeCommon ();
+        common.failure = 0x800706BA;
+        final ErrorMessageResolver resolver = new ErrorMessageResolver ( common, 0 );
+        resolver.setRetryDelay ( 0 );
+
+        Assert.assertNull ( resolver.getMessage ( UNKNOWN_CODE ) );
+        Assert.assertNull ( resolver.getMessage ( UNKNOWN_CODE ) );
+        Assert.assertEquals ( 2, common.calls );
+
+        common.failure = 0;
+        Assert.assertEquals ( "Message " + UNKNOWN_CODE, resolver.getMessage ( UNKNOWN_CODE ) );
+        Assert.assertEquals ( "Message " + UNKNOWN_CODE, resolver.getMessage ( UNKNOWN_CODE ) );
+        Assert.assertEquals ( 3, common.calls );
+    }
+}
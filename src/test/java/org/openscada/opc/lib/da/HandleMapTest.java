@@ -0,0 +1,97 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class HandleMapTest
+{
+    @Test
+    public void testIntObjectMap ()
+    {
+        final IntObjectMap<Integer> map = new IntObjectMap<Integer> ();
+        final Map<Integer, Integer> reference = new HashMap<Integer, Integer> ();
+        final Random random = new Random ( 0 );
+
+        for ( int i = 0; i < 100000; i++ )
+        {
+            final int key = random.nextInt ( 1000 ) - 500;
+            if ( random.nextBoolean () )
+            {
+                Assert.assertEquals ( reference.put ( key, i ), map.put ( key, i ) );
+            }
+            else
+            {
+                Assert.assertEquals ( reference.remove ( key ), map.remove ( key ) );
+            }
+            Assert.assertEquals ( reference.size (), map.size () );
+        }
+
+        for ( int key = -500; key < 500; key++ )
+        {
+            Assert.assertEquals ( reference.get ( key ), map.get ( key ) );
+        }
+        Assert.assertEquals ( reference.size (), map.keys ().length );
+    }
+
+    @Test
+    public void testClientHandleTable ()
+    {
+        final ClientHandleTable table = new ClientHandleTable ();
+
+        final int h1 = table.allocate ();
+        final int h2 = table.allocate ();
+        Assert.assertEquals ( 1, h1 );
+        Assert.assertEquals ( 2, h2 );
+
+        final Item item = new Item ( null, 100, h2, "item" );
+        table.set ( h2, item );
+        Assert.assertSame ( item, table.get ( h2 ) );
+        Assert.assertNull ( table.get ( h1 ) );
+        Assert.assertNull ( table.get ( 1000 ) );
+
+        // released handles are re-used in release order
+        table.release ( h2 );
+        table.release ( h1 );
+        Assert.assertNull ( table.get ( h2 ) );
+        Assert.assertEquals ( h2, table.allocate () );
+        Assert.assertEquals ( h1, table.allocate () );
+        Assert.assertEquals ( 3, table.allocate () );
+
+        // releasing twice must not hand out the handle twice
+        table.release ( h1 );
+        table.release ( h1 );
+        Assert.assertEquals ( h1, table.allocate () );
+        Assert.assertEquals ( 4, table.allocate () );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            final int handle = table.allocate ();
+            table.set ( handle, item );
+            Assert.assertSame ( item, table.get ( handle ) );
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class ItemHistoryTest
+{
+    @Test
+    public void testRingBuffer ()
+    {
+        final ItemHistory history = new ItemHistory ( 100 );
+
+        for ( int i = 0; i < 250; i++ )
+        {
+            Assert.assertTrue ( history.append ( "a", 1000L * i, i * 0.5, (short)192 ) );
+        }
+        Assert.assertFalse ( history.append ( "a", 0, 1.0, (short)192 ) );
+        Assert.assertEquals ( 100, history.size ( "a" ) );
+
+        final ItemHistory.Cursor all = history.query ( "a" );
+        int count = 0;
+        while ( all.next () )
+        {
+            Assert.assertEquals ( 1000L * ( 150 + count ), all.getEpochMillis () );
+            Assert.assertEquals ( ( 150 + count ) * 0.5, all.getDouble () );
+            Assert.assertEquals ( 192, all.getQuality () );
+            count++;
+        }
+        Assert.assertEquals ( 100, count );
+
+        final ItemHistory.Cursor range = history.query ( "a", 199500L, 210000L );
+        Assert.assertTrue ( range.next () );
+        Assert.assertEquals ( 200000L, range.getEpochMillis () );
+        count = 1;
+        while ( range.next () )
+        {
+            count++;
+        }
+        Assert.assertEquals ( 11, count );
+
+        Assert.assertFalse ( history.query ( "b" ).next () );
+    }
+
+    @Test
+    public void testIntegral ()
+    {
+        final ItemHistory history = new ItemHistory ( 10 );
+        history.append ( "a", 1000L, Long.MAX_VALUE, (short)0 );
+        history.append ( "a", 2000L, 1.5, (short)192 );
+
+        final ItemHistory.Cursor cursor = history.query ( "a" );
+        Assert.assertTrue ( cursor.next () );
+        Assert.assertTrue ( cursor.isIntegral () );
+        Assert.assertEquals ( Long.MAX_VALUE, cursor.getLong () );
+        Assert.assertTrue ( cursor.next () );
+        Assert.assertFalse ( cursor.isIntegral () );
+        Assert.assertEquals ( 1.5, cursor.getDouble () );
+        Assert.assertFalse ( cursor.next () );
+    }
+}
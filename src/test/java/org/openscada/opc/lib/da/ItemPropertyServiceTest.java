@@ -0,0 +1,212 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIVariant;
+import org.junit.Test;
+import org.openscada.opc.dcom.common.KeyedResult;
+import org.openscada.opc.dcom.common.KeyedResultSet;
+import org.openscada.opc.dcom.common.impl.FakeComObject;
+import org.openscada.opc.dcom.da.OPCITEMPROPERTIES;
+import org.openscada.opc.dcom.da.OPCITEMPROPERTY;
+import org.openscada.opc.dcom.da.PropertyDescription;
+import org.openscada.opc.dcom.da.impl.OPCBrowse;
+import org.openscada.opc.dcom.da.impl.OPCItemProperties;
+
+public class ItemPropertyServiceTest
+{
+    /**
+     * Item properties of a server where every item has the properties 1, 5 and 100
+     */
+    private static class FakeItemProperties extends OPCItemProperties
+    {
+        private static final int[] IDS = new int[] { 1, 5, 100 };
+
+        public FakeItemProperties () throws Exception
+        {
+            super ( FakeComObject.create () );
+        }
+
+        @Override
+        public Collection<PropertyDescription> queryAvailableProperties ( final String itemID ) throws JIException
+        {
+            final List<PropertyDescription> result = new ArrayList<PropertyDescription> ();
+            for ( final int id : IDS )
+            {
+                final PropertyDescription description = new PropertyDescription ();
+                description.setId ( id );
+                description.setDescription ( "Property " + id );
+                description.setVarType ( (short)JIVariant.VT_I4 );
+                result.add ( description );
+            }
+            return result;
+        }
+
+        @Override
+        public KeyedResultSet<Integer, JIVariant> getItemProperties ( final String itemID, final int... properties ) throws JIException
+        {
+            final KeyedResultSet<Integer, JIVariant> result = new KeyedResultSet<Integer, JIVariant> ();
+            for ( final int id : properties )
+            {
+                result.add ( new KeyedResult<Integer, JIVariant> ( id, new JIVariant ( id ), 0 ) );
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A DA 3.0 browse service which reports <code>S_FALSE</code> for every item
+     * since property 100 cannot be read
+     */
+    private static class FakeBrowse extends OPCBrowse
+    {
+        private int calls = 0;
+
+        public FakeBrowse () throws Exception
+        {
+            super ( FakeComObject.create () );
+        }
+
+        @Override
+        public KeyedResultSet<String, OPCITEMPROPERTIES> getProperties ( final String[] itemIDs, final boolean returnPropertyValues, final int... propertyIDs ) throws JIException
+        {
+            this.calls++;
+            final KeyedResultSet<String, OPCITEMPROPERTIES> result = new KeyedResultSet<String, OPCITEMPROPERTIES> ();
+            for ( final String itemId : itemIDs )
+            {
+                final List<OPCITEMPROPERTY> list = new ArrayList<OPCITEMPROPERTY> ();
+                for ( final int id : new int[] { 1, 100 } )
+                {
+                    final OPCITEMPROPERTY property = new OPCITEMPROPERTY ();
+                    property.setItemID ( itemId );
+                    property.setPropertyID ( id );
+                    property.setErrorCode ( id == 100 ? 0xC0040203 : 0 );
+                    list.add ( property );
+                }
+                final OPCITEMPROPERTIES properties = new OPCITEMPROPERTIES ();
+                properties.setErrorCode ( 1 );
+                properties.setProperties ( list );
+                result.add ( new KeyedResult<String, OPCITEMPROPERTIES> ( itemId, properties, properties.getErrorCode () ) );
+            }
+            return result;
+        }
+    }
+
+    private static class MemoryStore implements ItemPropertyStore
+    {
+        private final Map<String, Collection<OPCITEMPROPERTY>> properties = new HashMap<String, Collection<OPCITEMPROPERTY>> ();
+
+        public synchronized Collection<OPCITEMPROPERTY> load ( final String itemId )
+        {
+            return this.properties.get ( itemId );
+        }
+
+        public synchronized void store ( final String itemId, final Collection<OPCITEMPROPERTY> properties )
+        {
+            this.properties.put ( itemId, new ArrayList<OPCITEMPROPERTY> ( properties ) );
+        }
+    }
+
+    private static ItemPropertyService createService ( final ItemPropertyStore store ) throws Exception
+    {
+        final List<OPCItemProperties> itemProperties = Collections.<OPCItemProperties> singletonList ( new FakeItemProperties () );
+        final ItemPropertyService service = new ItemPropertyService ( itemProperties, null, null );
+        service.setStore ( store );
+        return service;
+    }
+
+    @Test
+    public void testCache () throws Exception
+    {
+        final ItemPropertyService service = createService ( null );
+
+        Assert.assertEquals ( 1, service.getProperties ( "item", 1 ).size () );
+        Assert.assertEquals ( 2, service.getRemoteCalls () );
+
+        // cached
+        Assert.assertEquals ( 1, service.getProperties ( "item", 1 ).size () );
+        Assert.assertEquals ( 2, service.getRemoteCalls () );
+
+        // only one property is known, so all properties are loaded
+        Assert.assertEquals ( 3, service.getProperties ( "item" ).size () );
+        Assert.assertEquals ( 4, service.getRemoteCalls () );
+
+        // all properties are known now
+        Assert.assertEquals ( 3, service.getProperties ( "item" ).size () );
+        Assert.assertEquals ( 2, service.getProperties ( "item", 5, 100 ).size () );
+        Assert.assertEquals ( 1, service.getProperties ( "item", 5, 999 ).size () );
+        Assert.assertEquals ( 4, service.getRemoteCalls () );
+        Assert.assertEquals ( 4, service.getHitCount () );
+        Assert.assertEquals ( 2, service.getMissCount () );
+    }
+
+    @Test
+    public void testPartialBrowseResult () throws Exception
+    {
+        final FakeBrowse browse = new FakeBrowse ();
+        final ItemPropertyService service = new ItemPropertyService ( Collections.<OPCItemProperties> emptyList (), browse, null );
+
+        final Map<String, Map<Integer, OPCITEMPROPERTY>> result = service.getProperties ( Arrays.asList ( "item1", "item2" ) );
+        Assert.assertEquals ( 2, result.size () );
+        Assert.assertEquals ( 0, result.get ( "item1" ).get ( 1 ).getErrorCode () );
+        Assert.assertEquals ( 0xC0040203, result.get ( "item1" ).get ( 100 ).getErrorCode () );
+        Assert.assertEquals ( 1, browse.calls );
+
+        // items reported with S_FALSE are cached as well
+        Assert.assertEquals ( 2, service.getProperties ( "item2" ).size () );
+        Assert.assertEquals ( 1, browse.calls );
+    }
+
+    @Test
+    public void testStore () throws Exception
+    {
+        final MemoryStore store = new MemoryStore ();
+        final ItemPropertyService service = createService ( store );
+
+        // a partial result must not be stored
+        service.getProperties ( "item", 1 );
+        Assert.assertNull ( store.load ( "item" ) );
+
+        service.getProperties ( "item" );
+        Assert.assertEquals ( 3, store.load ( "item" ).size () );
+
+        // requesting a subset later must not replace the complete set
+        service.invalidateAll ();
+        service.getProperties ( "item", 5 );
+        Assert.assertEquals ( 3, store.load ( "item" ).size () );
+
+        // a new service gets everything from the store
+        final ItemPropertyService other = createService ( store );
+        Assert.assertEquals ( 3, other.getProperties ( "item" ).size () );
+        Assert.assertEquals ( 1, other.getProperties ( "item", 100 ).size () );
+        Assert.assertEquals ( 0, other.getRemoteCalls () );
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class ItemStatePublisherTest
+{
+    private static class ManualExecutor implements Executor
+    {
+        private final List<Runnable> tasks = new ArrayList<Runnable> ();
+
+        public void execute ( final Runnable command )
+        {
+            this.tasks.add ( command );
+        }
+
+        public void runAll ()
+        {
+            while ( !this.tasks.isEmpty () )
+            {
+                this.tasks.remove ( 0 ).run ();
+            }
+        }
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<Map<Item, ItemState>>
+    {
+        private Flow.Subscription subscription;
+
+        private final List<Map<Item, ItemState>> batches = new ArrayList<Map<Item, ItemState>> ();
+
+        private boolean completed = false;
+
+        public void onSubscribe ( final Flow.Subscription subscription )
+        {
+            this.subscription = subscription;
+        }
+
+        public void onNext ( final Map<Item, ItemState> item )
+        {
+            this.batches.add ( item );
+        }
+
+        public void onError ( final Throwable throwable )
+        {
+        }
+
+        public void onComplete ()
+        {
+            this.completed = true;
+        }
+    }
+
+    private static ItemState state ( final int errorCode )
+    {
+        return new ItemState ( errorCode, null, null, null );
+    }
+
+    @Test
+    public void testDemand ()
+    {
+        final ManualExecutor executor = new ManualExecutor ();
+        final ItemStatePublisher publisher = new ItemStatePublisher ( executor );
+        final RecordingSubscriber subscriber = new RecordingSubscriber ();
+        publisher.subscribe ( subscriber );
+
+        final Item item1 = new Item ( null, 1, 1, "item1" );
+        final Item item2 = new Item ( null, 2, 2, "item2" );
+
+        // no demand, updates are conflated
+        publisher.changed ( item1, state ( 1 ) );
+        publisher.changed ( item2, state ( 2 ) );
+        publisher.changed ( item1, state ( 3 ) );
+        executor.runAll ();
+        Assert.assertEquals ( 0, subscriber.batches.size () );
+        Assert.assertEquals ( 1, publisher.getConflatedCount () );
+
+        subscriber.subscription.request ( 1 );
+        executor.runAll ();
+        Assert.assertEquals ( 1, subscriber.batches.size () );
+        Assert.assertEquals ( 2, subscriber.batches.get ( 0 ).size () );
+        Assert.assertEquals ( 3, subscriber.batches.get ( 0 ).get ( item1 ).getErrorCode () );
+
+        // demand used up
+        publisher.changed ( item2, state ( 4 ) );
+        executor.runAll ();
+        Assert.assertEquals ( 1, subscriber.batches.size () );
+
+        subscriber.subscription.request ( 10 );
+        executor.runAll ();
+        Assert.assertEquals ( 2, subscriber.batches.size () );
+
+        publisher.complete ();
+        executor.runAll ();
+        Assert.assertTrue ( subscriber.completed );
+        Assert.assertEquals ( 0, publisher.getSubscriberCount () );
+    }
+
+    @Test
+    public void testCancel ()
+    {
+        final ManualExecutor executor = new ManualExecutor ();
+        final ItemStatePublisher publisher = new ItemStatePublisher ( executor );
+        final RecordingSubscriber subscriber = new RecordingSubscriber ();
+        publisher.subscribe ( subscriber );
+        subscriber.subscription.request ( Long.MAX_VALUE );
+        subscriber.subscription.cancel ();
+
+        publisher.changed ( new Item ( null, 1, 1, "item1" ), state ( 1 ) );
+        executor.runAll ();
+        Assert.assertEquals ( 0, subscriber.batches.size () );
+        Assert.assertEquals ( 0, publisher.getSubscriberCount () );
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.jinterop.dcom.core.JIVariant;
+import org.junit.Test;
+
+public class LastValueTableTest
+{
+    private static ItemState state ( final int errorCode )
+    {
+        return new ItemState ( errorCode, null, null, null );
+    }
+
+    @Test
+    public void testSnapshot ()
+    {
+        final LastValueTable table = new LastValueTable ( 4 );
+        for ( int i = 0; i < 100; i++ )
+        {
+            table.put ( "item" + i, state ( i ) );
+        }
+
+        final LastValueTable.Snapshot snapshot = table.snapshot ();
+        Assert.assertEquals ( 100, snapshot.getVersion () );
+        Assert.assertEquals ( 100, snapshot.size () );
+
+        table.put ( "item5", state ( 500 ) );
+        table.remove ( "item6" );
+
+        Assert.assertEquals ( 5, snapshot.get ( "item5" ).getErrorCode () );
+        Assert.assertNotNull ( snapshot.get ( "item6" ) );
+        Assert.assertEquals ( 500, table.get ( "item5" ).getErrorCode () );
+        Assert.assertNull ( table.get ( "item6" ) );
+        Assert.assertEquals ( 99, table.snapshot ().toMap ().size () );
+    }
+
+    @Test
+    public void testCompactState ()
+    {
+        final LastValueTable table = new LastValueTable ( 4 );
+        final CompactItemState state = new CompactItemState ();
+        state.set ( 0, (short)192, 116444736000000000L, new JIVariant ( 42 ) );
+        table.put ( "item", state );
+
+        // the table keeps a copy of the re-used state
+        state.set ( 1, (short)0, 116444736000000000L, new JIVariant ( 43 ) );
+
+        final ItemState itemState = table.get ( "item" );
+        Assert.assertEquals ( 0, itemState.getErrorCode () );
+        Assert.assertEquals ( (short)192, itemState.getQuality ().shortValue () );
+        Assert.assertEquals ( 0L, itemState.getTimestamp ().getTimeInMillis () );
+        Assert.assertSame ( itemState, table.get ( "item" ) );
+    }
+
+    @Test
+    public void testChangedSince ()
+    {
+        final LastValueTable table = new LastValueTable ( 16 );
+        for ( int i = 0; i < 50; i++ )
+        {
+            table.put ( "item" + i, state ( i ) );
+        }
+        final long version = table.getVersion ();
+
+        final Map<String, ItemState> batch = new HashMap<String, ItemState> ();
+        batch.put ( "item1", state ( 1001 ) );
+        batch.put ( "item60", state ( 1060 ) );
+        Assert.assertEquals ( version + 1, table.putAll ( batch ) );
+
+        final List<LastValueTable.Entry> changes = table.changedSince ( version );
+        Assert.assertEquals ( 2, changes.size () );
+        for ( final LastValueTable.Entry entry : changes )
+        {
+            Assert.assertEquals ( version + 1, entry.getVersion () );
+            Assert.assertEquals ( batch.get ( entry.getItemId () ), entry.getState () );
+        }
+        Assert.assertTrue ( table.changedSince ( version + 1 ).isEmpty () );
+        Assert.assertEquals ( 51, table.snapshot ().getEntries ().size () );
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da;
+
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.openscada.opc.lib.common.ConnectionInformation;
+
+public class ShardedAccessTest
+{
+    private static final DataCallback CALLBACK = new DataCallback () {
+
+        public void changed ( final Item item, final ItemState itemState )
+        {
+        }
+    };
+
+    private static int sum ( final int[] sizes )
+    {
+        int sum = 0;
+        for ( final int size : sizes )
+        {
+            sum += size;
+        }
+        return sum;
+    }
+
+    @Test
+    public void testRebalance () throws Exception
+    {
+        final Object key = ShardedAccess.getDefaultKey ();
+        final ShardedAccess access = new ShardedAccess ( new Server ( new ConnectionInformation (), null ), 1000, false );
+        access.setMaxItemsPerShard ( 10 );
+
+        for ( int i = 0; i < 25; i++ )
+        {
+            access.addItem ( "item." + i, CALLBACK );
+        }
+        Assert.assertEquals ( 3, access.getShardCount ( key ) );
+        Assert.assertEquals ( 25, sum ( access.getShardSizes ( key ) ) );
+
+        access.addShard ( key );
+        Assert.assertEquals ( 4, access.getShardCount ( key ) );
+        for ( final int size : access.getShardSizes ( key ) )
+        {
+            Assert.assertTrue ( size <= 7 );
+        }
+        Assert.assertEquals ( 25, sum ( access.getShardSizes ( key ) ) );
+
+        // removing every item must find it in the shard it was moved to
+        for ( int i = 0; i < 25; i++ )
+        {
+            access.removeItem ( "item." + i );
+        }
+        Assert.assertEquals ( 0, sum ( access.getShardSizes ( key ) ) );
+    }
+
+    /**
+     * A sharded access whose new shards fail to add moved items once {@link #failMoves} is set
+     */
+    private static class FailingShardedAccess extends ShardedAccess
+    {
+        private boolean failMoves = false;
+
+        public FailingShardedAccess ()
+        {
+            super ( new Server ( new ConnectionInformation (), null ), 1000, false );
+        }
+
+        @Override
+        Shard newShard ( final int updateRate, final String tag, final boolean applyUpdateRate ) throws Exception
+        {
+            if ( !this.failMoves )
+            {
+                return super.newShard ( updateRate, tag, applyUpdateRate );
+            }
+
+            return new Shard ( new Server ( new ConnectionInformation (), null ), updateRate, false, tag, applyUpdateRate ) {
+
+                @Override
+                public synchronized Map<String, Integer> moveItems ( final Map<String, DataCallback> items )
+                {
+                    addItems ( items );
+                    throw new IllegalStateException ( "Failed to add items" );
+                }
+            };
+        }
+    }
+
+    @Test
+    public void testRebalanceFailure () throws Exception
+    {
+        final Object key = ShardedAccess.getDefaultKey ();
+        final FailingShardedAccess access = new FailingShardedAccess ();
+        access.setMaxItemsPerShard ( 10 );
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            access.addItem ( "item." + i, CALLBACK );
+        }
+        Assert.assertEquals ( 2, access.getShardCount ( key ) );
+
+        // the items stay on their old shards if the new shard fails to add them
+        access.failMoves = true;
+        access.addShard ( key );
+        final int[] sizes = access.getShardSizes ( key );
+        Assert.assertEquals ( 3, sizes.length );
+        Assert.assertEquals ( 10, sizes[0] );
+        Assert.assertEquals ( 10, sizes[1] );
+        Assert.assertEquals ( 0, sizes[2] );
+
+        // and are still found there
+        for ( int i = 0; i < 20; i++ )
+        {
+            access.removeItem ( "item." + i );
+        }
+        Assert.assertEquals ( 0, sum ( access.getShardSizes ( key ) ) );
+    }
+
+    @Test
+    public void testRemoveShard () throws Exception
+    {
+        final Object key = ShardedAccess.getDefaultKey ();
+        final ShardedAccess access = new ShardedAccess ( new Server ( new ConnectionInformation (), null ), 1000, false );
+        access.setMaxItemsPerShard ( 10 );
+
+        for ( int i = 0; i < 25; i++ )
+        {
+            access.addItem ( "item." + i, CALLBACK );
+        }
+
+        // the items of the last shard do not fit into the other two
+        Assert.assertTrue ( access.removeShard ( key ) );
+        Assert.assertEquals ( 3, access.getShardCount ( key ) );
+        Assert.assertEquals ( 25, sum ( access.getShardSizes ( key ) ) );
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            access.removeItem ( "item." + i );
+        }
+        Assert.assertEquals ( 5, sum ( access.getShardSizes ( key ) ) );
+
+        Assert.assertTrue ( access.removeShard ( key ) );
+        Assert.assertTrue ( access.removeShard ( key ) );
+        Assert.assertEquals ( 1, access.getShardCount ( key ) );
+        Assert.assertEquals ( 5, sum ( access.getShardSizes ( key ) ) );
+
+        for ( int i = 20; i < 25; i++ )
+        {
+            access.removeItem ( "item." + i );
+        }
+        Assert.assertEquals ( 0, sum ( access.getShardSizes ( key ) ) );
+
+        Assert.assertTrue ( access.removeShard ( key ) );
+        Assert.assertEquals ( 0, access.getShardCount ( key ) );
+        Assert.assertFalse ( access.removeShard ( key ) );
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIVariant;
+import org.junit.Test;
+import org.openscada.opc.dcom.common.KeyedResult;
+import org.openscada.opc.dcom.common.KeyedResultSet;
+import org.openscada.opc.dcom.common.impl.FakeComObject;
+import org.openscada.opc.dcom.da.OPCITEMSTATE;
+import org.openscada.opc.dcom.da.impl.OPCGroupStateMgt;
+import org.openscada.opc.dcom.da.impl.OPCItemMgt;
+import org.openscada.opc.dcom.da.impl.OPCSyncIO;
+import org.openscada.opc.lib.common.ConnectionInformation;
+
+public class VerifiedWriterTest
+{
+    private static final int OPC_S_CLAMP = 0x0004000E;
+
+    private static final int E_ACCESSDENIED = 0x80070005;
+
+    private static class FakeGroupStateMgt extends OPCGroupStateMgt
+    {
+        public FakeGroupStateMgt () throws Exception
+        {
+            super ( FakeComObject.create () );
+        }
+
+        @Override
+        public OPCItemMgt getItemManagement ()
+        {
+            return null;
+        }
+
+        @Override
+        public OPCSyncIO getSyncIO ()
+        {
+            return null;
+        }
+    }
+
+    /**
+     * A group which keeps the written values and reads them back in reverse order
+     */
+    private static class FakeGroup extends Group
+    {
+        private final Map<Item, JIVariant> values = new HashMap<Item, JIVariant> ();
+
+        /**
+         * The write results by item, consumed by the write calls
+         */
+        private final Map<Item, int[]> writeResults = new HashMap<Item, int[]> ();
+
+        /**
+         * Items which always read back a different value
+         */
+        private final Map<Item, JIVariant> overrides = new HashMap<Item, JIVariant> ();
+
+        private int writeCalls = 0;
+
+        private int readCalls = 0;
+
+        public FakeGroup () throws Exception
+        {
+            super ( new Server ( new ConnectionInformation (), null ), 1, new FakeGroupStateMgt () );
+        }
+
+        @Override
+        public synchronized Map<Item, Integer> write ( final WriteRequest... requests ) throws JIException
+        {
+            this.writeCalls++;
+            final Map<Item, Integer> result = new HashMap<Item, Integer> ();
+            for ( final WriteRequest request : requests )
+            {
+                int errorCode = 0;
+                final int[] codes = this.writeResults.get ( request.getItem () );
+                if ( codes != null && codes.length > 0 )
+                {
+                    errorCode = codes[0];
+                    final int[] rest = new int[codes.length - 1];
+                    System.arraycopy ( codes, 1, rest, 0, rest.length );
+                    this.writeResults.put ( request.getItem (), rest );
+                }
+                if ( errorCode >= 0 )
+                {
+                    this.values.put ( request.getItem (), request.getValue () );
+                }
+                result.put ( request.getItem (), errorCode );
+            }
+            return result;
+        }
+
+        @Override
+        public synchronized KeyedResultSet<Item, OPCITEMSTATE> readStates ( final boolean device, final Item... items ) throws JIException
+        {
+            this.readCalls++;
+            final KeyedResultSet<Item, OPCITEMSTATE> result = new KeyedResultSet<Item, OPCITEMSTATE> ();
+            for ( int i = items.length - 1; i >= 0; i-- )
+            {
+                final OPCITEMSTATE state = new OPCITEMSTATE ();
+                state.setQuality ( (short)192 );
+                final JIVariant override = this.overrides.get ( items[i] );
+                state.setValue ( override != null ? override : this.values.get ( items[i] ) );
+                result.add ( new KeyedResult<Item, OPCITEMSTATE> ( items[i], state, 0 ) );
+            }
+            return result;
+        }
+    }
+
+    @Test
+    public void testWrite () throws Exception
+    {
+        final FakeGroup group = new FakeGroup ();
+        final Item[] items = new Item[5];
+        final WriteRequest[] requests = new WriteRequest[items.length];
+        for ( int i = 0; i < items.length; i++ )
+        {
+            items[i] = new Item ( group, i + 1, i + 1, "item" + i );
+            requests[i] = new WriteRequest ( items[i], new JIVariant ( i * 10 ) );
+        }
+        group.writeResults.put ( items[1], new int[] { OPC_S_CLAMP } );
+        group.writeResults.put ( items[2], new int[] { E_ACCESSDENIED } );
+        group.writeResults.put ( items[3], new int[] { E_ACCESSDENIED, E_ACCESSDENIED, E_ACCESSDENIED } );
+        group.overrides.put ( items[4], new JIVariant ( -1 ) );
+
+        final VerifiedWriter writer = new VerifiedWriter ( group );
+        writer.setChunkSize ( 2 );
+        writer.setRetries ( 2 );
+        writer.setRetryDelay ( 0 );
+
+        final VerifiedWriter.Report report = writer.write ( requests );
+        final Map<Item, VerifiedWriter.ItemResult> results = report.getResults ();
+
+        // in the order of the requests
+        Assert.assertEquals ( Arrays.asList ( items ), new ArrayList<Item> ( results.keySet () ) );
+
+        Assert.assertEquals ( VerifiedWriter.Status.VERIFIED, results.get ( items[0] ).getStatus () );
+        Assert.assertEquals ( 1, results.get ( items[0] ).getAttempts () );
+
+        // a success code is decided by the read back
+        Assert.assertEquals ( VerifiedWriter.Status.VERIFIED, results.get ( items[1] ).getStatus () );
+        Assert.assertEquals ( 1, results.get ( items[1] ).getAttempts () );
+
+        Assert.assertEquals ( VerifiedWriter.Status.VERIFIED, results.get ( items[2] ).getStatus () );
+        Assert.assertEquals ( 2, results.get ( items[2] ).getAttempts () );
+
+        Assert.assertEquals ( VerifiedWriter.Status.WRITE_FAILED, results.get ( items[3] ).getStatus () );
+        Assert.assertEquals ( E_ACCESSDENIED, results.get ( items[3] ).getErrorCode () );
+        Assert.assertEquals ( 3, results.get ( items[3] ).getAttempts () );
+
+        Assert.assertEquals ( VerifiedWriter.Status.MISMATCH, results.get ( items[4] ).getStatus () );
+        Assert.assertEquals ( -1, results.get ( items[4] ).getValue ().getObjectAsInt () );
+        Assert.assertEquals ( 3, results.get ( items[4] ).getAttempts () );
+
+        Assert.assertFalse ( report.isSuccess () );
+        Assert.assertEquals ( 2, report.getFailed ().size () );
+
+        // three chunks, then items 2, 3 and 4 in two chunks, then items 3 and 4 in one chunk;
+        // the chunk of items 2 and 3 fails completely on the first attempt and is not read back
+        Assert.assertEquals ( 6, group.writeCalls );
+        Assert.assertEquals ( 5, group.readCalls );
+    }
+
+    @Test
+    public void testCompare ()
+    {
+        Assert.assertEquals ( Boolean.TRUE, VerifiedWriter.compare ( new JIVariant ( 42 ), new JIVariant ( 42 ), 0, 1e-6 ) );
+        Assert.assertEquals ( Boolean.FALSE, VerifiedWriter.compare ( new JIVariant ( 42 ), new JIVariant ( 43 ), 0, 1e-6 ) );
+
+        // a double stored as float by the server
+        Assert.assertEquals ( Boolean.TRUE, VerifiedWriter.compare ( new JIVariant ( 0.1 ), new JIVariant ( 0.1f ), 0, 1e-6 ) );
+        Assert.assertEquals ( Boolean.FALSE, VerifiedWriter.compare ( new JIVariant ( 0.1 ), new JIVariant ( 0.2 ), 0, 1e-6 ) );
+        Assert.assertEquals ( Boolean.TRUE, VerifiedWriter.compare ( new JIVariant ( 10.0 ), new JIVariant ( 10.4 ), 0.5, 0 ) );
+
+        Assert.assertEquals ( Boolean.TRUE, VerifiedWriter.compare ( new JIVariant ( "on" ), new JIVariant ( "on" ), 0, 0 ) );
+        Assert.assertEquals ( Boolean.FALSE, VerifiedWriter.compare ( new JIVariant ( "on" ), new JIVariant ( "off" ), 0, 0 ) );
+        Assert.assertNull ( VerifiedWriter.compare ( new JIVariant ( 1 ), new JIVariant ( "1" ), 0, 0 ) );
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da.browser;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class AddressSpaceIndexTest
+{
+    private AddressSpaceIndex createIndex ()
+    {
+        final List<IndexEntry> entries = new LinkedList<IndexEntry> ();
+        entries.add ( new IndexEntry ( "Plant.Line2.Speed", "Plant\u0001Line2", (short)5, 3 ) );
+        entries.add ( new IndexEntry ( "Plant.Line1.Speed", "Plant\u0001Line1", "Speed", (short)5, 3 ) );
+        entries.add ( new IndexEntry ( "Plant.Line1.Temp", "Plant\u0001Line1", "Temp", (short)4, 1 ) );
+        entries.add ( new IndexEntry ( "Plant.Line10.Speed", "Plant\u0001Line10", (short)5, 3 ) );
+        entries.add ( new IndexEntry ( "Pumpä.Run", "", (short)11, 3 ) );
+
+        final Map<String, Integer> childCounts = new HashMap<String, Integer> ();
+        childCounts.put ( "", 2 );
+        childCounts.put ( "Plant\u0001Line1", 2 );
+        return AddressSpaceIndex.create ( entries, childCounts );
+    }
+
+    @Test
+    public void testLookup ()
+    {
+        final AddressSpaceIndex index = createIndex ();
+
+        Assert.assertEquals ( 5, index.size () );
+        Assert.assertEquals ( "Plant.Line1.Speed", index.getItemId ( 0 ) );
+
+        final IndexEntry entry = index.find ( "Plant.Line1.Temp" );
+        Assert.assertNotNull ( entry );
+        Assert.assertEquals ( 4, entry.getDataType () );
+        Assert.assertEquals ( 1, entry.getAccessRights () );
+        Assert.assertEquals ( "Plant\u0001Line1", entry.getBranch () );
+        Assert.assertNull ( index.find ( "Plant.Line1" ) );
+
+        Assert.assertEquals ( 3, index.findPrefix ( "Plant.Line1" ).size () );
+        Assert.assertEquals ( 2, index.findWildcard ( "Plant.Line1*.Speed" ).size () );
+        Assert.assertEquals ( 1, index.findWildcard ( "Plant.Line#.Temp" ).size () );
+        Assert.assertEquals ( 1, index.findWildcard ( "Pump?.Run" ).size () );
+        Assert.assertEquals ( 3, index.findRegex ( Pattern.compile ( ".*Speed" ) ).size () );
+
+        Assert.assertEquals ( 2, index.getChildCount ( "Plant\u0001Line1" ) );
+        Assert.assertEquals ( -1, index.getChildCount ( "Plant\u0001Line2" ) );
+        Assert.assertEquals ( 2, index.getEntries ( "Plant\u0001Line1" ).size () );
+        Assert.assertEquals ( 1, index.getEntries ( "Plant\u0001Line2" ).size () );
+        Assert.assertEquals ( 0, index.getEntries ( "Plant" ).size () );
+        Assert.assertEquals ( "Temp", index.getEntries ( "Plant\u0001Line1" ).get ( 1 ).getName () );
+        Assert.assertEquals ( "Plant.Line2.Speed", index.getEntries ( "Plant\u0001Line2" ).get ( 0 ).getName () );
+    }
+
+    @Test
+    public void testPersistence () throws Exception
+    {
+        final File file = File.createTempFile ( "index", ".idx" );
+        try
+        {
+            createIndex ().write ( file );
+
+            final AddressSpaceIndex index = AddressSpaceIndex.open ( file );
+            Assert.assertEquals ( 5, index.size () );
+            Assert.assertNotNull ( index.find ( "Pumpä.Run" ) );
+            Assert.assertEquals ( 2, index.getChildCount ( "" ) );
+            Assert.assertEquals ( "Speed", index.find ( "Plant.Line1.Speed" ).getName () );
+        }
+        finally
+        {
+            file.delete ();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * This file is part of the OpenSCADA project
+ * Copyright (C) 2006-2010 TH4 SYSTEMS GmbH (http://th4-systems.com)
+ *
+ * OpenSCADA is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License version 3
+ * only, as published by the Free Software Foundation.
+ *
+ * OpenSCADA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License version 3 for more details
+ * (a copy is included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with OpenSCADA. If not, see
+ * <http://opensource.org/licenses/lgpl-3.0.html> for a copy of the LGPLv3 License.
+ */
+
+package org.openscada.opc.lib.da.journal;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.Assert;
+
+import org.jinterop.dcom.core.JIVariant;
+import org.junit.Test;
+import org.openscada.opc.lib.da.CompactItemState;
+
+public class DataJournalTest
+{
+    private static File createDirectory () throws IOException
+    {
+        final File dir = File.createTempFile ( "journal", "" );
+        dir.delete ();
+        dir.mkdirs ();
+        return dir;
+    }
+
+    private static void delete ( final File dir )
+    {
+        for ( final File file : dir.listFiles () )
+        {
+            file.delete ();
+        }
+        dir.delete ();
+    }
+
+    @Test
+    public void testAppendAndReplay () throws Exception
+    {
+        final File dir = createDirectory ();
+        try
+        {
+            DataJournal journal = new DataJournal ( dir, 128 * 1024 );
+            final CompactItemState state = new CompactItemState ();
+            for ( int i = 0; i < 10000; i++ )
+            {
+                state.set ( 0, (short)192, 1000L + i, new JIVariant ( i ) );
+                journal.append ( "item" + i % 10, state );
+            }
+            state.set ( 0, (short)0, 20000L, new JIVariant ( "text" ) );
+            journal.append ( "string", state );
+            Assert.assertTrue ( journal.getSegments ().size () > 1 );
+
+            JournalCursor cursor = new JournalCursor ( journal, "consumer" );
+            for ( int i = 0; i < 5000; i++ )
+            {
+                Assert.assertTrue ( cursor.next () );
+                Assert.assertEquals ( "item" + i % 10, cursor.getItemId () );
+                Assert.assertEquals ( 1000L + i, cursor.getFileTime () );
+                Assert.assertEquals ( DataJournal.TYPE_LONG, cursor.getType () );
+                Assert.assertEquals ( i, cursor.getLong () );
+            }
+            cursor.commit ();
+            journal.close ();
+
+            // reopen and continue from the stored position
+            journal = new DataJournal ( dir, 128 * 1024 );
+            cursor = new JournalCursor ( journal, "consumer" );
+            for ( int i = 5000; i < 10000; i++ )
+            {
+                Assert.assertTrue ( cursor.next () );
+                Assert.assertEquals ( "item" + i % 10, cursor.getItemId () );
+                Assert.assertEquals ( i, cursor.getLong () );
+            }
+            Assert.assertTrue ( cursor.next () );
+            Assert.assertEquals ( "text", cursor.getString () );
+            Assert.assertFalse ( cursor.next () );
+
+            // append after recovery
+            state.set ( 0, (short)192, 30000L, new JIVariant ( 1.5 ) );
+            journal.append ( "item0", state );
+            Assert.assertTrue ( cursor.next () );
+            Assert.assertEquals ( "item0", cursor.getItemId () );
+            Assert.assertEquals ( 1.5, cursor.getDouble () );
+            journal.close ();
+        }
+        finally
+        {
+            delete ( dir );
+        }
+    }
+
+    @Test
+    public void testHashCollision () throws Exception
+    {
+        final File dir = createDirectory ();
+        try
+        {
+            // both ids have the same hash code
+            Assert.assertEquals ( "Aa".hashCode (), "BB".hashCode () );
+
+            DataJournal journal = new DataJournal ( dir, 128 * 1024 );
+            final CompactItemState state = new CompactItemState ();
+            state.set ( 0, (short)192, 1000L, new JIVariant ( 1 ) );
+            journal.append ( "Aa", state );
+            state.set ( 0, (short)192, 1001L, new JIVariant ( 2 ) );
+            journal.append ( "BB", state );
+            journal.close ();
+
+            // the item indexes must survive the recovery
+            journal = new DataJournal ( dir, 128 * 1024 );
+            state.set ( 0, (short)192, 1002L, new JIVariant ( 3 ) );
+            journal.append ( "BB", state );
+            state.set ( 0, (short)192, 1003L, new JIVariant ( 4 ) );
+            journal.append ( "Aa", state );
+
+            final JournalCursor cursor = new JournalCursor ( journal, journal.getStartOffset () );
+            final String[] expected = new String[] { "Aa", "BB", "BB", "Aa" };
+            for ( int i = 0; i < expected.length; i++ )
+            {
+                Assert.assertTrue ( cursor.next () );
+                Assert.assertEquals ( expected[i], cursor.getItemId () );
+                Assert.assertEquals ( i + 1, cursor.getLong () );
+            }
+            Assert.assertFalse ( cursor.next () );
+            journal.close ();
+        }
+        finally
+        {
+            delete ( dir );
+        }
+    }
+
+    @Test
+    public void testRetention () throws Exception
+    {
+        final File dir = createDirectory ();
+        try
+        {
+            final DataJournal journal = new DataJournal ( dir, 128 * 1024 );
+            journal.setRetention ( 2, 0 );
+
+            final JournalCursor cursor = new JournalCursor ( journal, journal.getStartOffset () );
+            final CompactItemState state = new CompactItemState ();
+            for ( int i = 0; i < 50000; i++ )
+            {
+                state.set ( 0, (short)192, i, new JIVariant ( i ) );
+                journal.append ( "item", state );
+            }
+            Assert.assertEquals ( 2, journal.getSegments ().size () );
+
+            Assert.assertTrue ( cursor.next () );
+            Assert.assertTrue ( cursor.getLostBytes () > 0 );
+            Assert.assertEquals ( "item", cursor.getItemId () );
+            long last = cursor.getLong ();
+            while ( cursor.next () )
+            {
+                Assert.assertEquals ( last + 1, cursor.getLong () );
+                last = cursor.getLong ();
+            }
+            Assert.assertEquals ( 49999L, last );
+            journal.close ();
+        }
+        finally
+        {
+            delete ( dir );
+        }
+    }
+}